@@ -0,0 +1,453 @@
+package com.EventBus;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Publish throughput and publish-to-callback latency of SyncEventBus and AsyncEventBus (executor lanes, broadcast ring and subscription mailboxes).
+ * <p>Scenarios: plain publish, reentrant publish (each callback publishes an Echo event to one more subscriber), cascades (each callback starts an Order, Trade, Position, Order ... chain of CASCADE_DEPTH reentrant publications), journaled publish (an EventJournal in a temporary directory records every event), filtered delivery (every other event filtered out), cached-event mode (all subscribers cache, nothing is delivered), blocking callbacks (each parks 50us, as a small I/O would) and CPU bound callbacks (~10us of hashing each), at 1 / 10 / 1000 subscribers per event type, and for the async buses with 1 to the core count of workers. The blocking and CPU bound rounds are 100 times shorter.
+ * <p>A round publishes the events as fast as possible and ends when all their deliveries are done. After the warm up rounds, ops/s is the best timed round (publications and callbacks per second), and the latency percentiles (micro seconds from publishEvent() to the callback) are over all timed rounds, as seen by the first subscriber.
+ * <p>Run: {@code bench/run-benchmarks.sh [-quick] [name filter]}, e.g. {@code bench/run-benchmarks.sh async-ring}
+ */
+public class EventBusBenchmark {
+   static final int[] SUBSCRIBERS = {1, 10, 1000};
+   static final long TIMEOUT_NANOS = 60_000_000_000L;
+
+   static long deliveriesPerRound = 1_000_000;
+   static int warmUpRounds = 2;
+   static int timedRounds = 3;
+
+   static final long BLOCKING_NANOS = 50_000;
+   static final int SELECTIVITY = 64; // SELECTIVE scenarios: each subscriber takes 1 tick in 64
+   static final FilterAttribute<Tick, Integer> BUCKET = FilterAttribute.of("bucket", (Tick t) -> t.seq % SELECTIVITY);
+   static final int CPU_ROUNDS = 2_000;
+   static final int CASCADE_DEPTH = 30; // CASCADE: 10 Order -> Trade -> Position rounds per callback
+
+   enum Scenario {
+      PUBLISH, REENTRANT, CASCADE, JOURNALED, FILTERED, SELECTIVE, SELECTIVE_INDEXED, CACHED, BLOCKING, CPU_BOUND;
+
+      //Deliveries of a round, relative to the plain scenarios
+      long deliveries() {
+         if (this == CASCADE) {
+            return deliveriesPerRound / (CASCADE_DEPTH + 1);
+         }
+         return (this == BLOCKING || this == CPU_BOUND) ? deliveriesPerRound / 100 : deliveriesPerRound;
+      }
+   }
+
+   enum BusKind { SYNC, SYNC_PARALLEL, ASYNC_LANES, ASYNC_RING, ASYNC_MAILBOXES }
+
+   static final int PARALLEL_THRESHOLD = 8; // SYNC_PARALLEL: fan-out on a ForkJoinPool of the worker count from 8 subscribers
+
+   public static void main(String args[]) throws Exception {
+      String filter = "";
+      for (String arg : args) {
+         if (arg.equals("-quick")) {
+            deliveriesPerRound = 100_000;
+            warmUpRounds = 1;
+            timedRounds = 1;
+         } else {
+            filter = arg;
+         }
+      }
+      System.out.printf("%-24s %7s %5s %14s %14s %9s %9s %9s %9s%n",
+              "case", "workers", "subs", "publish ops/s", "callbacks/s", "p50 us", "p99 us", "p99.9 us", "max us");
+      for (Scenario scenario : Scenario.values()) {
+         for (BusKind busKind : BusKind.values()) {
+            if ((busKind == BusKind.SYNC || busKind == BusKind.SYNC_PARALLEL) && (scenario == Scenario.FILTERED || scenario == Scenario.SELECTIVE
+                    || scenario == Scenario.SELECTIVE_INDEXED || scenario == Scenario.CACHED)) {
+               continue; // Filtering & caching are AsyncEventBus services
+            }
+            String name = busKind.name().toLowerCase().replace('_', '-') + "/" + scenario.name().toLowerCase().replace('_', '-');
+            if (!name.contains(filter)) continue;
+            for (int subscribers : SUBSCRIBERS) {
+               for (int workers : workerCounts(busKind)) {
+                  runCase(name, scenario, busKind, subscribers, workers);
+               }
+            }
+         }
+      }
+   }
+
+   //1, 2, 4 .. up to the core count (and the core count itself)
+   static List<Integer> workerCounts(BusKind busKind) {
+      List<Integer> counts = new ArrayList<>();
+      if (busKind == BusKind.SYNC || busKind == BusKind.ASYNC_MAILBOXES) { // A mailbox per Subscription, no worker count
+         counts.add(1);
+         return counts;
+      }
+      int cores = Runtime.getRuntime().availableProcessors();
+      for (int workers = 1; workers < cores; workers <<= 1) {
+         counts.add(workers);
+      }
+      counts.add(cores);
+      return counts;
+   }
+
+   static void runCase(String name, Scenario scenario, BusKind busKind, int subscribers, int workers) throws InterruptedException, IOException {
+      int events = (int) Math.max(scenario.deliveries() < deliveriesPerRound ? 100 : 1_000, scenario.deliveries() / subscribers);
+      EventBus bus = newBus(busKind, name, workers);
+      Probe probe = new Probe(events);
+      for (int i = 0; i < subscribers; i++) {
+         BenchSubscriber subscriber = newSubscriber(scenario, probe, i == 0, bus);
+         bus.addSubscriber(subscriber);
+         if (scenario == Scenario.FILTERED) {
+            ((AsyncEventBus) bus).setEventFilter(subscriber, Tick.class, (Tick t) -> (t.seq & 1) == 0);
+         } else if (scenario == Scenario.SELECTIVE) { // The same selection, as an opaque Predicate and as an indexed EventFilter
+            int bucket = i % SELECTIVITY;
+            ((AsyncEventBus) bus).setEventFilter(subscriber, Tick.class, (Tick t) -> t.seq % SELECTIVITY == bucket);
+         } else if (scenario == Scenario.SELECTIVE_INDEXED) {
+            ((AsyncEventBus) bus).setEventFilter(subscriber, Tick.class, EventFilter.where(BUCKET).equalTo(i % SELECTIVITY));
+         } else if (scenario == Scenario.CACHED) {
+            ((AsyncEventBus) bus).setCacheLastEvent(subscriber, Tick.class, true);
+         }
+      }
+      if (scenario == Scenario.REENTRANT) {
+         bus.addSubscriber(new EchoSubscriber(probe));
+      } else if (scenario == Scenario.CASCADE) {
+         bus.addSubscriber(new CascadeStage(probe, bus));
+      }
+      EventJournal journal = null;
+      Path journalDirectory = null;
+      if (scenario == Scenario.JOURNALED) {
+         journalDirectory = Files.createTempDirectory("bench-journal");
+         journal = new EventJournal(journalDirectory, new TickSerializer());
+         if (bus instanceof AsyncEventBus) {
+            ((AsyncEventBus) bus).setJournal(journal);
+         } else {
+            ((SyncEventBus) bus).setJournal(journal);
+         }
+      }
+      long expected = expectedCallbacks(scenario, events, subscribers);
+
+      long bestNanos = Long.MAX_VALUE;
+      long[] latencies = new long[timedRounds * events];
+      int samples = 0;
+      boolean timedOut = false;
+      for (int round = 0; round < warmUpRounds + timedRounds && !timedOut; round++) {
+         probe.reset();
+         long start = System.nanoTime();
+         for (int seq = 0; seq < events; seq++) {
+            bus.publishEvent(new Tick(seq, System.nanoTime()));
+         }
+         timedOut = !probe.await(expected, start + TIMEOUT_NANOS);
+         long elapsed = System.nanoTime() - start;
+         if (round >= warmUpRounds) {
+            bestNanos = Math.min(bestNanos, elapsed);
+            System.arraycopy(probe.latencies, 0, latencies, samples, probe.samples);
+            samples += probe.samples;
+         }
+      }
+      if (bus instanceof AsyncEventBus) {
+         ((AsyncEventBus) bus).shutdownTheBus();
+      }
+      if (fanOutPool != null) {
+         fanOutPool.shutdown();
+         fanOutPool = null;
+      }
+      if (journal != null) {
+         journal.close();
+         for (Path segment : EventJournal.listSegments(journalDirectory)) {
+            Files.delete(segment);
+         }
+         Files.delete(journalDirectory);
+      }
+      if (timedOut) {
+         System.out.printf("%-24s %7d %5d  timed out after %d of %d callbacks%n", name, workers, subscribers, probe.delivered.sum(), expected);
+         return;
+      }
+      double seconds = bestNanos / 1e9;
+      long[] sorted = Arrays.copyOf(latencies, samples);
+      Arrays.sort(sorted);
+      System.out.printf("%-24s %7d %5d %14.0f %14.0f %9s %9s %9s %9s%n", name, workers, subscribers,
+              events / seconds, expected / seconds,
+              percentile(sorted, 0.50), percentile(sorted, 0.99), percentile(sorted, 0.999), percentile(sorted, 1.0));
+   }
+
+   static BenchSubscriber newSubscriber(Scenario scenario, Probe probe, boolean recording, EventBus bus) {
+      switch (scenario) {
+         case REENTRANT:
+            return new ReentrantSubscriber(probe, recording, bus);
+         case CASCADE:
+            return new CascadeSubscriber(probe, recording, bus);
+         case BLOCKING:
+            return new BlockingSubscriber(probe, recording);
+         case CPU_BOUND:
+            return new CpuBoundSubscriber(probe, recording);
+         default:
+            return new BenchSubscriber(probe, recording);
+      }
+   }
+
+   static ForkJoinPool fanOutPool; // Of the SYNC_PARALLEL case running
+
+   static EventBus newBus(BusKind busKind, String name, int workers) {
+      switch (busKind) {
+         case SYNC:
+            return new SyncEventBus(false);
+         case SYNC_PARALLEL:
+            SyncEventBus parallel = new SyncEventBus(false);
+            fanOutPool = new ForkJoinPool(workers);
+            parallel.setParallelFanOut(PARALLEL_THRESHOLD, fanOutPool);
+            return parallel;
+         case ASYNC_RING:
+            return new AsyncEventBus(name, workers, false, AsyncEventBus.DeliveryMode.BROADCAST_RING);
+         case ASYNC_MAILBOXES:
+            return new AsyncEventBus(name, workers, false, AsyncEventBus.DeliveryMode.SUBSCRIPTION_MAILBOXES);
+         default:
+            return new AsyncEventBus(name, workers, false);
+      }
+   }
+
+   static long expectedCallbacks(Scenario scenario, int events, int subscribers) {
+      switch (scenario) {
+         case REENTRANT:
+            return 2L * events * subscribers; // Tick + Echo
+         case CASCADE:
+            return (CASCADE_DEPTH + 1L) * events * subscribers;
+         case FILTERED:
+            return (long) ((events + 1) / 2) * subscribers;
+         case SELECTIVE:
+         case SELECTIVE_INDEXED:
+            long selected = 0;
+            for (int i = 0; i < subscribers; i++) {
+               int bucket = i % SELECTIVITY;
+               selected += bucket < events ? (events - bucket + SELECTIVITY - 1) / SELECTIVITY : 0;
+            }
+            return selected;
+         case CACHED:
+            return 0;
+         default:
+            return (long) events * subscribers;
+      }
+   }
+
+   static String percentile(long[] sorted, double p) {
+      if (sorted.length == 0) {
+         return "-";
+      }
+      int i = (int) Math.min(sorted.length - 1, Math.ceil(p * sorted.length) - 1);
+      return String.format("%.1f", sorted[Math.max(0, i)] / 1e3);
+   }
+
+   public static final class Tick {
+      final int seq;
+      final long publishNanos;
+
+      Tick(int seq, long publishNanos) {
+         this.seq = seq;
+         this.publishNanos = publishNanos;
+      }
+   }
+
+   public static final class Echo {
+      final Tick tick;
+
+      Echo(Tick tick) {
+         this.tick = tick;
+      }
+   }
+
+   public static final class Order {
+      final int level;
+
+      Order(int level) {
+         this.level = level;
+      }
+   }
+
+   public static final class Trade {
+      final int level;
+
+      Trade(int level) {
+         this.level = level;
+      }
+   }
+
+   public static final class Position {
+      final int level;
+
+      Position(int level) {
+         this.level = level;
+      }
+   }
+
+   //Twelve bytes per Tick
+   static final class TickSerializer implements EventSerializer {
+      @Override
+      public void write(Object event, ByteBuffer buffer) {
+         Tick tick = (Tick) event;
+         buffer.putInt(tick.seq).putLong(tick.publishNanos);
+      }
+
+      @Override
+      public Object read(ByteBuffer buffer) {
+         return new Tick(buffer.getInt(), buffer.getLong());
+      }
+   }
+
+   //Counts the callbacks of all subscribers, and the latencies seen by the first one
+   static final class Probe {
+      final LongAdder delivered = new LongAdder();
+      final long[] latencies;
+      int samples; // Written by the first subscriber's (single) delivery thread
+
+      Probe(int events) {
+         this.latencies = new long[events];
+      }
+
+      void reset() {
+         delivered.reset();
+         samples = 0;
+      }
+
+      void record(Tick tick) {
+         latencies[samples++] = System.nanoTime() - tick.publishNanos;
+      }
+
+      boolean await(long expected, long deadline) {
+         while (delivered.sum() < expected) {
+            if (System.nanoTime() > deadline) {
+               return false;
+            }
+            Thread.yield();
+         }
+         return true;
+      }
+   }
+
+   public static class BenchSubscriber {
+      final Probe probe;
+      final boolean recording;
+
+      BenchSubscriber(Probe probe, boolean recording) {
+         this.probe = probe;
+         this.recording = recording;
+      }
+
+      @Subscribe
+      public void onTick(Tick tick) {
+         if (recording) {
+            probe.record(tick);
+         }
+         probe.delivered.increment();
+      }
+   }
+
+   public static class ReentrantSubscriber extends BenchSubscriber {
+      final EventBus bus;
+
+      ReentrantSubscriber(Probe probe, boolean recording, EventBus bus) {
+         super(probe, recording);
+         this.bus = bus;
+      }
+
+      @Subscribe
+      @Override
+      public void onTick(Tick tick) {
+         super.onTick(tick);
+         bus.publishEvent(new Echo(tick));
+      }
+   }
+
+   public static class CascadeSubscriber extends BenchSubscriber {
+      final EventBus bus;
+
+      CascadeSubscriber(Probe probe, boolean recording, EventBus bus) {
+         super(probe, recording);
+         this.bus = bus;
+      }
+
+      @Subscribe
+      @Override
+      public void onTick(Tick tick) {
+         super.onTick(tick);
+         bus.publishEvent(new Order(1));
+      }
+   }
+
+   //Each Order fills a Trade, each Trade moves a Position, each Position places the next Order, down to CASCADE_DEPTH
+   public static class CascadeStage {
+      final Probe probe;
+      final EventBus bus;
+
+      CascadeStage(Probe probe, EventBus bus) {
+         this.probe = probe;
+         this.bus = bus;
+      }
+
+      @Subscribe
+      public void onOrder(Order order) {
+         probe.delivered.increment();
+         bus.publishEvent(new Trade(order.level + 1));
+      }
+
+      @Subscribe
+      public void onTrade(Trade trade) {
+         probe.delivered.increment();
+         bus.publishEvent(new Position(trade.level + 1));
+      }
+
+      @Subscribe
+      public void onPosition(Position position) {
+         probe.delivered.increment();
+         if (position.level < CASCADE_DEPTH) {
+            bus.publishEvent(new Order(position.level + 1));
+         }
+      }
+   }
+
+   //Stands for a callback doing a small blocking I/O
+   public static class BlockingSubscriber extends BenchSubscriber {
+      BlockingSubscriber(Probe probe, boolean recording) {
+         super(probe, recording);
+      }
+
+      @Subscribe
+      @Override
+      public void onTick(Tick tick) {
+         LockSupport.parkNanos(BLOCKING_NANOS);
+         super.onTick(tick);
+      }
+   }
+
+   public static class CpuBoundSubscriber extends BenchSubscriber {
+      int sink;
+
+      CpuBoundSubscriber(Probe probe, boolean recording) {
+         super(probe, recording);
+      }
+
+      @Subscribe
+      @Override
+      public void onTick(Tick tick) {
+         int hash = tick.seq;
+         for (int i = 0; i < CPU_ROUNDS; i++) {
+            hash = hash * 31 + (hash >>> 7) + i;
+         }
+         sink += hash;
+         super.onTick(tick);
+      }
+   }
+
+   public static class EchoSubscriber {
+      final Probe probe;
+
+      EchoSubscriber(Probe probe) {
+         this.probe = probe;
+      }
+
+      @Subscribe
+      public void onEcho(Echo echo) {
+         probe.delivered.increment();
+      }
+   }
+}
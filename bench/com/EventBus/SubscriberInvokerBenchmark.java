@@ -0,0 +1,51 @@
+package com.EventBus;
+
+import java.lang.reflect.Method;
+
+/**
+ * Per callback cost of the SubscriberInvoker forms against the former {@code Method.invoke()} dispatch.
+ * <p>Each invoker calls the same subscriber method, the result is the best nano seconds per callback over a few timed rounds (after warm up).
+ * <p>Run: {@code java -cp out/production/EventBusProject:out/bench/EventBusProject com.EventBus.SubscriberInvokerBenchmark}
+ */
+public class SubscriberInvokerBenchmark {
+   static final int CALLS = 5_000_000;
+   static final int ROUNDS = 5;
+
+   long count;
+
+   @Subscribe
+   public void onEvent(Integer event) {
+      count += event;
+   }
+
+   public static void main(String args[]) throws Throwable {
+      SubscriberInvokerBenchmark subscriber = new SubscriberInvokerBenchmark();
+      Method method = SubscriberInvokerBenchmark.class.getMethod("onEvent", Integer.class);
+      Integer event = 7;
+
+      SubscriberInvoker reflective = SubscriberInvokers.reflective(method);
+      SubscriberInvoker compiled = SubscriberInvokers.of(method);
+
+      double reflectiveNs = measure(reflective, subscriber, event);
+      double compiledNs = measure(compiled, subscriber, event);
+
+      System.out.printf("Method.invoke        : %6.2f ns/callback%n", reflectiveNs);
+      System.out.printf("SubscriberInvoker    : %6.2f ns/callback (%s)%n", compiledNs, compiled.getClass().getSimpleName());
+      System.out.printf("Gain                 : %6.2fx   (checksum %d)%n", reflectiveNs / compiledNs, subscriber.count);
+   }
+
+   static double measure(SubscriberInvoker invoker, Object subscriber, Object event) throws Throwable {
+      for (int i = 0; i < CALLS; i++) {   // Warm up
+         invoker.invoke(subscriber, event);
+      }
+      long best = Long.MAX_VALUE;
+      for (int r = 0; r < ROUNDS; r++) {
+         long start = System.nanoTime();
+         for (int i = 0; i < CALLS; i++) {
+            invoker.invoke(subscriber, event);
+         }
+         best = Math.min(best, System.nanoTime() - start);
+      }
+      return (double) best / CALLS;
+   }
+}
@@ -0,0 +1,11 @@
+REM Builds the EventBus and the benchmarks with plain javac (no build tool, no network) and runs EventBusBenchmark.
+REM Usage: bench\run-benchmarks.bat [-quick] [name filter]
+
+set BASEDIR=%~dp0..
+set SRC_OUT=%BASEDIR%\out\production\EventBusProject
+set BENCH_OUT=%BASEDIR%\out\bench\EventBusProject
+
+javac -nowarn -d %SRC_OUT% %BASEDIR%\src\com\EventBus\*.java || exit /b 1
+javac -nowarn -d %BENCH_OUT% -cp %SRC_OUT% %BASEDIR%\bench\com\EventBus\*.java || exit /b 1
+
+java %JAVA_OPTS% -cp %SRC_OUT%;%BENCH_OUT% com.EventBus.EventBusBenchmark %*
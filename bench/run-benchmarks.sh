@@ -0,0 +1,14 @@
+#!/bin/sh
+# Builds the EventBus and the benchmarks with plain javac (no build tool, no network) and runs EventBusBenchmark.
+# Usage: bench/run-benchmarks.sh [-quick] [name filter]     e.g. bench/run-benchmarks.sh -quick async-lanes/publish
+# JVM options can be passed in JAVA_OPTS, e.g. JAVA_OPTS="-Xmx2g -XX:+UseParallelGC"
+
+BASEDIR=$(cd "$(dirname "$0")/.." && pwd)
+SRC_OUT=$BASEDIR/out/production/EventBusProject
+BENCH_OUT=$BASEDIR/out/bench/EventBusProject
+
+mkdir -p "$SRC_OUT" "$BENCH_OUT"
+javac -nowarn -d "$SRC_OUT" "$BASEDIR"/src/com/EventBus/*.java || exit 1
+javac -nowarn -d "$BENCH_OUT" -cp "$SRC_OUT" "$BASEDIR"/bench/com/EventBus/*.java || exit 1
+
+java $JAVA_OPTS -cp "$SRC_OUT:$BENCH_OUT" com.EventBus.EventBusBenchmark "$@"
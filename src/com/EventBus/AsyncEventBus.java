@@ -1,5 +1,11 @@
 package com.EventBus;
 
+import javax.management.ObjectName;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -14,16 +20,57 @@ import java.util.logging.Logger;
  * <p>The  AsyncEventBus relies  on AsyncEventHandler for event delivery and reuses SubscriberHandler and ExceptionHandler for other core functions.
  * Note: As an AsyncEventBus is just a forwarder class, so it can as well hold a SyncEventHandler instead to perform single threaded functions. (not tested)
  *
- * <p>Please refer to AsyncEventHandler for more details.
+ * <p>Each bus registers an AsyncEventBusMXBean with the platform MBean server (lane depths, rates and utilization, subscriber counts), unregistered by shutdownTheBus().
+ *
+ * <p>An EventJournal can be attached to record every published event in memory mapped files, and to replay a range of them to chosen subscribers (see EventJournal).
+ *
+ * <p>Please refer to AsyncEventHandler for more details. An alternative delivery engine (a broadcast ring, one write per event for all subscribers) can be chosen with DeliveryMode, see BroadcastRingEventHandler.
  * @author Mustaq
  */
 public class AsyncEventBus   implements EventBus, FilteringService{
    private static final int SINGLE_THREAD_POOL_COUNT = 10;
+
+   /**
+    * Event delivery engine of the bus, chosen at construction.
+    */
+   public enum DeliveryMode {
+      /** Hash-partitioned-thread-pool: one queued task per subscriber per event (default) */
+      LANE_EXECUTORS {
+         AsyncSynEventHandler createEventHandler(SubscriberHandler subscriptionHandler, String busId, int threadCount) {
+            return new AsyncSynEventHandler(subscriptionHandler, threadCount);
+         }
+      },
+      /** Each event written once into a preallocated ring, read by every lane (see BroadcastRingEventHandler) */
+      BROADCAST_RING {
+         AsyncSynEventHandler createEventHandler(SubscriberHandler subscriptionHandler, String busId, int threadCount) {
+            return new BroadcastRingEventHandler(subscriptionHandler, busId, threadCount, BroadcastRingEventHandler.DEFAULT_RING_SIZE);
+         }
+      },
+      /** Each Subscription has its own ordered mailbox, drained by a virtual thread where the JVM has them, so a blocking callback holds up only its own Subscription (see MailboxEventHandler). The thread count is not used */
+      SUBSCRIPTION_MAILBOXES {
+         AsyncSynEventHandler createEventHandler(SubscriberHandler subscriptionHandler, String busId, int threadCount) {
+            return new MailboxEventHandler(subscriptionHandler, busId);
+         }
+      };
+
+      abstract AsyncSynEventHandler createEventHandler(SubscriberHandler subscriptionHandler, String busId, int threadCount);
+
+      /**
+       * True if this JVM has virtual threads (Java 21+) for the SUBSCRIPTION_MAILBOXES engine; without them its
+       * mailboxes are drained by platform threads.
+       */
+      public static boolean isVirtualThreadSupported() {
+         return MailboxEventHandler.VIRTUAL_THREADS;
+      }
+   }
    private final String busId;
    private final SubscriberHandler subscriptionHandler;
    private final AsyncSynEventHandler eventHandler; //For AsyncMode
    private final boolean reThrow;
+   private final LaneRebalancer laneRebalancer;
+   private final ObjectName mbeanName; // null if JMX registration failed
    EventBusExceptionHandler exceptionHandler;
+   private volatile EventJournal journal; // null = not journaled
    static final Logger logger = Logger.getLogger(AsyncEventBus.class.getName());
    //private final SynEventHandler syncEventHandler;  //If needed, AsyncBus can be configured in SyncMode!
 
@@ -46,11 +93,34 @@ public class AsyncEventBus   implements EventBus, FilteringService{
       this("AsyncEventBus", threadCount,reThrow);
    }
    public AsyncEventBus(String id, int threadCount, boolean reThrow) {
+      this(id, threadCount, reThrow, DeliveryMode.LANE_EXECUTORS);
+   }
+   public AsyncEventBus(String id, int threadCount, boolean reThrow, DeliveryMode deliveryMode) {
+      this(id, reThrow, new SubscriberHandler(), deliveryMode, threadCount);
+   }
+   /**
+    * A bus with bounded lanes: each lane holds at most laneCapacity undelivered events, and the backpressure policy
+    * applies when a lane is full (it can be overridden per subscription, see setBackpressurePolicy).
+    */
+   public AsyncEventBus(String id, int threadCount, boolean reThrow, int laneCapacity, BackpressurePolicy backpressure) {
+      this(id, reThrow, new SubscriberHandler(), threadCount, laneCapacity, backpressure);
+   }
+
+   private AsyncEventBus(String id, boolean reThrow, SubscriberHandler subscriptionHandler, DeliveryMode deliveryMode, int threadCount) {
+      this(id, reThrow, subscriptionHandler, deliveryMode.createEventHandler(subscriptionHandler, id, threadCount));
+   }
+   private AsyncEventBus(String id, boolean reThrow, SubscriberHandler subscriptionHandler,
+                         int threadCount, int laneCapacity, BackpressurePolicy backpressure) {
+      this(id, reThrow, subscriptionHandler, new AsyncSynEventHandler(subscriptionHandler, threadCount, laneCapacity, backpressure));
+   }
+   private AsyncEventBus(String id, boolean reThrow, SubscriberHandler subscriptionHandler, AsyncSynEventHandler eventHandler) {
       this.busId = id;
-      this.subscriptionHandler = new SubscriberHandler();;
-      this.eventHandler = new AsyncSynEventHandler(subscriptionHandler, threadCount);
+      this.subscriptionHandler = subscriptionHandler;
+      this.eventHandler = eventHandler;
       this.reThrow = reThrow;
       this.exceptionHandler =  new EventBusExceptionHandler(busId, logger, reThrow );
+      this.laneRebalancer = new LaneRebalancer(busId, subscriptionHandler, eventHandler);
+      this.mbeanName = AsyncEventBusMonitor.register(new AsyncEventBusMonitor(busId, subscriptionHandler, eventHandler.getLanes(), laneRebalancer));
       //this.logger.setLevel(Level.WARNING);
       logger.fine("Event Bus Started");
    }
@@ -58,7 +128,7 @@ public class AsyncEventBus   implements EventBus, FilteringService{
    @Override
    public void addSubscriber(Object subscriber) {
       try {
-         subscriptionHandler.addSubscriber(subscriber);
+         eventHandler.addSubscriber(subscriber);
       } catch (EventBusException e) {
          exceptionHandler.handleBusException("Error Add Subscriber:", e);
       }
@@ -67,7 +137,7 @@ public class AsyncEventBus   implements EventBus, FilteringService{
    @Override
    public void removeSubscriber(Object subscriber) {
       try {
-         subscriptionHandler.removeSubscriber(subscriber);
+         eventHandler.removeSubscriber(subscriber);
       } catch (EventBusException e) {
          exceptionHandler.handleBusException("Error Remove Subscriber:", e);
       }
@@ -77,12 +147,35 @@ public class AsyncEventBus   implements EventBus, FilteringService{
    public void publishEvent(Object event) {
 
       try {
+         EventJournal journal = this.journal;
+         if (journal != null) {
+            journal.append(event);
+         }
          eventHandler.publishAnEvent(event);
       } catch (EventBusException e){
          exceptionHandler.handleBusException("Error  PublishEvent:", e);
       }
    }
 
+   /**
+    * Publishes the events in the list order with one routing lookup per run of events of the same type, and one queue operation per lane for the whole batch. Each subscription receives its events in the list order.
+    */
+   @Override
+   public void publishEvents(List<?> events) {
+      try {
+         Object[] batch = events.toArray();
+         EventJournal journal = this.journal;
+         if (journal != null) {
+            for (Object event : batch) {
+               journal.append(event);
+            }
+         }
+         eventHandler.publishEvents(batch);
+      } catch (EventBusException e){
+         exceptionHandler.handleBusException("Error  PublishEvents:", e);
+      }
+   }
+
    @Override
    public void setEventFilter(Object subscriber, Class<?> eventType, Predicate<?> filter){
       try {
@@ -105,6 +198,109 @@ public class AsyncEventBus   implements EventBus, FilteringService{
       }
    }
 
+   /**
+    * {@literal Spreads a subscription's events across the lanes by a key of the event, e.g. Function<Quote, String> ticker = q -> q.ticker}:
+    * the events of a key are delivered in order, the events of different keys in parallel (null = one lane, the default).
+    * The callback must be thread safe, and the key should be set before publishing (changing it reorders events in flight).
+    */
+   public void setPartitionKey(Object subscriber, Class<?> eventType, Function<?, ?> keyExtractor){
+      try {
+         subscriptionHandler.setPartitionKey(subscriber, eventType, keyExtractor);
+      } catch (EventBusException e){
+         exceptionHandler.handleBusException("Error in Set Partition Key:", e);
+      }
+   }
+
+   /**
+    * {@literal Conflates a subscription's events by a key of the event, e.g. Function<Quote, String> ticker = q -> q.ticker}:
+    * an event replaces the undelivered event of the same key still queued on the lane, so a slow subscriber gets the
+    * latest event of each key instead of every one (null = every event delivered, the default). Conflated events are
+    * counted in getDeliveryStats(). Applies to the LANE_EXECUTORS engine; the other engines deliver every event.
+    */
+   public void setConflationKey(Object subscriber, Class<?> eventType, Function<?, ?> keyExtractor){
+      try {
+         subscriptionHandler.setConflationKey(subscriber, eventType, keyExtractor);
+      } catch (EventBusException e){
+         exceptionHandler.handleBusException("Error in Set Conflation Key:", e);
+      }
+   }
+
+   /**
+    * Overrides the bus backpressure policy for one subscription (null = back to bus policy)
+    */
+   public void setBackpressurePolicy(Object subscriber, Class<?> eventType, BackpressurePolicy policy){
+      try {
+         subscriptionHandler.setBackpressurePolicy(subscriber, eventType, policy);
+      } catch (EventBusException e){
+         exceptionHandler.handleBusException("Error in Set Backpressure:", e);
+      }
+   }
+
+   /**
+    * Sets the priority of a subscription's deliveries on the lanes (see DeliveryPriority), overriding its @Subscribe priority.
+    * Its queued deliveries move with it, in order. Applies to the LANE_EXECUTORS engine; the other engines ignore it.
+    */
+   public void setDeliveryPriority(Object subscriber, Class<?> eventType, DeliveryPriority priority){
+      try {
+         Subscription subscription = subscriptionHandler.findSubscription(subscriber, eventType);
+         if (subscription == null) {
+            throw new EventBusException("This Subscriber or Event Not found:" + eventType.getName());
+         }
+         if (priority == null) {
+            throw new EventBusException("Delivery priority is null");
+         }
+         eventHandler.setDeliveryPriority(subscription, priority);
+      } catch (EventBusException e){
+         exceptionHandler.handleBusException("Error in Set Delivery Priority:", e);
+      }
+   }
+
+   /**
+    * Snapshot of the delivery counters: per Subscription delivered, filtered, cached and failed callbacks, and per event type published and no-subscriber publications. Publishers are not held up while it is taken.
+    */
+   public DeliveryStats getDeliveryStats() {
+      return subscriptionHandler.getDeliveryStats();
+   }
+
+   /**
+    * Switch on/off per Subscription latency tracking (default off): queue wait (from publishEvent() to the start of the callback, mostly time spent in the lane) and callback execution time. When off, publications are not time stamped.
+    */
+   public void setLatencyTracking(boolean latencyTracking) {
+      eventHandler.setLatencyTracking(latencyTracking);
+   }
+
+   /**
+    * Queue wait latencies recorded for the subscriber's event type (empty if tracking was never on), or null if there is no such subscription.
+    */
+   public LatencySnapshot getQueueWaitLatency(Object subscriber, Class<?> eventType) {
+      try {
+         return subscriptionHandler.getQueueWaitLatency(subscriber, eventType);
+      } catch (EventBusException e){
+         exceptionHandler.handleBusException("Error in Get Latency:", e);
+         return null;
+      }
+   }
+
+   /**
+    * Callback execution times recorded for the subscriber's event type (empty if tracking was never on), or null if there is no such subscription.
+    */
+   public LatencySnapshot getCallbackLatency(Object subscriber, Class<?> eventType) {
+      try {
+         return subscriptionHandler.getCallbackLatency(subscriber, eventType);
+      } catch (EventBusException e){
+         exceptionHandler.handleBusException("Error in Get Latency:", e);
+         return null;
+      }
+   }
+
+   /**
+    * Queue depth and backpressure counts of each lane (empty for the BROADCAST_RING engine, whose publishers are
+    * gated by the slowest lane instead)
+    */
+   public List<LaneStats> getLaneStats() {
+      return eventHandler.getLaneStats();
+   }
+
    @Override
    public <T> T  pollCashedEvent(Class<T> eventType){
       return  eventType.cast(eventHandler.getCachedEvent(eventType));
@@ -120,6 +316,135 @@ public class AsyncEventBus   implements EventBus, FilteringService{
       eventHandler.clearAllCachedEvent();
    }
 
+   /**
+    * Caches the latest event of each key of the event type, e.g. the latest Quote of each ticker, instead of the
+    * latest event of the type (null = back to one event for the type). Drops the events of the type cached so far.
+    */
+   @Override
+   public void setCacheKey(Class<?> eventType, Function<?, ?> keyExtractor){
+      eventHandler.setCacheKey(eventType, keyExtractor);
+   }
+
+   /**
+    * The latest cached event of the type and key (of the type, for a type without a cache key), or null
+    */
+   @Override
+   public <T> T pollCachedEvent(Class<T> eventType, Object key){
+      return eventType.cast(eventHandler.getCachedEvent(eventType, key));
+   }
+
+   /**
+    * Removes the cached event of one key, leaving the other keys of the type cached
+    */
+   @Override
+   public <T> T removeCachedEvent(Class<T> eventType, Object key){
+      return eventType.cast(eventHandler.removeCachedEvent(eventType, key));
+   }
+
+   /**
+    * Snapshot of the cached events of the type by key, oldest first
+    */
+   @Override
+   public Map<Object, Object> getCachedEvents(Class<?> eventType){
+      return eventHandler.getCachedEvents(eventType);
+   }
+
+   /**
+    * Bounds the number of cached events (keys), evicting the least recently used ones (default 10,000)
+    */
+   public void setCacheCapacity(int capacity){
+      try {
+         eventHandler.setCacheCapacity(capacity);
+      } catch (EventBusException e){
+         exceptionHandler.handleBusException("Error in Set Cache Capacity:", e);
+      }
+   }
+
+   /**
+    * Warm restart of the event cache (null file = off): the cached events are snapshot into memory mapped files (the
+    * file's name with ".0" and ".1" appended, written in turn), through the serializer, every intervalMillis (0 = only on snapshotCache()) and when the bus shuts down. The
+    * snapshot left in the file by the last run is loaded now, lazily: a type's events are read from the file the first
+    * time the type is polled, keyed by the cache key set by then, and a live event cached meanwhile wins over them.
+    * @return the number of events in the loaded snapshot
+    */
+   public int setCacheSnapshot(Path file, EventSerializer serializer, long intervalMillis){
+      try {
+         return eventHandler.setCacheSnapshot(busId, file, serializer, intervalMillis);
+      } catch (EventBusException e){
+         exceptionHandler.handleBusException("Error in Set Cache Snapshot:", e);
+         return 0;
+      }
+   }
+
+   /**
+    * Writes a snapshot of the cached events now, see setCacheSnapshot()
+    * @return the number of events written
+    */
+   public int snapshotCache(){
+      try {
+         return eventHandler.writeCacheSnapshot();
+      } catch (EventBusException e){
+         exceptionHandler.handleBusException("Error in Snapshot Cache:", e);
+         return 0;
+      }
+   }
+
+   /**
+    * Sends a subscriber, as it registers, the cached events of the event types it subscribes to (default off).
+    * They are delivered ahead of any live event to the subscriber, so it never ends up with an older value than the latest
+    * delivered. They are staged in the subscription as it registers and don't take room on a full lane.
+    */
+   public void setReplayCacheOnSubscribe(boolean replay){
+      eventHandler.setReplayCacheOnSubscribe(replay);
+   }
+
+   /**
+    * Attaches an EventJournal to the bus (null = detach): every event published from now on, reentrant ones included, is appended to it before its delivery, without waiting for it to be written. The bus doesn't close the journal.
+    */
+   public void setJournal(EventJournal journal) {
+      this.journal = journal;
+   }
+
+   public EventJournal getJournal() {
+      return journal;
+   }
+
+   /**
+    * Feeds the journaled events of sequences fromSequence to toSequence (inclusive) to the given subscribers' callbacks, at full speed on the caller's thread. The subscribers needn't be registered; the events are not published again, so the other subscribers don't see them, and are not journaled again.
+    * @return the number of events read from the journal
+    */
+   public long replayJournal(long fromSequence, long toSequence, Object... subscribers) {
+      return replayJournal(fromSequence, toSequence, false, subscribers);
+   }
+
+   /**
+    * Feeds the events journaled with a publication time from fromMillis to toMillis (inclusive) to the given subscribers' callbacks, see replayJournal().
+    * @return the number of events read from the journal
+    */
+   public long replayJournalByTime(long fromMillis, long toMillis, Object... subscribers) {
+      return replayJournal(fromMillis, toMillis, true, subscribers);
+   }
+
+   private long replayJournal(long from, long to, boolean byTime, Object[] subscribers) {
+      try {
+         EventJournal replayed = journal;
+         if (replayed == null) {
+            throw new EventBusException("No journal attached to the bus");
+         }
+         return replayed.replay(subscriptionHandler, from, to, byTime, subscribers);
+      } catch (EventBusException e){
+         exceptionHandler.handleBusException("Error in Replay Journal:", e);
+         return 0;
+      }
+   }
+
+   /**
+    * Switch on/off delivery of an event to the subscribers of its super classes & interfaces (default off)
+    */
+   public void setEventInheritance(boolean eventInheritance) {
+      subscriptionHandler.setEventInheritance(eventInheritance);
+   }
+
    public SubscriberHandler SubscriberHandler(){
       return subscriptionHandler;
    }
@@ -128,8 +453,107 @@ public class AsyncEventBus   implements EventBus, FilteringService{
       return eventHandler;
    }
 
+   /**
+    * Moves heavy Subscriptions off the most loaded lane now (see LaneRebalancer), keeping their event order.
+    * @return the number of Subscriptions moved
+    */
+   public int rebalanceLanes() {
+      return laneRebalancer.rebalance();
+   }
+
+   /**
+    * Rebalances the lanes every intervalMillis on a background thread (0, the default, switches it off). No effect
+    * with the BROADCAST_RING engine, whose lanes all read every event.
+    */
+   public void setLaneRebalancing(long intervalMillis) {
+      laneRebalancer.start(intervalMillis);
+   }
+
+   /**
+    * Subscriptions moved between lanes by the rebalancing since the bus started
+    */
+   public long getLaneMigrationCount() {
+      return laneRebalancer.getMigrationCount();
+   }
+
+   LaneRebalancer getLaneRebalancer() {
+      return laneRebalancer;
+   }
+
+   /**
+    * Name of the bus's AsyncEventBusMXBean in the platform MBean server, or null if it couldn't be registered
+    */
+   public ObjectName getMBeanName() {
+      return mbeanName;
+   }
+
+   /**
+    * Waits until every event published before the call has been delivered (or dropped by a backpressure policy).
+    * Publishers are not stopped, and the events they publish meanwhile are not waited for. Not to be called from a callback.
+    * @return false if the timeout elapsed first
+    */
+   public boolean flush(long timeout, TimeUnit unit) {
+      try {
+         return eventHandler.flush(unit.toNanos(timeout));
+      } catch (EventBusException e){
+         exceptionHandler.handleBusException("Error in Flush:", e);
+         return false;
+      }
+   }
+
+   /**
+    * Waits, without a time limit, until every event published before the call has been delivered.
+    */
+   public void flush() {
+      flush(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+   }
+
+   /**
+    * Waits until the bus is quiescent: no delivery queued or running, and nothing published while checking.
+    * Unlike flush(), it doesn't return while the publishers keep the bus busy. Not to be called from a callback.
+    * @return false if the timeout elapsed first
+    */
+   public boolean awaitQuiescence(long timeout, TimeUnit unit) {
+      try {
+         return eventHandler.awaitQuiescence(unit.toNanos(timeout));
+      } catch (EventBusException e){
+         exceptionHandler.handleBusException("Error in Await Quiescence:", e);
+         return false;
+      }
+   }
+
    public void shutdownTheBus() {
+      laneRebalancer.stop();
       eventHandler.shutDownExecutorPool();
+      eventHandler.closeCacheSnapshot();
+      if (mbeanName != null) {
+         AsyncEventBusMonitor.unregister(mbeanName);
+      }
+   }
+
+   /**
+    * Shuts the bus down gracefully: publications are refused from now on, and the events already published are
+    * delivered until the timeout. The deliveries still undone then are dropped (a callback already running is not stopped).
+    * Not to be called from a callback, which would wait for itself until the timeout.
+    * @return the number of deliveries dropped, 0 if the bus drained in time
+    */
+   public long shutdownTheBus(long timeout, TimeUnit unit) {
+      try {
+         AsyncSynEventHandler.checkNotOnLane();
+      } catch (EventBusException e){
+         exceptionHandler.handleBusException("Error in Shutdown:", e);
+         return 0;
+      }
+      laneRebalancer.stop();
+      long dropped = eventHandler.shutdown(unit.toNanos(timeout));
+      eventHandler.closeCacheSnapshot();
+      if (mbeanName != null) {
+         AsyncEventBusMonitor.unregister(mbeanName);
+      }
+      if (dropped > 0) {
+         logger.warning(busId + ": Shut down with undelivered events: " + dropped);
+      }
+      return dropped;
    }
 
 
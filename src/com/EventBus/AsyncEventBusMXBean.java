@@ -0,0 +1,48 @@
+package com.EventBus;
+
+/**
+ * AsyncEventBusMXBean is the JMX view of an AsyncEventBus, registered with the platform MBean server as {@code com.EventBus:type=AsyncEventBus,name="<busId>"} (see AsyncEventBus.getMBeanName()).
+ *
+ * <p>The lane attributes are arrays indexed by lane id. They come from a sample of the lane counters, taken at most once per sampling interval however often the attributes are read, and the rates and utilizations are the averages over the interval between the last two samples. The BROADCAST_RING engine has no executor lanes and reports none.
+ * @author Mustaq Ali
+ */
+public interface AsyncEventBusMXBean {
+
+   String getBusId();
+
+   int getSubscriberCount();
+
+   int getSubscriptionCount();
+
+   long getRoutingVersion();
+
+   int getLaneCount();
+
+   /** Undelivered events on each lane */
+   int[] getLaneQueueDepths();
+
+   /** Undelivered events on all lanes */
+   long getTotalQueueDepth();
+
+   /** Events queued per second on each lane */
+   double[] getLaneEnqueueRates();
+
+   /** Events delivered per second on each lane */
+   double[] getLaneDequeueRates();
+
+   /** Fraction (0 - 1) of the time each lane thread was busy delivering */
+   double[] getLaneUtilizations();
+
+   /**
+    * Age of the oldest undelivered event on each lane, in milli seconds: exact while latency tracking is on, otherwise how long the head of the lane has been seen waiting across samples (a lower bound).
+    */
+   long[] getLaneOldestWaitMillis();
+
+   /** Lane with the highest utilization (the deepest queue on a tie), -1 if there are no lanes */
+   int getHottestLane();
+
+   /** Subscriptions moved between lanes by the rebalancing, see AsyncEventBus.setLaneRebalancing() */
+   long getLaneMigrationCount();
+
+   long getSampleIntervalMillis();
+}
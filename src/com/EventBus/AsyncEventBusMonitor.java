@@ -0,0 +1,250 @@
+package com.EventBus;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * AsyncEventBusMonitor implements the AsyncEventBusMXBean of a bus: it samples the lane counters (queued, taken, busy time) and the SubscriberHandler counts, so that a JMX console or a scraper can spot the hot lanes of a running bus.
+ *
+ * <p>Reading an attribute never touches the publication path: a sample takes each lane's lock once, briefly, and is reused for all the reads within the sampling interval (1 second by default). Rates and utilizations are the deltas between the last two samples; the first sample is measured from the start of the bus.
+ *
+ * <p>The age of the oldest undelivered event comes from its publication time stamp while latency tracking is on. Otherwise the lane head is followed across samples: while a lane hasn't taken a delivery, its head has been waiting at least since the sample that first saw it.
+ * @author Mustaq Ali
+ */
+final class AsyncEventBusMonitor implements AsyncEventBusMXBean {
+   static final String DOMAIN = "com.EventBus";
+   static final long DEFAULT_SAMPLE_INTERVAL_MILLIS = 1000;
+   static final Logger logger = Logger.getLogger(AsyncEventBusMonitor.class.getName());
+
+   private final String busId;
+   private final SubscriberHandler subscriptionHandler;
+   private final List<DeliveryLane> lanes;
+   private final LaneRebalancer rebalancer;
+   private final long sampleIntervalNanos;
+   private final LongSupplier clock; // Nano time of the samples
+
+   //The last sample, guarded by the monitor's lock
+   private long sampleNanos;
+   private boolean sampled;
+   private final long[] enqueued;
+   private final long[] dequeued;
+   private final long[] busy;
+   private final long[] headSequence; // Lane head followed across samples, -1 when the lane was empty
+   private final long[] headSeenNanos; // When the current head was first seen
+   private final int[] depths;
+   private final double[] enqueueRates;
+   private final double[] dequeueRates;
+   private final double[] utilizations;
+   private final long[] oldestWaitMillis;
+
+   AsyncEventBusMonitor(String busId, SubscriberHandler subscriptionHandler, List<DeliveryLane> lanes, LaneRebalancer rebalancer) {
+      this(busId, subscriptionHandler, lanes, rebalancer, DEFAULT_SAMPLE_INTERVAL_MILLIS);
+   }
+
+   AsyncEventBusMonitor(String busId, SubscriberHandler subscriptionHandler, List<DeliveryLane> lanes,
+                        LaneRebalancer rebalancer, long sampleIntervalMillis) {
+      this(busId, subscriptionHandler, lanes, rebalancer, sampleIntervalMillis, System::nanoTime);
+   }
+
+   AsyncEventBusMonitor(String busId, SubscriberHandler subscriptionHandler, List<DeliveryLane> lanes,
+                        LaneRebalancer rebalancer, long sampleIntervalMillis, LongSupplier clock) {
+      this.busId = busId;
+      this.subscriptionHandler = subscriptionHandler;
+      this.lanes = lanes;
+      this.rebalancer = rebalancer;
+      this.sampleIntervalNanos = TimeUnit.MILLISECONDS.toNanos(sampleIntervalMillis);
+      this.clock = clock;
+      int count = lanes.size();
+      this.enqueued = new long[count];
+      this.dequeued = new long[count];
+      this.busy = new long[count];
+      this.headSequence = new long[count];
+      this.headSeenNanos = new long[count];
+      this.depths = new int[count];
+      this.enqueueRates = new double[count];
+      this.dequeueRates = new double[count];
+      this.utilizations = new double[count];
+      this.oldestWaitMillis = new long[count];
+      Arrays.fill(headSequence, -1);
+      this.sampleNanos = clock.getAsLong(); // Counters are all 0 at the start of the bus
+   }
+
+   /**
+    * Registers the monitor with the platform MBean server, under the bus id (with an instance number if another bus
+    * has the same id). Returns the name registered, or null if JMX isn't available; the bus runs all the same.
+    */
+   static ObjectName register(AsyncEventBusMonitor monitor) {
+      try {
+         MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+         String name = DOMAIN + ":type=AsyncEventBus,name=" + ObjectName.quote(monitor.busId);
+         for (int instance = 1; ; instance++) {
+            ObjectName objectName = new ObjectName(instance == 1 ? name : name + ",instance=" + instance);
+            try {
+               return server.registerMBean(monitor, objectName).getObjectName();
+            } catch (InstanceAlreadyExistsException e) {
+               // Same bus id, try the next instance number
+            }
+         }
+      } catch (JMException | SecurityException e) {
+         logger.log(Level.WARNING, monitor.busId + ": MBean not registered: " + e.getMessage());
+         return null;
+      }
+   }
+
+   static void unregister(ObjectName objectName) {
+      try {
+         MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+         if (server.isRegistered(objectName)) {
+            server.unregisterMBean(objectName);
+         }
+      } catch (JMException | SecurityException e) {
+         logger.log(Level.WARNING, objectName + ": MBean not unregistered: " + e.getMessage());
+      }
+   }
+
+   //Takes a new sample if the last one is older than the sampling interval
+   private synchronized void sample() {
+      long now = clock.getAsLong();
+      if (!sampled || now - sampleNanos >= sampleIntervalNanos) {
+         sample(now);
+      }
+   }
+
+   //Takes a new sample now, whatever the sampling interval
+   synchronized void sampleNow() {
+      sample(clock.getAsLong());
+   }
+
+   private void sample(long now) {
+      long interval = now - sampleNanos;
+      double seconds = Math.max(interval, 1) / 1e9;
+      for (int i = 0; i < lanes.size(); i++) {
+         DeliveryLane lane = lanes.get(i);
+         long laneEnqueued = lane.getEnqueuedCount();
+         long laneDequeued = lane.getDequeuedCount();
+         long laneBusy = lane.getBusyNanos();
+         int depth = lane.getQueueDepth();
+         enqueueRates[i] = (laneEnqueued - enqueued[i]) / seconds;
+         dequeueRates[i] = (laneDequeued - dequeued[i]) / seconds;
+         utilizations[i] = Math.min(1.0, Math.max(0.0, (laneBusy - busy[i]) / (double) Math.max(interval, 1)));
+         enqueued[i] = laneEnqueued;
+         dequeued[i] = laneDequeued;
+         busy[i] = laneBusy;
+         depths[i] = depth;
+         oldestWaitMillis[i] = oldestWait(i, lane, depth, laneDequeued, now);
+      }
+      sampleNanos = now;
+      sampled = true;
+   }
+
+   private long oldestWait(int i, DeliveryLane lane, int depth, long laneDequeued, long now) {
+      if (depth == 0) {
+         headSequence[i] = -1;
+         return 0;
+      }
+      long stamp = lane.getOldestStamp();
+      if (headSequence[i] != laneDequeued) { // A new head since the last sample
+         headSequence[i] = laneDequeued;
+         headSeenNanos[i] = now;
+      }
+      long since = stamp != 0 ? stamp : headSeenNanos[i];
+      return TimeUnit.NANOSECONDS.toMillis(Math.max(0, now - since));
+   }
+
+   @Override
+   public String getBusId() {
+      return busId;
+   }
+
+   @Override
+   public int getSubscriberCount() {
+      return subscriptionHandler.getSubscriberCount();
+   }
+
+   @Override
+   public int getSubscriptionCount() {
+      return subscriptionHandler.getSubscriptionCount();
+   }
+
+   @Override
+   public long getRoutingVersion() {
+      return subscriptionHandler.getRoutingVersion();
+   }
+
+   @Override
+   public int getLaneCount() {
+      return lanes.size();
+   }
+
+   @Override
+   public synchronized int[] getLaneQueueDepths() {
+      sample();
+      return depths.clone();
+   }
+
+   @Override
+   public synchronized long getTotalQueueDepth() {
+      sample();
+      long total = 0;
+      for (int depth : depths) {
+         total += depth;
+      }
+      return total;
+   }
+
+   @Override
+   public synchronized double[] getLaneEnqueueRates() {
+      sample();
+      return enqueueRates.clone();
+   }
+
+   @Override
+   public synchronized double[] getLaneDequeueRates() {
+      sample();
+      return dequeueRates.clone();
+   }
+
+   @Override
+   public synchronized double[] getLaneUtilizations() {
+      sample();
+      return utilizations.clone();
+   }
+
+   @Override
+   public synchronized long[] getLaneOldestWaitMillis() {
+      sample();
+      return oldestWaitMillis.clone();
+   }
+
+   @Override
+   public synchronized int getHottestLane() {
+      sample();
+      int hottest = -1;
+      for (int i = 0; i < utilizations.length; i++) {
+         if (hottest < 0 || utilizations[i] > utilizations[hottest] ||
+                 (utilizations[i] == utilizations[hottest] && depths[i] > depths[hottest])) {
+            hottest = i;
+         }
+      }
+      return hottest;
+   }
+
+   @Override
+   public long getLaneMigrationCount() {
+      return rebalancer.getMigrationCount();
+   }
+
+   @Override
+   public long getSampleIntervalMillis() {
+      return TimeUnit.NANOSECONDS.toMillis(sampleIntervalNanos);
+   }
+}
@@ -1,11 +1,12 @@
 package com.EventBus;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+import java.util.function.Predicate;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -14,10 +15,10 @@ import java.util.logging.Logger;
  * An AsyncEventHandler provides  services to AsyncEventBus for  implementing  multi threaded event delivery, event filtering for a subscriber, and caching of latest event for an event type requested by subscribers.
  *
  *
- * <p><b>Multi Thread  event Delivery:</b> Event ordering is a critical requirement for pub/sub framework, without it a bus can't support  application like price quote etc.  To facilitate this key feature of a thread safe "ordered" event delivery, AsyncSynEventHandler implements a custom  thread pool called <i>"hash-partitioned-thread-pool"</i>. Java stock thread pools such as CachedThreadPool etc. can't  guarantee ordered sequence of event delivery due to the  possibilities of multiple threads   handling a specific event stream to a particular subscriber. In practice, strict event ordering for each subscriber necessitates event serialization at the delivery point (even with queueing).  One way to achieve this is to have a single thread assigned to deliver  all the events of a type to a subscriber (aka Subscription in this framework). To realize a proper sequence of event delivery, AsyncSynEventHandler implements a <i>hash-partitioned-thread-pool</i> by using an array of single threads (Java SingleThreadExecutor, but any single thread would do). Upon an event arrival and at the time of event distribution to subscribers (an event delivery loop), a delivery thread to a subscriber is chosen from the thread pool array  using the hashCode of the Subscription object. (which is made out of Subscriber reference + Event class). The logic for thread selection is:
- *<p>{@code  Thread_Id_Array_Index = (Subscription.hashCode) % (thread_count) }
+ * <p><b>Multi Thread  event Delivery:</b> Event ordering is a critical requirement for pub/sub framework, without it a bus can't support  application like price quote etc.  To facilitate this key feature of a thread safe "ordered" event delivery, AsyncSynEventHandler implements a custom  thread pool called <i>"hash-partitioned-thread-pool"</i>. Java stock thread pools such as CachedThreadPool etc. can't  guarantee ordered sequence of event delivery due to the  possibilities of multiple threads   handling a specific event stream to a particular subscriber. In practice, strict event ordering for each subscriber necessitates event serialization at the delivery point (even with queueing).  One way to achieve this is to have a single thread assigned to deliver  all the events of a type to a subscriber (aka Subscription in this framework). To realize a proper sequence of event delivery, AsyncSynEventHandler implements a <i>hash-partitioned-thread-pool</i> by using an array of single threads (Java SingleThreadExecutor, but any single thread would do). Upon an event arrival and at the time of event distribution to subscribers (an event delivery loop), a delivery thread to a subscriber is chosen from the thread pool array  using the registration number the SubscriberHandler gave the Subscription. The logic for thread selection is:
+ *<p>{@code  Thread_Id_Array_Index = (Subscription registration number) % (thread_count) }
  *
- * <p>Though a particular thread handles one specific event type for a subscriber at all times, however, handling of different event-type(s) for the same subscriber could fall into another thread (due to different hash codes). Thus the thread pool load is distributed even while servicing a single subscriber. (Evidently the same thread can also service another subscriber for the same event). In a  low  thread-count system,  threads could be overloaded due to chances of hash collision. But in a typical system with many Subscriptions thread  load will  be fairly  distributed.
+ * <p>Though a particular thread handles one specific event type for a subscriber at all times, however, handling of different event-type(s) for the same subscriber falls into the next thread. Thus the Subscriptions are dealt round robin over the threads, and the thread pool load is distributed even while servicing a single subscriber. (Evidently the same thread can also service another subscriber for the same event). Numbering the Subscriptions rather than hashing them (Subscriber reference + Event class) makes the start lanes independent of the identity hash codes of the JVM: two Subscriptions registered in a row never share a thread. Uneven callback costs are evened out later by the LaneRebalancer.
  *
  *
  * <p><b>Filtering Events:</b> A subscriber can register a filtering function ( for a particular event type using Java Functional interface of {@literal Predicate<T>} with boolean Lambda  expression for the event). During the delivery of the event to the subscriber, the bus will evaluates the filter against the event and will allow or block the event. The usage is as follows:
@@ -25,14 +26,40 @@ import java.util.logging.Logger;
  * <p>{@code  Predicate<Trade> bigListedTrade = t -> t.quantity >= 100000 && t.exchange.equals("NYSE") }
  * <p>{@code bus.setEventFilter(tradeSubscriber, Trade.class, bigListedTrade); }
  *
+ * <p>A filter can also be declared as an EventFilter, an AND of equality, set membership and range conditions on attributes of the event, which is a {@literal Predicate<T>} set the same way:
+ *
+ * <p>{@code EventFilter<Trade> bigListedTrade = EventFilter.where(EXCHANGE).equalTo("NYSE").and(QUANTITY).atLeast(100000); }
+ *
+ * <p>The bus runs an opaque Predicate once per subscriber, whereas the EventFilters of an event type are compiled into one FilterIndex shared by its subscribers: the event is matched against all of them in one pass, at a cost that grows with the filters it satisfies rather than with the number of subscribers (see FilterIndex). Both kinds can be mixed on one event type.
+ *
  * <p><b>Warning:</b> As setEventFilter()  method accepts wildcard type  parameters,  an issues related to filtering exists when a subscriber uses the method {@literal setEventFilter (Object subscriber, Class<?> eventType, Predicate<?>  filter )}. For filtering to work properly, static Types of Event Class and Predicate Class should match during the call. Otherwise a runtime error of type mismatch will occur during filter evaluation and an EventBusException will be thrown. (The Predicate loses its type due to type erasure. An alternate implementation of filtering is possible via an annotation of @Filter method as described later)
  *
  * <p><b>Caching Last Events:</b> A busy  or real-time bound subscriber may decide not to receive continuous event stream  due to its business needs (as in, it's only interested in last price quote etc.). It  can do so by requesting the EventBus to Cache only the last / latest event, with an intention of processing it later. In this implementation, a subscriber can set/reset
   event-type-caching at any time, but  after caching is set no further event delivery will be done for that subscriber.
  However, the subscriber can  poll the the latest event whenever it requires it, or it can reset the caching
- to resume normal subscription. As an additional feature, at the end of cache reset call the bus will also selectively publish any latest cached event  only to this subscriber  to keep the subscriber up to date. The caching is done at  the event-type level, so all the subscribers in the bus will share the same cache for an event type. However, caching by a subscriber doesn't affect other normal subscribes event delivery. Any subscriber can remove a caching or clear all event caching ( no subscriber privilege is implemented here)
+ to resume normal subscription. As an additional feature, at the end of cache reset call the bus will also selectively publish any latest cached event  only to this subscriber  to keep the subscriber up to date. The cache is shared by all the subscribers in the bus: one entry per event type, or per key of the event type when a cache key is set (see the LastValueCache below). However, caching by a subscriber doesn't affect other normal subscribes event delivery. Any subscriber can remove a caching or clear all event caching ( no subscriber privilege is implemented here)
+ *
+ * <p>The cache is a LastValueCache: by default it holds the latest event of each type, and with a cache key extractor set for a type (AsyncEventBus.setCacheKey(), e.g. the ticker of a Quote) the latest event of each key, so one subscriber's removal of a key leaves the other keys cached. The cache is bounded, evicting the least recently used keys, and its reads are lock free. Optionally (AsyncEventBus.setReplayCacheOnSubscribe()) a new subscriber is sent the cached events of its event types as it registers, so it doesn't wait for the next event of each key; they are staged in its Subscriptions before these are published to the publishers, and delivered ahead of the live events.
+ *
+ * <p>For a warm restart, the cache can be snapshot into memory mapped files (setCacheSnapshot(), see CacheSnapshot), periodically and at shutdown. At the next start the snapshot is only indexed: a type's events are read from the file the first time the type is polled, so the first polls are served before the first live events, without a full deserialization pass.
+ *
+ * <p><b>Allocation Free Delivery:</b> In steady state a publication allocates nothing beyond the event itself: the routing is a table lookup, a lane delivery is written into a preallocated slot (see DeliveryLane), and the debug logging is only formatted when FINE logging is on.
+ *
+ * <p><b>Latency Tracking:</b> When switched on (setLatencyTracking()), each publication is time stamped as it enters the bus, and each Subscription records its queue wait (time in the lane until the callback starts) and callback time in fixed size, lock free histograms. When off, nothing is stamped or recorded.
+ *
+ * <p><b>Batch Publishing:</b> A batch of events is routed with one routing lookup per event type, and each lane gets its share of the batch in one queue operation. The deliveries to a Subscription keep the order of the batch.
  *
- * <p>The caching is thread safe by using java.util.ConcurrentHashMap
+ * <p><b>Partition Key Ordering:</b> A Subscription is normally served by one lane, so one subscriber processes all the events of a type serially. When only the order per key matters (e.g. per ticker of a Quote), a partition key extractor can be set for the Subscription (AsyncEventBus.setPartitionKey()): its events are then spread across the lanes by key hash, in order within a key and in parallel across keys. Its callback must then be thread safe, and the key extractor should be set before the events flow, as changing it reorders the events in flight.
+ *
+ * <p><b>Conflation:</b> a slow subscriber to a feed (e.g. price ticks) may only need the newest event per key rather than every one, but still wants them delivered, unlike Last Event Caching. With a conflation key extractor set for its Subscription (AsyncEventBus.setConflationKey()), an event whose key still has an undelivered event queued on the lane replaces it in place, so the lane holds at most one event per key for it and the subscriber lags less (see DeliveryLane).
+ *
+ * <p><b>Delivery Priority:</b> Subscriptions sharing a lane are served by priority, so a risk or kill switch subscriber doesn't wait behind an analytics backlog: {@code @Subscribe(priority = DeliveryPriority.HIGH)}, or setDeliveryPriority() at runtime. Each lane keeps a queue per priority and takes the highest one first, with a lower priority served at least once in every DeliveryLane.STARVATION_LIMIT + 1 deliveries while it waits. The priority is per Subscription, not per event, so the deliveries of a Subscription keep their order.
+ *
+ * <p><b>Lane Rebalancing:</b> Hash partitioning can put two expensive Subscriptions on the same lane while other lanes idle. The lane threads sample the callback cost of each Subscription, and the LaneRebalancer (run on demand or periodically, see AsyncEventBus.setLaneRebalancing()) moves heavy Subscriptions from the most loaded lane to the least loaded one. A move goes through a migration fence (see DeliveryLane), so a Subscription's events keep their order across it.
+ *
+ * <p><b>Flush and Graceful Shutdown:</b> flush() waits until every delivery queued before the call is done, while publishers carry on: it takes the lanes' sequence numbers as a barrier mark and polls the lane heads past it, so the publish path pays nothing for it. awaitQuiescence() waits for a moment with nothing queued or running and nothing newly queued. shutdown(timeout) lets the lanes drain until the deadline, then drops what is left and reports how many deliveries were dropped. A callback must not flush its own bus, as it would wait for itself.
+ *
+ * <p><b>Bounded Lanes:</b> By default a lane queue is unbounded, so a slow subscriber can grow its lane without limit. A lane capacity can be set for the bus, and when a lane is full the BackpressurePolicy of the bus (or of the Subscription, if set) decides: block the publisher, drop the newest or oldest event, run the callback on the publisher's thread, or fail the publication. Each outcome is counted per lane (see getLaneStats()).
  *
  *<p><b>Alternate Implementation Choice:</b> This EventBus framework relies on  method annotation (@Subscribe) for inferring callback methods. In addition to callback discovery, one can alternatively  use Annotations and its Parameter/Value  to implement features like caching and filtering as described above. Besides, filtering logic itself can be defined like callback method using another annotation  such as  @Filter to designate a filtering method. However, in this framework  caching and filtering is done via conventional method calls and parameters to the EventBus. This choice is made due to the fact that Caching and Filtering are dynamic in nature and the subscriber could change the  filtering as necessary based on dynamic business needs. Lambdas are also a natural fit for function passing like filtering. In fact, even a callback method itself could be a  parameter using java {@literal Consumer<T>} Functional interface and  can be sent to the bus as a method parameter. Annotations, besides being cumbersome,  is pretty much static in nature and may not be versatile for dynamic situations.
  *
@@ -40,64 +67,354 @@ import java.util.logging.Logger;
  */
 public class AsyncSynEventHandler extends SynEventHandler {
    private final int workerCount;
-   private final List<ExecutorService> threadList = new ArrayList<>();
-   private final Map<Class<?>, Object> cachedEvents = new ConcurrentHashMap<>();
+   private final List<DeliveryLane> threadList = new ArrayList<>();
+   private final int laneCapacity;
+   private final BackpressurePolicy backpressure;
+   private final LastValueCache lastValueCache = new LastValueCache();
+   private volatile boolean replayCacheOnSubscribe;
+   private CacheSnapshot cacheSnapshot; // null = no snapshots, guarded by the handler's monitor
    SubscriberHandler subscriptionHandler;
 
    //Executor executor = Executors.newCachedThreadPool();
 
    AsyncSynEventHandler(SubscriberHandler subscriptionHandler, int threadCount) {
+      this(subscriptionHandler, threadCount, DeliveryLane.UNBOUNDED, BackpressurePolicy.BLOCK);
+   }
+
+   AsyncSynEventHandler(SubscriberHandler subscriptionHandler, int threadCount, int laneCapacity, BackpressurePolicy backpressure) {
+      this(subscriptionHandler, threadCount, laneCapacity, backpressure, true);
+   }
+
+   //Delivery engines with their own threads (see BroadcastRingEventHandler) don't start the executor lanes
+   AsyncSynEventHandler(SubscriberHandler subscriptionHandler, int threadCount, boolean startLanes) {
+      this(subscriptionHandler, threadCount, DeliveryLane.UNBOUNDED, BackpressurePolicy.BLOCK, startLanes);
+   }
+
+   private AsyncSynEventHandler(SubscriberHandler subscriptionHandler, int threadCount, int laneCapacity,
+                                BackpressurePolicy backpressure, boolean startLanes) {
       super(subscriptionHandler);
       this.subscriptionHandler = subscriptionHandler;
       this.workerCount = threadCount;
-      setExecutorPool();
+      this.laneCapacity = laneCapacity;
+      this.backpressure = backpressure;
+      if (startLanes) {
+         setExecutorPool();
+      }
       // this.logger.setLevel(Level.WARNING);
    }
 
    private void setExecutorPool() {
       for (int i = 0; i < workerCount; i++) {
-         threadList.add(Executors.newSingleThreadExecutor());
+         threadList.add(new DeliveryLane(i, laneCapacity, backpressure, threadList));
       }
    }
 
+   //Moves the Subscription's queued deliveries along, see DeliveryLane.setPriority()
+   void setDeliveryPriority(Subscription subscription, DeliveryPriority priority) {
+      DeliveryLane.setPriority(threadList, subscription, priority);
+      logger.fine("Set Delivery Priority:" + priority);
+   }
+
     void shutDownExecutorPool(){
       threadList.forEach(thread -> thread.shutdown());
    }
 
+   /**
+    * Waits until the deliveries queued before the call are all done. Events published meanwhile are not waited for.
+    * @return false if the timeout elapsed first
+    */
+   boolean flush(long timeoutNanos) {
+      checkNotOnLane();
+      long[] marks = new long[threadList.size()];
+      for (int i = 0; i < marks.length; i++) {
+         marks[i] = threadList.get(i).mark();
+      }
+      return waitUntil(() -> {
+         for (int i = 0; i < marks.length; i++) {
+            if (!threadList.get(i).isDelivered(marks[i])) {
+               return false;
+            }
+         }
+         return !isMigrating(); // A migrating Subscription may hold deliveries taken off its new lane
+      }, timeoutNanos);
+   }
+
+   /**
+    * Waits for a moment when no delivery is queued or running, and none was queued while checking.
+    * @return false if the timeout elapsed first
+    */
+   boolean awaitQuiescence(long timeoutNanos) {
+      checkNotOnLane();
+      return waitUntil(() -> {
+         long enqueued = enqueuedCount();
+         for (DeliveryLane lane : threadList) {
+            if (!lane.isIdle()) {
+               return false;
+            }
+         }
+         return !isMigrating() && enqueuedCount() == enqueued;
+      }, timeoutNanos);
+   }
+
+   /**
+    * Stops the lanes after they drain, or at the deadline, dropping the deliveries still queued then.
+    * @return the number of deliveries dropped
+    */
+   long shutdown(long timeoutNanos) {
+      shutDownExecutorPool();
+      waitUntil(() -> {
+         for (DeliveryLane lane : threadList) {
+            if (!lane.isTerminated()) {
+               return false;
+            }
+         }
+         return true;
+      }, timeoutNanos);
+      long dropped = 0;
+      for (DeliveryLane lane : threadList) {
+         dropped += lane.discard();
+      }
+      return dropped;
+   }
+
+   private long enqueuedCount() {
+      long enqueued = 0;
+      for (DeliveryLane lane : threadList) {
+         enqueued += lane.getEnqueuedCount();
+      }
+      return enqueued;
+   }
+
+   private boolean isMigrating() {
+      RoutingSnapshot routing = subscriptionHandler.getRoutingSnapshot();
+      for (Class<?> eventType : routing.getRegisteredEventTypes()) {
+         for (Subscription subscription : routing.getRegisteredSubscriptions(eventType)) {
+            if (subscription.migrating) {
+               return true;
+            }
+         }
+      }
+      return false;
+   }
+
+   //A callback waiting for its own lane (or mailbox) to drain would wait until the timeout
+   static void checkNotOnLane() {
+      Thread thread = Thread.currentThread();
+      if (thread instanceof DeliveryLane.LaneThread || thread instanceof BroadcastRing.Lane || MailboxEventHandler.DRAINING.get() != null) {
+         throw new EventBusException("Can't wait for the bus to drain on its own delivery thread: " + thread.getName());
+      }
+   }
+
+   /**
+    * Polls the condition (spin, yield, then 1ms parks) until it holds.
+    * @return false on timeout or interrupt
+    */
+   static boolean waitUntil(BooleanSupplier condition, long timeoutNanos) {
+      long deadline = System.nanoTime() + timeoutNanos;
+      for (int tries = 0; !condition.getAsBoolean(); tries++) {
+         if (System.nanoTime() - deadline >= 0 || Thread.currentThread().isInterrupted()) {
+            return false;
+         }
+         BroadcastRing.backOff(tries, 1_000_000);
+      }
+      return true;
+   }
+
+   //A full lane (FAIL policy) doesn't stop the delivery to the other subscriptions, it is reported after the fan-out
    @Override
-    void  publishToSubscribers(Object event, List<Subscription> subscriptions) throws Error {
+    void  publishToSubscribers(Object event, Subscription[] subscriptions, long publishNanos) throws Error {
+      RejectedExecutionException rejected = null;
       for (Subscription subscription : subscriptions) {
-         publishToSingleSubscriber( event,subscription);
+         try {
+            publishToSingleSubscriber( event,subscription, publishNanos);
+         } catch (RejectedExecutionException e) {
+            rejected = e;
+         }
+      }
+      if (rejected != null) {
+         throw new EventBusException("Event not delivered: " + event.getClass().getName(), rejected);
+      }
+   }
+
+   @Override
+    void publishToSingleSubscriber(Object event, Subscription subscription, long publishNanos) {
+      if (isDeliverable(event, subscription)) {
+         int threadId = laneOf(subscription, event);
+         if (logger.isLoggable(Level.FINE)) {
+            logger.fine("Channel/Hash/Event: " + threadId + " / " + subscription.hash + " / " + event);
+         }
+
+         DeliveryLane lane = threadList.get(threadId);
+         lane.deliver(event, subscription, publishNanos);
       }
    }
 
+   /**
+    * Batch publication: each lane gets its share of the batch (the deliveries of all its Subscriptions, in the batch order) in one queue operation, rather than one per event per subscriber.
+    */
    @Override
-    void publishToSingleSubscriber(Object event, Subscription subscription) {
+    void publishEvents(Object[] events) throws Error {
+      long publishNanos = publishStamp();
+      Subscription[][] routes = routeBatch(events);
+      @SuppressWarnings("unchecked")
+      List<DeliveryLane.Delivery>[] laneShares = new List[workerCount];
+      for (int i = 0; i < events.length; i++) {
+         for (Subscription subscription : routes[i]) {
+            if (isDeliverable(events[i], subscription)) {
+               int threadId = laneOf(subscription, events[i]);
+               if (laneShares[threadId] == null) {
+                  laneShares[threadId] = new ArrayList<>();
+               }
+               laneShares[threadId].add(new DeliveryLane.Delivery(events[i], subscription, publishNanos));
+            }
+         }
+      }
+      RejectedExecutionException rejected = null;
+      for (int threadId = 0; threadId < workerCount; threadId++) {
+         if (laneShares[threadId] != null) {
+            try {
+               threadList.get(threadId).deliverAll(laneShares[threadId]);
+            } catch (RejectedExecutionException e) {
+               rejected = e;
+            }
+         }
+      }
+      if (rejected != null) {
+         throw new EventBusException("Event batch not fully delivered: " + events.length + " events", rejected);
+      }
+   }
+
+   /**
+    * Applies the subscriber's Filter and Last Event Caching on the publisher's thread.
+    * @return true if the event is to be delivered to this subscription
+    */
+    boolean isDeliverable(Object event, Subscription subscription) {
       if (subscription.filter == null  || isEventAllowed(event, subscription) ) { //Allow
          if (subscription.holdLastEvent == true) {
-            cachedEvents.put(subscription.eventType, event);
-            logger.fine("Event Cached: " + event);
-            return;
+            lastValueCache.put(subscription.eventType, event);
+            subscription.cachedCount.increment();
+            if (logger.isLoggable(Level.FINE)) {
+               logger.fine("Event Cached: " + event);
+            }
+            return false;
          }
-         int threadId = Math.abs(subscription.hash) % workerCount;
-         logger.fine("Channel/Hash/Event: " + threadId + " / " + subscription.hash + " / " + event);
-
-         Executor currExecutor = threadList.get(threadId);
-         //Executor currExecutor = super.executor;
-         //Executor currExecutor = Executors.newCachedThreadPool();
-         invokeSubscriber(event, subscription, currExecutor);
+         return true;
       }
       else {
-         logger.fine("Event Filtered:" + event);
+         subscription.filteredCount.increment();
+         if (logger.isLoggable(Level.FINE)) {
+            logger.fine("Event Filtered:" + event);
+         }
+         return false;
       }
    }
 
     void publishACachedEvent( Class<?> eventType, Object subscriber) {
       Subscription subscription = subscriptionHandler.findSubscription(subscriber, eventType);
-      Object event = getCachedEvent(eventType);
-      if (event != null) {
-         publishToSingleSubscriber( event, subscription);
+      if (subscription != null) {
+         publishCachedEvents(subscription);
+      }
+   }
+
+   /**
+    * Registers the subscriber, sending its new Subscriptions the cached events (the latest of each key, oldest first) of their event types if replay is on. The events are staged in each Subscription before it becomes routable, and are delivered ahead of its first live event (see SynEventHandler.invokeCallback()); a REPLAY marker queued once it is registered delivers them if no live event comes. Nothing is queued under the handler's lock, so a full lane can't hold up the registration there.
+    */
+   void addSubscriber(Object subscriber) {
+      if (!replayCacheOnSubscribe) {
+         subscriptionHandler.addSubscriber(subscriber);
+         return;
+      }
+      List<Subscription> staged = new ArrayList<>();
+      subscriptionHandler.addSubscriber(subscriber, subscription -> {
+         Object[] cached = lastValueCache.snapshot(subscription.eventType).values().toArray();
+         if (cached.length > 0) {
+            subscription.replay = cached;
+            staged.add(subscription);
+         }
+      });
+      for (Subscription subscription : staged) {
+         try {
+            queueReplay(subscription);
+         } catch (RejectedExecutionException e) {
+            throw new EventBusException("Cached event not delivered: " + subscription.eventType.getName(), e);
+         }
+      }
+   }
+
+   //Queues the REPLAY marker to the Subscription's lane
+   void queueReplay(Subscription subscription) {
+      threadList.get(laneOf(subscription)).mark(REPLAY, subscription);
+   }
+
+   /**
+    * Unregisters the subscriber. Deliveries already queued to its Subscriptions are still made.
+    */
+   void removeSubscriber(Object subscriber) {
+      subscriptionHandler.removeSubscriber(subscriber);
+   }
+
+   private void publishCachedEvents(Subscription subscription) {
+      long publishNanos = publishStamp();
+      for (Object event : lastValueCache.snapshot(subscription.eventType).values()) {
+         try {
+            publishToSingleSubscriber( event, subscription, publishNanos);
+         } catch (RejectedExecutionException e) {
+            throw new EventBusException("Cached event not delivered: " + subscription.eventType.getName(), e);
+         }
+      }
+   }
+
+   /**
+    * Lane of the Subscription: the one the LaneRebalancer moved it to, else its hash partitioned lane.
+    */
+   int laneOf(Subscription subscription) {
+      int lane = subscription.laneId;
+      return lane >= 0 ? lane : Math.abs(subscription.hash) % workerCount;
+   }
+
+   /**
+    * Lane of one delivery: by the event's partition key if the Subscription has one, else the Subscription's lane.
+    */
+   int laneOf(Subscription subscription, Object event) {
+      return subscription.partitionKey == null ? laneOf(subscription) : partitionOf(subscription, event, workerCount);
+   }
+
+   /**
+    * Partition (lane) of an event among laneCount lanes, by the key the Subscription's partition key extractor takes
+    * from it: equal keys always fall on the same lane.
+    */
+   @SuppressWarnings("unchecked")
+   static int partitionOf(Subscription subscription, Object event, int laneCount) {
+      Function<Object, ?> keyExtractor = (Function<Object, ?>) subscription.partitionKey;
+      if (keyExtractor == null) {
+         return Math.abs(subscription.hash) % laneCount;
+      }
+      Object key;
+      try {
+         key = keyExtractor.apply(event);
+      } catch (ClassCastException e) {
+         throw new EventBusException(e.getMessage());
+      }
+      int hash = key == null ? 0 : key.hashCode();
+      hash ^= hash >>> 16; // Spread the high bits, as HashMap does
+      return (hash & Integer.MAX_VALUE) % laneCount;
+   }
+
+   int getWorkerCount() {
+      return workerCount;
+   }
+
+   List<LaneStats> getLaneStats() {
+      List<LaneStats> stats = new ArrayList<>(threadList.size());
+      for (DeliveryLane lane : threadList) {
+         stats.add(lane.getStats());
       }
+      return stats;
+   }
+
+   //The executor lanes, for telemetry (none for engines with their own threads)
+   List<DeliveryLane> getLanes() {
+      return threadList;
    }
 
     void setSubscriptionHandler(SubscriberHandler subscriptionHandler) {
@@ -105,7 +422,15 @@ public class AsyncSynEventHandler extends SynEventHandler {
    }
 
     boolean isEventAllowed(Object event, Subscription subscription) {
+      Predicate<?> filter = subscription.filter;
+      FilterIndex.Slot slot = subscription.filterSlot;
+      if (filter instanceof EventFilter && (slot == null || slot.filter != filter)) { // Set since the type was indexed
+         slot = subscriptionHandler.filterSlot(subscription);
+      }
       try {
+         if (slot != null && slot.filter == filter) { // An EventFilter, matched through the shared index
+            return slot.matches(event);
+         }
          if (subscription.filter.test(event)) return true;
       } catch (ClassCastException e) {
          throw new EventBusException(e.getMessage());
@@ -114,15 +439,86 @@ public class AsyncSynEventHandler extends SynEventHandler {
    }
 
     Object getCachedEvent(Class<?> eventType) {
-      return cachedEvents.get(eventType);
+      return lastValueCache.get(eventType);
+   }
+
+   Object getCachedEvent(Class<?> eventType, Object key) {
+      return lastValueCache.get(eventType, key);
+   }
+
+   Map<Object, Object> getCachedEvents(Class<?> eventType) {
+      return lastValueCache.snapshot(eventType);
    }
 
    Object  removeCachedEvent(Class<?> eventType) {
-      return cachedEvents.remove(eventType);
+      return lastValueCache.remove(eventType);
+   }
+
+   Object removeCachedEvent(Class<?> eventType, Object key) {
+      return lastValueCache.remove(eventType, key);
    }
 
    void clearAllCachedEvent() {
-      cachedEvents.clear();
+      lastValueCache.clear();
+   }
+
+   void setCacheKey(Class<?> eventType, Function<?, ?> keyExtractor) {
+      lastValueCache.setKeyExtractor(eventType, keyExtractor);
+   }
+
+   void setCacheCapacity(int capacity) {
+      lastValueCache.setCapacity(capacity);
+   }
+
+   void setReplayCacheOnSubscribe(boolean replay) {
+      this.replayCacheOnSubscribe = replay;
+   }
+
+   /**
+    * Switch on/off the cache snapshots (null file = off): loads the file's snapshot lazily, and writes one every intervalMillis (0 = on demand and on shutdown only).
+    * @return the number of events in the loaded snapshot
+    */
+   synchronized int setCacheSnapshot(String busId, Path file, EventSerializer serializer, long intervalMillis) {
+      if (intervalMillis < 0) {
+         throw new EventBusException("Cache snapshot interval must not be negative: " + intervalMillis);
+      }
+      if (cacheSnapshot != null) {
+         cacheSnapshot.stop();
+         cacheSnapshot = null;
+      }
+      if (file == null) {
+         return 0;
+      }
+      CacheSnapshot snapshot = new CacheSnapshot(busId, file, serializer, lastValueCache);
+      int loaded = snapshot.load();
+      snapshot.start(intervalMillis);
+      cacheSnapshot = snapshot;
+      return loaded;
+   }
+
+   synchronized int writeCacheSnapshot() {
+      if (cacheSnapshot == null) {
+         throw new EventBusException("No cache snapshot file set");
+      }
+      return cacheSnapshot.write();
+   }
+
+   //Writes the last snapshot as the bus shuts down
+   synchronized void closeCacheSnapshot() {
+      if (cacheSnapshot == null) {
+         return;
+      }
+      cacheSnapshot.stop();
+      try {
+         cacheSnapshot.write();
+      } catch (EventBusException e) {
+         logger.log(Level.WARNING, "Cache snapshot not written at shutdown", e);
+      }
+      cacheSnapshot = null;
+   }
+
+   LastValueCache getLastValueCache() {
+      return lastValueCache;
    }
 
 }
@@ -0,0 +1,20 @@
+package com.EventBus;
+
+/**
+ * A BackpressurePolicy tells an AsyncEventBus what to do with an event delivery when the (bounded) lane of its Subscription is full. A policy is set for the whole bus, and it can be overridden per Subscription.
+ *
+ * <p>Every policy outcome is counted per lane (see LaneStats), so lane capacity can be sized from real data.
+ * @author Mustaq Ali
+ */
+public enum BackpressurePolicy {
+   /** Publisher waits for lane space. (A callback publishing from a lane thread can't wait, it fails as FAIL) */
+   BLOCK,
+   /** The new event is dropped for this Subscription */
+   DROP_NEWEST,
+   /** The oldest queued event of the same Subscription is dropped to make room. (Events of other Subscriptions are never evicted; if none is queued the new event is dropped) */
+   DROP_OLDEST,
+   /** The callback runs on the publisher's thread. No event is lost, but ordering with the already queued events of the Subscription is not kept */
+   CALLER_RUNS,
+   /** Publication fails with an EventBusException, handled by the bus EventBusExceptionHandler */
+   FAIL
+}
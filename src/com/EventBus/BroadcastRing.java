@@ -0,0 +1,322 @@
+package com.EventBus;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A BroadcastRing is a preallocated ring of event slots with one writer side and many readers (lanes). A published event is written once into the next slot, together with the Subscriptions it is routed to, and each lane reads every slot through its own sequence cursor, delivering the event only to the Subscriptions that hash to that lane. Thus a fan-out to N subscribers costs one slot write instead of N queue inserts.
+ *
+ * <p>The ring keeps the ordering guarantee of the hash-partitioned-thread-pool: a Subscription is always served by the same lane, and a lane reads the slots in publication order. A Subscription with a partition key is served by the lane of each event's key instead, so the order is kept per key.
+ *
+ * <p>Publishers are gated by the slowest lane: a slot is not reused until every lane cursor has passed it. A lane idles by spinning briefly and then parking; the publisher unparks sleeping lanes.
+ *
+ * <p><b>Flush and Shutdown:</b> as a lane moves its cursor only after delivering a slot, the cursors are the delivery barrier: the events published so far are delivered once every cursor has reached the published sequence. A shutdown with a deadline aborts the lanes that are still behind at the deadline: a lane claims each slot before delivering it, and the shutdown takes the claim away, so the lane stops before its next slot and the count of dropped deliveries is exact.
+ *
+ * <p><b>Reentrant publishing:</b> a callback running on a lane may publish again. A lane can't wait for ring space (it may itself be the slowest reader), so when the ring is full its publications are held in a lane local pending list, in order, and are written by the lane as space frees up.
+ * @author Mustaq Ali
+ */
+final class BroadcastRing {
+   private static final int SPIN_TRIES = 100;
+   static final Logger logger = Logger.getLogger(BroadcastRing.class.getName());
+
+   private final Slot[] slots;
+   private final int mask;
+   private final Lane[] lanes;
+   private volatile long published = -1; // Sequence of the last written slot
+   private volatile boolean running = true;
+
+   BroadcastRing(String name, int ringSize, int laneCount) {
+      int size = Integer.highestOneBit(Math.max(2, ringSize) - 1) << 1; // Next power of two
+      this.slots = new Slot[size];
+      for (int i = 0; i < size; i++) {
+         slots[i] = new Slot();
+      }
+      this.mask = size - 1;
+      this.lanes = new Lane[laneCount];
+      for (int i = 0; i < laneCount; i++) {
+         lanes[i] = new Lane(this, i, name + "-ring-lane-" + i);
+      }
+      for (Lane lane : lanes) {
+         lane.start();
+      }
+   }
+
+   int getRingSize() {
+      return slots.length;
+   }
+
+   /**
+    * Writes the event once for all its Subscriptions (skipped[i] = true excludes subscriptions[i], null = none excluded), with its publication time stamp.
+    * Waits for ring space, except on a lane thread.
+    */
+   void publish(Object event, Subscription[] subscriptions, boolean[] skipped, long publishNanos) {
+      if (!running) {
+         throw new EventBusException("Event Bus is shut down, event not published: " + event.getClass().getName());
+      }
+      Thread thread = Thread.currentThread();
+      if (thread instanceof Lane && ((Lane) thread).ring == this) {
+         Lane lane = (Lane) thread;
+         if (!lane.pending.isEmpty() || !tryPublish(event, subscriptions, skipped, publishNanos)) {
+            lane.pending.add(new Slot().set(event, subscriptions, skipped, publishNanos)); // Keep order behind earlier pending events
+            lane.holding = true;
+         }
+         return;
+      }
+      for (int tries = 0; !tryPublish(event, subscriptions, skipped, publishNanos); tries++) {
+         backOff(tries, 10_000);
+      }
+   }
+
+   private boolean tryPublish(Object event, Subscription[] subscriptions, boolean[] skipped, long publishNanos) {
+      synchronized (this) {
+         long next = published + 1;
+         if (next - slots.length > minimumCursor()) {
+            return false; // Full: the slowest lane hasn't read the slot to be reused
+         }
+         slots[(int) next & mask].set(event, subscriptions, skipped, publishNanos);
+         published = next;
+      }
+      for (Lane lane : lanes) {
+         if (lane.sleeping) {
+            LockSupport.unpark(lane);
+         }
+      }
+      return true;
+   }
+
+   long minimumCursor() {
+      long minimum = Long.MAX_VALUE;
+      for (Lane lane : lanes) {
+         minimum = Math.min(minimum, lane.cursor);
+      }
+      return minimum;
+   }
+
+   long getPublishedSequence() {
+      return published;
+   }
+
+   /**
+    * Stops the lanes after they have delivered all the events published so far.
+    */
+   void shutdown() {
+      running = false;
+      for (Lane lane : lanes) {
+         LockSupport.unpark(lane);
+      }
+   }
+
+   /**
+    * True once every lane has delivered the slots up to the sequence.
+    */
+   boolean isDelivered(long sequence) {
+      return minimumCursor() >= sequence;
+   }
+
+   /**
+    * Nothing to deliver: every lane has read the last slot, and none holds reentrant publications.
+    */
+   boolean isIdle() {
+      long last = published;
+      for (Lane lane : lanes) {
+         if (lane.cursor != last || lane.holding) {
+            return false;
+         }
+      }
+      return published == last;
+   }
+
+   /**
+    * Shuts down and waits for the lanes to drain until the deadline, then stops the lanes still behind.
+    * @return the number of deliveries not done by the deadline
+    */
+   long shutdown(long timeoutNanos) {
+      shutdown();
+      AsyncSynEventHandler.waitUntil(() -> {
+         for (Lane lane : lanes) {
+            if (lane.isAlive()) {
+               return false;
+            }
+         }
+         return true;
+      }, timeoutNanos);
+      long dropped = 0;
+      for (Lane lane : lanes) {
+         dropped += lane.abort();
+      }
+      return dropped;
+   }
+
+   static void backOff(int tries, long parkNanos) {
+      if (tries < SPIN_TRIES) {
+         return; // Busy spin
+      } else if (tries < SPIN_TRIES * 2) {
+         Thread.yield();
+      } else {
+         LockSupport.parkNanos(parkNanos);
+      }
+   }
+
+   //One published event: written by the publisher, read by every lane
+   static final class Slot {
+      Object event;
+      Subscription[] subscriptions;
+      boolean[] skipped;
+      long publishNanos; // 0 when latency tracking is off
+
+      Slot set(Object event, Subscription[] subscriptions, boolean[] skipped, long publishNanos) {
+         this.event = event;
+         this.subscriptions = subscriptions;
+         this.skipped = skipped;
+         this.publishNanos = publishNanos;
+         return this;
+      }
+   }
+
+   //A reader of the ring, delivering to the Subscriptions hashed to it
+   static final class Lane extends Thread {
+      static final long ABORTED = Long.MIN_VALUE;
+      final BroadcastRing ring;
+      final int laneId;
+      final Deque<Slot> pending = new ArrayDeque<>(); // Reentrant publications waiting for ring space
+      volatile long cursor = -1; // Sequence of the last slot read
+      final AtomicLong claimed = new AtomicLong(-1); // Sequence of the last slot taken for delivery, ABORTED once stopped
+      volatile boolean sleeping;
+      volatile boolean holding; // Has pending publications
+      volatile long droppedPending; // Deliveries of the pending publications dropped at shutdown
+
+      Lane(BroadcastRing ring, int laneId, String name) {
+         super(name);
+         this.ring = ring;
+         this.laneId = laneId;
+      }
+
+      @Override
+      public void run() {
+         int idle = 0;
+         while (true) {
+            long next = cursor + 1;
+            if (next <= ring.published) {
+               if (!claimed.compareAndSet(cursor, next)) { // Aborted
+                  droppedPending = countDeliveries(pending);
+                  return;
+               }
+               deliver(ring.slots[(int) next & ring.mask]);
+               cursor = next;
+               idle = 0;
+            } else if (!ring.running) {
+               if (!pending.isEmpty()) {
+                  logger.warning(getName() + ": Shut down with undelivered reentrant events: " + pending.size());
+                  droppedPending = countDeliveries(pending);
+               }
+               return;
+            } else {
+               waitForEvents(idle++);
+            }
+            flushPending();
+         }
+      }
+
+      private void deliver(Slot slot) {
+         Subscription[] subscriptions = slot.subscriptions;
+         boolean[] skipped = slot.skipped;
+         int laneCount = ring.lanes.length;
+         for (int i = 0; i < subscriptions.length; i++) {
+            Subscription subscription = subscriptions[i];
+            if ((skipped == null || !skipped[i]) && isOwnDelivery(slot.event, subscription, laneCount)) {
+               try {
+                  SynEventHandler.invokeCallback(slot.event, subscription, slot.publishNanos);
+               } catch (RuntimeException e) {
+                  logger.log(Level.WARNING, getName() + ": Callback Error: " + e.getMessage(), e);
+               }
+            }
+         }
+      }
+
+      //The delivery falls on this lane: the Subscription's lane, or the lane of the event's partition key
+      private boolean isOwnDelivery(Object event, Subscription subscription, int laneCount) {
+         try {
+            return AsyncSynEventHandler.partitionOf(subscription, event, laneCount) == laneId;
+         } catch (RuntimeException e) { // Bad key extractor: reported once, by the Subscription's own lane
+            if (Math.abs(subscription.hash) % laneCount == laneId) {
+               subscription.errorCount.increment();
+               logger.log(Level.WARNING, getName() + ": Partition Key Error: " + e.getMessage(), e);
+            }
+            return false;
+         }
+      }
+
+      private void flushPending() {
+         if (pending.isEmpty()) {
+            return;
+         }
+         while (!pending.isEmpty()) {
+            Slot slot = pending.peek();
+            if (!ring.tryPublish(slot.event, slot.subscriptions, slot.skipped, slot.publishNanos)) {
+               return;
+            }
+            pending.poll();
+         }
+         holding = false;
+      }
+
+      //Stops the lane before its next slot (from another thread, after the ring has stopped publishing)
+      //@return the deliveries of this lane not done
+      long abort() {
+         long last;
+         do {
+            last = claimed.get();
+            if (last == ABORTED) {
+               return 0;
+            }
+         } while (!claimed.compareAndSet(last, ABORTED));
+         LockSupport.unpark(this);
+         long undelivered = isAlive() ? 0 : droppedPending; // Counted by the lane as it stopped
+         int laneCount = ring.lanes.length;
+         for (long sequence = last + 1; sequence <= ring.published; sequence++) {
+            Slot slot = ring.slots[(int) sequence & ring.mask];
+            for (int i = 0; i < slot.subscriptions.length; i++) {
+               if ((slot.skipped == null || !slot.skipped[i]) && isOwn(slot.event, slot.subscriptions[i], laneCount)) {
+                  undelivered++;
+               }
+            }
+         }
+         return undelivered;
+      }
+
+      private long countDeliveries(Deque<Slot> publications) {
+         long deliveries = 0;
+         for (Slot slot : publications) {
+            for (int i = 0; i < slot.subscriptions.length; i++) {
+               if (slot.skipped == null || !slot.skipped[i]) {
+                  deliveries++;
+               }
+            }
+         }
+         return deliveries;
+      }
+
+      private boolean isOwn(Object event, Subscription subscription, int laneCount) {
+         try {
+            return AsyncSynEventHandler.partitionOf(subscription, event, laneCount) == laneId;
+         } catch (RuntimeException e) {
+            return false;
+         }
+      }
+
+      private void waitForEvents(int idle) {
+         if (idle < SPIN_TRIES) {
+            return; // Busy spin
+         }
+         sleeping = true;
+         if (cursor + 1 > ring.published && ring.running) { // Re-check after announcing sleep
+            LockSupport.parkNanos(this, pending.isEmpty() ? 1_000_000_000L : 100_000L);
+         }
+         sleeping = false;
+      }
+   }
+}
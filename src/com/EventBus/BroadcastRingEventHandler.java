@@ -0,0 +1,82 @@
+package com.EventBus;
+
+/**
+ * A BroadcastRingEventHandler is an alternative delivery engine for AsyncEventBus (see AsyncEventBus.DeliveryMode.BROADCAST_RING). Instead of one Runnable and one lane queue insert for every subscriber of every event, each published event is written once into a BroadcastRing, and each lane thread reads it through its own cursor.
+ *
+ * <p>Filtering and Last Event Caching behave exactly as in AsyncSynEventHandler: both are applied on the publisher's thread at publication time, and the Subscriptions that are filtered out or are caching are marked as skipped in the ring slot. Per Subscription ordering is kept as each Subscription is served by a single lane (same hash partitioning as AsyncSynEventHandler).
+ *
+ * <p>As the publisher is gated by the slowest lane, a slow subscriber holds back publishers once the ring is full (ring size is the bound on undelivered events).
+ * @author Mustaq Ali
+ */
+public class BroadcastRingEventHandler extends AsyncSynEventHandler {
+   static final int DEFAULT_RING_SIZE = 1024;
+   private final BroadcastRing ring;
+
+   BroadcastRingEventHandler(SubscriberHandler subscriptionHandler, String busId, int threadCount, int ringSize) {
+      super(subscriptionHandler, threadCount, false);
+      this.ring = new BroadcastRing(busId, ringSize, threadCount);
+   }
+
+   @Override
+    void publishToSubscribers(Object event, Subscription[] subscriptions, long publishNanos) throws Error {
+      boolean[] skipped = null; // Only allocated when a subscription filters / caches this event
+      int skippedCount = 0;
+      for (int i = 0; i < subscriptions.length; i++) {
+         if (!isDeliverable(event, subscriptions[i])) {
+            if (skipped == null) {
+               skipped = new boolean[subscriptions.length];
+            }
+            skipped[i] = true;
+            skippedCount++;
+         }
+      }
+      if (skippedCount < subscriptions.length) {
+         ring.publish(event, subscriptions, skipped, publishNanos);
+      }
+   }
+
+   //Each event of a batch is one slot write for all its lanes already
+   @Override
+    void publishEvents(Object[] events) throws Error {
+      publishInOrder(events, routeBatch(events), publishStamp());
+   }
+
+   @Override
+    void publishToSingleSubscriber(Object event, Subscription subscription, long publishNanos) {
+      if (isDeliverable(event, subscription)) {
+         ring.publish(event, new Subscription[] {subscription}, null, publishNanos);
+      }
+   }
+
+   @Override
+    void queueReplay(Subscription subscription) {
+      ring.publish(REPLAY, new Subscription[] {subscription}, null, 0L);
+   }
+
+   @Override
+    void shutDownExecutorPool() {
+      ring.shutdown();
+   }
+
+   @Override
+    boolean flush(long timeoutNanos) {
+      checkNotOnLane();
+      long published = ring.getPublishedSequence();
+      return waitUntil(() -> ring.isDelivered(published), timeoutNanos);
+   }
+
+   @Override
+    boolean awaitQuiescence(long timeoutNanos) {
+      checkNotOnLane();
+      return waitUntil(ring::isIdle, timeoutNanos);
+   }
+
+   @Override
+    long shutdown(long timeoutNanos) {
+      return ring.shutdown(timeoutNanos);
+   }
+
+   int getRingSize() {
+      return ring.getRingSize();
+   }
+}
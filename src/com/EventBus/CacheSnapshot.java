@@ -0,0 +1,400 @@
+package com.EventBus;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A CacheSnapshot saves the events of a LastValueCache into a memory mapped file, through an EventSerializer, and brings them back at the next start of the bus, so the first polls after a restart are served before the first live events.
+ *
+ * <p>The snapshot is kept in two files, the given name with ".0" and ".1" appended, written in turn. Each holds the events by type, oldest write first, after a header with a generation and the length written: the file's magic number is cleared before it is written over and set again, last, once the rest is forced, so a crash while writing leaves the other file's snapshot. Loading takes the valid file of the highest generation. The files are never truncated, replaced or deleted, which the OS refuses for a mapped file on Windows, and the file a loaded snapshot is still read from is not written over: until its events are all read, each snapshot is written over the other file. Loading maps the file and indexes it (the type names, and where each event's bytes are) without deserializing anything: the cache reads a type's events from the mapping the first time the type is looked up (see Restored), so a restart costs no full deserialization pass, and the types never polled are never read. Live events cached since the start win over the snapshot's.
+ *
+ * <p>The snapshot is written on demand, every interval on a background thread, and when the bus shuts down. The events of a type not read back yet are copied as they are (bytes) into the next snapshot, so an early snapshot doesn't lose them.
+ * @author Mustaq Ali
+ */
+final class CacheSnapshot {
+   static final int MAGIC = 0x45564332; // "EVC2"
+   static final int GENERATION = 4; // Header: magic, generation (long), length written, type count
+   static final int LENGTH = 12;
+   static final int TYPE_COUNT = 16;
+   static final int HEADER = 20;
+   static final int INITIAL_FILE_SIZE = 1 << 20; // Doubled while writing when too small
+   static final Logger logger = Logger.getLogger(CacheSnapshot.class.getName());
+
+   private final String busId;
+   private final Path file;
+   private final Path[] files; // Written in turn
+   private final EventSerializer serializer;
+   private final LastValueCache cache;
+   private Thread thread; // Periodic snapshots, guarded by the snapshot's monitor
+   private MappedByteBuffer buffer; // Of the file being written
+   private FileChannel channel;
+   private int newest = -1; // Index of the file holding the newest snapshot
+   private long generation;
+
+   CacheSnapshot(String busId, Path file, EventSerializer serializer, LastValueCache cache) {
+      if (file == null || serializer == null) {
+         throw new EventBusException("Cache snapshot file and serializer are required");
+      }
+      this.busId = busId;
+      this.file = file;
+      this.files = files(file);
+      this.serializer = serializer;
+      this.cache = cache;
+   }
+
+   /**
+    * Hands the events of the snapshot file, if there is one, to the cache, to be read when looked up.
+    * @return the number of events in the file
+    */
+   synchronized int load() {
+      int length = 0;
+      for (int i = 0; i < files.length; i++) {
+         ByteBuffer header = readHeader(files[i]);
+         if (header != null && (newest < 0 || header.getLong(GENERATION) > generation)) {
+            newest = i;
+            generation = header.getLong(GENERATION);
+            length = header.getInt(LENGTH);
+         }
+      }
+      if (newest < 0) {
+         return 0;
+      }
+      MappedByteBuffer mapped;
+      try (FileChannel readChannel = FileChannel.open(files[newest], StandardOpenOption.READ)) {
+         mapped = readChannel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+      } catch (IOException e) {
+         throw new EventBusException("Error loading cache snapshot " + files[newest], e);
+      }
+      Restored restored = new Restored(files[newest], mapped, serializer);
+      int count = restored.index();
+      if (count > 0) {
+         cache.restore(restored);
+      }
+      logger.fine(busId + ": Cache snapshot loaded: " + count + " events");
+      return count;
+   }
+
+   //The two files of a snapshot
+   static Path[] files(Path file) {
+      return new Path[] {file.resolveSibling(file.getFileName() + ".0"), file.resolveSibling(file.getFileName() + ".1")};
+   }
+
+   //The header of a complete snapshot file, or null
+   private ByteBuffer readHeader(Path candidate) {
+      if (!Files.exists(candidate)) {
+         return null;
+      }
+      ByteBuffer header = ByteBuffer.allocate(HEADER);
+      try (FileChannel readChannel = FileChannel.open(candidate, StandardOpenOption.READ)) {
+         while (header.hasRemaining() && readChannel.read(header, header.position()) > 0) {
+            // Until the header is read, or the end of the file
+         }
+         if (header.hasRemaining() || header.getInt(0) != MAGIC) {
+            logger.warning(busId + ": Not a complete cache snapshot, ignored: " + candidate);
+            return null;
+         }
+         int length = header.getInt(LENGTH);
+         if (length < HEADER || length > readChannel.size()) {
+            logger.warning(busId + ": Cache snapshot length out of the file, ignored: " + candidate);
+            return null;
+         }
+         return header;
+      } catch (IOException e) {
+         throw new EventBusException("Error loading cache snapshot " + candidate, e);
+      }
+   }
+
+   /**
+    * Writes the cached events, and those of the last snapshot not read back yet, into the file not holding the newest snapshot (or into that one if the other is still read from).
+    * @return the number of events written
+    */
+   synchronized int write() {
+      Restored restored = cache.getRestored();
+      Map<String, List<ByteBuffer>> unread = Collections.emptyMap();
+      Map<Class<?>, List<Object>> cached;
+      if (restored == null) {
+         cached = cache.snapshotAll();
+      } else {
+         synchronized (restored) { // The cache reads a type back under this monitor: none is read between the two
+            unread = restored.unread();
+            cached = cache.snapshotAll();
+         }
+      }
+      int target = newest < 0 ? 0 : 1 - newest;
+      if (restored != null && restored.file.equals(files[target])) {
+         target = newest;
+      }
+      Path into = files[target];
+      int count = 0;
+      try {
+         Path parent = into.toAbsolutePath().getParent();
+         if (parent != null) {
+            Files.createDirectories(parent);
+         }
+         channel = FileChannel.open(into, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+         buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, INITIAL_FILE_SIZE);
+         buffer.putInt(0, 0); // Not a snapshot until completely written
+         buffer.force();
+         buffer.position(HEADER);
+         int types = 0;
+         Set<String> written = new HashSet<>();
+         for (Map.Entry<Class<?>, List<Object>> type : cached.entrySet()) {
+            count += writeType(type.getKey().getName(), type.getValue(), null);
+            written.add(type.getKey().getName());
+            types++;
+         }
+         for (Map.Entry<String, List<ByteBuffer>> type : unread.entrySet()) { // Those also cached live were merged by snapshotAll()
+            if (!written.contains(type.getKey())) {
+               count += writeType(type.getKey(), null, type.getValue());
+               types++;
+            }
+         }
+         buffer.putLong(GENERATION, generation + 1);
+         buffer.putInt(LENGTH, buffer.position());
+         buffer.putInt(TYPE_COUNT, types);
+         buffer.force();
+         buffer.putInt(0, MAGIC);
+         buffer.force();
+         generation++;
+         newest = target;
+         logger.fine(busId + ": Cache snapshot written: " + count + " events into " + into);
+         return count;
+      } catch (IOException e) {
+         throw new EventBusException("Error writing cache snapshot " + into, e);
+      } finally {
+         buffer = null; // Unmapped when collected
+         if (channel != null && channel.isOpen()) {
+            try {
+               channel.close();
+            } catch (IOException e) {
+               logger.log(Level.WARNING, "Error closing cache snapshot " + into, e);
+            }
+         }
+         channel = null;
+      }
+   }
+
+   //Writes the type's name, event count and events (objects to serialize, or bytes to copy); returns the events written
+   private int writeType(String typeName, List<Object> events, List<ByteBuffer> bytes) throws IOException {
+      byte[] name = typeName.getBytes(StandardCharsets.UTF_8);
+      ensure(2 + name.length + 4);
+      buffer.putShort((short) name.length);
+      buffer.put(name);
+      int countPosition = buffer.position();
+      buffer.putInt(0);
+      int count = 0;
+      int total = events != null ? events.size() : bytes.size();
+      for (int i = 0; i < total; i++) {
+         if (events != null ? writeEvent(events.get(i)) : copyEvent(bytes.get(i))) {
+            count++;
+         }
+      }
+      buffer.putInt(countPosition, count);
+      return count;
+   }
+
+   private boolean writeEvent(Object event) throws IOException {
+      while (true) {
+         ensure(4);
+         int start = buffer.position();
+         try {
+            buffer.position(start + 4);
+            serializer.write(event, buffer);
+            buffer.putInt(start, buffer.position() - start - 4);
+            return true;
+         } catch (BufferOverflowException e) {
+            buffer.position(start);
+            grow();
+         } catch (IOException | RuntimeException e) {
+            buffer.position(start);
+            logger.log(Level.WARNING, busId + ": Cached event not snapshot: " + event.getClass().getName(), e);
+            return false;
+         }
+      }
+   }
+
+   private boolean copyEvent(ByteBuffer bytes) throws IOException {
+      ensure(4 + bytes.remaining());
+      buffer.putInt(bytes.remaining());
+      buffer.put(bytes.duplicate());
+      return true;
+   }
+
+   private void ensure(int bytes) throws IOException {
+      while (buffer.remaining() < bytes) {
+         grow();
+      }
+   }
+
+   //Maps the file again, twice as large
+   private void grow() throws IOException {
+      int position = buffer.position();
+      if (buffer.capacity() > Integer.MAX_VALUE / 2) {
+         throw new EventBusException("Cache snapshot larger than 1 GB: " + file);
+      }
+      buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, 2L * buffer.capacity());
+      buffer.position(position);
+   }
+
+   /**
+    * Writes a snapshot every intervalMillis on a background thread (0 = off).
+    */
+   synchronized void start(long intervalMillis) {
+      stop();
+      if (intervalMillis <= 0) {
+         return;
+      }
+      thread = new Thread(() -> {
+         try {
+            while (!Thread.currentThread().isInterrupted()) {
+               Thread.sleep(intervalMillis);
+               try {
+                  write();
+               } catch (EventBusException e) {
+                  logger.log(Level.WARNING, busId + ": Periodic cache snapshot failed", e);
+               }
+            }
+         } catch (InterruptedException e) {
+            // Stopped
+         }
+      }, "CacheSnapshot-" + busId);
+      thread.setDaemon(true);
+      thread.start();
+   }
+
+   synchronized void stop() {
+      if (thread != null) {
+         thread.interrupt();
+         thread = null;
+      }
+   }
+
+   /**
+    * The events of a loaded snapshot not read by the cache yet: per type name, where each event's bytes are in the mapped file, oldest first. A type is read, and forgotten, the first time the cache looks it up.
+    */
+   static final class Restored {
+      final Path file;
+      private final ByteBuffer mapped;
+      private final EventSerializer serializer;
+      private final Map<String, int[]> types = new ConcurrentHashMap<>(); // Offset & length of each event: {offset0, length0, offset1, ...}
+
+      Restored(Path file, ByteBuffer mapped, EventSerializer serializer) {
+         this.file = file;
+         this.mapped = mapped;
+         this.serializer = serializer;
+      }
+
+      //Indexes the file, mapped up to the length written: type names and event positions only; returns the number of events
+      int index() {
+         ByteBuffer in = mapped.duplicate();
+         in.position(HEADER);
+         int count = 0;
+         try {
+            int typeCount = mapped.getInt(TYPE_COUNT);
+            for (int t = 0; t < typeCount; t++) {
+               byte[] name = new byte[in.getShort() & 0xFFFF];
+               in.get(name);
+               int events = in.getInt();
+               if (events < 0 || events > in.remaining() / 4) { // Each event has at least its length
+                  throw new IllegalArgumentException("Event count out of the file");
+               }
+               int[] positions = new int[2 * events];
+               for (int i = 0; i < events; i++) {
+                  int length = in.getInt();
+                  if (length < 0) {
+                     throw new IllegalArgumentException("Negative length");
+                  }
+                  positions[2 * i] = in.position();
+                  positions[2 * i + 1] = length;
+                  in.position(in.position() + length);
+               }
+               types.merge(new String(name, StandardCharsets.UTF_8), positions, Restored::concat);
+               count += events;
+            }
+         } catch (BufferUnderflowException | IllegalArgumentException e) {
+            logger.warning("Cache snapshot truncated, read up to byte " + in.position() + ": " + file);
+         }
+         return count;
+      }
+
+      boolean contains(Class<?> eventType) {
+         return types.containsKey(eventType.getName());
+      }
+
+      boolean isEmpty() {
+         return types.isEmpty();
+      }
+
+      void remove(Class<?> eventType) {
+         types.remove(eventType.getName());
+      }
+
+      /**
+       * Deserializes the events of the type, oldest first (an event that can't be read is skipped).
+       */
+      List<Object> read(Class<?> eventType) {
+         List<Object> events = new ArrayList<>();
+         int[] positions = types.get(eventType.getName());
+         if (positions == null) {
+            return events;
+         }
+         for (int i = 0; i < positions.length; i += 2) {
+            try {
+               Object event = serializer.read(slice(positions[i], positions[i + 1]));
+               if (event != null && event.getClass() == eventType) {
+                  events.add(event);
+               }
+            } catch (IOException | RuntimeException e) {
+               logger.log(Level.WARNING, "Snapshot event not read: " + eventType.getName(), e);
+            }
+         }
+         return events;
+      }
+
+      //The bytes of the types not read yet
+      Map<String, List<ByteBuffer>> unread() {
+         Map<String, List<ByteBuffer>> unread = new LinkedHashMap<>();
+         for (Map.Entry<String, int[]> type : types.entrySet()) {
+            List<ByteBuffer> events = new ArrayList<>();
+            int[] positions = type.getValue();
+            for (int i = 0; i < positions.length; i += 2) {
+               events.add(slice(positions[i], positions[i + 1]));
+            }
+            unread.put(type.getKey(), events);
+         }
+         return unread;
+      }
+
+      private ByteBuffer slice(int offset, int length) {
+         ByteBuffer bytes = mapped.duplicate();
+         bytes.position(offset);
+         bytes.limit(offset + length);
+         return bytes.slice();
+      }
+
+      private static int[] concat(int[] first, int[] second) {
+         int[] both = new int[first.length + second.length];
+         System.arraycopy(first, 0, both, 0, first.length);
+         System.arraycopy(second, 0, both, first.length, second.length);
+         return both;
+      }
+   }
+}
@@ -0,0 +1,45 @@
+package com.EventBus;
+
+/**
+ * CascadeStats is a point in time snapshot of the reentrant cascades of a SyncEventBus since it started: the publications whose callbacks published events, the events they queued, the longest and deepest cascade, and the publications cut off by the maximum cascade depth or dropped by a failed cascade.
+ * @author Mustaq Ali
+ */
+public final class CascadeStats {
+   private final long cascadeCount;
+   private final long reentrantCount;
+   private final long longestCascade;
+   private final long deepestCascade;
+   private final long rejectedCount;
+   private final long abandonedCount;
+   private final int maxCascadeDepth;
+
+   CascadeStats(long cascadeCount, long reentrantCount, long longestCascade, long deepestCascade,
+                long rejectedCount, long abandonedCount, int maxCascadeDepth) {
+      this.cascadeCount = cascadeCount;
+      this.reentrantCount = reentrantCount;
+      this.longestCascade = longestCascade;
+      this.deepestCascade = deepestCascade;
+      this.rejectedCount = rejectedCount;
+      this.abandonedCount = abandonedCount;
+      this.maxCascadeDepth = maxCascadeDepth;
+   }
+
+   public long getCascadeCount() { return cascadeCount; }
+   public long getReentrantCount() { return reentrantCount; }
+   public long getLongestCascade() { return longestCascade; }
+   public long getDeepestCascade() { return deepestCascade; }
+   public long getRejectedCount() { return rejectedCount; }
+   public long getAbandonedCount() { return abandonedCount; }
+   public int getMaxCascadeDepth() { return maxCascadeDepth; }
+
+   public double getMeanCascadeLength() {
+      return cascadeCount == 0 ? 0 : (double) reentrantCount / cascadeCount;
+   }
+
+   @Override
+   public String toString() {
+      return "Cascades: count=" + cascadeCount + " reentrant=" + reentrantCount + " longest=" + longestCascade +
+              " deepest=" + deepestCascade + "/" + (maxCascadeDepth == Integer.MAX_VALUE ? "unlimited" : maxCascadeDepth) +
+              " rejected=" + rejectedCount + " abandoned=" + abandonedCount;
+   }
+}
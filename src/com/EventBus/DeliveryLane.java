@@ -0,0 +1,819 @@
+package com.EventBus;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A DeliveryLane is one single threaded lane of the AsyncSynEventHandler hash-partitioned-thread-pool, with an optionally bounded queue.
+ *
+ * <p>The lane queue is a ring of preallocated delivery slots (event + Subscription + publication time stamp), so a delivery allocates nothing: no Runnable and no queue node per event. The ring of a bounded lane is sized by its capacity; the ring of an unbounded lane doubles when full, and is then reused as is.
+ *
+ * <p><b>Priority:</b> the lane has one ring per DeliveryPriority, and a delivery is queued in the ring of its Subscription's priority. The lane thread takes from the highest priority ring that has deliveries, so a HIGH Subscription (e.g. a risk or kill switch subscriber) doesn't wait behind the backlog of NORMAL ones. Against starvation, a lower priority level that has been passed over STARVATION_LIMIT times in a row while it had deliveries queued is served next: it gets at least one delivery in STARVATION_LIMIT + 1. All the deliveries of a Subscription are in one ring, so they stay FIFO; when its priority changes, its queued deliveries are moved to the new ring, in order, with all the lanes locked (see setPriority()), where they take the place their age gives them among the ring's deliveries. The lane capacity bounds the deliveries of all the rings together.
+ *
+ * <p>When the lane queue is full, the BackpressurePolicy of the Subscription (or the bus default) is applied, and each outcome is counted: blocked publishers, dropped newest / oldest events, caller runs and failures.
+ *
+ * <p>A lane's share of a batch publication is written under one lock; if the lane fills up, the rest of the batch is taken event by event under the backpressure policies.
+ *
+ * <p>The lane thread is started on the first delivery. It spins briefly when idle and then parks; publishers unpark it. A callback error on a lane is logged and the lane carries on with the next event.
+ *
+ * <p><b>Migration fence:</b> the LaneRebalancer can move a Subscription to another lane at runtime (moveSubscription()). Under the old lane's lock the Subscription is pointed at the new lane and a FENCE marker is queued behind its last delivery on the old lane; from then on publishers queue it on the new lane only (an offer to the old lane is turned away and re-routed). The new lane holds back the Subscription's deliveries until the old lane reaches the fence, i.e. until all the earlier ones have been delivered, and then a RELEASE marker lets it deliver the held ones first. So the deliveries of a Subscription keep their order, and its callbacks never run on two lanes at once.
+ *
+ * <p><b>Conflation:</b> a Subscription with a conflation key (AsyncEventBus.setConflationKey()) only needs the latest event of each key. Its Subscription keeps the sequence of its latest queued delivery per key (only while that delivery is queued), and an event whose key still has a delivery queued on the lane overwrites that slot in place instead of taking a new one, so the Subscription's share of the lane is bounded by its number of distinct keys and a full lane doesn't push back on it. The slot keeps its place in the queue, so the order of the keys is that of their first queued event. A delivery the lane has taken, or DROP_OLDEST has moved, is no longer replaced.
+ *
+ * <p>The lane thread times one in COST_SAMPLE_RATE callbacks of each Subscription, as the callback cost that the LaneRebalancer balances.
+ *
+ * <p>For telemetry (see AsyncEventBusMonitor) the lane keeps running totals of queued and taken deliveries (the ring sequence numbers) and of the time its thread was busy. The busy time is only stamped when the lane turns busy or idle, so a lane under steady load pays nothing for it.
+ * @author Mustaq Ali
+ */
+final class DeliveryLane {
+   static final int UNBOUNDED = Integer.MAX_VALUE;
+   static final int INITIAL_SLOTS = 1024;
+   private static final int SPIN_TRIES = 100;
+   static final int COST_SAMPLE_RATE = 8; // Power of two
+   private static final Object FENCE = new Object(); // Migration markers, see moveSubscription()
+   private static final Object RELEASE = new Object();
+   private static final Object NULL_KEY = new Object(); // The null conflation key
+   static final int STARVATION_LIMIT = 16; // Takes of higher priorities in a row a waiting lower priority level lets pass
+   private static final int PRIORITY_SLOTS = 16; // Initial slots of the HIGH and LOW rings, which are mostly idle
+   //Outcomes of offer()
+   private static final int QUEUED = 0;
+   private static final int FULL = 1;
+   private static final int MOVED = 2;
+   static final Logger logger = Logger.getLogger(DeliveryLane.class.getName());
+
+   final int laneId;
+   final int capacity;
+   final BackpressurePolicy defaultPolicy;
+   private final List<DeliveryLane> lanes; // All the lanes of the bus, for re-routing moved Subscriptions
+   final LongAdder blockedCount = new LongAdder();
+   final LongAdder droppedNewestCount = new LongAdder();
+   final LongAdder droppedOldestCount = new LongAdder();
+   final LongAdder callerRunsCount = new LongAdder();
+   final LongAdder failedCount = new LongAdder();
+   private final LaneThread thread;
+
+   //Slot rings by DeliveryPriority ordinal, guarded by the lane's monitor
+   private final SlotRing[] rings;
+   private final int[] bypassed; // Takes of higher priorities in a row while the level had deliveries queued
+   private int queued; // Deliveries queued in all the rings
+   private long requeued; // Deliveries moved to another ring by a priority change
+   private long appended; // Tickets given to the deliveries queued, in order: the flush barrier (see mark())
+   private long currentTicket; // Of the delivery the lane thread took last
+   private boolean started;
+   private boolean shutdown;
+   private volatile boolean waiting; // Lane thread is parked
+   private volatile long busyNanos; // Lane thread busy time, up to the last time it turned idle
+   private volatile long busySince; // When the lane thread turned busy, 0 while idle (written under the lane's lock)
+
+   DeliveryLane(int laneId, int capacity, BackpressurePolicy defaultPolicy, List<DeliveryLane> lanes) {
+      this.laneId = laneId;
+      this.lanes = lanes;
+      this.capacity = capacity;
+      this.defaultPolicy = defaultPolicy;
+      int slots = Integer.highestOneBit(Math.max(2, Math.min(capacity, INITIAL_SLOTS)) - 1) << 1; // Next power of two
+      DeliveryPriority[] priorities = DeliveryPriority.values();
+      this.rings = new SlotRing[priorities.length];
+      for (DeliveryPriority priority : priorities) {
+         rings[priority.ordinal()] = new SlotRing(priority.ordinal(), priority == DeliveryPriority.NORMAL ? slots : Math.min(slots, PRIORITY_SLOTS));
+      }
+      this.bypassed = new int[priorities.length];
+      this.thread = new LaneThread(this, "DeliveryLane-" + laneId);
+   }
+
+   void deliver(Object event, Subscription subscription, long publishNanos) {
+      int offered = offer(event, subscription, publishNanos);
+      if (offered == MOVED) {
+         reroute(event, subscription, publishNanos);
+         return;
+      }
+      if (offered == FULL) {
+         whenFull(event, subscription, publishNanos);
+      }
+      signal();
+   }
+
+   //The Subscription was moved to another lane after the publisher picked this one
+   private void reroute(Object event, Subscription subscription, long publishNanos) {
+      lanes.get(subscription.laneId).deliver(event, subscription, publishNanos);
+   }
+
+   /**
+    * Queues the deliveries (in the list order) under one lock.
+    */
+   void deliverAll(List<Delivery> deliveries) {
+      int written = 0;
+      synchronized (this) {
+         while (written < deliveries.size()) {
+            Delivery delivery = deliveries.get(written);
+            if (offer(delivery.event, delivery.subscription, delivery.publishNanos) != QUEUED) break;
+            written++;
+         }
+      }
+      signal();
+      RejectedExecutionException rejected = null;
+      for (int i = written; i < deliveries.size(); i++) { // Lane is full (or a Subscription moved): each delivery on its own
+         try {
+            Delivery delivery = deliveries.get(i);
+            deliver(delivery.event, delivery.subscription, delivery.publishNanos);
+         } catch (RejectedExecutionException e) {
+            rejected = e;
+         }
+      }
+      if (rejected != null) {
+         throw rejected;
+      }
+   }
+
+   //Writes the next slot if the lane has room (an unbounded lane always has) and the Subscription is still on this lane,
+   //or overwrites the queued delivery of the same conflation key
+   @SuppressWarnings("unchecked")
+   private synchronized int offer(Object event, Subscription subscription, long publishNanos) {
+      if (shutdown) {
+         throw new RejectedExecutionException("Lane " + laneId + " is shut down");
+      }
+      int assigned = subscription.laneId;
+      if (assigned >= 0 && assigned != laneId && subscription.partitionKey == null) {
+         return MOVED;
+      }
+      Function<Object, ?> conflationKey = (Function<Object, ?>) subscription.conflationKey;
+      Object key = null;
+      if (conflationKey != null) {
+         key = conflationKeyOf(conflationKey, event);
+         if (replacePending(key, event, subscription, publishNanos)) {
+            return QUEUED;
+         }
+      }
+      if (queued >= capacity) {
+         return FULL;
+      }
+      append(event, subscription, publishNanos);
+      if (conflationKey != null) {
+         rememberPending(key, subscription);
+      }
+      return QUEUED;
+   }
+
+   //The ring of the Subscription's priority
+   private SlotRing ringOf(Subscription subscription) {
+      return rings[subscription.priority.ordinal()];
+   }
+
+   private static Object conflationKeyOf(Function<Object, ?> conflationKey, Object event) {
+      Object key;
+      try {
+         key = conflationKey.apply(event);
+      } catch (ClassCastException e) {
+         throw new EventBusException(e.getMessage());
+      }
+      return key == null ? NULL_KEY : key;
+   }
+
+   //Overwrites the queued delivery of the same key, if the lane still has it in its slot
+   private boolean replacePending(Object key, Object event, Subscription subscription, long publishNanos) {
+      Map<Object, Pending> pendingByKey = subscription.pendingByKey;
+      Pending pending = pendingByKey == null ? null : pendingByKey.get(key);
+      SlotRing ring = ringOf(subscription);
+      if (pending == null || pending.sequence < ring.head || pending.sequence >= ring.tail) {
+         return false;
+      }
+      int i = (int) pending.sequence & ring.mask;
+      if (ring.pendings[i] != pending) {
+         return false; // Moved by DROP_OLDEST or a priority change, or queued on another lane
+      }
+      ring.events[i] = event;
+      ring.stamps[i] = publishNanos;
+      subscription.conflatedCount.increment();
+      return true;
+   }
+
+   //Attaches the key's Pending to the slot just written; it is dropped when the slot is taken, moved or discarded
+   private void rememberPending(Object key, Subscription subscription) {
+      Map<Object, Pending> pendingByKey = subscription.pendingByKey;
+      if (pendingByKey == null) {
+         return;
+      }
+      SlotRing ring = ringOf(subscription);
+      Pending pending = new Pending(key, ring.tail - 1);
+      ring.pendings[(int) pending.sequence & ring.mask] = pending;
+      pendingByKey.put(key, pending); // Replaces the Pending of a slot DROP_OLDEST has moved, if any
+   }
+
+   //Writes the next slot of the Subscription's ring (markers may take a bounded lane past its capacity)
+   private void append(Object event, Subscription subscription, long publishNanos) {
+      ringOf(subscription).append(event, subscription, publishNanos, appended++);
+      queued++;
+      if (!started) {
+         started = true;
+         thread.start();
+      }
+   }
+
+   /**
+    * Moves a Subscription of this lane to another lane, behind a migration fence (see the class comment).
+    * @return false if the Subscription is already migrating or the lane is shut down
+    */
+   boolean moveSubscription(Subscription subscription, int toLane) {
+      synchronized (this) {
+         if (shutdown || subscription.migrating || toLane == laneId) {
+            return false;
+         }
+         subscription.migrating = true;
+         subscription.fenced = true;
+         subscription.laneId = toLane; // Publishers go to the new lane from here on
+         append(FENCE, subscription, 0L);
+      }
+      signal();
+      return true;
+   }
+
+   //Queues a migration or replay marker, whatever the lane's capacity
+   void mark(Object marker, Subscription subscription) {
+      synchronized (this) {
+         append(marker, subscription, 0L);
+      }
+      signal();
+   }
+
+   /**
+    * Sets the DeliveryPriority of a Subscription, moving its queued deliveries to the ring of the new priority on each lane. All the lanes are locked (in lane order) meanwhile, so that no delivery of the Subscription is queued in the old ring behind the moved ones.
+    */
+   static void setPriority(List<DeliveryLane> lanes, Subscription subscription, DeliveryPriority priority) {
+      setPriority(lanes, 0, subscription, priority);
+   }
+
+   private static void setPriority(List<DeliveryLane> lanes, int from, Subscription subscription, DeliveryPriority priority) {
+      if (from == lanes.size()) {
+         subscription.priority = priority;
+         return;
+      }
+      DeliveryLane lane = lanes.get(from);
+      synchronized (lane) {
+         setPriority(lanes, from + 1, subscription, priority);
+         lane.requeue(subscription);
+      }
+   }
+
+   //Moves the Subscription's queued deliveries to the ring of its (new) priority (lane's lock held)
+   private void requeue(Subscription subscription) {
+      SlotRing to = ringOf(subscription);
+      for (SlotRing ring : rings) {
+         if (ring != to) {
+            requeued += ring.moveTo(subscription, to);
+         }
+      }
+   }
+
+   private void signal() {
+      if (waiting) {
+         LockSupport.unpark(thread);
+      }
+   }
+
+   //Applies the BackpressurePolicy when the lane is full
+   private void whenFull(Object event, Subscription subscription, long publishNanos) {
+      BackpressurePolicy policy = subscription.backpressure;
+      if (policy == null) {
+         policy = defaultPolicy;
+      }
+      if (policy == BackpressurePolicy.BLOCK && Thread.currentThread() instanceof LaneThread) {
+         policy = BackpressurePolicy.FAIL; // A lane waiting on a lane could wait on itself
+      }
+      int offered;
+      switch (policy) {
+         case BLOCK:
+            blockedCount.increment();
+            for (int tries = 0; (offered = offer(event, subscription, publishNanos)) == FULL; tries++) {
+               if (Thread.currentThread().isInterrupted()) {
+                  failedCount.increment();
+                  throw new RejectedExecutionException("Interrupted while waiting for lane " + laneId);
+               }
+               BroadcastRing.backOff(tries, 100_000);
+            }
+            if (offered == MOVED) {
+               reroute(event, subscription, publishNanos);
+            }
+            break;
+         case DROP_NEWEST:
+            droppedNewestCount.increment();
+            break;
+         case DROP_OLDEST:
+            synchronized (this) {
+               offered = offer(event, subscription, publishNanos);
+               if (offered == FULL) {
+                  if (removeOldest(subscription) && offer(event, subscription, publishNanos) == QUEUED) {
+                     droppedOldestCount.increment();
+                  } else {
+                     droppedNewestCount.increment();
+                  }
+               }
+            }
+            if (offered == MOVED) {
+               reroute(event, subscription, publishNanos);
+            }
+            break;
+         case CALLER_RUNS:
+            callerRunsCount.increment();
+            invoke(event, subscription, publishNanos);
+            break;
+         default:
+            failedCount.increment();
+            throw new RejectedExecutionException("Lane " + laneId + " full (" + capacity + "): " +
+                    subscription.getSubscriptionId());
+      }
+   }
+
+   //Removes the oldest queued delivery to the subscription
+   private synchronized boolean removeOldest(Subscription subscription) {
+      if (ringOf(subscription).removeOldest(subscription)) {
+         queued--;
+         return true;
+      }
+      return false;
+   }
+
+   /**
+    * Lets the lane thread finish the queued deliveries and stop; further deliveries are rejected.
+    */
+   void shutdown() {
+      synchronized (this) {
+         shutdown = true;
+      }
+      LockSupport.unpark(thread);
+   }
+
+   synchronized int getQueueDepth() {
+      return queued;
+   }
+
+   /**
+    * Deliveries queued to the lane since it started, including those later removed by DROP_OLDEST.
+    */
+   synchronized long getEnqueuedCount() {
+      long enqueued = -requeued; // Counted in both rings
+      for (SlotRing ring : rings) {
+         enqueued += ring.tail + ring.removed;
+      }
+      return enqueued;
+   }
+
+   /**
+    * Deliveries taken by the lane thread since it started.
+    */
+   synchronized long getDequeuedCount() {
+      long dequeued = 0;
+      for (SlotRing ring : rings) {
+         dequeued += ring.head;
+      }
+      return dequeued;
+   }
+
+   /**
+    * Publication time stamp of the oldest queued delivery: 0 if the lane is empty or latency tracking was off.
+    */
+   synchronized long getOldestStamp() {
+      long oldest = 0L;
+      for (SlotRing ring : rings) {
+         long stamp = ring.head < ring.tail ? ring.stamps[(int) ring.head & ring.mask] : 0L;
+         if (stamp != 0L && (oldest == 0L || stamp < oldest)) {
+            oldest = stamp;
+         }
+      }
+      return oldest;
+   }
+
+   /**
+    * Time the lane thread spent taking and delivering events since it started, including the current busy spell.
+    */
+   long getBusyNanos() {
+      long since = busySince;
+      long busy = busyNanos;
+      return since == 0 ? busy : busy + Math.max(0, System.nanoTime() - since);
+   }
+
+   /**
+    * Barrier mark: the ticket of the next delivery queued to the lane (see isDelivered()).
+    */
+   synchronized long mark() {
+      return appended;
+   }
+
+   /**
+    * True once the deliveries queued before the mark are all done (delivered, or dropped by DROP_OLDEST), whatever was removed or moved after the mark. A ring is in ticket order, so only its head and the running delivery need checking.
+    */
+   synchronized boolean isDelivered(long mark) {
+      for (SlotRing ring : rings) {
+         if (!ring.isEmpty() && ring.tickets[(int) ring.head & ring.mask] < mark) { // Not all taken or removed yet
+            return false;
+         }
+      }
+      return busySince == 0 || currentTicket >= mark; // Or the running delivery was queued after the mark
+   }
+
+   /**
+    * Nothing queued and no callback running.
+    */
+   synchronized boolean isIdle() {
+      return queued == 0 && busySince == 0;
+   }
+
+   boolean isTerminated() {
+      synchronized (this) {
+         if (!started) {
+            return true;
+         }
+      }
+      return !thread.isAlive();
+   }
+
+   /**
+    * Drops the queued deliveries (of a lane being shut down past its deadline).
+    * @return the number of deliveries dropped
+    */
+   synchronized long discard() {
+      long dropped = 0;
+      for (SlotRing ring : rings) {
+         dropped += ring.discard();
+      }
+      queued = 0;
+      return dropped;
+   }
+
+   LaneStats getStats() {
+      return new LaneStats(laneId, getQueueDepth(), capacity, blockedCount.sum(), droppedNewestCount.sum(),
+              droppedOldestCount.sum(), callerRunsCount.sum(), failedCount.sum());
+   }
+
+   //Lane thread loop: takes and delivers the slots in order
+   private void runLane() {
+      int idle = 0;
+      while (true) {
+         Object event = null;
+         Subscription subscription = null;
+         long publishNanos = 0L;
+         synchronized (this) { // The lane turns busy / idle under the lock, so isIdle() is exact
+            if (queued > 0) {
+               SlotRing ring = nextRing();
+               int i = (int) ring.head & ring.mask;
+               event = ring.events[i];
+               subscription = ring.subscriptions[i];
+               publishNanos = ring.stamps[i];
+               currentTicket = ring.tickets[i];
+               ring.events[i] = null; // Don't hold on to delivered events
+               ring.subscriptions[i] = null;
+               ring.dropPending(i, subscription);
+               ring.head++;
+               queued--;
+               if (busySince == 0) {
+                  busySince = System.nanoTime();
+               }
+            } else {
+               if (busySince != 0) {
+                  busyNanos += System.nanoTime() - busySince;
+                  busySince = 0;
+               }
+               if (shutdown) {
+                  return;
+               }
+            }
+         }
+         if (subscription != null) {
+            if (!subscription.migrating || !migrationStep(event, subscription, publishNanos)) {
+               invokeSampled(event, subscription, publishNanos);
+            }
+            idle = 0;
+         } else {
+            waitForDeliveries(idle++);
+         }
+      }
+   }
+
+   //The highest priority ring with deliveries, unless a lower one is starving (lane's lock held)
+   private SlotRing nextRing() {
+      SlotRing next = null;
+      for (int level = rings.length - 1; level > 0 && next == null; level--) { // Starving levels, lowest first
+         if (bypassed[level] >= STARVATION_LIMIT && !rings[level].isEmpty()) {
+            next = rings[level];
+         }
+      }
+      for (int level = 0; next == null; level++) {
+         if (!rings[level].isEmpty()) {
+            next = rings[level];
+         }
+      }
+      bypassed[next.level] = 0;
+      for (int level = next.level + 1; level < rings.length; level++) {
+         bypassed[level] = rings[level].isEmpty() ? 0 : bypassed[level] + 1;
+      }
+      return next;
+   }
+
+   private void waitForDeliveries(int idle) {
+      if (idle < SPIN_TRIES) {
+         return; // Busy spin
+      }
+      waiting = true;
+      if (getQueueDepth() == 0) { // Re-check after announcing the wait (shutdown() unparks as well)
+         LockSupport.park(this);
+      }
+      waiting = false;
+   }
+
+   /**
+    * A delivery to a migrating Subscription, on the lane thread.
+    * @return true if the delivery was handled here (a marker, or held back by the new lane)
+    */
+   private boolean migrationStep(Object event, Subscription subscription, long publishNanos) {
+      if (event == FENCE) { // Old lane: all the earlier deliveries are done
+         subscription.fenced = false;
+         lanes.get(subscription.laneId).mark(RELEASE, subscription);
+         return true;
+      }
+      if (event == RELEASE) { // New lane: deliver the held ones, the migration is over
+         releaseHeld(subscription);
+         subscription.migrating = false;
+         return true;
+      }
+      if (subscription.laneId != laneId) {
+         return false; // Old lane, ahead of the fence
+      }
+      if (subscription.fenced) {
+         if (subscription.heldDeliveries == null) {
+            subscription.heldDeliveries = new ArrayList<>();
+         }
+         subscription.heldDeliveries.add(new Delivery(event, subscription, publishNanos));
+         return true;
+      }
+      releaseHeld(subscription); // Fence passed, RELEASE still on its way
+      return false;
+   }
+
+   private static void releaseHeld(Subscription subscription) {
+      List<Delivery> held = subscription.heldDeliveries;
+      if (held != null) {
+         subscription.heldDeliveries = null;
+         for (Delivery delivery : held) {
+            invokeSampled(delivery.event, delivery.subscription, delivery.publishNanos);
+         }
+      }
+   }
+
+   //Times one in COST_SAMPLE_RATE callbacks of the Subscription
+   private static void invokeSampled(Object event, Subscription subscription, long publishNanos) {
+      if ((++subscription.costSamples & (COST_SAMPLE_RATE - 1)) != 0) {
+         invoke(event, subscription, publishNanos);
+         return;
+      }
+      long start = System.nanoTime();
+      invoke(event, subscription, publishNanos);
+      subscription.callbackCostNanos.add((System.nanoTime() - start) * COST_SAMPLE_RATE);
+   }
+
+   private static void invoke(Object event, Subscription subscription, long publishNanos) {
+      try {
+         SynEventHandler.invokeCallback(event, subscription, publishNanos);
+      } catch (RuntimeException e) {
+         logger.log(Level.WARNING, Thread.currentThread().getName() + ": Callback Error: " + e.getMessage(), e);
+      }
+   }
+
+   //One event delivery to one Subscription (an element of a lane's share of a batch)
+   static final class Delivery {
+      final Object event;
+      final Subscription subscription;
+      final long publishNanos;
+
+      Delivery(Object event, Subscription subscription, long publishNanos) {
+         this.event = event;
+         this.subscription = subscription;
+         this.publishNanos = publishNanos;
+      }
+   }
+
+   /**
+    * The deliveries of one priority level: a ring of slots, deliveries head..tail-1 queued (guarded by the lane's monitor), in the order of their lane tickets.
+    */
+   static final class SlotRing {
+      final int level; // DeliveryPriority ordinal
+      Object[] events;
+      Subscription[] subscriptions;
+      long[] stamps; // Publication time stamps, 0 when latency tracking is off
+      long[] tickets; // Lane tickets, increasing from head to tail
+      Pending[] pendings; // Conflation key of the slot, null when the Subscription has no conflation key
+      int mask;
+      long head; // Deliveries taken since the lane started
+      long tail; // Deliveries queued since the lane started, less those removed by DROP_OLDEST or a priority change
+      long removed;
+
+      SlotRing(int level, int slots) {
+         this.level = level;
+         this.events = new Object[slots];
+         this.subscriptions = new Subscription[slots];
+         this.stamps = new long[slots];
+         this.tickets = new long[slots];
+         this.pendings = new Pending[slots];
+         this.mask = slots - 1;
+      }
+
+      boolean isEmpty() {
+         return head == tail;
+      }
+
+      //Writes the next slot, growing the ring if needed
+      void append(Object event, Subscription subscription, long publishNanos, long ticket) {
+         if (tail - head == events.length) {
+            grow();
+         }
+         int i = (int) tail & mask;
+         events[i] = event;
+         subscriptions[i] = subscription;
+         stamps[i] = publishNanos;
+         tickets[i] = ticket;
+         tail++;
+      }
+
+      private void grow() {
+         int size = events.length;
+         Object[] grownEvents = new Object[size << 1];
+         Subscription[] grownSubscriptions = new Subscription[size << 1];
+         long[] grownStamps = new long[size << 1];
+         long[] grownTickets = new long[size << 1];
+         Pending[] grownPendings = new Pending[size << 1];
+         int grownMask = (size << 1) - 1;
+         for (long s = head; s < tail; s++) { // Sequence numbers are kept, only the slots move
+            int i = (int) s & mask;
+            int n = (int) s & grownMask;
+            grownEvents[n] = events[i];
+            grownSubscriptions[n] = subscriptions[i];
+            grownStamps[n] = stamps[i];
+            grownTickets[n] = tickets[i];
+            grownPendings[n] = pendings[i];
+         }
+         events = grownEvents;
+         subscriptions = grownSubscriptions;
+         stamps = grownStamps;
+         tickets = grownTickets;
+         pendings = grownPendings;
+         mask = grownMask;
+      }
+
+      //Removes the oldest queued delivery to the subscription, closing the gap
+      boolean removeOldest(Subscription subscription) {
+         for (long s = head; s < tail; s++) {
+            int slot = (int) s & mask;
+            if (subscriptions[slot] == subscription && !isMarker(events[slot])) {
+               dropPending(slot, subscription);
+               for (long next = s + 1; next < tail; next++) {
+                  events[(int) (next - 1) & mask] = events[(int) next & mask];
+                  subscriptions[(int) (next - 1) & mask] = subscriptions[(int) next & mask];
+                  stamps[(int) (next - 1) & mask] = stamps[(int) next & mask];
+                  tickets[(int) (next - 1) & mask] = tickets[(int) next & mask];
+                  pendings[(int) (next - 1) & mask] = pendings[(int) next & mask];
+               }
+               tail--;
+               removed++;
+               events[(int) tail & mask] = null;
+               subscriptions[(int) tail & mask] = null;
+               pendings[(int) tail & mask] = null;
+               return true;
+            }
+         }
+         return false;
+      }
+
+      /**
+       * Moves the queued deliveries (and markers) of the Subscription to another ring, in their order, closing the gaps. They keep their tickets, and are merged into the other ring by ticket.
+       * @return the number moved
+       */
+      int moveTo(Subscription subscription, SlotRing to) {
+         int moved = 0;
+         for (long s = head; s < tail; s++) {
+            if (subscriptions[(int) s & mask] == subscription) {
+               moved++;
+            }
+         }
+         if (moved == 0) {
+            return 0;
+         }
+         Object[] movedEvents = new Object[moved];
+         long[] movedStamps = new long[moved];
+         long[] movedTickets = new long[moved];
+         int m = 0;
+         long kept = head;
+         for (long s = head; s < tail; s++) {
+            int i = (int) s & mask;
+            if (subscriptions[i] == subscription) {
+               movedEvents[m] = events[i];
+               movedStamps[m] = stamps[i];
+               movedTickets[m++] = tickets[i];
+               dropPending(i, subscription); // Moved deliveries are no longer replaced
+            } else {
+               int k = (int) kept++ & mask;
+               events[k] = events[i];
+               subscriptions[k] = subscriptions[i];
+               stamps[k] = stamps[i];
+               tickets[k] = tickets[i];
+               pendings[k] = pendings[i];
+            }
+         }
+         for (; tail > kept; tail--) {
+            events[(int) (tail - 1) & mask] = null;
+            subscriptions[(int) (tail - 1) & mask] = null;
+            pendings[(int) (tail - 1) & mask] = null;
+         }
+         removed += moved;
+         to.merge(movedEvents, subscription, movedStamps, movedTickets);
+         return moved;
+      }
+
+      //Merges deliveries in ticket order into the ring, from the tail backwards
+      private void merge(Object[] movedEvents, Subscription subscription, long[] movedStamps, long[] movedTickets) {
+         while (tail - head + movedEvents.length > events.length) {
+            grow();
+         }
+         long from = tail - 1;
+         int m = movedEvents.length - 1;
+         tail += movedEvents.length;
+         for (long s = tail - 1; m >= 0; s--) {
+            int i = (int) s & mask;
+            if (from >= head && tickets[(int) from & mask] > movedTickets[m]) {
+               int j = (int) from-- & mask;
+               events[i] = events[j];
+               subscriptions[i] = subscriptions[j];
+               stamps[i] = stamps[j];
+               tickets[i] = tickets[j];
+               pendings[i] = pendings[j];
+            } else {
+               events[i] = movedEvents[m];
+               subscriptions[i] = subscription;
+               stamps[i] = movedStamps[m];
+               tickets[i] = movedTickets[m--];
+               pendings[i] = null;
+            }
+         }
+      }
+
+      //Drops the queued deliveries, returns the number dropped (markers excluded)
+      long discard() {
+         long dropped = 0;
+         for (; head < tail; head++) {
+            int i = (int) head & mask;
+            if (subscriptions[i] != null && !isMarker(events[i])) {
+               dropped++;
+            }
+            dropPending(i, subscriptions[i]);
+            events[i] = null;
+            subscriptions[i] = null;
+         }
+         return dropped;
+      }
+
+      //Detaches the slot's conflation key: the Subscription forgets the key unless a later slot has it
+      void dropPending(int i, Subscription subscription) {
+         Pending pending = pendings[i];
+         if (pending != null) {
+            pendings[i] = null;
+            Map<Object, Pending> pendingByKey = subscription.pendingByKey;
+            if (pendingByKey != null) {
+               pendingByKey.remove(pending.key, pending);
+            }
+         }
+      }
+   }
+
+   private static boolean isMarker(Object event) {
+      return event == FENCE || event == RELEASE || event == SynEventHandler.REPLAY;
+   }
+
+   //Latest queued delivery of a conflation key: the lane sequence of its slot, kept by the Subscription until the slot is taken
+   static final class Pending {
+      final Object key;
+      final long sequence;
+
+      Pending(Object key, long sequence) {
+         this.key = key;
+         this.sequence = sequence;
+      }
+   }
+
+   //Worker thread of a lane, so that lane threads can be told apart from publisher threads
+   static final class LaneThread extends Thread {
+      final DeliveryLane lane;
+
+      LaneThread(DeliveryLane lane, String name) {
+         super(name);
+         this.lane = lane;
+      }
+
+      @Override
+      public void run() {
+         lane.runLane();
+      }
+   }
+}
@@ -0,0 +1,16 @@
+package com.EventBus;
+
+/**
+ * A DeliveryPriority orders the deliveries queued on a lane of an AsyncEventBus: the lane delivers the higher priority Subscriptions first (see DeliveryLane). It is set per Subscription, on the callback with {@code @Subscribe(priority = DeliveryPriority.HIGH)} or at runtime with AsyncEventBus.setDeliveryPriority().
+ *
+ * <p>The deliveries of one Subscription stay in their publication order whatever its priority. A lower priority is not starved: it is served at least once in every DeliveryLane.STARVATION_LIMIT + 1 deliveries while it has deliveries queued.
+ * @author Mustaq Ali
+ */
+public enum DeliveryPriority {
+   /** Served first, e.g. risk checks or a kill switch */
+   HIGH,
+   /** The default */
+   NORMAL,
+   /** Served when no HIGH or NORMAL delivery is queued (or when starving), e.g. analytics */
+   LOW
+}
@@ -0,0 +1,135 @@
+package com.EventBus;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * DeliveryStats is a snapshot of the delivery counters of a bus: for each Subscription the events delivered to its callback, rejected by its filter, absorbed by its last event caching, replaced by a newer event of the same conflation key and the callbacks that threw; and for each event type the events published and the publications that found no subscriber.
+ *
+ * <p>The snapshot is taken without locking out publishers: the Subscriptions are those of one routing generation (see getRoutingVersion()), and each counter is read once. The counters only grow, so a counter read later in the snapshot may include a few events more than one read earlier. Counters of removed Subscriptions are dropped with them.
+ * @author Mustaq Ali
+ */
+public final class DeliveryStats {
+   private final long routingVersion;
+   private final List<SubscriptionStats> subscriptionStats;
+   private final Map<Class<?>, EventTypeStats> eventTypeStats;
+
+   DeliveryStats(long routingVersion, List<SubscriptionStats> subscriptionStats, Map<Class<?>, EventTypeStats> eventTypeStats) {
+      this.routingVersion = routingVersion;
+      this.subscriptionStats = Collections.unmodifiableList(subscriptionStats);
+      this.eventTypeStats = Collections.unmodifiableMap(eventTypeStats);
+   }
+
+   public long getRoutingVersion() { return routingVersion; }
+   public List<SubscriptionStats> getSubscriptionStats() { return subscriptionStats; }
+   public Map<Class<?>, EventTypeStats> getEventTypeStats() { return eventTypeStats; }
+
+   /**
+    * Counters of the subscriber's Subscription to the event type, or null if there is none.
+    */
+   public SubscriptionStats getSubscriptionStats(Object subscriber, Class<?> eventType) {
+      for (SubscriptionStats stats : subscriptionStats) {
+         if (stats.eventType == eventType && stats.subscriber.equals(subscriber)) {
+            return stats;
+         }
+      }
+      return null;
+   }
+
+   /**
+    * Counters of the event type, or null if no event of this type was published or subscribed to.
+    */
+   public EventTypeStats getEventTypeStats(Class<?> eventType) {
+      return eventTypeStats.get(eventType);
+   }
+
+   @Override
+   public String toString() {
+      return "DeliveryStats{routingVersion=" + routingVersion + ", subscriptions=" + subscriptionStats +
+              ", eventTypes=" + eventTypeStats.values() + "}";
+   }
+
+   /**
+    * Counters of one Subscription.
+    */
+   public static final class SubscriptionStats {
+      private final Object subscriber;
+      private final String subscriptionId;
+      private final Class<?> eventType;
+      private final long deliveredCount;
+      private final long filteredCount;
+      private final long cachedCount;
+      private final long errorCount;
+      private final long conflatedCount;
+
+      SubscriptionStats(Object subscriber, String subscriptionId, Class<?> eventType, long deliveredCount,
+                        long filteredCount, long cachedCount, long errorCount, long conflatedCount) {
+         this.subscriber = subscriber;
+         this.subscriptionId = subscriptionId;
+         this.eventType = eventType;
+         this.deliveredCount = deliveredCount;
+         this.filteredCount = filteredCount;
+         this.cachedCount = cachedCount;
+         this.errorCount = errorCount;
+         this.conflatedCount = conflatedCount;
+      }
+
+      public Object getSubscriber() { return subscriber; }
+      public String getSubscriptionId() { return subscriptionId; }
+      public Class<?> getEventType() { return eventType; }
+      public long getDeliveredCount() { return deliveredCount; }
+      public long getFilteredCount() { return filteredCount; }
+      public long getCachedCount() { return cachedCount; }
+      public long getErrorCount() { return errorCount; }
+      public long getConflatedCount() { return conflatedCount; }
+
+      @Override
+      public String toString() {
+         return subscriptionId + "{delivered=" + deliveredCount + ", filtered=" + filteredCount + ", cached=" +
+                 cachedCount + ", errors=" + errorCount + ", conflated=" + conflatedCount + "}";
+      }
+   }
+
+   /**
+    * Counters of one event type: publications of the type, and the sums of the counters of its Subscriptions.
+    */
+   public static final class EventTypeStats {
+      private final Class<?> eventType;
+      private final long publishedCount;
+      private final long noSubscriberCount;
+      private final long deliveredCount;
+      private final long filteredCount;
+      private final long cachedCount;
+      private final long errorCount;
+      private final long conflatedCount;
+
+      EventTypeStats(Class<?> eventType, long publishedCount, long noSubscriberCount, long deliveredCount,
+                     long filteredCount, long cachedCount, long errorCount, long conflatedCount) {
+         this.eventType = eventType;
+         this.publishedCount = publishedCount;
+         this.noSubscriberCount = noSubscriberCount;
+         this.deliveredCount = deliveredCount;
+         this.filteredCount = filteredCount;
+         this.cachedCount = cachedCount;
+         this.errorCount = errorCount;
+         this.conflatedCount = conflatedCount;
+      }
+
+      public Class<?> getEventType() { return eventType; }
+      public long getPublishedCount() { return publishedCount; }
+      public long getNoSubscriberCount() { return noSubscriberCount; }
+      public long getDeliveredCount() { return deliveredCount; }
+      public long getFilteredCount() { return filteredCount; }
+      public long getCachedCount() { return cachedCount; }
+      public long getErrorCount() { return errorCount; }
+      public long getConflatedCount() { return conflatedCount; }
+
+      @Override
+      public String toString() {
+         return eventType.getName() + "{published=" + publishedCount + ", noSubscriber=" + noSubscriberCount +
+                 ", delivered=" + deliveredCount + ", filtered=" + filteredCount + ", cached=" + cachedCount +
+                 ", errors=" + errorCount + ", conflated=" + conflatedCount + "}";
+      }
+   }
+}
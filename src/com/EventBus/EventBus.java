@@ -1,5 +1,7 @@
 package com.EventBus;
 
+import java.util.List;
+
 /**
  *
  * <p>EventBus interface defines the core  methods for event distribution  in a publish/subscribe system. An implementation of this interface should adhere to key characteristics of an EventBus as below:
@@ -15,6 +17,15 @@ public interface EventBus {
     public void addSubscriber(Object subscriber);
     public void removeSubscriber(Object subscriber);
     public void publishEvent(Object event);
+
+    /**
+     * Publishes a batch of events, as if each were published with publishEvent() in the list order: every subscription receives its events in that order.
+     */
+    public default void publishEvents(List<?> events) {
+        for (Object event : events) {
+            publishEvent(event);
+        }
+    }
     //shutdown()
     //public void addSubscriberForFilteredEvents(); //Moved to Filter services Interface
 }
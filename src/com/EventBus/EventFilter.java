@@ -0,0 +1,160 @@
+package com.EventBus;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * An EventFilter is a declarative event filter: an AND of conditions on FilterAttributes of the event, each an equality, a set membership or an (inclusive) range.
+ *
+ * <p>{@code EventFilter<Quote> nyseTech = EventFilter.where(EXCHANGE).equalTo("NYSE").and(SYMBOL).in("IBM", "MSFT").and(PRICE).between(10.0, 20.0); }
+ * <p>{@code bus.setEventFilter(quoteSubscriber, Quote.class, nyseTech); }
+ *
+ * <p>As an EventFilter is a {@literal Predicate<T>}, it is set like any filter (FilteringService.setEventFilter()). Unlike an opaque Predicate, which the bus has to run for each subscriber, the EventFilters of an event type are compiled into one FilterIndex shared by all its subscribers: an event is matched against all of them at once, at a cost that depends on the conditions it satisfies rather than on the number of subscribers. An EventFilter is immutable; each condition added makes a new one.
+ * @author Mustaq Ali
+ */
+public final class EventFilter<T> implements Predicate<T> {
+   private final List<Condition> conditions;
+
+   private EventFilter(List<Condition> conditions) {
+      this.conditions = conditions;
+   }
+
+   /**
+    * A filter with a first condition on the attribute.
+    */
+   public static <T, V> Clause<T, V> where(FilterAttribute<T, V> attribute) {
+      return new Clause<>(new EventFilter<>(Collections.<Condition>emptyList()), attribute);
+   }
+
+   /**
+    * This filter with one more condition, on the attribute.
+    */
+   public <V> Clause<T, V> and(FilterAttribute<T, V> attribute) {
+      return new Clause<>(this, attribute);
+   }
+
+   private EventFilter<T> with(Condition condition) {
+      List<Condition> more = new ArrayList<>(conditions);
+      more.add(condition);
+      return new EventFilter<>(Collections.unmodifiableList(more));
+   }
+
+   List<Condition> getConditions() {
+      return conditions;
+   }
+
+   /**
+    * Evaluates the conditions one by one (the bus matches the event through the FilterIndex instead).
+    */
+   @Override
+   public boolean test(T event) {
+      for (Condition condition : conditions) {
+         if (!condition.test(condition.attribute.valueOf(event))) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   @Override
+   public String toString() {
+      return "EventFilter" + conditions;
+   }
+
+   /**
+    * The condition on one attribute, completing the filter.
+    */
+   public static final class Clause<T, V> {
+      private final EventFilter<T> filter;
+      private final FilterAttribute<T, V> attribute;
+
+      private Clause(EventFilter<T> filter, FilterAttribute<T, V> attribute) {
+         if (attribute == null) {
+            throw new EventBusException("Filter attribute is null");
+         }
+         this.filter = filter;
+         this.attribute = attribute;
+      }
+
+      public EventFilter<T> equalTo(V value) {
+         return filter.with(new Condition(attribute, Collections.<Object>singleton(value), null, null));
+      }
+
+      @SafeVarargs
+      public final EventFilter<T> in(V... values) {
+         return in(Arrays.asList(values));
+      }
+
+      public EventFilter<T> in(Collection<? extends V> values) {
+         return filter.with(new Condition(attribute, Collections.unmodifiableSet(new HashSet<Object>(values)), null, null));
+      }
+
+      /**
+       * From low to high, both included.
+       */
+      public EventFilter<T> between(V low, V high) {
+         return filter.with(new Condition(attribute, null, comparable(low), comparable(high)));
+      }
+
+      public EventFilter<T> atLeast(V low) {
+         return filter.with(new Condition(attribute, null, comparable(low), null));
+      }
+
+      public EventFilter<T> atMost(V high) {
+         return filter.with(new Condition(attribute, null, null, comparable(high)));
+      }
+
+      private Comparable<?> comparable(V bound) {
+         if (!(bound instanceof Comparable)) {
+            throw new EventBusException("Range bound of " + attribute + " is not Comparable: " + bound);
+         }
+         return (Comparable<?>) bound;
+      }
+   }
+
+   //One condition: the attribute is in the values (equality, set membership), or else within low..high (null = open)
+   static final class Condition {
+      final FilterAttribute<?, ?> attribute;
+      final Set<Object> values;
+      final Comparable<?> low;
+      final Comparable<?> high;
+
+      Condition(FilterAttribute<?, ?> attribute, Set<Object> values, Comparable<?> low, Comparable<?> high) {
+         this.attribute = attribute;
+         this.values = values;
+         this.low = low;
+         this.high = high;
+      }
+
+      boolean isRange() {
+         return values == null;
+      }
+
+      @SuppressWarnings({"unchecked", "rawtypes"})
+      boolean test(Object value) {
+         if (!isRange()) {
+            return values.contains(value);
+         }
+         if (value == null) {
+            return false;
+         }
+         try {
+            return (low == null || ((Comparable) low).compareTo(value) <= 0) &&
+                    (high == null || ((Comparable) high).compareTo(value) >= 0);
+         } catch (ClassCastException e) {
+            throw new EventBusException(e.getMessage());
+         }
+      }
+
+      @Override
+      public String toString() {
+         return attribute + (isRange() ? " in [" + low + ", " + high + "]" : " in " + values);
+      }
+   }
+}
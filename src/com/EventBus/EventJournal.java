@@ -0,0 +1,548 @@
+package com.EventBus;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * An EventJournal records the events published on a bus, for audit and crash recovery, in segmented memory mapped files. It is attached to a bus with setJournal(); every event published from then on, reentrant ones included, is appended before it is delivered.
+ *
+ * <p><b>Publish Path:</b> Appending doesn't block the publisher: the event is handed to the journal's writer thread through a lock-free queue (one exchange of the queue tail, wait free), and the writer numbers, serializes (see EventSerializer) and writes the events in the order it takes them. An event must not be changed once published, since it is serialized later. The hand-off is unbounded: a writer that falls behind holds the events in memory rather than hold up the publishers (see JournalStats.getPendingCount()).
+ *
+ * <p><b>Segments:</b> The events are written into a directory of segment files of segmentSize bytes each, named after the sequence of their first event, and mapped into memory while they are written. A segment is rolled when the next event doesn't fit. On roll, the oldest segments are deleted beyond the retention (setRetention(): a number of segments, and / or an age), keeping all of them by default. Each record carries its sequence, its publication time and a CRC32 of its bytes, so a record torn by a crash ends the segment when it is read back. A journal opened on an existing directory continues the sequence, in a new segment.
+ *
+ * <p><b>Durability:</b> Writes into the mapping survive a crash of the process as soon as they are made. The FsyncPolicy chooses when the segment is forced to disk, to survive a crash of the machine: after each batch the writer takes (group commit), at most every sync interval (the default, 100 ms), or only on roll. flush() waits until the events appended so far are written and forced.
+ *
+ * <p><b>Replay:</b> read() and readByTime() give the journaled events of a sequence or publication time range, inclusive, in sequence order; the bus's replayJournal() and replayJournalByTime() feed them straight to chosen subscribers' callbacks, at full speed, on the caller's thread: the events are neither published again nor journaled again, and the other subscribers don't see them. Events are read up to the last one written when the read starts, while the writer carries on.
+ *
+ * <p>Closing the journal writes the events already appended, forces and closes the segment. It is to be closed once the bus stops publishing (or detached first): an event appended once it is closed fails with an EventBusException.
+ * @author Mustaq Ali
+ */
+public final class EventJournal implements AutoCloseable {
+   public static final int DEFAULT_SEGMENT_SIZE = 64 << 20;
+   public static final long DEFAULT_SYNC_INTERVAL_MILLIS = 100;
+   static final int SEGMENT_MAGIC = 0x45564A31; // "EVJ1"
+   static final int SEGMENT_HEADER = 16; // Magic, unused int, first sequence
+   static final int RECORD_HEADER = 24; // Length, CRC32, sequence, publication time millis; the bytes follow
+   static final int MAX_BATCH = 1024; // Events written between two sync checks
+   private static final String SEGMENT_PREFIX = "journal-";
+   private static final String SEGMENT_SUFFIX = ".seg";
+   private static final long MIN_IDLE_PARK_NANOS = 50_000;
+   private static final long MAX_IDLE_PARK_NANOS = 1_000_000;
+   static final Logger logger = Logger.getLogger(EventJournal.class.getName());
+
+   private final Path directory;
+   private final EventSerializer serializer;
+   private final int segmentSize;
+   private final FsyncPolicy fsyncPolicy;
+   private final long syncIntervalNanos;
+   private volatile int retainedSegments; // 0 = all
+   private volatile long retentionMillis; // 0 = no age limit
+
+   //Hand-off from the publishers to the writer: a multi producer, single consumer linked queue of Entries
+   private final AtomicReference<Entry> tail;
+   private final LongAdder appendedCount = new LongAdder();
+   private volatile boolean closed;
+
+   //Owned by the writer thread
+   private final Thread writer;
+   private Entry head; // Last Entry taken
+   private MappedByteBuffer segment;
+   private FileChannel segmentChannel;
+   private final ArrayDeque<Path> segmentFiles = new ArrayDeque<>(); // Oldest first
+   private final CRC32 crc = new CRC32();
+   private long nextSequence;
+   private long lastSyncNanos;
+   private volatile boolean syncRequested;
+
+   //Written by the writer thread only
+   private volatile long writtenSequence; // Last sequence written to a segment
+   private volatile long syncedSequence; // Last sequence forced to disk
+   private volatile long writtenCount;
+   private volatile long failedCount;
+   private volatile long bytesWritten;
+   private volatile long syncCount;
+   private volatile int segmentCount;
+
+   public EventJournal(Path directory, EventSerializer serializer) {
+      this(directory, serializer, DEFAULT_SEGMENT_SIZE, FsyncPolicy.PERIODIC, DEFAULT_SYNC_INTERVAL_MILLIS);
+   }
+
+   public EventJournal(Path directory, EventSerializer serializer, int segmentSize, FsyncPolicy fsyncPolicy, long syncIntervalMillis) {
+      if (directory == null || serializer == null || fsyncPolicy == null) {
+         throw new EventBusException("Journal directory, serializer and fsync policy are required");
+      }
+      if (segmentSize < SEGMENT_HEADER + RECORD_HEADER + 1) {
+         throw new EventBusException("Journal segment size too small: " + segmentSize);
+      }
+      if (syncIntervalMillis < 0) {
+         throw new EventBusException("Journal sync interval must not be negative: " + syncIntervalMillis);
+      }
+      this.directory = directory;
+      this.serializer = serializer;
+      this.segmentSize = segmentSize;
+      this.fsyncPolicy = fsyncPolicy;
+      this.syncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(syncIntervalMillis);
+      long lastSequence;
+      try {
+         Files.createDirectories(directory);
+         List<Path> existing = listSegments(directory);
+         segmentFiles.addAll(existing);
+         lastSequence = existing.isEmpty() ? 0 : recoverLastSequence(existing.get(existing.size() - 1));
+      } catch (IOException e) {
+         throw new EventBusException("Error opening journal " + directory, e);
+      }
+      this.nextSequence = lastSequence + 1;
+      this.writtenSequence = lastSequence;
+      this.syncedSequence = lastSequence;
+      this.segmentCount = segmentFiles.size();
+      Entry stub = new Entry(null, 0);
+      stub.done = true;
+      this.head = stub;
+      this.tail = new AtomicReference<>(stub);
+      this.writer = new Thread(this::writeLoop, "EventJournal-" + directory.getFileName());
+      writer.setDaemon(true);
+      writer.start();
+   }
+
+   /**
+    * Hands the event to the writer; doesn't wait for it to be written.
+    */
+   public void append(Object event) {
+      if (closed) {
+         throw new EventBusException("Journal closed: " + directory);
+      }
+      Entry entry = new Entry(event, System.currentTimeMillis());
+      appendedCount.increment();
+      tail.getAndSet(entry).next = entry;
+   }
+
+   /**
+    * Waits until the events appended before the call are written and forced to disk, whatever the FsyncPolicy.
+    * @return false if the timeout elapsed first
+    */
+   public boolean flush(long timeout, TimeUnit unit) {
+      long timeoutNanos = unit.toNanos(timeout);
+      long start = System.nanoTime();
+      Entry last = tail.get();
+      while (!last.done) {
+         if (!writer.isAlive() || System.nanoTime() - start > timeoutNanos) {
+            return false;
+         }
+         LockSupport.unpark(writer);
+         LockSupport.parkNanos(MIN_IDLE_PARK_NANOS);
+      }
+      long target = writtenSequence;
+      while (syncedSequence < target) {
+         if (!writer.isAlive() || System.nanoTime() - start > timeoutNanos) {
+            return syncedSequence >= target;
+         }
+         syncRequested = true;
+         LockSupport.unpark(writer);
+         LockSupport.parkNanos(MIN_IDLE_PARK_NANOS);
+      }
+      return true;
+   }
+
+   /**
+    * Deletes the oldest segments on each roll beyond maxSegments segments (0 = no limit) and those last written more than maxAgeMillis ago (0 = no limit). The segment being written is always kept.
+    */
+   public void setRetention(int maxSegments, long maxAgeMillis) {
+      if (maxSegments < 0 || maxAgeMillis < 0) {
+         throw new EventBusException("Journal retention must not be negative: " + maxSegments + " segments, " + maxAgeMillis + " ms");
+      }
+      this.retainedSegments = maxSegments;
+      this.retentionMillis = maxAgeMillis;
+   }
+
+   /**
+    * The events of sequences fromSequence to toSequence (inclusive), in sequence order.
+    * @return the number of events read
+    */
+   public long read(long fromSequence, long toSequence, Consumer<Object> consumer) {
+      return read(fromSequence, toSequence, false, consumer);
+   }
+
+   /**
+    * The events published from fromMillis to toMillis (inclusive, System.currentTimeMillis() times), in sequence order.
+    * @return the number of events read
+    */
+   public long readByTime(long fromMillis, long toMillis, Consumer<Object> consumer) {
+      return read(fromMillis, toMillis, true, consumer);
+   }
+
+   public JournalStats getStats() {
+      return new JournalStats(appendedCount.sum(), writtenCount, failedCount, bytesWritten, writtenSequence,
+              syncedSequence, syncCount, segmentCount);
+   }
+
+   public Path getDirectory() {
+      return directory;
+   }
+
+   /**
+    * Writes the events already appended, then forces and closes the segment. Appending fails from now on.
+    */
+   @Override
+   public void close() {
+      closed = true;
+      LockSupport.unpark(writer);
+      boolean interrupted = false;
+      while (writer.isAlive()) {
+         try {
+            writer.join();
+         } catch (InterruptedException e) {
+            interrupted = true;
+         }
+      }
+      if (interrupted) {
+         Thread.currentThread().interrupt();
+      }
+   }
+
+   /**
+    * Feeds the journaled events of the range to the subscribers' callbacks for their types, on the caller's thread. The callbacks are matched as the bus matches them (a RoutingSnapshot of the subscribers, with the bus's event inheritance), so a callback taking a super class or an interface gets the events of its subtypes on a bus with event inheritance. Every event is fed to every subscriber even if a callback fails; the first failure is thrown at the end.
+    * @return the number of events read
+    */
+   long replay(SubscriberHandler subscriptionHandler, long from, long to, boolean byTime, Object[] subscribers) {
+      Map<Class<?>, List<Subscription>> callbacks = new HashMap<>();
+      for (Object subscriber : subscribers) {
+         for (SubscriberMethod subscriberMethod : subscriptionHandler.findSubscriberMethods(subscriber.getClass())) {
+            callbacks.computeIfAbsent(subscriberMethod.eventType, t -> new ArrayList<>()).add(new Subscription(subscriber, subscriberMethod));
+         }
+      }
+      Map<Class<?>, Subscription[]> byType = new HashMap<>();
+      callbacks.forEach((eventType, subscriptions) -> byType.put(eventType, subscriptions.toArray(new Subscription[0])));
+      RoutingSnapshot routing = RoutingSnapshot.EMPTY.withEventInheritance(subscriptionHandler.isEventInheritance()).withSubscriptions(byType);
+      EventBusException[] firstError = new EventBusException[1];
+      long count = read(from, to, byTime, event -> {
+         for (Subscription subscription : routing.getSubscriptions(event.getClass())) {
+            try {
+               SynEventHandler.invokeCallback(event, subscription);
+            } catch (EventBusException e) {
+               if (firstError[0] == null) {
+                  firstError[0] = e;
+               }
+            }
+         }
+      });
+      if (firstError[0] != null) {
+         throw firstError[0];
+      }
+      return count;
+   }
+
+   //Reads a sequence or time range, up to the last event written now
+   private long read(long from, long to, boolean byTime, Consumer<Object> consumer) {
+      long upTo = writtenSequence;
+      long[] count = new long[1];
+      List<Path> files;
+      try {
+         files = listSegments(directory);
+      } catch (IOException e) {
+         throw new EventBusException("Error listing journal " + directory, e);
+      }
+      for (int i = 0; i < files.size(); i++) {
+         Path file = files.get(i);
+         long first = firstSequenceOf(file);
+         if (first > upTo || (!byTime && first > to)) {
+            break;
+         }
+         if (!byTime && i + 1 < files.size() && firstSequenceOf(files.get(i + 1)) <= from) {
+            continue; // Wholly before the range
+         }
+         try {
+            scan(file, (sequence, timeMillis, bytes) -> {
+               if (sequence > upTo || (!byTime && sequence > to)) {
+                  return false;
+               }
+               long position = byTime ? timeMillis : sequence;
+               if (position >= from && position <= to) {
+                  consumer.accept(serializer.read(bytes));
+                  count[0]++;
+               }
+               return true;
+            });
+         } catch (NoSuchFileException e) {
+            // Deleted by the retention meanwhile
+         } catch (IOException e) {
+            throw new EventBusException("Error reading journal segment " + file, e);
+         }
+      }
+      return count[0];
+   }
+
+   private void writeLoop() {
+      long idleNanos = MIN_IDLE_PARK_NANOS;
+      while (true) {
+         boolean stopping = closed; // Read first: the events appended before close() are then all in the queue
+         int written = writeBatch();
+         syncIfDue(written > 0);
+         if (written > 0) {
+            idleNanos = MIN_IDLE_PARK_NANOS;
+         } else if (stopping && head == tail.get()) {
+            break;
+         } else {
+            LockSupport.parkNanos(this, idleNanos);
+            idleNanos = Math.min(idleNanos << 1, MAX_IDLE_PARK_NANOS);
+         }
+      }
+      try {
+         closeSegment();
+      } catch (IOException e) {
+         logger.log(Level.WARNING, "Error closing journal segment", e);
+      }
+   }
+
+   //Writes the events queued so far, up to MAX_BATCH
+   private int writeBatch() {
+      int taken = 0;
+      Entry entry;
+      while (taken < MAX_BATCH && (entry = head.next) != null) {
+         head = entry;
+         write(entry);
+         taken++;
+      }
+      return taken;
+   }
+
+   private void write(Entry entry) {
+      Object event = entry.event;
+      entry.event = null; // Don't hold on to journaled events
+      try {
+         if (segment == null) {
+            openSegment();
+         }
+         if (!tryWrite(event, entry.timeMillis)) {
+            if (segment.position() == SEGMENT_HEADER) {
+               throw new EventBusException("Event larger than a journal segment: " + event.getClass().getName());
+            }
+            rollSegment();
+            if (!tryWrite(event, entry.timeMillis)) {
+               throw new EventBusException("Event larger than a journal segment: " + event.getClass().getName());
+            }
+         }
+         writtenCount++;
+      } catch (IOException | RuntimeException e) {
+         failedCount++;
+         logger.log(Level.WARNING, "Event not journaled: " + (event == null ? null : event.getClass().getName()), e);
+      } finally {
+         entry.done = true;
+      }
+   }
+
+   //Writes a record at the segment's position, false if it doesn't fit
+   private boolean tryWrite(Object event, long timeMillis) throws IOException {
+      MappedByteBuffer buffer = segment;
+      int start = buffer.position();
+      if (buffer.remaining() <= RECORD_HEADER) {
+         return false;
+      }
+      buffer.position(start + RECORD_HEADER);
+      try {
+         serializer.write(event, buffer);
+      } catch (BufferOverflowException e) {
+         erase(buffer, start);
+         return false;
+      } catch (IOException | RuntimeException e) {
+         erase(buffer, start);
+         throw e;
+      }
+      int end = buffer.position();
+      int length = end - start - RECORD_HEADER;
+      if (length == 0) {
+         erase(buffer, start);
+         throw new EventBusException("Serializer wrote no bytes for " + event.getClass().getName());
+      }
+      ByteBuffer bytes = buffer.duplicate();
+      bytes.position(start + RECORD_HEADER);
+      bytes.limit(end);
+      crc.reset();
+      crc.update(bytes);
+      long sequence = nextSequence++;
+      buffer.putInt(start + 4, (int) crc.getValue());
+      buffer.putLong(start + 8, sequence);
+      buffer.putLong(start + 16, timeMillis);
+      buffer.putInt(start, length); // Last: the length ends the written part until it is set
+      bytesWritten += end - start;
+      writtenSequence = sequence;
+      return true;
+   }
+
+   //Zeroes what a failed write left, so the written part still ends at start
+   private static void erase(MappedByteBuffer buffer, int start) {
+      for (int i = start; i < buffer.position(); i++) {
+         buffer.put(i, (byte) 0);
+      }
+      buffer.position(start);
+   }
+
+   private void openSegment() throws IOException {
+      Path file = directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, nextSequence, SEGMENT_SUFFIX));
+      segmentChannel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+              StandardOpenOption.READ, StandardOpenOption.WRITE);
+      segment = segmentChannel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+      segment.putInt(SEGMENT_MAGIC);
+      segment.putInt(0);
+      segment.putLong(nextSequence);
+      segmentFiles.remove(file); // Left empty by an earlier run
+      segmentFiles.addLast(file);
+      applyRetention();
+   }
+
+   private void rollSegment() throws IOException {
+      closeSegment();
+      openSegment();
+   }
+
+   private void closeSegment() throws IOException {
+      if (segment == null) {
+         return;
+      }
+      force();
+      segmentChannel.close();
+      segment = null; // Unmapped when collected
+      segmentChannel = null;
+   }
+
+   private void syncIfDue(boolean wroteBatch) {
+      if (segment == null || syncedSequence == writtenSequence) {
+         return;
+      }
+      if (syncRequested || (fsyncPolicy == FsyncPolicy.EVERY_BATCH && wroteBatch)
+              || (fsyncPolicy == FsyncPolicy.PERIODIC && System.nanoTime() - lastSyncNanos >= syncIntervalNanos)) {
+         force();
+      }
+   }
+
+   private void force() {
+      syncRequested = false;
+      long written = writtenSequence;
+      segment.force();
+      syncCount++;
+      syncedSequence = written;
+      lastSyncNanos = System.nanoTime();
+   }
+
+   //Deletes the oldest segments beyond the retention, never the one being written
+   private void applyRetention() {
+      int maxSegments = retainedSegments;
+      long maxAgeMillis = retentionMillis;
+      long now = System.currentTimeMillis();
+      while (segmentFiles.size() > 1) {
+         Path oldest = segmentFiles.peekFirst();
+         try {
+            boolean expired = (maxSegments > 0 && segmentFiles.size() > maxSegments)
+                    || (maxAgeMillis > 0 && Files.getLastModifiedTime(oldest).toMillis() < now - maxAgeMillis);
+            if (!expired) {
+               break;
+            }
+            Files.deleteIfExists(oldest);
+            logger.fine("Journal segment deleted: " + oldest);
+         } catch (IOException e) {
+            logger.log(Level.WARNING, "Error deleting journal segment " + oldest, e);
+         }
+         segmentFiles.pollFirst();
+      }
+      segmentCount = segmentFiles.size();
+   }
+
+   private static long recoverLastSequence(Path lastSegment) throws IOException {
+      long last = scan(lastSegment, (sequence, timeMillis, bytes) -> true);
+      return last >= 0 ? last : firstSequenceOf(lastSegment) - 1;
+   }
+
+   static List<Path> listSegments(Path directory) throws IOException {
+      List<Path> files = new ArrayList<>();
+      try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+         for (Path file : stream) {
+            files.add(file);
+         }
+      }
+      Collections.sort(files); // Fixed width sequences sort by name
+      return files;
+   }
+
+   static long firstSequenceOf(Path file) {
+      String name = file.getFileName().toString();
+      return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+   }
+
+   /**
+    * Visits the valid records of a segment in order, until the end of its written part, a torn record (bad CRC32) or the visitor stops.
+    * @return the sequence of the last record visited, -1 if none
+    */
+   static long scan(Path file, RecordVisitor visitor) throws IOException {
+      MappedByteBuffer buffer;
+      try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+         buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      }
+      if (buffer.limit() < SEGMENT_HEADER || buffer.getInt(0) != SEGMENT_MAGIC) {
+         logger.warning("Not a journal segment, skipped: " + file);
+         return -1;
+      }
+      CRC32 checksum = new CRC32();
+      long last = -1;
+      int position = SEGMENT_HEADER;
+      while (position + RECORD_HEADER <= buffer.limit()) {
+         int length = buffer.getInt(position);
+         if (length <= 0 || length > buffer.limit() - position - RECORD_HEADER) {
+            break;
+         }
+         ByteBuffer bytes = buffer.duplicate();
+         bytes.position(position + RECORD_HEADER);
+         bytes.limit(position + RECORD_HEADER + length);
+         checksum.reset();
+         checksum.update(bytes.duplicate());
+         if ((int) checksum.getValue() != buffer.getInt(position + 4)) {
+            break;
+         }
+         long sequence = buffer.getLong(position + 8);
+         if (!visitor.visit(sequence, buffer.getLong(position + 16), bytes.slice())) {
+            break;
+         }
+         last = sequence;
+         position += RECORD_HEADER + length;
+      }
+      return last;
+   }
+
+   interface RecordVisitor {
+      /** @return false to stop */
+      boolean visit(long sequence, long timeMillis, ByteBuffer bytes) throws IOException;
+   }
+
+   //An appended event, linked to the next one by its publisher
+   private static final class Entry {
+      Object event;
+      final long timeMillis;
+      volatile Entry next;
+      volatile boolean done; // Written, or failed
+
+      Entry(Object event, long timeMillis) {
+         this.event = event;
+         this.timeMillis = timeMillis;
+      }
+   }
+}
@@ -0,0 +1,71 @@
+package com.EventBus;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An EventSerializer turns events into bytes and back for the bus's files (see EventJournal, and AsyncEventBus.setCacheSnapshot()). The bytes are written straight into the memory mapped file, and read back from it, without an intermediate copy.
+ *
+ * <p>write() puts the event at the buffer's position, advancing it; a BufferOverflowException means the event doesn't fit in the space left, and it is written again into a new buffer. read() is given a buffer holding exactly the bytes of one event. An implementation must be thread safe (a journal writes while it is read), and must not keep the buffers.
+ *
+ * <p>JAVA_SERIALIZATION serializes Serializable events with Java serialization, which needs no set up but is slow and verbose; a serializer for the application's own event types is usually much faster.
+ * @author Mustaq Ali
+ */
+public interface EventSerializer {
+   EventSerializer JAVA_SERIALIZATION = new JavaSerializer();
+
+   void write(Object event, ByteBuffer buffer) throws IOException;
+
+   Object read(ByteBuffer buffer) throws IOException;
+
+   //Java serialization, streamed through the buffer
+   final class JavaSerializer implements EventSerializer {
+      private JavaSerializer() {
+      }
+
+      @Override
+      public void write(Object event, ByteBuffer buffer) throws IOException {
+         try (ObjectOutputStream out = new ObjectOutputStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+               buffer.put((byte) b);
+            }
+
+            @Override
+            public void write(byte[] bytes, int offset, int length) {
+               buffer.put(bytes, offset, length);
+            }
+         })) {
+            out.writeObject(event);
+         }
+      }
+
+      @Override
+      public Object read(ByteBuffer buffer) throws IOException {
+         try (ObjectInputStream in = new ObjectInputStream(new InputStream() {
+            @Override
+            public int read() {
+               return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+            }
+
+            @Override
+            public int read(byte[] bytes, int offset, int length) {
+               if (!buffer.hasRemaining()) {
+                  return -1;
+               }
+               int n = Math.min(length, buffer.remaining());
+               buffer.get(bytes, offset, n);
+               return n;
+            }
+         })) {
+            return in.readObject();
+         } catch (ClassNotFoundException e) {
+            throw new IOException("Event class not found: " + e.getMessage(), e);
+         }
+      }
+   }
+}
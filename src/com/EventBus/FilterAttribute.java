@@ -0,0 +1,47 @@
+package com.EventBus;
+
+import java.util.function.Function;
+
+/**
+ * A FilterAttribute is a named attribute of an event type that declarative EventFilters test, e.g. the exchange of a Quote:
+ *
+ * <p>{@code static final FilterAttribute<Quote, String> EXCHANGE = FilterAttribute.of("exchange", q -> q.exchange); }
+ *
+ * <p>An attribute should be defined once (a constant) and shared by all the filters on it: the bus indexes the filters of an event type per attribute instance (see FilterIndex), so that the attribute is taken from an event once for all of them.
+ * @author Mustaq Ali
+ */
+public final class FilterAttribute<T, V> {
+   private final String name;
+   private final Function<T, V> extractor;
+
+   private FilterAttribute(String name, Function<T, V> extractor) {
+      this.name = name;
+      this.extractor = extractor;
+   }
+
+   public static <T, V> FilterAttribute<T, V> of(String name, Function<T, V> extractor) {
+      if (name == null || extractor == null) {
+         throw new EventBusException("Filter attribute needs a name and an extractor");
+      }
+      return new FilterAttribute<>(name, extractor);
+   }
+
+   public String getName() {
+      return name;
+   }
+
+   //The attribute of an event, a ClassCastException turned into an EventBusException as in filtering
+   @SuppressWarnings("unchecked")
+   Object valueOf(Object event) {
+      try {
+         return ((Function<Object, V>) extractor).apply(event);
+      } catch (ClassCastException e) {
+         throw new EventBusException(e.getMessage());
+      }
+   }
+
+   @Override
+   public String toString() {
+      return name;
+   }
+}
@@ -0,0 +1,213 @@
+package com.EventBus;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+
+/**
+ * A FilterIndex is the compiled form of the EventFilters set by the subscribers of one event type, numbered by slot. It matches an event against all of them at once, with the counting algorithm: per attribute, the conditions the event's value satisfies are looked up (a hash lookup for equality and set membership, a binary search over the range bounds for ranges), a counter per slot counts the satisfied conditions, and a slot matches when all its conditions are satisfied. The cost of a match depends on the conditions satisfied, not on the number of filters.
+ *
+ * <p>The index is immutable, and is rebuilt by SubscriberHandler on the first publication after a filter of the type changed. An event is matched once per publication: the result is kept per thread and read for each Subscription of the fan-out. The slots follow the routing order of the Subscriptions, so a fan-out asks for increasing slots; a slot asked again for the same event means a new publication of it, which is matched again in case the event was changed in between.
+ * @author Mustaq Ali
+ */
+final class FilterIndex {
+   private static final int[] NONE = new int[0];
+
+   private final AttributeIndex[] attributes;
+   private final int[] required; // Conditions of each slot
+   private final ThreadLocal<Match> matches;
+   private Match lastMatch; // Match of the last publishing thread, saves the ThreadLocal lookup while it keeps publishing
+
+   FilterIndex(List<EventFilter<?>> filters) {
+      this.required = new int[filters.size()];
+      Map<FilterAttribute<?, ?>, List<EventFilter.Condition>> byAttribute = new IdentityHashMap<>();
+      Map<FilterAttribute<?, ?>, List<Integer>> slotsByAttribute = new IdentityHashMap<>(); // Slot of each condition
+      for (int slot = 0; slot < filters.size(); slot++) {
+         List<EventFilter.Condition> conditions = filters.get(slot).getConditions();
+         required[slot] = conditions.size();
+         for (EventFilter.Condition condition : conditions) {
+            byAttribute.computeIfAbsent(condition.attribute, a -> new ArrayList<>()).add(condition);
+            slotsByAttribute.computeIfAbsent(condition.attribute, a -> new ArrayList<>()).add(slot);
+         }
+      }
+      List<AttributeIndex> indexes = new ArrayList<>();
+      for (Map.Entry<FilterAttribute<?, ?>, List<EventFilter.Condition>> entry : byAttribute.entrySet()) {
+         indexes.add(new AttributeIndex(entry.getKey(), entry.getValue(), slotsByAttribute.get(entry.getKey())));
+      }
+      this.attributes = indexes.toArray(new AttributeIndex[indexes.size()]);
+      int slots = filters.size();
+      this.matches = ThreadLocal.withInitial(() -> new Match(slots, Thread.currentThread()));
+   }
+
+   int size() {
+      return required.length;
+   }
+
+   /**
+    * True if the event satisfies all the conditions of the slot's filter.
+    */
+   boolean matches(Object event, int slot) {
+      Match match = lastMatch;
+      if (match == null || match.owner != Thread.currentThread()) { // The owner is final: safe to read without a fence
+         match = matches.get();
+         lastMatch = match;
+      }
+      if (match.event != event || slot <= match.lastSlot) {
+         match(event, match);
+      }
+      match.lastSlot = slot;
+      return match.matched[slot];
+   }
+
+   /**
+    * The slot of a Subscription's EventFilter in the index of its event type.
+    */
+   static final class Slot {
+      final FilterIndex index; // null when the filters of the type couldn't be indexed together: the filter is run on its own
+      final int slot;
+      final Predicate<?> filter; // The EventFilter compiled into the slot, to tell a stale Slot from a filter set since
+
+      Slot(FilterIndex index, int slot, Predicate<?> filter) {
+         this.index = index;
+         this.slot = slot;
+         this.filter = filter;
+      }
+
+      @SuppressWarnings("unchecked")
+      boolean matches(Object event) {
+         return index != null ? index.matches(event, slot) : ((Predicate<Object>) filter).test(event);
+      }
+   }
+
+   //Counts the satisfied conditions of each slot
+   private void match(Object event, Match match) {
+      match.reset();
+      match.event = event;
+      for (AttributeIndex attribute : attributes) {
+         Object value = attribute.attribute.valueOf(event);
+         match.count(attribute.equal.getOrDefault(value, NONE));
+         match.count(attribute.rangesOf(value));
+      }
+      for (int i = 0; i < match.touchedCount; i++) {
+         int slot = match.touched[i];
+         match.matched[slot] = match.counts[slot] == required[slot];
+      }
+   }
+
+   //The conditions of all the filters on one attribute
+   static final class AttributeIndex {
+      final FilterAttribute<?, ?> attribute;
+      final Map<Object, int[]> equal = new HashMap<>(); // Value -> slots of the equality / membership conditions it satisfies
+      final Comparable<?>[] bounds; // Distinct range bounds, sorted
+      final int[][] regions; // Slots of the range conditions covering each region: below bounds[0], at bounds[0], between bounds[0] and bounds[1] ...
+
+      @SuppressWarnings({"unchecked", "rawtypes"})
+      AttributeIndex(FilterAttribute<?, ?> attribute, List<EventFilter.Condition> conditions, List<Integer> slots) {
+         this.attribute = attribute;
+         TreeSet<Comparable> sortedBounds = new TreeSet<>();
+         Map<Object, List<Integer>> equalSlots = new HashMap<>();
+         try {
+            for (EventFilter.Condition condition : conditions) {
+               if (!condition.isRange()) {
+                  continue;
+               }
+               if (condition.low != null) sortedBounds.add(condition.low);
+               if (condition.high != null) sortedBounds.add(condition.high);
+            }
+         } catch (ClassCastException e) {
+            throw new EventBusException("Range bounds of " + attribute + " of different types: " + e.getMessage());
+         }
+         this.bounds = sortedBounds.toArray(new Comparable<?>[sortedBounds.size()]);
+         List<List<Integer>> regionSlots = new ArrayList<>();
+         for (int r = 0; r < 2 * bounds.length + 1; r++) {
+            regionSlots.add(new ArrayList<>());
+         }
+         for (int i = 0; i < conditions.size(); i++) {
+            EventFilter.Condition condition = conditions.get(i);
+            int slot = slots.get(i);
+            if (condition.isRange()) {
+               int first = condition.low == null ? 0 : 2 * Arrays.binarySearch(bounds, condition.low) + 1;
+               int last = condition.high == null ? 2 * bounds.length : 2 * Arrays.binarySearch(bounds, condition.high) + 1;
+               for (int r = first; r <= last; r++) {
+                  regionSlots.get(r).add(slot);
+               }
+            } else {
+               for (Object value : condition.values) {
+                  equalSlots.computeIfAbsent(value, v -> new ArrayList<>()).add(slot);
+               }
+            }
+         }
+         this.regions = new int[regionSlots.size()][];
+         for (int r = 0; r < regions.length; r++) {
+            regions[r] = toArray(regionSlots.get(r));
+         }
+         for (Map.Entry<Object, List<Integer>> entry : equalSlots.entrySet()) {
+            equal.put(entry.getKey(), toArray(entry.getValue()));
+         }
+      }
+
+      //Slots of the range conditions the value satisfies
+      int[] rangesOf(Object value) {
+         if (bounds.length == 0 || value == null) {
+            return NONE;
+         }
+         int found;
+         try {
+            found = Arrays.binarySearch(bounds, value);
+         } catch (ClassCastException e) {
+            throw new EventBusException(e.getMessage());
+         }
+         return regions[found >= 0 ? 2 * found + 1 : 2 * (-found - 1)];
+      }
+
+      private static int[] toArray(List<Integer> list) {
+         int[] array = new int[list.size()];
+         for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+         }
+         return array;
+      }
+   }
+
+   //The match of the last event on a thread: counters of the slots touched, and the last slot asked for
+   static final class Match {
+      final Thread owner;
+      Object event;
+      final int[] counts;
+      final boolean[] matched;
+      final int[] touched;
+      int touchedCount;
+      int lastSlot = -1;
+
+      Match(int slots, Thread owner) {
+         this.owner = owner;
+         counts = new int[slots];
+         matched = new boolean[slots];
+         touched = new int[slots];
+      }
+
+      void count(int[] slots) {
+         for (int slot : slots) {
+            if (counts[slot]++ == 0) {
+               touched[touchedCount++] = slot;
+            }
+         }
+      }
+
+      //Clears only what the last match touched
+      void reset() {
+         for (int i = 0; i < touchedCount; i++) {
+            int slot = touched[i];
+            counts[slot] = 0;
+            matched[slot] = false;
+         }
+         touchedCount = 0;
+         lastSlot = -1;
+      }
+   }
+}
@@ -1,5 +1,7 @@
 package com.EventBus;
 
+import java.util.Map;
+import java.util.function.Function;
 import java.util.function.Predicate;
 
 /**
@@ -15,6 +17,8 @@ public interface FilteringService {
     * {@literal Set the filtering on/off: (on:  Predicate<?> != null & off: Predicate<?>  == null)}
     * eg. {@literal Predicate<Trade>  bigListedTrade = t -> t.qty > 10000 && t.exchange.equals("NYSE")}
     *    {@literal setEventFilter (listedBookSubscriber, Trade.class, bigListedTrade) }
+    * A declarative EventFilter (equality, set membership, ranges on FilterAttributes) is set the same way; the bus matches
+    * the EventFilters of an event type through one shared index instead of running each filter.
     */
    public void setEventFilter(Object subscriber, Class<?> eventType, Predicate<?> filter);
 
@@ -26,4 +30,26 @@ public interface FilteringService {
    public <T> T  pollCashedEvent(Class<T> eventType);
    public <T> T removeCachedEvent(Class<T> eventType);
    public void removeAllCacheEvent();
+
+   /**
+    *  Methods for a keyed cache: the latest event of each key of an event type
+    *  eg. {@literal setCacheKey(Quote.class, (Quote q) -> q.ticker) }
+    *      {@literal pollCachedEvent(Quote.class, "IBM") }
+    *  Added after the interface was published, so they default to refusing the call: an implementation without a keyed cache still compiles.
+    */
+   public default void setCacheKey(Class<?> eventType, Function<?, ?> keyExtractor) {
+      throw new EventBusException("Keyed cache not supported by " + getClass().getName());
+   }
+
+   public default <T> T pollCachedEvent(Class<T> eventType, Object key) {
+      throw new EventBusException("Keyed cache not supported by " + getClass().getName());
+   }
+
+   public default <T> T removeCachedEvent(Class<T> eventType, Object key) {
+      throw new EventBusException("Keyed cache not supported by " + getClass().getName());
+   }
+
+   public default Map<Object, Object> getCachedEvents(Class<?> eventType) {
+      throw new EventBusException("Keyed cache not supported by " + getClass().getName());
+   }
 }
@@ -0,0 +1,16 @@
+package com.EventBus;
+
+/**
+ * An FsyncPolicy tells an EventJournal when to force its memory mapped segment to disk. Writes into the mapping reach the OS page cache at once, so they survive a crash of the process whatever the policy; the policy decides how much is lost if the machine itself goes down.
+ *
+ * <p>Whatever the policy, a segment is forced when it is rolled and when the journal is closed, and EventJournal.flush() forces on demand.
+ * @author Mustaq Ali
+ */
+public enum FsyncPolicy {
+   /** Forced after each batch of events the writer takes from the publishers (group commit): the safest, and the slowest under a trickle of events */
+   EVERY_BATCH,
+   /** Forced at most once per sync interval, when events were written since the last one */
+   PERIODIC,
+   /** Never forced but on roll and close: the OS writes the pages back in its own time */
+   ON_ROLL
+}
@@ -0,0 +1,45 @@
+package com.EventBus;
+
+/**
+ * JournalStats is a point in time snapshot of an EventJournal: events appended by the publishers, written to the segments and failed (not serializable, or larger than a segment), the sequence written and forced to disk so far, and the segments on disk.
+ * @author Mustaq Ali
+ */
+public final class JournalStats {
+   private final long appendedCount;
+   private final long writtenCount;
+   private final long failedCount;
+   private final long bytesWritten;
+   private final long lastSequence;
+   private final long syncedSequence;
+   private final long syncCount;
+   private final int segmentCount;
+
+   JournalStats(long appendedCount, long writtenCount, long failedCount, long bytesWritten, long lastSequence,
+                long syncedSequence, long syncCount, int segmentCount) {
+      this.appendedCount = appendedCount;
+      this.writtenCount = writtenCount;
+      this.failedCount = failedCount;
+      this.bytesWritten = bytesWritten;
+      this.lastSequence = lastSequence;
+      this.syncedSequence = syncedSequence;
+      this.syncCount = syncCount;
+      this.segmentCount = segmentCount;
+   }
+
+   public long getAppendedCount() { return appendedCount; }
+   public long getWrittenCount() { return writtenCount; }
+   public long getFailedCount() { return failedCount; }
+   public long getPendingCount() { return Math.max(0, appendedCount - writtenCount - failedCount); }
+   public long getBytesWritten() { return bytesWritten; }
+   public long getLastSequence() { return lastSequence; }
+   public long getSyncedSequence() { return syncedSequence; }
+   public long getSyncCount() { return syncCount; }
+   public int getSegmentCount() { return segmentCount; }
+
+   @Override
+   public String toString() {
+      return "Journal: appended=" + appendedCount + " written=" + writtenCount + " failed=" + failedCount +
+              " pending=" + getPendingCount() + " bytes=" + bytesWritten + " lastSequence=" + lastSequence +
+              " synced=" + syncedSequence + " syncs=" + syncCount + " segments=" + segmentCount;
+   }
+}
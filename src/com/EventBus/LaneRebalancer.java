@@ -0,0 +1,134 @@
+package com.EventBus;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A LaneRebalancer evens out the load of the lanes of an AsyncSynEventHandler: hash partitioning places Subscriptions on lanes blindly, so two expensive Subscriptions can saturate one lane while the others sit idle.
+ *
+ * <p>A rebalancing round reads the callback cost each Subscription accumulated since the last round (sampled by the lane threads, see DeliveryLane) and sums it per lane. While the most loaded lane carries more than IMBALANCE times the mean load, the heaviest of its Subscriptions that still narrows the gap to the least loaded lane is moved there, up to MAX_MOVES_PER_ROUND moves. A Subscription stays on the lane it was moved to until a later round moves it again. Subscriptions with a partition key are left out, as their events are spread by key already.
+ *
+ * <p>The moves go through the lanes' migration fence, so the events of a moved Subscription keep their order. Rounds run on demand (rebalance()) or on a daemon thread at a fixed interval (start()); rounds never overlap.
+ * @author Mustaq Ali
+ */
+final class LaneRebalancer {
+   static final double IMBALANCE = 1.25;
+   static final int MAX_MOVES_PER_ROUND = 2;
+   static final long MIN_GAP_NANOS = 1_000_000; // Smaller load differences are noise
+   static final Logger logger = Logger.getLogger(LaneRebalancer.class.getName());
+
+   private final String busId;
+   private final SubscriberHandler subscriptionHandler;
+   private final AsyncSynEventHandler eventHandler;
+   private volatile long migrationCount;
+   private Thread thread; // Periodic rounds, guarded by the rebalancer's monitor
+
+   LaneRebalancer(String busId, SubscriberHandler subscriptionHandler, AsyncSynEventHandler eventHandler) {
+      this.busId = busId;
+      this.subscriptionHandler = subscriptionHandler;
+      this.eventHandler = eventHandler;
+   }
+
+   /**
+    * One rebalancing round.
+    * @return the number of Subscriptions moved
+    */
+   synchronized int rebalance() {
+      List<DeliveryLane> lanes = eventHandler.getLanes();
+      int laneCount = lanes.size();
+      if (laneCount < 2) {
+         return 0;
+      }
+      long[] load = new long[laneCount];
+      List<Subscription> candidates = new ArrayList<>();
+      List<Long> costs = new ArrayList<>();
+      RoutingSnapshot routing = subscriptionHandler.getRoutingSnapshot();
+      for (Class<?> eventType : routing.getRegisteredEventTypes()) {
+         for (Subscription subscription : routing.getRegisteredSubscriptions(eventType)) {
+            if (subscription.partitionKey != null) {
+               continue; // Spread across the lanes by key already
+            }
+            long total = subscription.callbackCostNanos.sum();
+            long cost = total - subscription.rebalancedCost;
+            subscription.rebalancedCost = total;
+            if (cost > 0) {
+               load[eventHandler.laneOf(subscription)] += cost;
+               candidates.add(subscription);
+               costs.add(cost);
+            }
+         }
+      }
+
+      int moves = 0;
+      while (moves < MAX_MOVES_PER_ROUND) {
+         int hot = 0;
+         int cold = 0;
+         long total = 0;
+         for (int i = 0; i < laneCount; i++) {
+            total += load[i];
+            if (load[i] > load[hot]) hot = i;
+            if (load[i] < load[cold]) cold = i;
+         }
+         long gap = load[hot] - load[cold];
+         if (load[hot] <= IMBALANCE * total / laneCount || gap < MIN_GAP_NANOS) {
+            break;
+         }
+         int heaviest = -1; // Heaviest Subscription on the hot lane lighter than the gap, so that the move helps
+         for (int i = 0; i < candidates.size(); i++) {
+            Subscription subscription = candidates.get(i);
+            long cost = costs.get(i);
+            if (eventHandler.laneOf(subscription) == hot && !subscription.migrating && cost < gap &&
+                    (heaviest < 0 || cost > costs.get(heaviest))) {
+               heaviest = i;
+            }
+         }
+         if (heaviest < 0 || !lanes.get(hot).moveSubscription(candidates.get(heaviest), cold)) {
+            break;
+         }
+         long cost = costs.get(heaviest);
+         load[hot] -= cost;
+         load[cold] += cost;
+         moves++;
+         if (logger.isLoggable(Level.FINE)) {
+            logger.fine(busId + ": " + candidates.get(heaviest).getSubscriptionId() + " moved from lane " + hot + " to " + cold);
+         }
+      }
+      migrationCount += moves;
+      return moves;
+   }
+
+   /**
+    * Runs a round every intervalMillis on a daemon thread, replacing any running one (0 stops the rounds).
+    */
+   synchronized void start(long intervalMillis) {
+      stop();
+      if (intervalMillis <= 0) {
+         return;
+      }
+      thread = new Thread(() -> {
+         try {
+            while (!Thread.currentThread().isInterrupted()) {
+               Thread.sleep(intervalMillis);
+               rebalance();
+            }
+         } catch (InterruptedException e) {
+            // Stopped
+         }
+      }, "LaneRebalancer-" + busId);
+      thread.setDaemon(true);
+      thread.start();
+   }
+
+   synchronized void stop() {
+      if (thread != null) {
+         thread.interrupt();
+         thread = null;
+      }
+   }
+
+   long getMigrationCount() {
+      return migrationCount;
+   }
+}
@@ -0,0 +1,45 @@
+package com.EventBus;
+
+/**
+ * LaneStats is a point in time snapshot of one delivery lane of an AsyncEventBus: queue depth against its capacity, and the counts of each backpressure outcome since the bus started.
+ * @author Mustaq Ali
+ */
+public final class LaneStats {
+   private final int laneId;
+   private final int queueDepth;
+   private final int capacity;
+   private final long blockedCount;
+   private final long droppedNewestCount;
+   private final long droppedOldestCount;
+   private final long callerRunsCount;
+   private final long failedCount;
+
+   LaneStats(int laneId, int queueDepth, int capacity, long blockedCount, long droppedNewestCount,
+             long droppedOldestCount, long callerRunsCount, long failedCount) {
+      this.laneId = laneId;
+      this.queueDepth = queueDepth;
+      this.capacity = capacity;
+      this.blockedCount = blockedCount;
+      this.droppedNewestCount = droppedNewestCount;
+      this.droppedOldestCount = droppedOldestCount;
+      this.callerRunsCount = callerRunsCount;
+      this.failedCount = failedCount;
+   }
+
+   public int getLaneId() { return laneId; }
+   public int getQueueDepth() { return queueDepth; }
+   public int getCapacity() { return capacity; }
+   public long getBlockedCount() { return blockedCount; }
+   public long getDroppedNewestCount() { return droppedNewestCount; }
+   public long getDroppedOldestCount() { return droppedOldestCount; }
+   public long getDroppedCount() { return droppedNewestCount + droppedOldestCount; }
+   public long getCallerRunsCount() { return callerRunsCount; }
+   public long getFailedCount() { return failedCount; }
+
+   @Override
+   public String toString() {
+      return "Lane " + laneId + ": depth=" + queueDepth + "/" + capacity + " blocked=" + blockedCount +
+              " droppedNewest=" + droppedNewestCount + " droppedOldest=" + droppedOldestCount +
+              " callerRuns=" + callerRunsCount + " failed=" + failedCount;
+   }
+}
@@ -0,0 +1,365 @@
+package com.EventBus;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * A LastValueCache holds the latest event of each (event type, key) for Last Event Caching (see AsyncSynEventHandler). The key is taken from the event by the cache key extractor set for its type; a type without one is cached as a single entry, the latest event of the type.
+ *
+ * <p>Reads are lock free: a lookup in a ConcurrentHashMap, and a volatile stamp of the entry for the LRU order. Writers update an entry in place when it exists. The number of entries is bounded: when a write takes the cache over its capacity, one writer evicts the least recently used entries down to EVICT_TO of the capacity (an O(n log n) pass every n / 10 new entries), while the other writers carry on.
+ *
+ * <p>The latest event of a keyed type is also kept under the type itself, so pollCashedEvent(type) returns the latest event of the type whatever its key.
+ *
+ * <p>After a restart, the events of a CacheSnapshot are restored lazily: a type's events are read from the snapshot file the first time the type is looked up (and keyed by the key extractor set by then), and an event cached live since the start is kept over the snapshot's of the same key.
+ * @author Mustaq Ali
+ */
+final class LastValueCache {
+   static final int DEFAULT_CAPACITY = 10_000;
+   static final double EVICT_TO = 0.9;
+   private static final Object NULL_KEY = new Object();
+
+   private final Map<Object, Entry> entries = new ConcurrentHashMap<>(); // Type (unkeyed types) or TypeKey -> entry
+   private final Map<Class<?>, Entry> latestByType = new ConcurrentHashMap<>(); // Keyed types only
+   private final Map<Class<?>, Function<?, ?>> keyExtractors = new ConcurrentHashMap<>();
+   private final AtomicInteger size = new AtomicInteger();
+   private final AtomicLong clock = new AtomicLong(); // Ticks on each write, the LRU order
+   private final ReentrantLock evicting = new ReentrantLock();
+   private final AtomicLong evictedCount = new AtomicLong();
+   private volatile int capacity = DEFAULT_CAPACITY;
+   private volatile CacheSnapshot.Restored restored; // Snapshot events not read yet, null once all are
+
+   /**
+    * Caches the event as the latest of its type and key.
+    */
+   void put(Class<?> eventType, Object event) {
+      Object mapKey = mapKeyOf(eventType, event);
+      long now = clock.incrementAndGet();
+      Entry entry = entries.get(mapKey);
+      if (entry != null) {
+         entry.event = event;
+         entry.updated = now;
+         entry.lastUsed = now;
+         if (entry.evicted) { // Lost to a concurrent eviction: cache it again
+            entry = insert(new Entry(eventType, mapKey, event, now));
+         }
+      } else {
+         entry = insert(new Entry(eventType, mapKey, event, now));
+      }
+      if (mapKey != eventType) {
+         latestByType.put(eventType, entry);
+      }
+   }
+
+   private Entry insert(Entry entry) {
+      if (entries.put(entry.mapKey, entry) == null && size.incrementAndGet() > capacity) {
+         evict();
+      }
+      return entry;
+   }
+
+   /**
+    * The latest event of the type (of any key), or null.
+    */
+   Object get(Class<?> eventType) {
+      Entry entry = entries.get(eventType);
+      if (entry == null) {
+         entry = latestByType.get(eventType);
+         if (entry == null && restore(eventType)) {
+            return get(eventType);
+         }
+      }
+      return read(entry);
+   }
+
+   /**
+    * The latest event of the type and key, or null.
+    */
+   Object get(Class<?> eventType, Object key) {
+      Object mapKey = keyed(eventType) ? new TypeKey(eventType, key) : eventType;
+      Entry entry = entries.get(mapKey);
+      if (entry == null && restore(eventType)) {
+         entry = entries.get(mapKey);
+      }
+      return read(entry);
+   }
+
+   private Object read(Entry entry) {
+      if (entry == null || entry.evicted) {
+         return null;
+      }
+      entry.lastUsed = clock.get();
+      return entry.event;
+   }
+
+   /**
+    * Removes all the events of the type.
+    * @return the latest one, or null
+    */
+   Object remove(Class<?> eventType) {
+      restore(eventType);
+      return discardType(eventType);
+   }
+
+   //Removes the cached events of the type, leaving those of a snapshot not read yet
+   private Object discardType(Class<?> eventType) {
+      Entry latest = entries.get(eventType);
+      if (latest == null) {
+         latest = latestByType.remove(eventType);
+      }
+      for (Entry entry : entries.values()) {
+         if (entry.eventType == eventType) {
+            discard(entry);
+         }
+      }
+      return latest == null ? null : latest.event;
+   }
+
+   /**
+    * Removes the event of the type and key (the other keys of the type stay cached).
+    * @return the removed event, or null
+    */
+   Object remove(Class<?> eventType, Object key) {
+      restore(eventType);
+      Entry entry = entries.get(keyed(eventType) ? new TypeKey(eventType, key) : eventType);
+      if (entry == null || !discard(entry)) {
+         return null;
+      }
+      return entry.event;
+   }
+
+   void clear() {
+      restored = null;
+      for (Entry entry : entries.values()) {
+         discard(entry);
+      }
+   }
+
+   /**
+    * The cached events of the type by key (the type itself for an unkeyed type), oldest write first.
+    */
+   Map<Object, Object> snapshot(Class<?> eventType) {
+      restore(eventType);
+      TreeMap<Long, Entry> ofType = new TreeMap<>(); // By write clock, each write has its own tick
+      for (Entry entry : entries.values()) {
+         if (entry.eventType == eventType && !entry.evicted) {
+            ofType.put(entry.updated, entry);
+         }
+      }
+      Map<Object, Object> snapshot = new LinkedHashMap<>();
+      for (Entry entry : ofType.values()) {
+         Object key = entry.mapKey instanceof TypeKey ? ((TypeKey) entry.mapKey).key : entry.mapKey;
+         snapshot.put(key == NULL_KEY ? null : key, entry.event);
+      }
+      return snapshot;
+   }
+
+   /**
+    * The cached events of all the types, oldest write first within a type. The snapshot events of the types also cached live are read first, so they are merged.
+    */
+   Map<Class<?>, List<Object>> snapshotAll() {
+      if (restored != null) {
+         for (Entry entry : entries.values()) {
+            restore(entry.eventType);
+         }
+      }
+      TreeMap<Long, Entry> all = new TreeMap<>();
+      for (Entry entry : entries.values()) {
+         if (!entry.evicted) {
+            all.put(entry.updated, entry);
+         }
+      }
+      Map<Class<?>, List<Object>> snapshot = new LinkedHashMap<>();
+      for (Entry entry : all.values()) {
+         snapshot.computeIfAbsent(entry.eventType, t -> new ArrayList<>()).add(entry.event);
+      }
+      return snapshot;
+   }
+
+   /**
+    * Hands the events of a loaded snapshot to the cache, read type by type when looked up.
+    */
+   void restore(CacheSnapshot.Restored restored) {
+      this.restored = restored;
+   }
+
+   CacheSnapshot.Restored getRestored() {
+      return restored;
+   }
+
+   //Reads the snapshot events of the type into the cache, keeping the live ones; false if there were none to read
+   private boolean restore(Class<?> eventType) {
+      CacheSnapshot.Restored pending = restored;
+      if (pending == null || !pending.contains(eventType)) {
+         return false;
+      }
+      synchronized (pending) {
+         if (!pending.contains(eventType)) {
+            return true; // Read by another thread meanwhile
+         }
+         boolean liveLatest = latestByType.containsKey(eventType);
+         for (Object event : pending.read(eventType)) {
+            Object mapKey = mapKeyOf(eventType, event);
+            Entry entry = new Entry(eventType, mapKey, event, clock.incrementAndGet());
+            if (entries.putIfAbsent(mapKey, entry) == null) {
+               if (size.incrementAndGet() > capacity) {
+                  evict();
+               }
+               if (mapKey != eventType && !liveLatest) {
+                  latestByType.put(eventType, entry);
+               }
+            }
+         }
+         pending.remove(eventType); // Last: a reader finding the type gone finds its events cached
+         if (pending.isEmpty() && restored == pending) {
+            restored = null;
+         }
+      }
+      return true;
+   }
+
+   /**
+    * Sets the key extractor of an event type (null = one entry for the type). Drops the events cached so far for the type; those of a snapshot not read yet are keyed by the new extractor when read.
+    */
+   void setKeyExtractor(Class<?> eventType, Function<?, ?> keyExtractor) {
+      if (keyExtractor == null) {
+         keyExtractors.remove(eventType);
+      } else {
+         keyExtractors.put(eventType, keyExtractor);
+      }
+      discardType(eventType);
+   }
+
+   void setCapacity(int capacity) {
+      if (capacity < 1) {
+         throw new EventBusException("Cache capacity must be at least 1: " + capacity);
+      }
+      this.capacity = capacity;
+      if (size.get() > capacity) {
+         evict();
+      }
+   }
+
+   int getCapacity() {
+      return capacity;
+   }
+
+   int size() {
+      return size.get();
+   }
+
+   long getEvictedCount() {
+      return evictedCount.get();
+   }
+
+   private boolean keyed(Class<?> eventType) {
+      return keyExtractors.containsKey(eventType);
+   }
+
+   @SuppressWarnings("unchecked")
+   private Object mapKeyOf(Class<?> eventType, Object event) {
+      Function<Object, ?> keyExtractor = (Function<Object, ?>) keyExtractors.get(eventType);
+      if (keyExtractor == null) {
+         return eventType; // No allocation for an unkeyed type
+      }
+      Object key;
+      try {
+         key = keyExtractor.apply(event);
+      } catch (ClassCastException e) {
+         throw new EventBusException(e.getMessage());
+      }
+      return new TypeKey(eventType, key);
+   }
+
+   //Evicts the least recently used entries down to EVICT_TO of the capacity; a writer finding an eviction running goes on
+   private void evict() {
+      while (size.get() > capacity && evicting.tryLock()) { // Again for the writers that went on meanwhile
+         try {
+            evictLeastRecentlyUsed();
+         } finally {
+            evicting.unlock();
+         }
+      }
+   }
+
+   private void evictLeastRecentlyUsed() {
+      int excess = size.get() - (int) (capacity * EVICT_TO);
+      List<Entry> all = new ArrayList<>(entries.values());
+      long[] lastUsed = new long[all.size()]; // Read once, as readers keep stamping the entries
+      for (int i = 0; i < lastUsed.length; i++) {
+         lastUsed[i] = all.get(i).lastUsed;
+      }
+      if (excess <= 0 || lastUsed.length == 0) {
+         return;
+      }
+      long[] sorted = lastUsed.clone();
+      Arrays.sort(sorted);
+      long threshold = sorted[Math.min(excess, sorted.length) - 1];
+      for (int i = 0; i < lastUsed.length && excess > 0; i++) {
+         if (lastUsed[i] <= threshold && discard(all.get(i))) {
+            evictedCount.incrementAndGet();
+            excess--;
+         }
+      }
+   }
+
+   private boolean discard(Entry entry) {
+      entry.evicted = true;
+      if (!entries.remove(entry.mapKey, entry)) {
+         return false;
+      }
+      size.decrementAndGet();
+      latestByType.remove(entry.eventType, entry);
+      return true;
+   }
+
+   //The latest event of one (type, key)
+   static final class Entry {
+      final Class<?> eventType;
+      final Object mapKey;
+      volatile Object event;
+      volatile long updated; // Clock of the last write
+      volatile long lastUsed; // Clock of the last write or read
+      volatile boolean evicted;
+
+      Entry(Class<?> eventType, Object mapKey, Object event, long now) {
+         this.eventType = eventType;
+         this.mapKey = mapKey;
+         this.event = event;
+         this.updated = now;
+         this.lastUsed = now;
+      }
+   }
+
+   //Map key of a keyed type's entry
+   static final class TypeKey {
+      final Class<?> eventType;
+      final Object key;
+
+      TypeKey(Class<?> eventType, Object key) {
+         this.eventType = eventType;
+         this.key = key == null ? NULL_KEY : key;
+      }
+
+      @Override
+      public boolean equals(Object o) {
+         if (this == o) return true;
+         if (!(o instanceof TypeKey)) return false;
+         TypeKey other = (TypeKey) o;
+         return eventType == other.eventType && key.equals(other.key);
+      }
+
+      @Override
+      public int hashCode() {
+         return 31 * eventType.hashCode() + key.hashCode();
+      }
+   }
+}
@@ -0,0 +1,60 @@
+package com.EventBus;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A LatencyHistogram counts nano second latencies in fixed log-linear buckets (as in HdrHistogram): values below 64 have a bucket each, and every further power of two is split into 32 buckets, so a bucket is at most ~3% wide. Values are capped at 2^37 ns (~137 seconds), which bounds the histogram to a fixed 1056 buckets.
+ *
+ * <p>Recording is lock free (one atomic bucket increment, plus the running sum and max); snapshot() copies the buckets without stopping the recorders.
+ * @author Mustaq Ali
+ */
+final class LatencyHistogram {
+   static final int SUB_BUCKET_BITS = 6;
+   static final int HALF_SUB_BUCKETS = 1 << (SUB_BUCKET_BITS - 1);
+   static final long MAX_VALUE = (1L << 37) - 1;
+   static final int BUCKET_COUNT = indexOf(MAX_VALUE) + 1;
+
+   private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+   private final AtomicLong sum = new AtomicLong();
+   private final AtomicLong max = new AtomicLong();
+
+   void record(long nanos) {
+      long value = Math.min(Math.max(nanos, 0), MAX_VALUE);
+      counts.incrementAndGet(indexOf(value));
+      sum.addAndGet(value);
+      long current;
+      while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+         // Retry, another recorder raised the max
+      }
+   }
+
+   LatencySnapshot snapshot() {
+      long[] copy = new long[BUCKET_COUNT];
+      for (int i = 0; i < BUCKET_COUNT; i++) {
+         copy[i] = counts.get(i);
+      }
+      return new LatencySnapshot(copy, sum.get(), max.get());
+   }
+
+   static int indexOf(long value) {
+      int msb = 63 - Long.numberOfLeadingZeros(value);
+      if (msb < SUB_BUCKET_BITS) {
+         return (int) value;
+      }
+      int shift = msb - SUB_BUCKET_BITS + 1;
+      return shift * HALF_SUB_BUCKETS + (int) (value >>> shift);
+   }
+
+   static long lowestValueAt(int index) {
+      if (index < 2 * HALF_SUB_BUCKETS) {
+         return index;
+      }
+      int shift = index / HALF_SUB_BUCKETS - 1;
+      return (long) (index % HALF_SUB_BUCKETS + HALF_SUB_BUCKETS) << shift;
+   }
+
+   static long highestValueAt(int index) {
+      return lowestValueAt(index + 1) - 1;
+   }
+}
@@ -0,0 +1,54 @@
+package com.EventBus;
+
+/**
+ * A LatencySnapshot is a point in time copy of a Subscription's latency histogram (queue wait or callback time, see AsyncEventBus.setLatencyTracking()). All values are in nano seconds; a percentile is reported as the highest value of its histogram bucket (within ~3%).
+ * @author Mustaq Ali
+ */
+public final class LatencySnapshot {
+   static final LatencySnapshot EMPTY = new LatencySnapshot(new long[LatencyHistogram.BUCKET_COUNT], 0, 0);
+
+   private final long[] counts;
+   private final long count;
+   private final long sum;
+   private final long max;
+
+   LatencySnapshot(long[] counts, long sum, long max) {
+      long count = 0;
+      for (long c : counts) {
+         count += c;
+      }
+      this.counts = counts;
+      this.count = count;
+      this.sum = sum;
+      this.max = max;
+   }
+
+   public long getCount() { return count; }
+   public long getMaxNanos() { return max; }
+   public double getMeanNanos() { return count == 0 ? 0 : (double) sum / count; }
+
+   /**
+    * Latency at or below which the given percent (0 - 100) of the recorded values fall.
+    */
+   public long getValueAtPercentile(double percentile) {
+      if (count == 0) {
+         return 0;
+      }
+      long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+      long seen = 0;
+      for (int i = 0; i < counts.length; i++) {
+         seen += counts[i];
+         if (seen >= rank) {
+            return Math.min(LatencyHistogram.highestValueAt(i), max);
+         }
+      }
+      return max;
+   }
+
+   @Override
+   public String toString() {
+      return String.format("count=%d, mean=%.1fus, p50=%.1fus, p90=%.1fus, p99=%.1fus, p99.9=%.1fus, max=%.1fus",
+              count, getMeanNanos() / 1e3, getValueAtPercentile(50) / 1e3, getValueAtPercentile(90) / 1e3,
+              getValueAtPercentile(99) / 1e3, getValueAtPercentile(99.9) / 1e3, max / 1e3);
+   }
+}
@@ -0,0 +1,285 @@
+package com.EventBus;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A MailboxEventHandler is a delivery engine for AsyncEventBus (see AsyncEventBus.DeliveryMode.SUBSCRIPTION_MAILBOXES) in which each Subscription has its own ordered mailbox, drained by a thread of its own while it has mail. A callback that blocks (a DB write, a file append) then only holds up its own Subscription, whereas on a hash-partitioned lane it holds up every Subscription hashed there.
+ *
+ * <p>The mailboxes are drained by virtual threads when the JVM has them (Java 21+, found at runtime by reflection so the bus still runs on Java 8). On older JVMs they are drained by a cached pool of platform threads, which isolates blocking callbacks just as well but costs a platform thread per busy Subscription; there the LANE_EXECUTORS engine stays the better choice for short, CPU bound callbacks.
+ *
+ * <p>A mailbox is scheduled at most once at a time (an idle flag flipped by the publisher that finds it idle), so a Subscription's events are delivered in order, one callback at a time. Filtering and Last Event Caching are applied on the publisher's thread, as in AsyncSynEventHandler. Mailboxes are unbounded and serve a Subscription serially, so lane capacity, backpressure and partition keys don't apply here.
+ *
+ * <p>Each mailbox counts the mail posted to it and delivered from it, which serve as the barrier for flush() and awaitQuiescence(). A mail is counted delivered only once its callback returns, so these are refused on a draining thread (marked by DRAINING), which would wait for itself.
+ *
+ * <p>When its Subscription is removed, a mailbox is retired: the mail already in it is still delivered, and the handler lets go of it once it is empty, so subscribe / unsubscribe churn doesn't pile up mailboxes (nor the subscribers they reference).
+ * @author Mustaq Ali
+ */
+public class MailboxEventHandler extends AsyncSynEventHandler {
+   static final boolean VIRTUAL_THREADS = newVirtualThreadFactory("probe") != null;
+   static final Logger logger = Logger.getLogger(MailboxEventHandler.class.getName());
+   static final ThreadLocal<Mailbox> DRAINING = new ThreadLocal<>(); // Set on a thread while it drains a mailbox, see checkNotOnLane()
+
+   private final ExecutorService drainers;
+   private final boolean virtualThreads;
+   private final List<Mailbox> mailboxes = new CopyOnWriteArrayList<>(); // One per live (or still draining) Subscription, for flush / shutdown
+
+   MailboxEventHandler(SubscriberHandler subscriptionHandler, String busId) {
+      super(subscriptionHandler, 0, false);
+      ThreadFactory virtual = newVirtualThreadFactory("Mailbox-" + busId + "-");
+      this.virtualThreads = virtual != null;
+      if (virtualThreads) {
+         this.drainers = newThreadPerTaskExecutor(virtual);
+      } else {
+         AtomicInteger threadCount = new AtomicInteger();
+         this.drainers = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "Mailbox-" + busId + "-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+         });
+         logger.info(busId + ": No virtual threads in this JVM, mailboxes are drained by platform threads");
+      }
+   }
+
+   /**
+    * A factory of named virtual threads (Thread.ofVirtual().name(prefix, 0).factory()), or null if the JVM has none.
+    */
+   static ThreadFactory newVirtualThreadFactory(String namePrefix) {
+      try {
+         Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+         Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+         builder = builderType.getMethod("name", String.class, long.class).invoke(builder, namePrefix, 0L);
+         return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+      } catch (ReflectiveOperationException | RuntimeException e) { // Not there, or a preview feature not enabled
+         return null;
+      }
+   }
+
+   //Executors.newThreadPerTaskExecutor(factory), a Java 21 method
+   private static ExecutorService newThreadPerTaskExecutor(ThreadFactory factory) {
+      try {
+         Method method = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+         return (ExecutorService) method.invoke(null, factory);
+      } catch (ReflectiveOperationException e) {
+         throw new IllegalStateException("Virtual threads without a thread per task executor", e);
+      }
+   }
+
+   boolean isUsingVirtualThreads() {
+      return virtualThreads;
+   }
+
+   @Override
+    void publishToSingleSubscriber(Object event, Subscription subscription, long publishNanos) {
+      if (isDeliverable(event, subscription)) {
+         mailboxOf(subscription).post(event, publishNanos);
+      }
+   }
+
+   @Override
+    void queueReplay(Subscription subscription) {
+      mailboxOf(subscription).post(REPLAY, 0L);
+   }
+
+   //A mailbox per Subscription already keeps the batch order per Subscription
+   @Override
+    void publishEvents(Object[] events) throws Error {
+      publishInOrder(events, routeBatch(events), publishStamp());
+   }
+
+   @Override
+    void removeSubscriber(Object subscriber) {
+      subscriptionHandler.removeSubscriber(subscriber, this::retire);
+   }
+
+   //Lets go of the removed Subscription's mailbox once the mail in it is delivered
+   private void retire(Subscription subscription) {
+      Mailbox mailbox;
+      synchronized (subscription) { // No mailbox is created for it past this point (see mailboxOf())
+         subscription.retired = true;
+         mailbox = subscription.mailbox;
+      }
+      if (mailbox != null) {
+         mailbox.retired = true;
+         mailbox.dropIfDrained();
+      }
+   }
+
+   private Mailbox mailboxOf(Subscription subscription) {
+      Mailbox mailbox = subscription.mailbox;
+      if (mailbox == null) {
+         synchronized (subscription) {
+            mailbox = subscription.mailbox;
+            if (mailbox == null) {
+               mailbox = new Mailbox(subscription);
+               subscription.mailbox = mailbox;
+               if (!subscription.retired) {
+                  mailboxes.add(mailbox);
+               }
+            }
+         }
+      }
+      return mailbox;
+   }
+
+   /**
+    * Lets the mailboxes being drained finish; events posted after the shutdown are rejected.
+    */
+   @Override
+    void shutDownExecutorPool() {
+      drainers.shutdown();
+   }
+
+   //Mailboxes still held by the handler
+   int getMailboxCount() {
+      return mailboxes.size();
+   }
+
+   @Override
+    boolean flush(long timeoutNanos) {
+      checkNotOnLane();
+      Mailbox[] marked = mailboxes.toArray(new Mailbox[0]); // Retired ones drop out of the list meanwhile
+      long[] marks = new long[marked.length];
+      for (int i = 0; i < marks.length; i++) {
+         marks[i] = marked[i].posted.sum();
+      }
+      return waitUntil(() -> {
+         for (int i = 0; i < marks.length; i++) {
+            if (!marked[i].isDelivered(marks[i])) {
+               return false;
+            }
+         }
+         return true;
+      }, timeoutNanos);
+   }
+
+   @Override
+    boolean awaitQuiescence(long timeoutNanos) {
+      checkNotOnLane();
+      return waitUntil(() -> {
+         long posted = 0;
+         for (Mailbox mailbox : mailboxes) {
+            long mailboxPosted = mailbox.posted.sum();
+            if (!mailbox.isDelivered(mailboxPosted)) {
+               return false;
+            }
+            posted += mailboxPosted;
+         }
+         for (Mailbox mailbox : mailboxes) {
+            posted -= mailbox.posted.sum();
+         }
+         return posted == 0; // Nothing posted while checking
+      }, timeoutNanos);
+   }
+
+   @Override
+    long shutdown(long timeoutNanos) {
+      drainers.shutdown();
+      try {
+         drainers.awaitTermination(timeoutNanos, TimeUnit.NANOSECONDS);
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }
+      long dropped = 0; // The drainers still running stop once their mailbox is emptied here
+      for (Mailbox mailbox : mailboxes) {
+         while (mailbox.mail.poll() != null) {
+            dropped++;
+         }
+      }
+      return dropped;
+   }
+
+   //The ordered mail of one Subscription, drained by at most one thread at a time
+   final class Mailbox implements Runnable {
+      private final Subscription subscription;
+      private final Queue<DeliveryLane.Delivery> mail = new ConcurrentLinkedQueue<>();
+      private final AtomicBoolean scheduled = new AtomicBoolean();
+      final LongAdder posted = new LongAdder(); // Counted before the mail is queued, so delivered never runs ahead
+      volatile long delivered; // Written by the one thread draining the mailbox
+      volatile boolean retired; // The Subscription was removed
+      private volatile boolean dropped; // Retired, and let go of by the handler
+
+      Mailbox(Subscription subscription) {
+         this.subscription = subscription;
+      }
+
+      void post(Object event, long publishNanos) {
+         DeliveryLane.Delivery delivery = new DeliveryLane.Delivery(event, subscription, publishNanos);
+         posted.increment();
+         mail.offer(delivery);
+         try {
+            schedule();
+         } catch (RejectedExecutionException e) {
+            if (mail.remove(delivery)) {
+               posted.decrement();
+            }
+            throw e;
+         }
+      }
+
+      private void schedule() {
+         if (scheduled.compareAndSet(false, true)) {
+            try {
+               drainers.execute(this);
+            } catch (RejectedExecutionException e) { // Shut down
+               scheduled.set(false);
+               throw e;
+            }
+         }
+      }
+
+      @Override
+      public void run() {
+         DRAINING.set(this);
+         try {
+            drain();
+         } finally {
+            DRAINING.remove(); // The pool's platform threads are reused
+         }
+      }
+
+      private void drain() {
+         do {
+            DeliveryLane.Delivery delivery;
+            while ((delivery = mail.poll()) != null) {
+               try {
+                  SynEventHandler.invokeCallback(delivery.event, subscription, delivery.publishNanos);
+               } catch (RuntimeException e) {
+                  logger.log(Level.WARNING, Thread.currentThread().getName() + ": Callback Error: " + e.getMessage(), e);
+               }
+               delivered++;
+            }
+            scheduled.set(false);
+            // Mail posted after the last poll, but before the flag was cleared, found the mailbox scheduled
+         } while (!mail.isEmpty() && scheduled.compareAndSet(false, true));
+         dropIfDrained();
+      }
+
+      //Removes a retired mailbox from the handler once it is idle and empty; checked by both the retiring and the
+      //draining thread, so that one of them sees the other's write
+      void dropIfDrained() {
+         if (retired && !scheduled.get() && mail.isEmpty()) {
+            mailboxes.remove(this);
+            dropped = true;
+         }
+      }
+
+      //The mail up to the mark delivered, and a retired mailbox let go of as well (its drainer drops it last thing)
+      boolean isDelivered(long mark) {
+         return delivered >= mark && (!retired || dropped);
+      }
+   }
+}
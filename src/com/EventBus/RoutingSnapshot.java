@@ -0,0 +1,124 @@
+package com.EventBus;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A RoutingSnapshot is one immutable generation of the bus routing: event type to Subscriptions. SubscriberHandler publishes the current snapshot through a single volatile reference, so a publisher reads all the routing for an event with one volatile load and no locking. Subscribe / unsubscribe (writers) build a new snapshot with the next version number and swap it in; publishers already holding the old snapshot finish with it undisturbed.
+ *
+ * <p>The version tells which routing generation an event was published with (for callers and metrics).
+ *
+ * <p>A snapshot also holds the flattened dispatch table: concrete event class to all matching Subscriptions (the event class itself, or with event-inheritance its super classes and interfaces as well). An entry is built on the first publication of an event class and it belongs to this snapshot only, so it can never be stale after a subscription change.
+ * @author Mustaq Ali
+ */
+final class RoutingSnapshot {
+   static final Subscription[] NO_SUBSCRIPTIONS = new Subscription[0];
+   static final RoutingSnapshot EMPTY = new RoutingSnapshot(0, false, Collections.<Class<?>, Subscription[]>emptyMap());
+
+   final long version;
+   final boolean eventInheritance;
+   private final Map<Class<?>, Subscription[]> subscriptionsByType; // Registered (exact) event type -> Subscriptions
+   private final Map<Class<?>, Subscription[]> dispatchTable = new ConcurrentHashMap<>();
+
+   private RoutingSnapshot(long version, boolean eventInheritance, Map<Class<?>, Subscription[]> subscriptionsByType) {
+      this.version = version;
+      this.eventInheritance = eventInheritance;
+      this.subscriptionsByType = subscriptionsByType;
+   }
+
+   /**
+    * All the Subscriptions an event of this class is delivered to. In steady state one table lookup.
+    */
+   Subscription[] getSubscriptions(Class<?> eventClass) {
+      Subscription[] subscriptions = dispatchTable.get(eventClass);
+      if (subscriptions == null) {
+         subscriptions = flatten(eventClass);
+         dispatchTable.put(eventClass, subscriptions); // Racing builders compute the same entry
+      }
+      return subscriptions;
+   }
+
+   /**
+    * Subscriptions registered for exactly this event type.
+    */
+   Subscription[] getRegisteredSubscriptions(Class<?> eventType) {
+      Subscription[] subscriptions = subscriptionsByType.get(eventType);
+      return (subscriptions != null) ? subscriptions : NO_SUBSCRIPTIONS;
+   }
+
+   Set<Class<?>> getRegisteredEventTypes() {
+      return subscriptionsByType.keySet();
+   }
+
+   int getSubscriptionCount() {
+      int count = 0;
+      for (Subscription[] subscriptions : subscriptionsByType.values()) {
+         count += subscriptions.length;
+      }
+      return count;
+   }
+
+   /**
+    * Next generation, with the Subscriptions of the given event types replaced (an empty array removes the type).
+    */
+   RoutingSnapshot withSubscriptions(Map<Class<?>, Subscription[]> changes) {
+      Map<Class<?>, Subscription[]> next = new HashMap<>(subscriptionsByType);
+      changes.forEach((eventType, subscriptions) -> {
+         if (subscriptions.length == 0) {
+            next.remove(eventType);
+         } else {
+            next.put(eventType, subscriptions);
+         }
+      });
+      return new RoutingSnapshot(version + 1, eventInheritance, Collections.unmodifiableMap(next));
+   }
+
+   RoutingSnapshot withEventInheritance(boolean eventInheritance) {
+      return new RoutingSnapshot(version + 1, eventInheritance, subscriptionsByType);
+   }
+
+   private Subscription[] flatten(Class<?> eventClass) {
+      if (!eventInheritance) {
+         return getRegisteredSubscriptions(eventClass);
+      }
+      int count = 0;
+      Set<Class<?>> eventTypes = flattenHierarchy(eventClass);
+      for (Class<?> eventType : eventTypes) {
+         count += getRegisteredSubscriptions(eventType).length;
+      }
+      if (count == 0) {
+         return NO_SUBSCRIPTIONS;
+      }
+      Subscription[] matching = new Subscription[count];
+      int i = 0;
+      for (Class<?> eventType : eventTypes) {
+         Subscription[] subscriptions = getRegisteredSubscriptions(eventType);
+         System.arraycopy(subscriptions, 0, matching, i, subscriptions.length);
+         i += subscriptions.length;
+      }
+      return matching;
+   }
+
+   //Event class first, then its super classes and all implemented interfaces (each type once)
+   static Set<Class<?>> flattenHierarchy(Class<?> eventClass) {
+      Set<Class<?>> types = new LinkedHashSet<>();
+      for (Class<?> c = eventClass; c != null; c = c.getSuperclass()) {
+         types.add(c);
+      }
+      Deque<Class<?>> pending = new ArrayDeque<>(types);
+      while (!pending.isEmpty()) {
+         for (Class<?> anInterface : pending.poll().getInterfaces()) {
+            if (types.add(anInterface)) {
+               pending.add(anInterface);
+            }
+         }
+      }
+      return types;
+   }
+}
@@ -9,8 +9,12 @@ import java.lang.annotation.Target;
  * Marks a method as an event subscriber.
  *
  * <p>The type of subscribed event will be indicated by the method's first (and only) parameter in this framework
+ *
+ * <p>The priority orders the deliveries of the Subscription on the lanes of an AsyncEventBus (see DeliveryPriority).
  * @author Mustaq Ali
  */
 @Retention(RetentionPolicy.RUNTIME)
 @Target(ElementType.METHOD)
-public @interface Subscribe {}
\ No newline at end of file
+public @interface Subscribe {
+   DeliveryPriority priority() default DeliveryPriority.NORMAL;
+}
\ No newline at end of file
@@ -3,8 +3,10 @@ import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -13,9 +15,14 @@ import java.util.logging.Logger;
  *
  * A SubscriberHandler is a class that performs extraction of a subscriber's callback methods when that subscriber is added; it holds the all information related to event subscriptions for many subscribers; and provides subscriptions list to event handlers during event publication. A SubscriberHandler helps the EventBus for outside client call and the EventHandler for internal calls. It can be instantiated stand-alone and  it provides query methods  for subscribers/event existence status during testing.
  *
- * <p>All relevant data structures of the SubscriberHandler are thread safe and are derived from java.util.concurrent package
+ * <p>All relevant data structures of the SubscriberHandler are thread safe. The event routing (event type to Subscriptions) is held in an immutable, versioned RoutingSnapshot: publishers read it with a single volatile load, while subscribe / unsubscribe build and swap in the next version under the handler's monitor.
  *
- *<p><b>Callback Method Scanning:</b> During subscriber addition,  SubscriberHandler scans subscriber class for any qualified callback method for events. A subscriber can have any number of callback methods annotated by @Subscribe interface. However, in this implementation callback methods are restricted to a public method having a single Object  parameter (any object type). Also, there can  be no more than one method with same event type parameter. (If dupe methods were found while scanning, the  SubscriberHandler will pick an arbitrary one). Besides, only declared methods are considered for callback (i.e. no super class @Subscribe method is scanned). Nonetheless,  a derived class is treated as a separate event type.
+ *<p><b>Callback Method Scanning:</b> During subscriber addition,  SubscriberHandler scans subscriber class for any qualified callback method for events. A subscriber can have any number of callback methods annotated by @Subscribe interface. However, in this implementation callback methods are restricted to a public method having a single Object  parameter (any object type). Also, there can  be no more than one method with same event type parameter. (If dupe methods were found while scanning, the  SubscriberHandler will pick an arbitrary one). Besides, only declared methods are considered for callback (i.e. no super class @Subscribe method is scanned). Nonetheless,  a derived class is treated as a separate event type (unless event-inheritance publication is switched on for the bus).
+ * Each qualified callback method is bound once to a SubscriberInvoker at this point, so the event handlers dispatch through a direct call rather than reflection.
+ * When the subscriber class was indexed at build time by the SubscriberIndexProcessor, its callback methods are taken from the generated SubscriberIndex and no scanning is done at all.
+ * Either way the result is cached per subscriber class, so adding more instances of the same class costs only the subscription table inserts (see getMetadataCacheHits / getMetadataCacheMisses).
+ *
+ * <p>The handler also keeps the publication counters of each event type (published, no subscriber), which together with the counters of each Subscription make up the DeliveryStats snapshot.
  *
  * <p>This implementation doesn't process annotation parameters, though any new feature or existing features like caching can  be implemented via annotation as well.
  *
@@ -36,72 +43,191 @@ import java.util.logging.Logger;
  */
 
 public class  SubscriberHandler {
-   private final Map<Class<?>, CopyOnWriteArrayList<Subscription>> eventSubscriptions;
    private final Map<Object, CopyOnWriteArraySet<Class<?>>> subscriberEvents;
+   //Current routing generation, read by publishers with a single volatile load. Replaced (never modified) by writers.
+   private volatile RoutingSnapshot routing = RoutingSnapshot.EMPTY;
+   private int subscriptionsCreated; // Numbers the Subscriptions, for their start lane (guarded by the handler's monitor)
+   //Publication counters per published event class, kept across routing generations
+   private final Map<Class<?>, EventTypeCounters> eventTypeCounters = new ConcurrentHashMap<>();
    static final Logger logger = Logger.getLogger(AsyncSynEventHandler.class.getName());
 
+   //Validated callback metadata per subscriber class. A ClassValue is held by the Class itself,
+   // so it doesn't pin the classes (& class loaders) after they are unloaded.
+   private static final LongAdder metadataCacheLookups = new LongAdder();
+   private static final LongAdder metadataCacheMisses = new LongAdder();
+   private static final ClassValue<List<SubscriberMethod>> subscriberMethodCache = new ClassValue<List<SubscriberMethod>>() {
+      @Override
+      protected List<SubscriberMethod> computeValue(Class<?> subscriberClass) {
+         metadataCacheMisses.increment();
+         return loadSubscriberMethods(subscriberClass);
+      }
+   };
+
    SubscriberHandler() {
-      eventSubscriptions = new ConcurrentHashMap<>();
       subscriberEvents = new ConcurrentHashMap<>();
    }
 
-   CopyOnWriteArrayList<Subscription> getSubscriptions(Class<?> eventType) {
-      //synchronized (this) {
-      {
-         return eventSubscriptions.get(eventType);
+   Subscription[] getSubscriptions(Class<?> eventType) {
+      return routing.getRegisteredSubscriptions(eventType);
+   }
+
+   /**
+    * All the Subscriptions an event is delivered to, from the current routing snapshot.
+    */
+   Subscription[] getAllSubscriptions(Object event) {
+      return routing.getSubscriptions(event.getClass());
+   }
+
+   EventTypeCounters getEventTypeCounters(Class<?> eventClass) {
+      EventTypeCounters counters = eventTypeCounters.get(eventClass);
+      return (counters != null) ? counters : eventTypeCounters.computeIfAbsent(eventClass, c -> new EventTypeCounters());
+   }
+
+   /**
+    * Snapshot of the delivery counters of all current Subscriptions (one routing generation) and of all event types.
+    */
+   DeliveryStats getDeliveryStats() {
+      RoutingSnapshot snapshot = routing;
+      List<DeliveryStats.SubscriptionStats> subscriptionStats = new ArrayList<>();
+      Map<Class<?>, long[]> sums = new HashMap<>(); // Event type -> delivered, filtered, cached, errors, conflated
+      for (Class<?> eventType : snapshot.getRegisteredEventTypes()) {
+         long[] sum = sums.computeIfAbsent(eventType, t -> new long[5]);
+         for (Subscription s : snapshot.getRegisteredSubscriptions(eventType)) {
+            DeliveryStats.SubscriptionStats stats = new DeliveryStats.SubscriptionStats(s.subscriber, s.getSubscriptionId(), eventType,
+                    s.deliveredCount.sum(), s.filteredCount.sum(), s.cachedCount.sum(), s.errorCount.sum(), s.conflatedCount.sum());
+            subscriptionStats.add(stats);
+            sum[0] += stats.getDeliveredCount();
+            sum[1] += stats.getFilteredCount();
+            sum[2] += stats.getCachedCount();
+            sum[3] += stats.getErrorCount();
+            sum[4] += stats.getConflatedCount();
+         }
       }
+      Map<Class<?>, DeliveryStats.EventTypeStats> eventTypeStats = new HashMap<>();
+      Set<Class<?>> eventTypes = new HashSet<>(sums.keySet());
+      eventTypes.addAll(eventTypeCounters.keySet());
+      for (Class<?> eventType : eventTypes) {
+         EventTypeCounters counters = eventTypeCounters.get(eventType);
+         long[] sum = sums.getOrDefault(eventType, new long[5]);
+         eventTypeStats.put(eventType, new DeliveryStats.EventTypeStats(eventType,
+                 counters != null ? counters.publishedCount.sum() : 0,
+                 counters != null ? counters.noSubscriberCount.sum() : 0, sum[0], sum[1], sum[2], sum[3], sum[4]));
+      }
+      return new DeliveryStats(snapshot.version, subscriptionStats, eventTypeStats);
+   }
+
+   RoutingSnapshot getRoutingSnapshot() {
+      return routing;
    }
 
-   List<Subscription> getAllSubscriptions(Object event) {
-      Class<?> eventClass = event.getClass();
-      //Underlying is CopyOnArray
-      return getSubscriptions(eventClass);
+   /**
+    * Routing generation, incremented on every subscription change.
+    */
+   public long getRoutingVersion() {
+      return routing.version;
+   }
+
+   public int getSubscriptionCount() {
+      return routing.getSubscriptionCount();
+   }
+
+   /**
+    * Toggles event-inheritance publication (default off): when on, an event is also delivered to the subscribers of
+    * its super classes and interfaces (so Object subscribers receive every event).
+    */
+   synchronized void setEventInheritance(boolean eventInheritance) {
+      routing = routing.withEventInheritance(eventInheritance);
+   }
+
+   public boolean isEventInheritance() {
+      return routing.eventInheritance;
    }
 
 /** Find all (@Subscribe) Annotated public  Methods with single input parameter of EventType (any class)
  * from the passed subscriber object. Every @Subscribe annotated method is a callback,
  * provided  they have a distinct (already unprocessed) EventType parameter i.e An Overloaded methods will form
  * different subscriptions, but they should  all  have  @Subscribe annotation
- * Note: We don't allow event-inheritance publication, by which a subEvent publication  can trigger a callback
- * for  base EventType subscribers.
- * However, if necessary this module can be expanded to incorporate event-inheritance based subscription.
+ * Note: By default we don't allow event-inheritance publication, by which a subEvent publication  can trigger a callback
+ * for  base EventType subscribers. It can be switched on per bus (setEventInheritance), see RoutingSnapshot.
   */
     void addSubscriber(Object subscriber) {
+      addSubscriber(subscriber, null);
+   }
+
+   /**
+    * Registers the subscriber, running beforeRoutable (if not null) on each of its new Subscriptions under the handler's lock, before the new routing generation is published: what it queues for a Subscription is delivered before any event published to it.
+    */
+    void addSubscriber(Object subscriber, Consumer<Subscription> beforeRoutable) {
       Class<?> subscriberClass = subscriber.getClass();
-      List<Method> annotatedMethods = getAnnotatedMethods(subscriberClass, Subscribe.class);
+      List<SubscriberMethod> subscriberMethods = findSubscriberMethods(subscriberClass);
       //Now the annotations are valid & verified
-      for(Method method : annotatedMethods) {
-         Class<?> eventType = method.getParameterTypes()[0];
-         synchronized (this) {
-            CopyOnWriteArraySet<Class<?>> eventsSubscribed = subscriberEvents.get(subscriber);
-            if (eventsSubscribed == null) {
-               eventsSubscribed = new CopyOnWriteArraySet<>();
-               subscriberEvents.put(subscriber, eventsSubscribed);
-            } else if (eventsSubscribed.contains(eventType)) {
+      synchronized (this) {
+         CopyOnWriteArraySet<Class<?>> eventsSubscribed = subscriberEvents.get(subscriber);
+         Map<Class<?>, Subscription[]> changes = new HashMap<>();
+         for (SubscriberMethod subscriberMethod : subscriberMethods) {
+            Class<?> eventType = subscriberMethod.eventType;
+            if ((eventsSubscribed != null && eventsSubscribed.contains(eventType)) || changes.containsKey(eventType)) {
                throw new EventBusException("Subscriber " + subscriber.getClass() +
                        " already registered to event " + eventType);
             }
-            eventsSubscribed.add(eventType);
-
             Subscription newSubscriptionForAnEvent =
-                    new Subscription(subscriber, method, eventType);
-            CopyOnWriteArrayList<Subscription> subscriptions = eventSubscriptions.get(eventType);
-            if (subscriptions == null) {
-               subscriptions = new CopyOnWriteArrayList<>();
-               eventSubscriptions.put(eventType, subscriptions);
+                    new Subscription(subscriber, subscriberMethod);
+            newSubscriptionForAnEvent.hash = subscriptionsCreated++ & Integer.MAX_VALUE; // Round robin over the lanes
+            Subscription[] subscriptions = routing.getRegisteredSubscriptions(eventType);
+            Subscription[] newSubscriptions = Arrays.copyOf(subscriptions, subscriptions.length + 1);
+            newSubscriptions[subscriptions.length] = newSubscriptionForAnEvent;
+            changes.put(eventType, newSubscriptions);
+         }
+         if (changes.isEmpty()) {
+            return;
+         }
+         if (beforeRoutable != null) {
+            for (Subscription[] newSubscriptions : changes.values()) {
+               beforeRoutable.accept(newSubscriptions[newSubscriptions.length - 1]);
             }
-            subscriptions.add(newSubscriptionForAnEvent);
-
-//            logger.log( Level.INFO,"Subscriber Added: " +
-//                    newSubscribtionForAnEvent.method.getName()
-//                    + " / " + newSubscribtionForAnEvent.subscriptionSignature + " / " +
-//                    newSubscribtionForAnEvent.eventType.getClass().getName()
-//            );
          }
+         if (eventsSubscribed == null) {
+            eventsSubscribed = new CopyOnWriteArraySet<>();
+            subscriberEvents.put(subscriber, eventsSubscribed);
+         }
+         eventsSubscribed.addAll(changes.keySet());
+         routing = routing.withSubscriptions(changes); // Publish the new routing generation
       }
    } // addSubscriber
 
-   public List<Method>  getAnnotatedMethods(Class<?> subscriberClass, Class annotation) {
+   /**
+    * Callback methods of a subscriber class: from a compile time generated SubscriberIndex if the class is indexed,
+    * otherwise from a reflective scan of its @Subscribe methods. The result is cached per class, so only the first
+    * registration of a subscriber class pays for the lookup & invoker binding.
+    */
+   List<SubscriberMethod> findSubscriberMethods(Class<?> subscriberClass) {
+      metadataCacheLookups.increment();
+      return subscriberMethodCache.get(subscriberClass);
+   }
+
+   static List<SubscriberMethod> loadSubscriberMethods(Class<?> subscriberClass) {
+      for (SubscriberIndex index : IndexHolder.INDEXES) {
+         List<SubscriberMethod> indexedMethods = index.getSubscriberMethods(subscriberClass);
+         if (indexedMethods != null) {
+            return Collections.unmodifiableList(new ArrayList<>(indexedMethods));
+         }
+      }
+      List<SubscriberMethod> scannedMethods = new ArrayList<>();
+      for (Method method : getAnnotatedMethods(subscriberClass, Subscribe.class)) {
+         scannedMethods.add(new SubscriberMethod(method));
+      }
+      return Collections.unmodifiableList(scannedMethods);
+   }
+
+   public static long getMetadataCacheHits() {
+      return Math.max(0, metadataCacheLookups.sum() - metadataCacheMisses.sum());
+   }
+
+   public static long getMetadataCacheMisses() {
+      return metadataCacheMisses.sum();
+   }
+
+   public static List<Method>  getAnnotatedMethods(Class<?> subscriberClass, Class annotation) {
       Method[] methods = subscriberClass.getDeclaredMethods();
       List<Method>  validMethods = new ArrayList<>();
       for (Method method : methods) {
@@ -117,16 +243,40 @@ public class  SubscriberHandler {
       return validMethods;
    }
 
-    synchronized void  removeSubscriber(Object subscriber) {
+    void removeSubscriber(Object subscriber) {
+      removeSubscriber(subscriber, null);
+   }
+
+   /**
+    * Unregisters the subscriber, running afterRemoved (if not null) on each of its Subscriptions under the handler's lock, once the routing without them is published.
+    */
+    synchronized void removeSubscriber(Object subscriber, Consumer<Subscription> afterRemoved) {
       Set<Class<?>> subscribedEvents = subscriberEvents.get(subscriber);
       if (subscribedEvents != null) {
+         Map<Class<?>, Subscription[]> changes = new HashMap<>();
+         List<Subscription> removed = new ArrayList<>();
          for (Class<?> eventType : subscribedEvents) {
-            CopyOnWriteArrayList<Subscription> subscriptionsForAnEvent = eventSubscriptions.get(eventType);
-            if (subscriptionsForAnEvent != null) {
-               subscriptionsForAnEvent.removeIf(s -> s.subscriber.equals(subscriber));
+            Subscription[] subscriptionsForAnEvent = routing.getRegisteredSubscriptions(eventType);
+            List<Subscription> remaining = new ArrayList<>(subscriptionsForAnEvent.length);
+            for (Subscription s : subscriptionsForAnEvent) {
+               if (!s.subscriber.equals(subscriber)) {
+                  remaining.add(s);
+               } else {
+                  removed.add(s);
+               }
             }
+            changes.put(eventType, remaining.toArray(new Subscription[remaining.size()]));
          }
+         routing = routing.withSubscriptions(changes);
          subscriberEvents.remove(subscriber);
+         if (afterRemoved != null) {
+            removed.forEach(afterRemoved);
+         }
+         for (Class<?> eventType : subscribedEvents) {
+            for (Subscription s : routing.getRegisteredSubscriptions(eventType)) {
+               s.filterSlot = null; // Indexed again, without the removed subscriber's slot, on the next publication
+            }
+         }
          logger.fine("Subscriber Removed: " + subscriber.getClass().getName());
       } else {
          // Log.w(TAG, "Subscriber to unregister was not registered before: " + subscriber.getClass());
@@ -135,6 +285,7 @@ public class  SubscriberHandler {
    }
 
    //Toggles Event Filter Setting a valid Predicate<T> reference is filter on / null is filter off
+   //An EventFilter is compiled, with the other EventFilters of the event type, into the type's FilterIndex on the next publication (see filterSlot())
     void setEventFilter(Object subscriber, Class<?> eventType, Predicate<?> filter){
       Subscription subscription = findSubscription(subscriber, eventType);
       if(subscription != null) {
@@ -146,6 +297,43 @@ public class  SubscriberHandler {
       }
    }
 
+   //The Subscription's slot in the FilterIndex of its event type. The index is rebuilt first if an EventFilter of the type was set or removed
+   //since, so that setting the filters of many subscriptions costs one rebuild. Null if the Subscription was removed meanwhile
+   synchronized FilterIndex.Slot filterSlot(Subscription subscription) {
+      FilterIndex.Slot slot = subscription.filterSlot;
+      if (slot == null || slot.filter != subscription.filter) {
+         rebuildFilterIndex(subscription.eventType);
+         slot = subscription.filterSlot;
+      }
+      return slot != null && slot.filter == subscription.filter ? slot : null;
+   }
+
+   //Compiles the EventFilters of the event type's Subscriptions into a new FilterIndex, and gives each its slot (in routing order, see FilterIndex)
+   private void rebuildFilterIndex(Class<?> eventType) {
+      List<Subscription> indexed = new ArrayList<>();
+      List<EventFilter<?>> filters = new ArrayList<>();
+      for (Subscription s : routing.getRegisteredSubscriptions(eventType)) {
+         Predicate<?> filter = s.filter;
+         if (filter instanceof EventFilter) {
+            indexed.add(s);
+            filters.add((EventFilter<?>) filter);
+         } else {
+            s.filterSlot = null;
+         }
+      }
+      FilterIndex index;
+      try {
+         index = new FilterIndex(filters);
+      } catch (EventBusException e) { // Filters that can't share an index are run one by one, until the next change
+         logger.log(Level.WARNING, "Filter index of " + eventType.getName() + " not built: " + e.getMessage());
+         index = null;
+      }
+      for (int slot = 0; slot < indexed.size(); slot++) {
+         indexed.get(slot).filterSlot = new FilterIndex.Slot(index, slot, filters.get(slot));
+      }
+      logger.fine("Filter index of " + eventType.getName() + ": " + indexed.size() + " filters");
+   }
+
    //Toggles Event Caching  (true = Cache Event  / false = Publish as usual)
     void setCacheLastEvent(Object subscriber, Class<?> eventType, boolean setCaching){
       Subscription subscription = findSubscription(subscriber, eventType);
@@ -158,12 +346,76 @@ public class  SubscriberHandler {
       }
    }
 
+   //Sets the Backpressure policy of a Subscription (null = bus default policy)
+    void setBackpressurePolicy(Object subscriber, Class<?> eventType, BackpressurePolicy policy){
+      Subscription subscription = findSubscription(subscriber, eventType);
+      if(subscription != null) {
+         subscription.backpressure = policy;
+         logger.fine("Set Backpressure:" + policy);
+      }
+      else {
+         throw new EventBusException("This Subscriber or Event Not found:" + eventType.getName());
+      }
+   }
+
+   //Sets the partition key extractor of a Subscription (null = no partitioning)
+    void setPartitionKey(Object subscriber, Class<?> eventType, Function<?, ?> keyExtractor){
+      Subscription subscription = findSubscription(subscriber, eventType);
+      if(subscription != null) {
+         subscription.partitionKey = keyExtractor;
+         logger.fine("Set Partition Key:" + (keyExtractor != null ? "ON" : "OFF"));
+      }
+      else {
+         throw new EventBusException("This Subscriber or Event Not found:" + eventType.getName());
+      }
+   }
+
+   //Sets the conflation key extractor of a Subscription (null = every event delivered)
+    void setConflationKey(Object subscriber, Class<?> eventType, Function<?, ?> keyExtractor){
+      Subscription subscription = findSubscription(subscriber, eventType);
+      if(subscription != null) {
+         if (keyExtractor != null && subscription.pendingByKey == null) {
+            subscription.pendingByKey = new ConcurrentHashMap<>();
+         }
+         subscription.conflationKey = keyExtractor;
+         if (keyExtractor == null && subscription.pendingByKey != null) {
+            subscription.pendingByKey.clear();
+         }
+         logger.fine("Set Conflation Key:" + (keyExtractor != null ? "ON" : "OFF"));
+      }
+      else {
+         throw new EventBusException("This Subscriber or Event Not found:" + eventType.getName());
+      }
+   }
+
+   //Queue wait (publication to callback start) latencies of a Subscription, see setLatencyTracking()
+    LatencySnapshot getQueueWaitLatency(Object subscriber, Class<?> eventType) {
+      return getSubscription(subscriber, eventType).getQueueWaitLatency();
+   }
+
+   //Callback execution time of a Subscription, see setLatencyTracking()
+    LatencySnapshot getCallbackLatency(Object subscriber, Class<?> eventType) {
+      return getSubscription(subscriber, eventType).getCallbackLatency();
+   }
+
+   private Subscription getSubscription(Object subscriber, Class<?> eventType) {
+      Subscription subscription = findSubscription(subscriber, eventType);
+      if (subscription == null) {
+         throw new EventBusException("This Subscriber or Event Not found:" + eventType.getName());
+      }
+      return subscription;
+   }
+
    Subscription findSubscription(Object subscriber, Class<?> eventType ) {
       CopyOnWriteArraySet<Class<?>> eventsSubscribed = subscriberEvents.get(subscriber);
       Subscription subscription = null;
       if (eventsSubscribed != null && eventsSubscribed.contains(eventType)) {
-         CopyOnWriteArrayList<Subscription> subscriptions = eventSubscriptions.get(eventType);
-         subscription = subscriptions.stream().filter(s -> s.signatureMatch(subscriber,eventType)).findFirst().orElse(null);
+         for (Subscription s : routing.getRegisteredSubscriptions(eventType)) {
+            if (s.subscriber.equals(subscriber)) {
+               subscription = s;
+               break;
+            }
+         }
       }
       return subscription;
    }
@@ -189,6 +441,27 @@ public class  SubscriberHandler {
 
    Map<Object, CopyOnWriteArraySet<Class<?>>>  getSubscriberEvents() {
       return subscriberEvents;}
-}
 
+   //Generated SubscriberIndexes on the class path, loaded once on first use
+   private static final class IndexHolder {
+      static final List<SubscriberIndex> INDEXES = loadIndexes();
+
+      static List<SubscriberIndex> loadIndexes() {
+         List<SubscriberIndex> indexes = new ArrayList<>();
+         try {
+            for (SubscriberIndex index : ServiceLoader.load(SubscriberIndex.class, SubscriberIndex.class.getClassLoader())) {
+               indexes.add(index);
+            }
+         } catch (ServiceConfigurationError e) {
+            logger.log(Level.WARNING, "Subscriber Index not loaded, using method scan: " + e.getMessage());
+         }
+         return indexes;
+      }
+   }
 
+   //Publication counters of one event class
+   static final class EventTypeCounters {
+      final LongAdder publishedCount = new LongAdder();
+      final LongAdder noSubscriberCount = new LongAdder();
+   }
+}
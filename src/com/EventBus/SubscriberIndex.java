@@ -0,0 +1,16 @@
+package com.EventBus;
+
+import java.util.List;
+
+/**
+ * A SubscriberIndex supplies the callback methods of subscriber classes without a reflective scan.
+ *
+ * <p>Indexes are generated at build time by the SubscriberIndexProcessor (one GeneratedSubscriberIndex per package of subscriber classes) and are registered as a {@code java.util.ServiceLoader} service, so SubscriberHandler picks them up automatically. SubscriberHandler consults the indexes first, and falls back to scanning @Subscribe methods when a subscriber class isn't indexed.
+ * @author Mustaq Ali
+ */
+public interface SubscriberIndex {
+   /**
+    * Callback methods declared by subscriberClass, or null if that class isn't in this index.
+    */
+   public List<SubscriberMethod> getSubscriberMethods(Class<?> subscriberClass);
+}
@@ -0,0 +1,162 @@
+package com.EventBus;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardLocation;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * SubscriberIndexProcessor is a build time annotation processor for @Subscribe. It generates a SubscriberIndex so the SubscriberHandler can register subscribers without a reflective method scan (faster warm up, and no reflection at all for closed-world / native image deployments).
+ *
+ * <p>For each package holding subscriber classes one {@code <package>.GeneratedSubscriberIndex} class is generated; each callback is bound with a plain lambda calling the method directly. The generated indexes are registered in {@code META-INF/services/com.EventBus.SubscriberIndex}.
+ *
+ * <p>The same rules as the reflective scan apply: only public methods with a single parameter are callbacks, and only the declared methods of a class are considered. Subscriber classes that can't be referenced from generated code (private nested, local or anonymous classes) are skipped, and they fall back to the reflective scan at runtime.
+ *
+ * <p>Usage: {@code javac -cp EventBus.jar -processor com.EventBus.SubscriberIndexProcessor MySubscribers.java}
+ * @author Mustaq Ali
+ */
+@SupportedAnnotationTypes("com.EventBus.Subscribe")
+public class SubscriberIndexProcessor extends AbstractProcessor {
+   static final String INDEX_CLASS_NAME = "GeneratedSubscriberIndex";
+   private final Set<String> generatedIndexes = new TreeSet<>();
+
+   @Override
+   public SourceVersion getSupportedSourceVersion() {
+      return SourceVersion.latestSupported();
+   }
+
+   @Override
+   public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+      if (roundEnv.processingOver()) {
+         writeServiceFile();
+         return false;
+      }
+      Map<String, Map<TypeElement, List<ExecutableElement>>> packageSubscribers = new LinkedHashMap<>();
+      for (Element element : roundEnv.getElementsAnnotatedWith(Subscribe.class)) {
+         if (element.getKind() != ElementKind.METHOD) continue;
+         ExecutableElement method = (ExecutableElement) element;
+         TypeElement subscriberClass = (TypeElement) method.getEnclosingElement();
+         if (!isCallback(method) || !isReferable(subscriberClass)) continue;
+
+         String packageName = processingEnv.getElementUtils().getPackageOf(subscriberClass).getQualifiedName().toString();
+         packageSubscribers.computeIfAbsent(packageName, p -> new LinkedHashMap<>())
+                 .computeIfAbsent(subscriberClass, c -> new ArrayList<>()).add(method);
+      }
+      packageSubscribers.forEach(this::writeIndex);
+      return false;
+   }
+
+   //Same rule as SubscriberHandler.getAnnotatedMethods(): public with a single parameter
+   boolean isCallback(ExecutableElement method) {
+      return method.getModifiers().contains(Modifier.PUBLIC) && method.getParameters().size() == 1;
+   }
+
+   //Generated index lives in the subscriber's package, so any non private, named class is reachable
+   boolean isReferable(TypeElement type) {
+      for (Element e = type; e.getKind() != ElementKind.PACKAGE; e = e.getEnclosingElement()) {
+         if (!(e instanceof TypeElement)) return false;
+         TypeElement t = (TypeElement) e;
+         if (t.getModifiers().contains(Modifier.PRIVATE)) return false;
+         if (t.getNestingKind() == NestingKind.LOCAL || t.getNestingKind() == NestingKind.ANONYMOUS) return false;
+      }
+      return true;
+   }
+
+   void writeIndex(String packageName, Map<TypeElement, List<ExecutableElement>> subscribers) {
+      String indexName = packageName.isEmpty() ? INDEX_CLASS_NAME : packageName + "." + INDEX_CLASS_NAME;
+      if (!generatedIndexes.add(indexName)) {
+         processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+                 "Subscriber index " + indexName + " already generated, new subscribers in later rounds are not indexed");
+         return;
+      }
+      StringBuilder src = new StringBuilder(1024);
+      if (!packageName.isEmpty()) {
+         src.append("package ").append(packageName).append(";\n\n");
+      }
+      src.append("import com.EventBus.SubscriberIndex;\n")
+         .append("import com.EventBus.SubscriberMethod;\n")
+         .append("import java.util.Arrays;\n")
+         .append("import java.util.HashMap;\n")
+         .append("import java.util.List;\n")
+         .append("import java.util.Map;\n\n")
+         .append("/** Generated by com.EventBus.SubscriberIndexProcessor, do not edit. */\n")
+         .append("public final class ").append(INDEX_CLASS_NAME).append(" implements SubscriberIndex {\n")
+         .append("   private static final Map<Class<?>, List<SubscriberMethod>> INDEX = new HashMap<>();\n\n")
+         .append("   static {\n");
+      subscribers.forEach((subscriberClass, methods) -> {
+         String subscriberType = erasure(subscriberClass);
+         src.append("      INDEX.put(").append(subscriberType).append(".class, Arrays.asList(\n");
+         for (int i = 0; i < methods.size(); i++) {
+            ExecutableElement method = methods.get(i);
+            String eventType = processingEnv.getTypeUtils().erasure(method.getParameters().get(0).asType()).toString();
+            String target = method.getModifiers().contains(Modifier.STATIC) ? subscriberType : "((" + subscriberType + ") s)";
+            src.append("            new SubscriberMethod(\"").append(method.getSimpleName()).append("\", ")
+               .append(eventType).append(".class, (s, e) -> ")
+               .append(target).append('.').append(method.getSimpleName())
+               .append("((").append(eventType).append(") e)")
+               .append(priorityArgument(method)).append(')')
+               .append(i < methods.size() - 1 ? ",\n" : "));\n");
+         }
+      });
+      src.append("   }\n\n")
+         .append("   @Override\n")
+         .append("   public List<SubscriberMethod> getSubscriberMethods(Class<?> subscriberClass) {\n")
+         .append("      return INDEX.get(subscriberClass);\n")
+         .append("   }\n")
+         .append("}\n");
+
+      try {
+         Element[] origins = subscribers.keySet().toArray(new Element[0]);
+         JavaFileObject file = processingEnv.getFiler().createSourceFile(indexName, origins);
+         try (Writer writer = file.openWriter()) {
+            writer.write(src.toString());
+         }
+      } catch (IOException e) {
+         processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Could not write " + indexName + ": " + e);
+      }
+   }
+
+   //The @Subscribe priority as a constructor argument, none for the default
+   String priorityArgument(ExecutableElement method) {
+      DeliveryPriority priority = method.getAnnotation(Subscribe.class).priority();
+      return priority == DeliveryPriority.NORMAL ? "" : ", com.EventBus.DeliveryPriority." + priority.name();
+   }
+
+   String erasure(TypeElement type) {
+      return processingEnv.getTypeUtils().erasure(type.asType()).toString();
+   }
+
+   void writeServiceFile() {
+      if (generatedIndexes.isEmpty()) return;
+      try {
+         FileObject file = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "",
+                 "META-INF/services/" + SubscriberIndex.class.getName());
+         try (Writer writer = file.openWriter()) {
+            for (String indexName : generatedIndexes) {
+               writer.write(indexName);
+               writer.write('\n');
+            }
+         }
+      } catch (IOException e) {
+         processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Could not write subscriber index service file: " + e);
+      }
+   }
+}
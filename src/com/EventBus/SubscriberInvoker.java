@@ -0,0 +1,12 @@
+package com.EventBus;
+
+/**
+ * A SubscriberInvoker is the bound form of a subscriber's callback method. It is built once when a subscriber is added (see SubscriberInvokers), or it is generated at compile time into a SubscriberIndex, and it is kept in the Subscription, so the event handlers can dispatch an event without going through {@code Method.invoke()} (argument boxing, access check and exception wrapping) on every delivery.
+ *
+ * <p>Exceptions thrown by the callback are passed as is (not wrapped in InvocationTargetException), the event handler wraps them in EventBusException.
+ * @author Mustaq Ali
+ */
+@FunctionalInterface
+public interface SubscriberInvoker {
+   void invoke(Object subscriber, Object event) throws Throwable;
+}
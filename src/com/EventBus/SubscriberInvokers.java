@@ -0,0 +1,94 @@
+package com.EventBus;
+
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+/**
+ * SubscriberInvokers binds a reflected @Subscribe method to a SubscriberInvoker.
+ *
+ * <p>Three forms are tried in order: a LambdaMetafactory generated invoker (a direct call, same as a hand written lambda), a MethodHandle bound to the callback, and finally plain reflection for the methods that can't be bound (e.g. a non public subscriber class in another package or from another class loader).
+ * @author Mustaq Ali
+ */
+final class SubscriberInvokers {
+
+   private SubscriberInvokers() {}
+
+   static SubscriberInvoker of(Method method) {
+      MethodHandles.Lookup lookup = MethodHandles.lookup();
+      if (!Modifier.isStatic(method.getModifiers()) && isLinkable(method)) {
+         try {
+            MethodHandle target = lookup.unreflect(method);
+            return (SubscriberInvoker) LambdaMetafactory.metafactory(lookup, "invoke",
+                    MethodType.methodType(SubscriberInvoker.class),
+                    MethodType.methodType(void.class, Object.class, Object.class),
+                    target,
+                    MethodType.methodType(void.class, method.getDeclaringClass(), method.getParameterTypes()[0])
+            ).getTarget().invoke();
+         } catch (Throwable e) {
+            // Fall through to MethodHandle
+         }
+      }
+      try {
+         method.setAccessible(true);
+         MethodHandle handle = lookup.unreflect(method);
+         if (Modifier.isStatic(method.getModifiers())) {
+            handle = MethodHandles.dropArguments(handle, 0, Object.class);
+         }
+         final MethodHandle callback = handle.asType(MethodType.methodType(void.class, Object.class, Object.class));
+         return (subscriber, event) -> {
+            callback.invokeExact(subscriber, event);
+         };
+      } catch (RuntimeException | IllegalAccessException e) {
+         return reflective(method);
+      }
+   }
+
+   static SubscriberInvoker reflective(Method method) {
+      return (subscriber, event) -> {
+         try {
+            method.invoke(subscriber, event);
+         } catch (InvocationTargetException e) {
+            throw e.getCause();
+         }
+      };
+   }
+
+   //The generated invoker class lives in this package & class loader, so it can only call
+   // into classes (subscriber & event) which are accessible and visible from here.
+   static boolean isLinkable(Method method) {
+      return isVisible(method.getDeclaringClass()) && isVisible(method.getParameterTypes()[0]);
+   }
+
+   static boolean isVisible(Class<?> type) {
+      while (type.isArray()) {
+         type = type.getComponentType();
+      }
+      if (type.isPrimitive()) {
+         return true;
+      }
+      ClassLoader home = SubscriberInvokers.class.getClassLoader();
+      for (Class<?> c = type; c != null; c = c.getDeclaringClass()) {
+         int modifiers = c.getModifiers();
+         boolean samePackage = c.getClassLoader() == home && packageOf(c).equals(packageOf(SubscriberInvokers.class));
+         if (Modifier.isPrivate(modifiers) || (!Modifier.isPublic(modifiers) && !samePackage)) {
+            return false;
+         }
+      }
+      ClassLoader typeLoader = type.getClassLoader();
+      for (ClassLoader loader = home; ; loader = loader.getParent()) {
+         if (loader == typeLoader) return true;
+         if (loader == null) return false;
+      }
+   }
+
+   static String packageOf(Class<?> type) {
+      String name = type.getName();
+      int dot = name.lastIndexOf('.');
+      return dot < 0 ? "" : name.substring(0, dot);
+   }
+}
@@ -0,0 +1,54 @@
+package com.EventBus;
+
+import java.lang.reflect.Method;
+
+/**
+ * A SubscriberMethod is the description of one callback method of a subscriber class: the subscribed event type, the method name and its bound SubscriberInvoker.
+ *
+ * <p>SubscriberMethods are either built by SubscriberHandler from a reflective scan of the @Subscribe methods, or supplied at compile time by a generated SubscriberIndex. In the latter case no reflection {@code Method} is held (see SubscriberIndexProcessor).
+ * @author Mustaq Ali
+ */
+public final class SubscriberMethod {
+   final String methodName;
+   final Class<?> eventType;
+   final SubscriberInvoker invoker;
+   final Method method; // null when supplied by a SubscriberIndex
+   final DeliveryPriority priority;
+
+   public SubscriberMethod(String methodName, Class<?> eventType, SubscriberInvoker invoker) {
+      this(methodName, eventType, invoker, DeliveryPriority.NORMAL);
+   }
+
+   public SubscriberMethod(String methodName, Class<?> eventType, SubscriberInvoker invoker, DeliveryPriority priority) {
+      this(methodName, eventType, invoker, null, priority);
+   }
+
+   SubscriberMethod(Method method) {
+      this(method.getName(), method.getParameterTypes()[0], SubscriberInvokers.of(method), method, priorityOf(method));
+   }
+
+   private SubscriberMethod(String methodName, Class<?> eventType, SubscriberInvoker invoker, Method method, DeliveryPriority priority) {
+      this.methodName = methodName;
+      this.eventType = eventType;
+      this.invoker = invoker;
+      this.method = method;
+      this.priority = priority;
+   }
+
+   private static DeliveryPriority priorityOf(Method method) {
+      Subscribe subscribe = method.getAnnotation(Subscribe.class);
+      return subscribe != null ? subscribe.priority() : DeliveryPriority.NORMAL;
+   }
+
+   public String getMethodName() {
+      return methodName;
+   }
+
+   public Class<?> getEventType() {
+      return eventType;
+   }
+
+   public DeliveryPriority getPriority() {
+      return priority;
+   }
+}
@@ -1,6 +1,10 @@
 package com.EventBus;
 import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
 import java.util.function.Predicate;
 
 /**
@@ -14,19 +18,50 @@ import java.util.function.Predicate;
 public  class Subscription<T> {
     final Object subscriber;
     final Class<?> eventType;
-    final Method method;
+    final Method method; // null when the callback came from a SubscriberIndex
+    final String methodName;
+    final SubscriberInvoker invoker; // Bound callback, see SubscriberInvoker
     volatile  boolean holdLastEvent;
     volatile Predicate<?>  filter;
+    volatile FilterIndex.Slot filterSlot; // Compiled EventFilter, see SubscriberHandler.filterSlot()
+    volatile BackpressurePolicy backpressure; // null: bus default policy
+    volatile Function<?, ?> partitionKey; // null: all the events on one lane, else spread across the lanes by key
+    volatile Function<?, ?> conflationKey; // null: every event delivered, else only the latest queued event per key
+    volatile Map<Object, DeliveryLane.Pending> pendingByKey; // Latest queued delivery per conflation key, created with the key extractor
     String subscriptionSignature;
-    // final int priority; // Not used, but can support abstraction of prioritized publishing order to subscribers
+    final LongAdder deliveredCount = new LongAdder(); // Delivery counters, see DeliveryStats
+    final LongAdder filteredCount = new LongAdder();
+    final LongAdder cachedCount = new LongAdder();
+    final LongAdder errorCount = new LongAdder();
+    final LongAdder conflatedCount = new LongAdder(); // Queued events replaced by a newer one of the same key
+    private volatile LatencyHistogram queueWaitLatency; // Created on the first delivery recorded with latency tracking on
+    private volatile LatencyHistogram callbackLatency;
+    volatile int laneId = -1; // Lane set by the LaneRebalancer, -1: the hash partitioned lane
+    volatile boolean migrating; // Moving to laneId, see DeliveryLane.moveSubscription()
+    volatile boolean fenced; // The old lane still has deliveries of this (migrating) Subscription
+    volatile MailboxEventHandler.Mailbox mailbox; // Created on the first delivery with the SUBSCRIPTION_MAILBOXES engine
+    volatile Object[] replay; // Cached events staged at registration, delivered ahead of anything else to it (see SynEventHandler.invokeCallback())
+    boolean retired; // Removed from the bus: its mailbox isn't kept by the handler (guarded by the Subscription's lock)
+    List<DeliveryLane.Delivery> heldDeliveries; // Held by the new lane until the old one passes the fence (new lane thread only)
+    final LongAdder callbackCostNanos = new LongAdder(); // Sampled callback time on the lanes, see LaneRebalancer
+    int costSamples; // Callbacks counted by the lane thread for the sampling
+    long rebalancedCost; // callbackCostNanos at the last rebalancing round
+    volatile DeliveryPriority priority; // Order of the Subscription's deliveries on the lanes, see DeliveryLane.setPriority()
 
 
-    int hash; // Precomputed hash
+    int hash; // Precomputed hash, replaced by the registration number when the SubscriberHandler registers it (start lane)
 
     public Subscription(Object subscriber, Method method, Class<?> eventType) {
+        this(subscriber, new SubscriberMethod(method));
+    }
+
+    Subscription(Object subscriber, SubscriberMethod subscriberMethod) {
         this.subscriber = subscriber;
-        this.method = method;
-        this.eventType = eventType;
+        this.method = subscriberMethod.method;
+        this.methodName = subscriberMethod.methodName;
+        this.invoker = subscriberMethod.invoker;
+        this.eventType = subscriberMethod.eventType;
+        this.priority = subscriberMethod.priority;
         this.filter = null;
         this.holdLastEvent = false;
         this.subscriptionSignature = makeSubscriptionId(subscriber, eventType);
@@ -51,6 +86,32 @@ public  class Subscription<T> {
         return this.subscriptionSignature;
     }
 
+    void recordLatency(long queueWaitNanos, long callbackNanos) {
+        LatencyHistogram queueWait = queueWaitLatency;
+        if (queueWait == null) {
+            synchronized (this) {
+                if (queueWaitLatency == null) {
+                    callbackLatency = new LatencyHistogram();
+                    queueWaitLatency = new LatencyHistogram();
+                }
+                queueWait = queueWaitLatency;
+            }
+        }
+        queueWait.record(queueWaitNanos);
+        callbackLatency.record(callbackNanos);
+    }
+
+    //Time from publishEvent() to the start of the callback
+    LatencySnapshot getQueueWaitLatency() {
+        LatencyHistogram queueWait = queueWaitLatency;
+        return queueWait != null ? queueWait.snapshot() : LatencySnapshot.EMPTY;
+    }
+
+    LatencySnapshot getCallbackLatency() {
+        LatencyHistogram callback = callbackLatency;
+        return callback != null ? callback.snapshot() : LatencySnapshot.EMPTY;
+    }
+
     boolean signatureMatch(Object Subscriber, Class<?> eventType){
         return getSubscriptionId().equals(makeSubscriptionId(Subscriber, eventType));
     }
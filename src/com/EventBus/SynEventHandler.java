@@ -1,9 +1,9 @@
 package com.EventBus;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.Executor;
-import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -15,45 +15,193 @@ import java.util.logging.Logger;
  * <p>SyncEventHandler handler is also reentrant safe. Reentrant occurs when a callback method itself  publishes another event as a result of processing an event it had received. (In a Trading system  an Order event subscriber could  publish a Trade event or Order Reject event etc.) Note: Reentrant could end up as a recursive call, so the reentrant
  * callback method should exit properly without looping.
  *
- *<p> In SyncEventHandler the publisher's callback execution is abstracted as an Executor  by implementing  a dummy/direct executor of PublisherThreadExecutor.
+ * <p><b>Reentrant Cascades:</b> An event published by a callback is queued on the publisher's PublisherThreadState, a ring deque reused for the life of the thread (no node, wrapper or time stamp object per event), and published once the current event is done: the publisher drains the whole cascade (Order, then the Trades its callbacks published, then their Positions ...) in breadth first order before publishEvent() returns. Each queued event carries its cascade depth (1 for an event published by a callback of the publisher's own event), and a publication deeper than the maximum cascade depth (setMaxCascadeDepth(), unlimited by default) fails with an EventBusException in the publishing callback, so a looping callback is cut off. A callback error ends the cascade: the events still queued are dropped (and counted), and the thread starts the next publication clean. Cascade lengths and depths are counted (see CascadeStats).
+ *
+ *<p> In SyncEventHandler the publisher's thread calls the subscriber's callback directly, so a delivery allocates nothing (no Runnable per callback).
+ *
+ * <p><b>Parallel Fan-out:</b> Optionally (setParallelFanOut()), an event with at least the threshold number of Subscriptions has its callbacks split across a ForkJoinPool, and the publisher waits for all of them before publishEvent() returns, so the publication stays synchronous. The callbacks of one event then run concurrently, and must be thread safe among themselves. Events published by those callbacks are queued for the publisher as usual, in the Subscriptions order, behind the current event. All the callbacks are run even if some fail; the first failure (in the Subscriptions order) is thrown after the fan-out.
  *
  * <p>SyncEventHandler can be instantiated stand-alone without a bus.
  * @author Mustaq Ali
  */
 public class SynEventHandler {
    SubscriberHandler subscriptionHandler;
-   final Executor executor = new PublisherThreadExecutor();
    private final ThreadLocal<PublisherThreadState>
            currentPublisherThreadState = ThreadLocal.withInitial(PublisherThreadState::new);
    static final Logger logger = Logger.getLogger(SynEventHandler.class.getName());
+   static final Object REPLAY = new Object(); // Marker queued to a Subscription with staged cached events, see invokeCallback()
+   private volatile boolean latencyTracking;
+   static final int FORK_SPLITS = 4; // Tasks per pool thread of a parallel fan-out, for load balance
+   private volatile ParallelFanOut parallelFanOut; // null: sequential fan-out
+   static final int INITIAL_QUEUE_SLOTS = 16; // Of a publisher's reentrant queue, doubled when full
+   private volatile int maxCascadeDepth = Integer.MAX_VALUE;
+   private final LongAdder cascadeCount = new LongAdder(); // Publications that published reentrant events
+   private final LongAdder reentrantCount = new LongAdder();
+   private final LongAccumulator longestCascade = new LongAccumulator(Math::max, 0);
+   private final LongAccumulator deepestCascade = new LongAccumulator(Math::max, 0);
+   private final LongAdder rejectedCount = new LongAdder(); // Publications past the maximum cascade depth
+   private final LongAdder abandonedCount = new LongAdder(); // Queued events dropped by a failed cascade
 
    SynEventHandler(SubscriberHandler subscriptionHandler){
       this.subscriptionHandler = subscriptionHandler;
    }
 
+   /**
+    * Publishes the event and then the cascade of events its callbacks publish; an event published by a callback (reentrant) is queued.
+    */
    void queueAndPublish(Object event) throws Error {
       PublisherThreadState publisherState = currentPublisherThreadState.get();
-      List<Object> eventQueue = publisherState.eventQueue;
-      eventQueue.add(event);
-      if (!publisherState.isPublishing) {
-         publisherState.isPublishing = true;
-         while (!eventQueue.isEmpty()) {
-            try {
-               Object thisEvent = eventQueue.remove(0);
-               publishAnEvent(thisEvent);
-            } finally {
-               publisherState.isPublishing = false;
+      long publishNanos = publishStamp();
+      if (publisherState.isPublishing) {
+         queueReentrant(publisherState, event, publishNanos);
+         return;
+      }
+      publisherState.isPublishing = true;
+      boolean completed = false;
+      try {
+         publishAnEvent(event, publishNanos);
+         publishCascade(publisherState);
+         completed = true;
+      } finally {
+         endCascade(publisherState, completed);
+      }
+   }
+
+   /**
+    * Batch form of queueAndPublish(): the events are published in their list order, and the events published by the callbacks (reentrant) are queued behind the whole batch.
+    */
+   void queueAndPublishAll(Object[] events) throws Error {
+      PublisherThreadState publisherState = currentPublisherThreadState.get();
+      if (publisherState.isPublishing) {
+         long publishNanos = publishStamp();
+         for (Object event : events) {
+            queueReentrant(publisherState, event, publishNanos);
+         }
+         return;
+      }
+      publisherState.isPublishing = true;
+      boolean completed = false;
+      try {
+         publishEvents(events);
+         publishCascade(publisherState);
+         completed = true;
+      } finally {
+         endCascade(publisherState, completed);
+      }
+   }
+
+   //Queues an event published by a callback, one level deeper than the event being published
+   private void queueReentrant(PublisherThreadState publisherState, Object event, long publishNanos) {
+      int depth = publisherState.depth + 1;
+      if (depth > maxCascadeDepth) {
+         rejectedCount.increment();
+         throw new EventBusException("Reentrant cascade deeper than " + maxCascadeDepth + ": " + event.getClass().getName());
+      }
+      publisherState.add(event, publishNanos, depth);
+      publisherState.cascadeLength++;
+      deepestCascade.accumulate(depth);
+   }
+
+   //Publishes the queued events, and those they queue in turn, until the queue is empty
+   private void publishCascade(PublisherThreadState publisherState) {
+      while (!publisherState.isEmpty()) {
+         Object event = publisherState.poll();
+         publisherState.depth = publisherState.polledDepth;
+         publishAnEvent(event, publisherState.polledNanos);
+      }
+   }
+
+   //Counts the cascade, and drops what is left of it after a failure
+   private void endCascade(PublisherThreadState publisherState, boolean completed) {
+      if (!completed) {
+         abandonedCount.add(publisherState.clear());
+      }
+      int length = publisherState.cascadeLength;
+      if (length > 0) {
+         cascadeCount.increment();
+         reentrantCount.add(length);
+         longestCascade.accumulate(length);
+      }
+      publisherState.cascadeLength = 0;
+      publisherState.depth = 0;
+      publisherState.isPublishing = false;
+   }
+
+   /**
+    * Maximum depth of a reentrant cascade: a callback publishing an event deeper than this fails (default unlimited).
+    */
+   void setMaxCascadeDepth(int maxCascadeDepth) {
+      if (maxCascadeDepth < 1) {
+         throw new EventBusException("Maximum cascade depth must be at least 1: " + maxCascadeDepth);
+      }
+      this.maxCascadeDepth = maxCascadeDepth;
+   }
+
+   int getMaxCascadeDepth() {
+      return maxCascadeDepth;
+   }
+
+   CascadeStats getCascadeStats() {
+      return new CascadeStats(cascadeCount.sum(), reentrantCount.sum(), longestCascade.get(), deepestCascade.get(),
+              rejectedCount.sum(), abandonedCount.sum(), maxCascadeDepth);
+   }
+
+   /**
+    * Publishes a batch of events in their list order, routed with one routing snapshot (see routeBatch()).
+    */
+   void publishEvents(Object[] events) throws Error {
+      publishInOrder(events, routeBatch(events), publishStamp());
+   }
+
+   void publishInOrder(Object[] events, Subscription[][] routes, long publishNanos) throws Error {
+      for (int i = 0; i < routes.length; i++) {
+         if (routes[i].length != 0) {
+            publishToSubscribers(events[i], routes[i], publishNanos);
+         }
+      }
+   }
+
+   /**
+    * Subscriptions of each event of a batch, all from the same routing generation. The routing is looked up once for each run of events of the same type (a feed batch is mostly of one type), and a type without subscribers is warned once per run.
+    */
+   Subscription[][] routeBatch(Object[] events) {
+      RoutingSnapshot routing = subscriptionHandler.getRoutingSnapshot();
+      Subscription[][] routes = new Subscription[events.length][];
+      Class<?> eventClass = null;
+      Subscription[] subscriptions = RoutingSnapshot.NO_SUBSCRIPTIONS;
+      SubscriberHandler.EventTypeCounters counters = null;
+      for (int i = 0; i < routes.length; i++) {
+         Class<?> nextClass = events[i].getClass();
+         if (nextClass != eventClass) {
+            eventClass = nextClass;
+            subscriptions = routing.getSubscriptions(eventClass);
+            counters = subscriptionHandler.getEventTypeCounters(eventClass);
+            if (subscriptions.length == 0) {
+               logger.warning( "No subscribers registered for event " + eventClass.getName());
             }
          }
+         routes[i] = subscriptions;
+         counters.publishedCount.increment();
+         if (subscriptions.length == 0) {
+            counters.noSubscriberCount.increment();
+         }
       }
+      return routes;
    }
 
    boolean  publishAnEvent(Object event) throws Error {
-      List<Subscription> subscriptions =  subscriptionHandler.getAllSubscriptions(event);
-      if (subscriptions != null && !subscriptions.isEmpty()) {
-         publishToSubscribers(event, subscriptions);
+      return publishAnEvent(event, publishStamp());
+   }
+
+   boolean  publishAnEvent(Object event, long publishNanos) throws Error {
+      Subscription[] subscriptions =  subscriptionHandler.getAllSubscriptions(event);
+      SubscriberHandler.EventTypeCounters counters = subscriptionHandler.getEventTypeCounters(event.getClass());
+      counters.publishedCount.increment();
+      if (subscriptions.length != 0) {
+         publishToSubscribers(event, subscriptions, publishNanos);
       }
       else {
+         counters.noSubscriberCount.increment();
          logger.warning( "No subscribers registered for event " + event.getClass().getName());
          return  false;
       }
@@ -68,55 +216,284 @@ public class SynEventHandler {
     Also,  re-publishing  could end up infinite-loop  if not handled properly.
     * @param event
     * @param subscriptions
+    * @param publishNanos publication time stamp for latency tracking (0 when tracking is off)
     * @throws Error
     */
-    void  publishToSubscribers(Object event, List<Subscription> subscriptions) throws Error {
+    void  publishToSubscribers(Object event, Subscription[] subscriptions, long publishNanos) throws Error {
+      ParallelFanOut parallel = parallelFanOut; // Threshold and pool read together
+      if (parallel != null && subscriptions.length >= parallel.threshold) {
+         publishInParallel(event, subscriptions, publishNanos, parallel.pool);
+         return;
+      }
       for (Subscription subscription : subscriptions) {
-         publishToSingleSubscriber(event, subscription);
+         publishToSingleSubscriber(event, subscription, publishNanos);
+      }
+   }
+
+    void publishToSingleSubscriber(Object event, Subscription subscription, long publishNanos) {
+      invokeCallback(event, subscription, publishNanos);
+   }
+
+   /**
+    * Fork-join fan-out: the publisher waits for all the callbacks, then queues the events they published, in the Subscriptions order.
+    */
+   private void publishInParallel(Object event, Subscription[] subscriptions, long publishNanos, ForkJoinPool pool) {
+      int grain = Math.max(1, subscriptions.length / (pool.getParallelism() * FORK_SPLITS));
+      PublisherThreadState publisherState = currentPublisherThreadState.get();
+      FanOut fanOut = new FanOut(event, subscriptions, 0, subscriptions.length, grain, publishNanos, publisherState.depth);
+      pool.invoke(fanOut);
+      EventBusException error = fanOut.collect(publisherState, null);
+      if (error != null) {
+         throw error;
+      }
+   }
+
+   /**
+    * Switch on/off the parallel fan-out: an event with at least threshold Subscriptions has its callbacks run on the pool (0 = off, the default).
+    */
+   void setParallelFanOut(int threshold, ForkJoinPool pool) {
+      if (threshold < 0) {
+         throw new EventBusException("Parallel fan-out threshold must not be negative: " + threshold);
+      }
+      if (threshold > 0 && pool == null) {
+         throw new EventBusException("No ForkJoinPool for the parallel fan-out");
+      }
+      this.parallelFanOut = threshold == 0 ? null : new ParallelFanOut(threshold, pool);
+   }
+
+   int getParallelThreshold() {
+      ParallelFanOut parallel = parallelFanOut;
+      return parallel == null ? 0 : parallel.threshold;
+   }
+
+   //The parallel fan-out settings, swapped as one through a single volatile so a publisher never sees a threshold without its pool
+   private static final class ParallelFanOut {
+      final int threshold;
+      final ForkJoinPool pool;
+
+      ParallelFanOut(int threshold, ForkJoinPool pool) {
+         this.threshold = threshold;
+         this.pool = pool;
+      }
+   }
+
+   /**
+    * Switch on/off recording of queue wait and callback time per Subscription. When off, a publication is not even time stamped.
+    */
+   void setLatencyTracking(boolean latencyTracking) {
+      this.latencyTracking = latencyTracking;
+   }
+
+   boolean isLatencyTracking() {
+      return latencyTracking;
+   }
+
+   //Time stamp of a publication entering the bus, 0 when latency tracking is off
+   long publishStamp() {
+      return latencyTracking ? System.nanoTime() : 0L;
+   }
+
+   /**
+    * Invokes the callback, recording the Subscription's queue wait (publication to callback start) and callback time when the event was time stamped.
+    * <p>The cached events staged for a new Subscription (replay on subscribe) are delivered first, by whichever comes first of its REPLAY marker and its first live event.
+    */
+   static void invokeCallback(Object event, Subscription subscription, long publishNanos) {
+      if (subscription.replay != null) {
+         replayStaged(subscription);
+      }
+      if (event == REPLAY) {
+         return;
+      }
+      if (publishNanos == 0L) {
+         invokeCallback(event, subscription);
+         return;
+      }
+      long start = System.nanoTime();
+      try {
+         invokeCallback(event, subscription);
+      } finally {
+         subscription.recordLatency(start - publishNanos, System.nanoTime() - start);
       }
    }
 
-    void publishToSingleSubscriber(Object event, Subscription subscription) {
-      invokeSubscriber(event, subscription, executor);
+   private static void replayStaged(Subscription subscription) {
+      Object[] staged;
+      synchronized (subscription) { // Taken once, should two lanes deliver to it (partition key)
+         staged = subscription.replay;
+         subscription.replay = null;
+      }
+      if (staged == null) {
+         return;
+      }
+      for (Object event : staged) {
+         try {
+            invokeCallback(event, subscription);
+         } catch (RuntimeException e) {
+            logger.log(Level.WARNING, Thread.currentThread().getName() + ": Callback Error: " + e.getMessage(), e);
+         }
+      }
    }
 
    /**
     * Last entry point for the bus before the call is forwarded to subscribers callback. All the subscribers
     * errors will fall on this. Thus a robust error handling is necessary to protect the bus.
     */
-   void invokeSubscriber(Object event, Subscription subscription, Executor executor) {
-      //System.out.println("Invoking Callback");
-      executor.execute(
-              new Runnable() {
-                 @Override
-                 public void run() {
-                    try {
-                       subscription.method.invoke(subscription.subscriber, event);
-                    } catch(InvocationTargetException e) {
-                       throw new EventBusException(
-                               subscription.method.getName() + "/" + event.getClass().getName(),e);
-                    } catch(IllegalAccessException e) {
-                       throw new EventBusException("Unexpected Exception:" +
-                               subscription.method.getName() + "/" +  event.getClass().getName(),e);
-                    }
-                 }
-              });
+   static void invokeCallback(Object event, Subscription subscription) {
+      try {
+         subscription.invoker.invoke(subscription.subscriber, event);
+         subscription.deliveredCount.increment();
+      } catch(IllegalAccessException e) {
+         subscription.errorCount.increment();
+         throw new EventBusException("Unexpected Exception:" +
+                 subscription.methodName + "/" +  event.getClass().getName(),e);
+      } catch(Throwable e) {
+         subscription.errorCount.increment();
+         throw new EventBusException(
+                 subscription.methodName + "/" + event.getClass().getName(),e);
+      }
    }
 
     void setSubscriptionHandler(SubscriberHandler subscriptionHandler) {
       this.subscriptionHandler = subscriptionHandler;
    }
    /**
-    Publisher threads own states used in ThreadLocal
+    * A range of the Subscriptions of a parallel fan-out, split in halves down to the grain. A leaf runs its callbacks with a publishing state of its own, so that the events they publish are queued (not published on the pool thread), and kept with the first failure for the publisher.
     */
-   private static final  class PublisherThreadState {
-      final List<Object> eventQueue = new ArrayList<Object>();
-      boolean isPublishing;
+   private final class FanOut extends RecursiveAction {
+      final Object event;
+      final Subscription[] subscriptions;
+      final int from;
+      final int to;
+      final int grain;
+      final long publishNanos;
+      final int depth; // Cascade depth of the event
+      FanOut left;
+      FanOut right;
+      PublisherThreadState republished;
+      EventBusException error;
+
+      FanOut(Object event, Subscription[] subscriptions, int from, int to, int grain, long publishNanos, int depth) {
+         this.event = event;
+         this.subscriptions = subscriptions;
+         this.from = from;
+         this.to = to;
+         this.grain = grain;
+         this.publishNanos = publishNanos;
+         this.depth = depth;
+      }
+
+      @Override
+      protected void compute() {
+         if (to - from > grain) {
+            int middle = (from + to) >>> 1;
+            left = new FanOut(event, subscriptions, from, middle, grain, publishNanos, depth);
+            right = new FanOut(event, subscriptions, middle, to, grain, publishNanos, depth);
+            invokeAll(left, right);
+            return;
+         }
+         PublisherThreadState threadState = currentPublisherThreadState.get(); // The pool thread's own, or the publisher's when it helps
+         PublisherThreadState leafState = new PublisherThreadState();
+         leafState.isPublishing = true;
+         leafState.depth = depth;
+         currentPublisherThreadState.set(leafState);
+         try {
+            for (int i = from; i < to; i++) {
+               try {
+                  invokeCallback(event, subscriptions[i], publishNanos);
+               } catch (EventBusException e) {
+                  if (error == null) {
+                     error = e;
+                  }
+               }
+            }
+         } finally {
+            currentPublisherThreadState.set(threadState);
+         }
+         republished = leafState;
+      }
+
+      //Queues the events published by the callbacks for the publisher, in the Subscriptions order; returns the first failure
+      EventBusException collect(PublisherThreadState publisherState, EventBusException firstError) {
+         if (left != null) {
+            firstError = left.collect(publisherState, firstError);
+            return right.collect(publisherState, firstError);
+         }
+         publisherState.cascadeLength += republished.cascadeLength;
+         while (!republished.isEmpty()) {
+            Object queued = republished.poll();
+            publisherState.add(queued, republished.polledNanos, republished.polledDepth);
+         }
+         return firstError != null ? firstError : error;
+      }
    }
-   //Dummy/Direct  Executor that runs on the same / publisher's  thread
-   private static final class PublisherThreadExecutor implements Executor {
-      public void execute(Runnable r) {
-         r.run();
+
+   /**
+    Publisher threads own states used in ThreadLocal: the queue of reentrant events, a ring deque of events with their
+    time stamps and cascade depths in parallel arrays, reused for the life of the thread
+    */
+   static final class PublisherThreadState {
+      private Object[] events = new Object[INITIAL_QUEUE_SLOTS];
+      private long[] stamps = new long[INITIAL_QUEUE_SLOTS]; // Publication time stamps, 0 when latency tracking is off
+      private int[] depths = new int[INITIAL_QUEUE_SLOTS];
+      private int mask = INITIAL_QUEUE_SLOTS - 1;
+      private int head; // Slot of the next event to publish
+      private int size;
+      long polledNanos; // Time stamp and depth of the last polled event
+      int polledDepth;
+      boolean isPublishing;
+      int depth; // Cascade depth of the event being published, 0 for the publisher's own
+      int cascadeLength; // Events queued in the current cascade
+
+      boolean isEmpty() {
+         return size == 0;
+      }
+
+      void add(Object event, long publishNanos, int depth) {
+         if (size == events.length) {
+            grow();
+         }
+         int i = (head + size) & mask;
+         events[i] = event;
+         stamps[i] = publishNanos;
+         depths[i] = depth;
+         size++;
+      }
+
+      Object poll() {
+         Object event = events[head];
+         events[head] = null; // Don't hold on to published events
+         polledNanos = stamps[head];
+         polledDepth = depths[head];
+         head = (head + 1) & mask;
+         size--;
+         return event;
+      }
+
+      //Drops the queued events, returns how many
+      int clear() {
+         int dropped = size;
+         while (size > 0) {
+            poll();
+         }
+         return dropped;
+      }
+
+      private void grow() {
+         int slots = events.length << 1;
+         Object[] grownEvents = new Object[slots];
+         long[] grownStamps = new long[slots];
+         int[] grownDepths = new int[slots];
+         for (int n = 0; n < size; n++) {
+            int i = (head + n) & mask;
+            grownEvents[n] = events[i];
+            grownStamps[n] = stamps[i];
+            grownDepths[n] = depths[i];
+         }
+         events = grownEvents;
+         stamps = grownStamps;
+         depths = grownDepths;
+         mask = slots - 1;
+         head = 0;
       }
    }
 }
@@ -1,10 +1,13 @@
 package com.EventBus;
 
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 import java.util.logging.Logger;
 
 /**
  * A SyncEventBus is an implementation of EventBus interface meant to operate in a single threaded mode. In a single thread mode a publisher thread itself  performs the tasks of publishing and invoking subscriber's callback.
  * <p>SyncEventBus is implemented as an aggregation of different handler services, and as such it simply delegates all the client calls to the SyncEventHandler object for event dispatching. It also relies on a SubscriberHandler class for managing  subscribers and event subscriptions. SyncEventBus handles all the  Exceptions for the bus at a single point with the help of an EventBusExceptionHandler class.
+ * <p>An EventJournal can be attached to record every published event in memory mapped files, and to replay a range of them to chosen subscribers (see EventJournal).
  * <p>Please refer to respective handlers for details.
  *@author Mustaq Ali
  */
@@ -15,6 +18,7 @@ public class SyncEventBus implements EventBus {
      private final SynEventHandler synEventHandler;
      static final Logger logger = Logger.getLogger(EventBus.class.getName());
      EventBusExceptionHandler exceptionHandler;
+     private volatile EventJournal journal; // null = not journaled
 
 
     public SyncEventBus() {
@@ -54,11 +58,156 @@ public class SyncEventBus implements EventBus {
 
    public void publishEvent(Object event) {
         try {
+            EventJournal journal = this.journal;
+            if (journal != null) {
+                journal.append(event);
+            }
             synEventHandler.queueAndPublish(event);
         } catch (EventBusException e){
             exceptionHandler.handleBusException("Error inPublisEvent:", e);
         }
     }
+
+   /**
+    * Publishes the events in the list order with one routing lookup per run of events of the same type. Events re-published by the callbacks are queued behind the whole batch.
+    */
+   @Override
+   public void publishEvents(List<?> events) {
+      try {
+         Object[] batch = events.toArray();
+         EventJournal journal = this.journal;
+         if (journal != null) {
+            for (Object event : batch) {
+               journal.append(event);
+            }
+         }
+         synEventHandler.queueAndPublishAll(batch);
+      } catch (EventBusException e){
+         exceptionHandler.handleBusException("Error inPublishEvents:", e);
+      }
+   }
+
+   /**
+    * Snapshot of the delivery counters: per Subscription delivered, filtered, cached and failed callbacks, and per event type published and no-subscriber publications. Publishers are not held up while it is taken.
+    */
+   public DeliveryStats getDeliveryStats() {
+      return subscriptionHandler.getDeliveryStats();
+   }
+
+   /**
+    * Switch on/off per Subscription latency tracking (default off): queue wait (from publishEvent() to the start of the callback, i.e. behind the earlier callbacks and reentrant publications of the publisher's thread) and callback execution time. When off, publications are not time stamped.
+    */
+   public void setLatencyTracking(boolean latencyTracking) {
+      synEventHandler.setLatencyTracking(latencyTracking);
+   }
+
+   /**
+    * Queue wait latencies recorded for the subscriber's event type (empty if tracking was never on), or null if there is no such subscription.
+    */
+   public LatencySnapshot getQueueWaitLatency(Object subscriber, Class<?> eventType) {
+      try {
+         return subscriptionHandler.getQueueWaitLatency(subscriber, eventType);
+      } catch (EventBusException e){
+         exceptionHandler.handleBusException("Error in Get Latency:", e);
+         return null;
+      }
+   }
+
+   /**
+    * Callback execution times recorded for the subscriber's event type (empty if tracking was never on), or null if there is no such subscription.
+    */
+   public LatencySnapshot getCallbackLatency(Object subscriber, Class<?> eventType) {
+      try {
+         return subscriptionHandler.getCallbackLatency(subscriber, eventType);
+      } catch (EventBusException e){
+         exceptionHandler.handleBusException("Error in Get Latency:", e);
+         return null;
+      }
+   }
+
+   /**
+    * Switch on/off the parallel fan-out (default off): an event with at least threshold subscribers has its callbacks split across the ForkJoinPool common pool, and publishEvent() returns when all of them are done. Events published by the callbacks are queued behind the event as usual. The callbacks of one event run concurrently, so they must be thread safe among themselves. 0 = off.
+    */
+   public void setParallelFanOut(int threshold) {
+      setParallelFanOut(threshold, ForkJoinPool.commonPool());
+   }
+
+   /**
+    * Parallel fan-out on the given pool, see setParallelFanOut(int).
+    */
+   public void setParallelFanOut(int threshold, ForkJoinPool pool) {
+      try {
+         synEventHandler.setParallelFanOut(threshold, pool);
+      } catch (EventBusException e){
+         exceptionHandler.handleBusException("Error in Set Parallel Fan-out:", e);
+      }
+   }
+
+   /**
+    * Limit the depth of reentrant cascades (default unlimited): an event published by a callback of an event published by a callback ... more than maxCascadeDepth levels below the publisher's own event fails with an EventBusException in the publishing callback. Guards against callbacks publishing each other in a loop.
+    */
+   public void setMaxCascadeDepth(int maxCascadeDepth) {
+      try {
+         synEventHandler.setMaxCascadeDepth(maxCascadeDepth);
+      } catch (EventBusException e){
+         exceptionHandler.handleBusException("Error in Set Max Cascade Depth:", e);
+      }
+   }
+
+   /**
+    * Counts of the reentrant cascades since the bus started
+    */
+   public CascadeStats getCascadeStats() {
+      return synEventHandler.getCascadeStats();
+   }
+
+   /**
+    * Attaches an EventJournal to the bus (null = detach): every event published from now on, reentrant ones included, is appended to it before its delivery, without waiting for it to be written. The bus doesn't close the journal.
+    */
+   public void setJournal(EventJournal journal) {
+      this.journal = journal;
+   }
+
+   public EventJournal getJournal() {
+      return journal;
+   }
+
+   /**
+    * Feeds the journaled events of sequences fromSequence to toSequence (inclusive) to the given subscribers' callbacks, at full speed on the caller's thread. The subscribers needn't be registered; the events are not published again, so the other subscribers don't see them, and are not journaled again.
+    * @return the number of events read from the journal
+    */
+   public long replayJournal(long fromSequence, long toSequence, Object... subscribers) {
+      return replayJournal(fromSequence, toSequence, false, subscribers);
+   }
+
+   /**
+    * Feeds the events journaled with a publication time from fromMillis to toMillis (inclusive) to the given subscribers' callbacks, see replayJournal().
+    * @return the number of events read from the journal
+    */
+   public long replayJournalByTime(long fromMillis, long toMillis, Object... subscribers) {
+      return replayJournal(fromMillis, toMillis, true, subscribers);
+   }
+
+   private long replayJournal(long from, long to, boolean byTime, Object[] subscribers) {
+      try {
+         EventJournal replayed = journal;
+         if (replayed == null) {
+            throw new EventBusException("No journal attached to the bus");
+         }
+         return replayed.replay(subscriptionHandler, from, to, byTime, subscribers);
+      } catch (EventBusException e){
+         exceptionHandler.handleBusException("Error in Replay Journal:", e);
+         return 0;
+      }
+   }
+
+   /**
+    * Switch on/off delivery of an event to the subscribers of its super classes & interfaces (default off)
+    */
+   public void setEventInheritance(boolean eventInheritance) {
+      subscriptionHandler.setEventInheritance(eventInheritance);
+   }
+
     public SubscriberHandler SubscriberHandler(){
         return subscriptionHandler;
     }
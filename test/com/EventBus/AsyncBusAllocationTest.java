@@ -0,0 +1,128 @@
+package com.EventBus;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Test that a steady state publication allocates nothing beyond the event itself, on both buses and both async delivery engines. The bytes allocated by the publisher's thread and by the delivery thread are read from the JVM's per thread allocation counters, after a warm up run.
+ * <p>The measurement itself, and the odd park of a lane thread, cost a few hundred bytes, so the assertion is on the total bytes of a large run against a budget well below one object per thousand publications.
+ */
+public class AsyncBusAllocationTest {
+   static final int PUBLISHES = 100_000;
+   static final Integer EVENT = 42;
+   static final long BYTE_BUDGET = 1024; // Over the whole run
+
+   com.sun.management.ThreadMXBean threadBean;
+   AsyncEventBus bus;
+
+   @Before
+   public void setUp() {
+      assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+      threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+      assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+      threadBean.setThreadAllocatedMemoryEnabled(true);
+   }
+
+   @After
+   public void reset() {
+      if (bus != null) {
+         bus.shutdownTheBus();
+         bus = null;
+      }
+   }
+
+   @Test
+   public void testSyncBusPublish() throws Exception {
+      SyncEventBus syncBus = new SyncEventBus(true);
+      CountingSubscriber sub = new CountingSubscriber();
+      syncBus.addSubscriber(sub);
+      assertBudget(bytesAllocated(syncBus, sub));
+   }
+
+   @Test
+   public void testAsyncBusPublish() throws Exception {
+      bus = new AsyncEventBus("alloc-lanes", 1, true, 1024, BackpressurePolicy.BLOCK);
+      CountingSubscriber sub = new CountingSubscriber();
+      bus.addSubscriber(sub);
+      assertBudget(bytesAllocated(bus, sub));
+   }
+
+   @Test
+   public void testAsyncBusFilteredAndCached() throws Exception {
+      bus = new AsyncEventBus("alloc-filter", 1, true, 1024, BackpressurePolicy.BLOCK);
+      CountingSubscriber sub = new CountingSubscriber();
+      CountingSubscriber filteredSub = new CountingSubscriber();
+      CountingSubscriber cachingSub = new CountingSubscriber();
+      bus.addSubscriber(sub);
+      bus.addSubscriber(filteredSub);
+      bus.addSubscriber(cachingSub);
+      bus.setEventFilter(sub, Integer.class, (Integer i) -> i > 0);
+      bus.setEventFilter(filteredSub, Integer.class, (Integer i) -> i < 0);
+      bus.setCacheLastEvent(cachingSub, Integer.class, true);
+      assertBudget(bytesAllocated(bus, sub));
+      assertEquals("Filtered out:", 0, filteredSub.count);
+      assertEquals("Cached, not delivered:", 0, cachingSub.count);
+   }
+
+   @Test
+   public void testBroadcastRingPublish() throws Exception {
+      bus = new AsyncEventBus("alloc-ring", 1, true, AsyncEventBus.DeliveryMode.BROADCAST_RING);
+      CountingSubscriber sub = new CountingSubscriber();
+      bus.addSubscriber(sub);
+      assertBudget(bytesAllocated(bus, sub));
+   }
+
+   static void assertBudget(long bytes) {
+      assertTrue("Bytes allocated over " + PUBLISHES + " publishes: " + bytes, bytes <= BYTE_BUDGET);
+   }
+
+   long bytesAllocated(EventBus bus, CountingSubscriber sub) throws InterruptedException {
+      publish(bus, sub, PUBLISHES); // Warm up
+      Thread publisher = Thread.currentThread();
+      Thread delivery = sub.deliveryThread;
+      long deliveryBefore = (delivery != publisher) ? threadBean.getThreadAllocatedBytes(delivery.getId()) : 0;
+      long publisherBefore = threadBean.getThreadAllocatedBytes(publisher.getId());
+
+      for (int i = 0; i < PUBLISHES; i++) {
+         bus.publishEvent(EVENT);
+      }
+      long publisherBytes = threadBean.getThreadAllocatedBytes(publisher.getId()) - publisherBefore;
+      sub.waitFor(PUBLISHES * 2);
+      long deliveryBytes = (delivery != publisher) ? threadBean.getThreadAllocatedBytes(delivery.getId()) - deliveryBefore : 0;
+
+      assertEquals("All delivered:", PUBLISHES * 2, sub.count);
+      return publisherBytes + deliveryBytes;
+   }
+
+   void publish(EventBus bus, CountingSubscriber sub, int count) throws InterruptedException {
+      for (int i = 0; i < count; i++) {
+         bus.publishEvent(EVENT);
+      }
+      sub.waitFor(count);
+   }
+
+   public static class CountingSubscriber {
+      volatile long count;
+      volatile Thread deliveryThread;
+
+      @Subscribe
+      public void onEvent(Integer event) {
+         if (deliveryThread == null) {
+            deliveryThread = Thread.currentThread();
+         }
+         count++; // Single delivery thread
+      }
+
+      void waitFor(long expected) throws InterruptedException {
+         for (int i = 0; i < 500 && count < expected; i++) {
+            Thread.sleep(10);
+         }
+      }
+   }
+}
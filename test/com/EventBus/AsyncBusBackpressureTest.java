@@ -0,0 +1,135 @@
+package com.EventBus;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test bounded lanes and backpressure policies. A bus with a single lane of capacity 2 is used, and the subscriber holds the lane on its first event, so that the 4th and 5th events find the lane full.
+ */
+public class AsyncBusBackpressureTest {
+
+   AsyncEventBus bus;
+   SlowSubscriber slowSub;
+   int laneCapacity = 2;
+
+   @After
+   public void reset() {
+      slowSub.release.countDown();
+      bus.shutdownTheBus();
+      bus = null;
+   }
+
+   @Test
+   public void testDropNewest() throws Exception {
+      fillTheLane(BackpressurePolicy.DROP_NEWEST);
+      bus.publishEvent(new Integer(4));
+      bus.publishEvent(new Integer(5));
+      assertEquals("Dropped:", 2, bus.getLaneStats().get(0).getDroppedNewestCount());
+
+      slowSub.drain(3);
+      assertEquals("Newest events dropped:", "[1, 2, 3]", slowSub.events.toString());
+   }
+
+   @Test
+   public void testDropOldest() throws Exception {
+      fillTheLane(BackpressurePolicy.DROP_OLDEST);
+      bus.publishEvent(new Integer(4));
+      bus.publishEvent(new Integer(5));
+      assertEquals("Dropped:", 2, bus.getLaneStats().get(0).getDroppedOldestCount());
+
+      slowSub.drain(3);
+      assertEquals("Oldest queued events dropped:", "[1, 4, 5]", slowSub.events.toString());
+   }
+
+   @Test
+   public void testFailFast() throws Exception {
+      fillTheLane(BackpressurePolicy.FAIL);
+      try {
+         bus.publishEvent(new Integer(4));
+         fail("Full lane should fail the publication");
+      } catch (EventBusException e) {
+         assertEquals("Failed:", 1, bus.getLaneStats().get(0).getFailedCount());
+      }
+      slowSub.drain(3);
+      assertEquals("Queued events delivered:", "[1, 2, 3]", slowSub.events.toString());
+   }
+
+   @Test
+   public void testCallerRuns() throws Exception {
+      fillTheLane(BackpressurePolicy.CALLER_RUNS);
+      bus.publishEvent(new Integer(4));
+      assertEquals("Ran on publisher's thread:", 1, bus.getLaneStats().get(0).getCallerRunsCount());
+      assertEquals("Delivered at once:", new Integer(4), slowSub.events.get(1));
+
+      slowSub.drain(4);
+      assertEquals("No event lost:", 4, slowSub.events.size());
+   }
+
+   @Test
+   public void testBlockPublisher() throws Exception {
+      fillTheLane(BackpressurePolicy.BLOCK);
+      Thread publisher = new Thread(() -> bus.publishEvent(new Integer(4)));
+      publisher.start();
+      publisher.join(100);
+      assertTrue("Publisher is blocked on the full lane:", publisher.isAlive());
+      assertEquals("Blocked:", 1, bus.getLaneStats().get(0).getBlockedCount());
+
+      slowSub.drain(4);
+      publisher.join(1000);
+      assertFalse("Publisher resumed:", publisher.isAlive());
+      assertEquals("No event lost, in order:", "[1, 2, 3, 4]", slowSub.events.toString());
+   }
+
+   @Test
+   public void testSubscriptionPolicyOverridesBusPolicy() throws Exception {
+      fillTheLane(BackpressurePolicy.FAIL);
+      bus.setBackpressurePolicy(slowSub, Integer.class, BackpressurePolicy.DROP_NEWEST);
+      bus.publishEvent(new Integer(4)); // No exception
+      LaneStats stats = bus.getLaneStats().get(0);
+      assertEquals("Dropped by Subscription policy:", 1, stats.getDroppedCount());
+      assertEquals("Not failed:", 0, stats.getFailedCount());
+      assertEquals("Lane is full:", laneCapacity, stats.getQueueDepth());
+   }
+
+   //Event 1 holds the lane in the callback, events 2 & 3 fill the lane queue
+   void fillTheLane(BackpressurePolicy policy) throws Exception {
+      bus = new AsyncEventBus("BoundedBus", 1, true, laneCapacity, policy);
+      slowSub = new SlowSubscriber();
+      bus.addSubscriber(slowSub);
+      bus.publishEvent(new Integer(1));
+      assertTrue("Lane is busy:", slowSub.started.await(1, TimeUnit.SECONDS));
+      bus.publishEvent(new Integer(2));
+      bus.publishEvent(new Integer(3));
+   }
+
+   class SlowSubscriber {
+      final CountDownLatch started = new CountDownLatch(1);
+      final CountDownLatch release = new CountDownLatch(1);
+      final List<Integer> events = Collections.synchronizedList(new ArrayList<>());
+
+      @Subscribe
+      public void onEvent(Integer event) throws InterruptedException {
+         events.add(event);
+         if (event == 1) {
+            started.countDown();
+            release.await(5, TimeUnit.SECONDS);
+         }
+      }
+
+      void drain(int count) throws InterruptedException {
+         release.countDown();
+         long deadline = System.currentTimeMillis() + 1000;
+         while (events.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+         }
+      }
+   }
+}
@@ -0,0 +1,156 @@
+package com.EventBus;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test batch publishing (publishEvents) on both buses and both async delivery engines: each subscription must receive its events in the batch order, with mixed event types, filters and caching applied as for single publications.
+ */
+public class AsyncBusBatchPublishTest {
+
+   AsyncEventBus bus;
+
+   @After
+   public void reset() {
+      if (bus != null) {
+         bus.shutdownTheBus();
+         bus = null;
+      }
+   }
+
+   @Test
+   public void testBatchOrderOnLanes() throws Exception {
+      bus = new AsyncEventBus("batch-lanes", 3, true);
+      checkBatchOrder(bus);
+   }
+
+   @Test
+   public void testBatchOrderOnRing() throws Exception {
+      bus = new AsyncEventBus("batch-ring", 3, true, AsyncEventBus.DeliveryMode.BROADCAST_RING);
+      checkBatchOrder(bus);
+   }
+
+   @Test
+   public void testBatchOnFullLanes() throws Exception {
+      bus = new AsyncEventBus("batch-bounded", 1, true, 2, BackpressurePolicy.BLOCK);
+      BatchSubscriber sub = new BatchSubscriber();
+      bus.addSubscriber(sub);
+      for (int b = 0; b < 10; b++) {
+         List<Object> batch = new ArrayList<>();
+         for (int i = 0; i < 10; i++) {
+            batch.add(b * 10 + i);
+         }
+         bus.publishEvents(batch);
+      }
+      sub.waitFor(100, 0);
+      assertEquals("All batches delivered in order:", sequence(0, 100), sub.integers);
+   }
+
+   @Test
+   public void testBatchFilterAndCache() throws Exception {
+      bus = new AsyncEventBus("batch-filter", 2, true);
+      BatchSubscriber sub = new BatchSubscriber();
+      bus.addSubscriber(sub);
+      bus.setEventFilter(sub, Integer.class, (Integer i) -> i % 2 == 0);
+      bus.setCacheLastEvent(sub, String.class, true);
+
+      bus.publishEvents(Arrays.asList(1, 2, "a", 3, 4, "b"));
+      assertTrue(bus.flush(5, TimeUnit.SECONDS));
+      assertEquals("Filtered:", Arrays.asList(2, 4), sub.integers);
+      assertTrue("Cached, not delivered:", sub.strings.isEmpty());
+      assertEquals("Last event cached:", "b", bus.pollCashedEvent(String.class));
+   }
+
+   @Test
+   public void testSyncBatch() {
+      SyncEventBus syncBus = new SyncEventBus(true);
+      BatchSubscriber sub = new BatchSubscriber();
+      syncBus.addSubscriber(sub);
+      syncBus.publishEvents(Arrays.asList(1, "a", 2, 3, "b"));
+      assertEquals(Arrays.asList(1, 2, 3), sub.integers);
+      assertEquals(Arrays.asList("a", "b"), sub.strings);
+   }
+
+   @Test
+   public void testSyncBatchReentrant() {
+      SyncEventBus syncBus = new SyncEventBus(true);
+      List<Object> received = new ArrayList<>();
+      syncBus.addSubscriber(new Object() {
+         @Subscribe
+         public void onInteger(Integer i) {
+            received.add(i);
+            syncBus.publishEvent("re-" + i); // Queued behind the batch
+         }
+
+         @Subscribe
+         public void onString(String s) {
+            received.add(s);
+         }
+      });
+      syncBus.publishEvents(Arrays.asList(1, 2));
+      assertEquals(Arrays.asList(1, 2, "re-1", "re-2"), received);
+   }
+
+   void checkBatchOrder(AsyncEventBus bus) throws Exception {
+      List<BatchSubscriber> subs = new ArrayList<>();
+      for (int s = 0; s < 5; s++) {
+         BatchSubscriber sub = new BatchSubscriber();
+         subs.add(sub);
+         bus.addSubscriber(sub);
+      }
+      List<Object> batch = new ArrayList<>();
+      for (int i = 0; i < 500; i++) {
+         batch.add(i);
+         if (i % 50 == 0) {
+            batch.add("s" + i);
+         }
+      }
+      bus.publishEvents(batch);
+      bus.publishEvents(Arrays.asList(500, 501));
+
+      for (BatchSubscriber sub : subs) {
+         sub.waitFor(502, 10);
+         assertEquals("Batch order:", sequence(0, 502), sub.integers);
+         assertEquals("Second type:", 10, sub.strings.size());
+         assertEquals("s0", sub.strings.get(0));
+         assertEquals("s450", sub.strings.get(9));
+      }
+   }
+
+   static List<Integer> sequence(int from, int to) {
+      List<Integer> sequence = new ArrayList<>();
+      for (int i = from; i < to; i++) {
+         sequence.add(i);
+      }
+      return sequence;
+   }
+
+   public static class BatchSubscriber {
+      final List<Integer> integers = Collections.synchronizedList(new ArrayList<>());
+      final List<String> strings = Collections.synchronizedList(new ArrayList<>());
+
+      @Subscribe
+      public void onInteger(Integer i) {
+         integers.add(i);
+      }
+
+      @Subscribe
+      public void onString(String s) {
+         strings.add(s);
+      }
+
+      void waitFor(int integerCount, int stringCount) throws InterruptedException {
+         for (int i = 0; i < 200 && (integers.size() < integerCount || strings.size() < stringCount); i++) {
+            Thread.sleep(20);
+         }
+      }
+   }
+}
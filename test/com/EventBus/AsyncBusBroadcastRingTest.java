@@ -0,0 +1,149 @@
+package com.EventBus;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Predicate;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test the Broadcast Ring delivery engine of AsyncEventBus: ordered delivery to many subscribers, filtering, caching and reentrant publishing should work as with the executor lanes. A tiny ring is also tested so that publishers are gated by the slowest lane.
+ */
+public class AsyncBusBroadcastRingTest {
+
+   AsyncEventBus bus;
+   int asyncThreadCount = 4;
+   int catchupTime = 2000; // max wait: msec
+
+   @Before
+   public void setup() {
+      bus = new AsyncEventBus("RingBus", asyncThreadCount, true, AsyncEventBus.DeliveryMode.BROADCAST_RING);
+   }
+
+   @After
+   public void reset() {
+      bus.shutdownTheBus();
+      bus = null;
+   }
+
+   @Test
+   public void testOrderedFanOut() throws Exception {
+      List<IntegerSubscriber> subscribers = new ArrayList<>();
+      for (int i = 0; i < 20; i++) {
+         IntegerSubscriber iSub = new IntegerSubscriber();
+         subscribers.add(iSub);
+         bus.addSubscriber(iSub);
+      }
+      for (int i = 0; i < 5000; i++) {
+         bus.publishEvent(new Integer(i));
+      }
+      for (IntegerSubscriber iSub : subscribers) {
+         waitFor(iSub, 5000);
+         assertEquals("All events received:", 5000, iSub.events.size());
+         for (int i = 0; i < 5000; i++) {
+            assertEquals("In the published order:", i, iSub.events.get(i).intValue());
+         }
+      }
+   }
+
+   @Test
+   public void testFilterAndCaching() throws Exception {
+      IntegerSubscriber filtered = new IntegerSubscriber();
+      IntegerSubscriber caching = new IntegerSubscriber();
+      IntegerSubscriber normal = new IntegerSubscriber();
+      bus.addSubscriber(filtered);
+      bus.addSubscriber(caching);
+      bus.addSubscriber(normal);
+
+      Predicate<Integer> even = i -> i % 2 == 0;
+      bus.setEventFilter(filtered, Integer.class, even);
+      bus.setCacheLastEvent(caching, Integer.class, true);
+
+      for (int i = 0; i < 10; i++) {
+         bus.publishEvent(new Integer(i));
+      }
+      waitFor(normal, 10);
+      waitFor(filtered, 5);
+      assertEquals("Filtered events:", "[0, 2, 4, 6, 8]", filtered.events.toString());
+      assertEquals("Caching subscriber got nothing:", 0, caching.events.size());
+      assertEquals("Latest event is cached:", new Integer(9), bus.pollCashedEvent(Integer.class));
+
+      bus.setCacheLastEvent(caching, Integer.class, false); // Cached event delivered through the ring
+      waitFor(caching, 1);
+      assertEquals("Cached event delivered:", new Integer(9), caching.events.get(0));
+   }
+
+   @Test(expected = EventBusException.class)
+   public void testFilterTypeErrorReachesPublisher() throws Exception {
+      IntegerSubscriber iSub = new IntegerSubscriber();
+      bus.addSubscriber(iSub);
+      Predicate<String> wrongType = s -> s.isEmpty();
+      bus.setEventFilter(iSub, Integer.class, wrongType);
+      bus.publishEvent(new Integer(1));
+   }
+
+   @Test
+   public void testGatedByTinyRingWithReentrantPublishing() throws Exception {
+      SubscriberHandler sH = new SubscriberHandler();
+      BroadcastRingEventHandler handler = new BroadcastRingEventHandler(sH, "TinyRing", 2, 4);
+      assertEquals("Ring Size:", 4, handler.getRingSize());
+      ReentrantSubscriber rSub = new ReentrantSubscriber(handler);
+      sH.addSubscriber(rSub);
+      try {
+         for (int i = 0; i < 500; i++) {
+            handler.publishAnEvent(new Integer(i));
+         }
+         long deadline = System.currentTimeMillis() + catchupTime;
+         while (rSub.strings.size() < 500 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+         }
+         assertEquals("All Integer events:", 500, rSub.integers.size());
+         assertEquals("All reentrant String events:", 500, rSub.strings.size());
+         assertEquals("Reentrant events in order:", "499", rSub.strings.get(499));
+      } finally {
+         handler.shutDownExecutorPool();
+      }
+   }
+
+   void waitFor(IntegerSubscriber iSub, int count) throws InterruptedException {
+      long deadline = System.currentTimeMillis() + catchupTime;
+      while (iSub.events.size() < count && System.currentTimeMillis() < deadline) {
+         Thread.sleep(5);
+      }
+   }
+
+   class IntegerSubscriber {
+      List<Integer> events = Collections.synchronizedList(new ArrayList<>());
+
+      @Subscribe
+      public void onEvent(Integer event) {
+         events.add(event);
+      }
+   }
+
+   class ReentrantSubscriber {
+      final SynEventHandler handler;
+      List<Integer> integers = Collections.synchronizedList(new ArrayList<>());
+      List<String> strings = Collections.synchronizedList(new ArrayList<>());
+
+      ReentrantSubscriber(SynEventHandler handler) {
+         this.handler = handler;
+      }
+
+      @Subscribe
+      public void onEvent(Integer event) {
+         integers.add(event);
+         handler.publishAnEvent(String.valueOf(event));
+      }
+
+      @Subscribe
+      public void onEvent(String event) {
+         strings.add(event);
+      }
+   }
+}
@@ -0,0 +1,283 @@
+package com.EventBus;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test the warm restart of the event cache from a memory mapped snapshot: the cached events back after a restart, keyed by the cache key, read lazily type by type, live events winning over the snapshot's, unread types kept by the next snapshot, the two files written in turn, snapshots taken while types are read back, periodic snapshots, and files that aren't complete snapshots.
+ */
+public class AsyncBusCacheSnapshotTest {
+   static final Function<Quote, String> TICKER = q -> q.ticker;
+
+   @Rule
+   public TemporaryFolder folder = new TemporaryFolder();
+
+   AsyncEventBus bus;
+   final CountingSerializer serializer = new CountingSerializer();
+
+   @After
+   public void reset() {
+      if (bus != null) {
+         bus.shutdownTheBus();
+         bus = null;
+      }
+   }
+
+   private Path file() {
+      return folder.getRoot().toPath().resolve("cache.snapshot");
+   }
+
+   //A bus caching Quotes by ticker, and Trades
+   private AsyncEventBus cachingBus(String id) {
+      AsyncEventBus cachingBus = new AsyncEventBus(id, 2);
+      cachingBus.setCacheKey(Quote.class, TICKER);
+      Holder holder = new Holder();
+      cachingBus.addSubscriber(holder);
+      cachingBus.setCacheLastEvent(holder, Quote.class, true);
+      cachingBus.setCacheLastEvent(holder, Trade.class, true);
+      return cachingBus;
+   }
+
+   //Runs a bus that caches the quotes and a trade, and shuts it down
+   private void previousRun() {
+      AsyncEventBus previous = cachingBus("snapshot-previous");
+      assertEquals(0, previous.setCacheSnapshot(file(), serializer, 0));
+      previous.publishEvent(new Quote("IBM", 10));
+      previous.publishEvent(new Quote("MSFT", 20));
+      previous.publishEvent(new Quote("IBM", 11));
+      previous.publishEvent(new Trade(7));
+      previous.flush();
+      previous.shutdownTheBus(); // Writes the snapshot
+      serializer.reads.set(0);
+   }
+
+   @Test
+   public void testWarmRestart() {
+      previousRun();
+      bus = cachingBus("snapshot-restart");
+      assertEquals(3, bus.setCacheSnapshot(file(), serializer, 0));
+      assertEquals(11, bus.pollCachedEvent(Quote.class, "IBM").price);
+      assertEquals(20, bus.pollCachedEvent(Quote.class, "MSFT").price);
+      assertEquals("Latest of the type:", "IBM", bus.pollCashedEvent(Quote.class).ticker);
+      assertEquals(7, bus.pollCashedEvent(Trade.class).id);
+      assertEquals(2, bus.getCachedEvents(Quote.class).size());
+   }
+
+   @Test
+   public void testReadLazilyByType() {
+      previousRun();
+      bus = cachingBus("snapshot-lazy");
+      bus.setCacheSnapshot(file(), serializer, 0);
+      assertEquals("Indexed, not read:", 0, serializer.reads.get());
+      assertEquals(0, bus.EventHandler().getLastValueCache().size());
+      bus.pollCachedEvent(Quote.class, "MSFT");
+      assertEquals("Only the Quotes read:", 2, serializer.reads.get());
+      bus.pollCachedEvent(Quote.class, "IBM");
+      assertEquals(2, serializer.reads.get());
+      bus.pollCashedEvent(Trade.class);
+      assertEquals(3, serializer.reads.get());
+   }
+
+   @Test
+   public void testLiveEventsWin() {
+      previousRun();
+      bus = cachingBus("snapshot-live");
+      bus.setCacheSnapshot(file(), serializer, 0);
+      bus.publishEvent(new Quote("IBM", 12));
+      bus.flush();
+      assertEquals("Live:", 12, bus.pollCachedEvent(Quote.class, "IBM").price);
+      assertEquals("From the snapshot:", 20, bus.pollCachedEvent(Quote.class, "MSFT").price);
+      assertEquals("Still the latest of the type:", 12, bus.pollCashedEvent(Quote.class).price);
+   }
+
+   @Test
+   public void testUnreadTypesKeptByNextSnapshot() {
+      previousRun();
+      bus = cachingBus("snapshot-unread");
+      bus.setCacheSnapshot(file(), serializer, 0);
+      bus.pollCachedEvent(Quote.class, "IBM");
+      assertEquals("Trade copied unread:", 3, bus.snapshotCache());
+      bus.shutdownTheBus();
+
+      bus = cachingBus("snapshot-again");
+      assertEquals(3, bus.setCacheSnapshot(file(), serializer, 0));
+      assertEquals(7, bus.pollCashedEvent(Trade.class).id);
+      assertEquals(11, bus.pollCachedEvent(Quote.class, "IBM").price);
+   }
+
+   @Test
+   public void testRemovedTypeNotRestored() {
+      previousRun();
+      bus = cachingBus("snapshot-remove");
+      bus.setCacheSnapshot(file(), serializer, 0);
+      bus.removeCachedEvent(Trade.class);
+      assertNull(bus.pollCashedEvent(Trade.class));
+      bus.removeAllCacheEvent();
+      assertNull(bus.pollCachedEvent(Quote.class, "IBM"));
+      assertEquals(0, bus.snapshotCache());
+   }
+
+   @Test
+   public void testPeriodicSnapshot() throws Exception {
+      bus = cachingBus("snapshot-periodic");
+      bus.setCacheSnapshot(file(), serializer, 20);
+      bus.publishEvent(new Quote("IBM", 10));
+      bus.flush();
+      long deadline = System.currentTimeMillis() + 5_000;
+      Path first = CacheSnapshot.files(file())[0];
+      while (!Files.exists(first) && System.currentTimeMillis() < deadline) {
+         Thread.sleep(10);
+      }
+      assertTrue(Files.exists(first));
+   }
+
+   @Test
+   public void testNotASnapshot() throws Exception {
+      for (Path garbage : CacheSnapshot.files(file())) {
+         Files.write(garbage, "not a snapshot".getBytes("UTF-8"));
+      }
+      bus = cachingBus("snapshot-garbage");
+      assertEquals(0, bus.setCacheSnapshot(file(), serializer, 0));
+      assertNull(bus.pollCashedEvent(Quote.class));
+   }
+
+   @Test
+   public void testFilesWrittenInTurn() throws Exception {
+      previousRun(); // Into the first file
+      Path[] files = CacheSnapshot.files(file());
+      bus = cachingBus("snapshot-turns");
+      bus.setCacheSnapshot(file(), serializer, 0); // Trades not read: the first file is still read from
+      bus.publishEvent(new Quote("IBM", 12));
+      bus.flush();
+      bus.snapshotCache(); // Into the second file
+      byte[] loaded = Files.readAllBytes(files[0]);
+      bus.publishEvent(new Quote("IBM", 13));
+      bus.flush();
+      bus.snapshotCache(); // Over the second file again
+      assertArrayEquals("First file left as loaded:", loaded, Files.readAllBytes(files[0]));
+      assertEquals(7, bus.pollCashedEvent(Trade.class).id); // Read from the first file, unchanged
+      bus.publishEvent(new Quote("IBM", 14));
+      bus.flush();
+      bus.snapshotCache(); // All read: into the first file
+      bus.shutdownTheBus(); // Then the second
+
+      try (FileChannel channel = FileChannel.open(files[1], StandardOpenOption.WRITE)) {
+         channel.write(ByteBuffer.allocate(4), 0); // Magic cleared, as by a crash while writing
+      }
+      bus = cachingBus("snapshot-crashed");
+      assertEquals("The other file's:", 3, bus.setCacheSnapshot(file(), serializer, 0));
+      assertEquals(14, bus.pollCachedEvent(Quote.class, "IBM").price);
+      assertEquals(7, bus.pollCashedEvent(Trade.class).id);
+   }
+
+   @Test
+   public void testTruncatedSnapshot() throws Exception {
+      previousRun();
+      Path first = CacheSnapshot.files(file())[0];
+      try (FileChannel channel = FileChannel.open(first, StandardOpenOption.WRITE)) {
+         ByteBuffer length = ByteBuffer.allocate(4);
+         length.putInt(0, (int) channel.size() + 1);
+         channel.write(length, CacheSnapshot.LENGTH); // Written past the end of the file
+      }
+      bus = cachingBus("snapshot-truncated");
+      assertEquals(0, bus.setCacheSnapshot(file(), serializer, 0));
+   }
+
+   @Test
+   public void testCorruptEventCount() throws Exception {
+      previousRun();
+      Path first = CacheSnapshot.files(file())[0];
+      try (FileChannel channel = FileChannel.open(first, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+         ByteBuffer nameLength = ByteBuffer.allocate(2);
+         channel.read(nameLength, CacheSnapshot.HEADER);
+         ByteBuffer count = ByteBuffer.allocate(4);
+         count.putInt(0, Integer.MAX_VALUE);
+         channel.write(count, CacheSnapshot.HEADER + 2 + nameLength.getShort(0)); // The first type's event count
+      }
+      bus = cachingBus("snapshot-corrupt");
+      assertEquals("Ignored, not thrown:", 0, bus.setCacheSnapshot(file(), serializer, 0));
+   }
+
+   @Test
+   public void testSnapshotWhilePolling() throws Exception {
+      previousRun();
+      for (int i = 0; i < 20; i++) {
+         bus = cachingBus("snapshot-polling-" + i);
+         bus.setCacheSnapshot(file(), serializer, 0);
+         AsyncEventBus polled = bus;
+         Thread poller = new Thread(() -> {
+            polled.pollCashedEvent(Trade.class);
+            polled.pollCashedEvent(Quote.class);
+         });
+         poller.start();
+         assertEquals("Each type either read back or copied:", 3, bus.snapshotCache());
+         poller.join();
+         bus.shutdownTheBus();
+         bus = null;
+      }
+   }
+
+   @Test(expected = EventBusException.class)
+   public void testSnapshotWithoutFile() {
+      bus = new AsyncEventBus("snapshot-none", 1);
+      bus.snapshotCache();
+   }
+
+   public static class Quote implements Serializable {
+      final String ticker;
+      final int price;
+
+      Quote(String ticker, int price) {
+         this.ticker = ticker;
+         this.price = price;
+      }
+   }
+
+   public static class Trade implements Serializable {
+      final int id;
+
+      Trade(int id) {
+         this.id = id;
+      }
+   }
+
+   public static class Holder {
+      @Subscribe
+      public void onQuote(Quote quote) {
+      }
+
+      @Subscribe
+      public void onTrade(Trade trade) {
+      }
+   }
+
+   //Java serialization, counting the events read
+   static class CountingSerializer implements EventSerializer {
+      final AtomicInteger reads = new AtomicInteger();
+
+      @Override
+      public void write(Object event, ByteBuffer buffer) throws IOException {
+         EventSerializer.JAVA_SERIALIZATION.write(event, buffer);
+      }
+
+      @Override
+      public Object read(ByteBuffer buffer) throws IOException {
+         reads.incrementAndGet();
+         return EventSerializer.JAVA_SERIALIZATION.read(buffer);
+      }
+   }
+}
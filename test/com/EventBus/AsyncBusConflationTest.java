@@ -0,0 +1,200 @@
+package com.EventBus;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test conflated delivery: a slow subscriber gets the latest queued event per key, in the order the keys were first queued, within a bounded lane and with the conflated events counted, the keys forgotten once their delivery is taken or dropped.
+ */
+public class AsyncBusConflationTest {
+
+   AsyncEventBus bus;
+
+   @After
+   public void reset() {
+      if (bus != null) {
+         bus.shutdownTheBus();
+         bus = null;
+      }
+   }
+
+   @Test
+   public void testLatestPerKey() throws Exception {
+      bus = new AsyncEventBus("conflation-bus", 1);
+      TickSubscriber sub = new TickSubscriber();
+      bus.addSubscriber(sub);
+      bus.setConflationKey(sub, Tick.class, (Tick t) -> t.symbol);
+
+      bus.publishEvent(new Tick("A", 0)); // Taken by the lane, blocks it
+      assertTrue(sub.started.await(1, TimeUnit.SECONDS));
+      for (int seq = 1; seq < 10; seq++) {
+         bus.publishEvent(new Tick("A", seq));
+         bus.publishEvent(new Tick("B", seq));
+      }
+      assertEquals("One queued event per key:", 2, bus.getLaneStats().get(0).getQueueDepth());
+      sub.release.countDown();
+      sub.waitFor(3);
+      Thread.sleep(20);
+      assertEquals(Arrays.asList("A0", "A9", "B9"), sub.snapshot());
+
+      DeliveryStats stats = bus.getDeliveryStats();
+      assertEquals(16, stats.getSubscriptionStats(sub, Tick.class).getConflatedCount());
+      assertEquals(3, stats.getSubscriptionStats(sub, Tick.class).getDeliveredCount());
+      assertEquals(16, stats.getEventTypeStats(Tick.class).getConflatedCount());
+   }
+
+   @Test
+   public void testKeysKeepTheirPlace() throws Exception {
+      bus = new AsyncEventBus("conflation-order", 1);
+      TickSubscriber sub = new TickSubscriber();
+      bus.addSubscriber(sub);
+      bus.setConflationKey(sub, Tick.class, (Tick t) -> t.symbol);
+      bus.publishEvent(new Tick("X", 0));
+      assertTrue(sub.started.await(1, TimeUnit.SECONDS));
+      bus.publishEvents(Arrays.asList(new Tick("A", 1), new Tick("B", 1), new Tick("A", 2), new Tick("C", 1), new Tick("B", 2)));
+      sub.release.countDown();
+      sub.waitFor(4);
+      Thread.sleep(20);
+      assertEquals(Arrays.asList("X0", "A2", "B2", "C1"), sub.snapshot());
+   }
+
+   @Test
+   public void testBoundedLaneNeverFull() throws Exception {
+      bus = new AsyncEventBus("conflation-bounded", 1, true, 4, BackpressurePolicy.FAIL);
+      TickSubscriber sub = new TickSubscriber();
+      bus.addSubscriber(sub);
+      bus.setConflationKey(sub, Tick.class, (Tick t) -> t.symbol);
+      bus.publishEvent(new Tick("A", 0));
+      assertTrue(sub.started.await(1, TimeUnit.SECONDS));
+      for (int seq = 1; seq <= 100; seq++) { // Would fail on the 5th event without conflation
+         bus.publishEvent(new Tick("A", seq));
+         bus.publishEvent(new Tick("B", seq));
+         bus.publishEvent(new Tick("C", seq));
+      }
+      LaneStats lane = bus.getLaneStats().get(0);
+      assertEquals(3, lane.getQueueDepth());
+      assertEquals(0, lane.getFailedCount());
+      sub.release.countDown();
+      sub.waitFor(4);
+      assertEquals(Arrays.asList("A0", "A100", "B100", "C100"), sub.snapshot());
+   }
+
+   @Test
+   public void testKeysForgottenOnceDelivered() throws Exception {
+      bus = new AsyncEventBus("conflation-forget", 1);
+      TickSubscriber sub = new TickSubscriber();
+      bus.addSubscriber(sub);
+      bus.setConflationKey(sub, Tick.class, (Tick t) -> t.symbol);
+      Subscription subscription = bus.SubscriberHandler().findSubscription(sub, Tick.class);
+      bus.publishEvent(new Tick("X", 0));
+      assertTrue(sub.started.await(1, TimeUnit.SECONDS));
+      for (int seq = 1; seq <= 1_000; seq++) { // A key per event
+         bus.publishEvent(new Tick("K" + seq, seq));
+      }
+      assertEquals("Taken, X forgotten:", 1_000, subscription.pendingByKey.size());
+      sub.release.countDown();
+      bus.flush();
+      assertEquals(1_001, sub.snapshot().size());
+      assertEquals(0, subscription.pendingByKey.size());
+   }
+
+   @Test
+   public void testDroppedKeysForgotten() throws Exception {
+      bus = new AsyncEventBus("conflation-drop", 1, true, 4, BackpressurePolicy.DROP_OLDEST);
+      TickSubscriber sub = new TickSubscriber();
+      bus.addSubscriber(sub);
+      bus.setConflationKey(sub, Tick.class, (Tick t) -> t.symbol);
+      Subscription subscription = bus.SubscriberHandler().findSubscription(sub, Tick.class);
+      bus.publishEvent(new Tick("X", 0));
+      assertTrue(sub.started.await(1, TimeUnit.SECONDS));
+      for (int seq = 1; seq <= 100; seq++) {
+         bus.publishEvent(new Tick("K" + seq, seq));
+      }
+      assertEquals("Only the queued keys:", 4, subscription.pendingByKey.size());
+      sub.release.countDown();
+      bus.flush();
+      assertEquals(Arrays.asList("X0", "K9797", "K9898", "K9999", "K100100"), sub.snapshot());
+      assertEquals(0, subscription.pendingByKey.size());
+   }
+
+   @Test
+   public void testWithoutKeyEveryEvent() throws Exception {
+      bus = new AsyncEventBus("conflation-off", 1);
+      TickSubscriber sub = new TickSubscriber();
+      bus.addSubscriber(sub);
+      bus.setConflationKey(sub, Tick.class, (Tick t) -> t.symbol);
+      bus.setConflationKey(sub, Tick.class, null);
+      bus.publishEvent(new Tick("A", 0));
+      assertTrue(sub.started.await(1, TimeUnit.SECONDS));
+      for (int seq = 1; seq < 5; seq++) {
+         bus.publishEvent(new Tick("A", seq));
+      }
+      sub.release.countDown();
+      sub.waitFor(5);
+      assertEquals(Arrays.asList("A0", "A1", "A2", "A3", "A4"), sub.snapshot());
+      assertEquals(0, bus.getDeliveryStats().getSubscriptionStats(sub, Tick.class).getConflatedCount());
+   }
+
+   @Test(expected = EventBusException.class)
+   public void testUnknownSubscription() {
+      bus = new AsyncEventBus("conflation-unknown", 1);
+      bus.setConflationKey(new TickSubscriber(), Tick.class, (Tick t) -> t.symbol);
+   }
+
+   @Test(expected = EventBusException.class)
+   public void testKeyExtractorTypeMismatch() {
+      bus = new AsyncEventBus("conflation-mismatch", 1);
+      TickSubscriber sub = new TickSubscriber();
+      bus.addSubscriber(sub);
+      Function<String, String> wrongType = s -> s;
+      bus.setConflationKey(sub, Tick.class, wrongType);
+      bus.publishEvent(new Tick("A", 0));
+   }
+
+   public static class Tick {
+      final String symbol;
+      final int seq;
+
+      Tick(String symbol, int seq) {
+         this.symbol = symbol;
+         this.seq = seq;
+      }
+   }
+
+   //Blocks on its first event until released
+   public static class TickSubscriber {
+      final CountDownLatch started = new CountDownLatch(1);
+      final CountDownLatch release = new CountDownLatch(1);
+      private final List<String> received = new ArrayList<>();
+
+      @Subscribe
+      public void onTick(Tick tick) throws InterruptedException {
+         started.countDown();
+         release.await(5, TimeUnit.SECONDS);
+         synchronized (received) {
+            received.add(tick.symbol + tick.seq);
+         }
+      }
+
+      List<String> snapshot() {
+         synchronized (received) {
+            return new ArrayList<>(received);
+         }
+      }
+
+      void waitFor(int expected) throws InterruptedException {
+         for (int i = 0; i < 500 && snapshot().size() < expected; i++) {
+            Thread.sleep(5);
+         }
+      }
+   }
+}
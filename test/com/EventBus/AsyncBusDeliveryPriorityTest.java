@@ -0,0 +1,212 @@
+package com.EventBus;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test the delivery priorities of the lanes: a HIGH subscription overtakes a queued NORMAL backlog, a LOW one is not starved, the priority from @Subscribe and at runtime, and the order of a subscription's own deliveries when its priority changes with deliveries queued.
+ */
+public class AsyncBusDeliveryPriorityTest {
+   static final List<String> delivered = new ArrayList<>();
+
+   AsyncEventBus bus;
+   Blocker blocker;
+
+   @After
+   public void reset() {
+      if (blocker != null) {
+         blocker.release.countDown();
+      }
+      if (bus != null) {
+         bus.shutdownTheBus();
+         bus = null;
+      }
+      synchronized (delivered) {
+         delivered.clear();
+      }
+   }
+
+   //One lane, held busy by a blocked callback while the test queues its deliveries
+   private void blockedBus(String id) throws InterruptedException {
+      bus = new AsyncEventBus(id, 1);
+      blocker = new Blocker();
+      bus.addSubscriber(blocker);
+      bus.publishEvent(new Block());
+      blocker.started.await();
+   }
+
+   private List<String> releaseAndFlush() {
+      blocker.release.countDown();
+      assertTrue(bus.flush(5, TimeUnit.SECONDS));
+      synchronized (delivered) {
+         return new ArrayList<>(delivered);
+      }
+   }
+
+   private void publish(String subscriber, int count) {
+      for (int i = 0; i < count; i++) {
+         bus.publishEvent(new Order(subscriber + i));
+      }
+   }
+
+   @Test
+   public void testHighOvertakesNormalBacklog() throws Exception {
+      blockedBus("priority-high");
+      bus.addSubscriber(new NormalSubscriber());
+      bus.addSubscriber(new RiskSubscriber());
+      bus.publishEvent(new Trade("T0"));
+      for (int i = 1; i <= 5; i++) {
+         bus.publishEvent(new Order("O" + i));
+      }
+      bus.publishEvent(new Trade("T1")); // Only the risk subscriber takes trades
+
+      List<String> order = releaseAndFlush();
+      assertEquals("risk:T0", order.get(0));
+      assertEquals("Queued behind the orders, delivered first:", "risk:T1", order.get(1));
+      assertEquals("normal:O1", order.get(2));
+      assertEquals(7, order.size());
+   }
+
+   @Test
+   public void testLowNotStarved() throws Exception {
+      blockedBus("priority-starve");
+      bus.addSubscriber(new AnalyticsSubscriber());
+      bus.addSubscriber(new NormalSubscriber());
+      bus.publishEvent(new Report("R0"));
+      bus.publishEvent(new Report("R1"));
+      publish("O", 3 * DeliveryLane.STARVATION_LIMIT);
+
+      List<String> order = releaseAndFlush();
+      assertEquals("After STARVATION_LIMIT normal deliveries:", "analytics:R0", order.get(DeliveryLane.STARVATION_LIMIT));
+      assertEquals("analytics:R1", order.get(2 * DeliveryLane.STARVATION_LIMIT + 1));
+      assertEquals(3 * DeliveryLane.STARVATION_LIMIT + 2, order.size());
+   }
+
+   @Test
+   public void testPriorityFromAnnotationAndRuntime() {
+      bus = new AsyncEventBus("priority-set", 1);
+      RiskSubscriber risk = new RiskSubscriber();
+      NormalSubscriber normal = new NormalSubscriber();
+      bus.addSubscriber(risk);
+      bus.addSubscriber(normal);
+      SubscriberHandler handler = bus.EventHandler().subscriptionHandler;
+      assertEquals(DeliveryPriority.HIGH, handler.findSubscription(risk, Trade.class).priority);
+      assertEquals(DeliveryPriority.NORMAL, handler.findSubscription(normal, Order.class).priority);
+
+      bus.setDeliveryPriority(normal, Order.class, DeliveryPriority.LOW);
+      assertEquals(DeliveryPriority.LOW, handler.findSubscription(normal, Order.class).priority);
+      try {
+         bus.setDeliveryPriority(normal, Trade.class, DeliveryPriority.HIGH);
+         fail("Expected EventBusException");
+      } catch (EventBusException expected) {
+      }
+   }
+
+   @Test
+   public void testOrderKeptWhenPriorityChanges() throws Exception {
+      blockedBus("priority-change");
+      NormalSubscriber normal = new NormalSubscriber();
+      bus.addSubscriber(normal);
+      bus.addSubscriber(new OtherSubscriber());
+      publish("O", 10);
+      for (int i = 0; i < 10; i++) {
+         bus.publishEvent(new Trade("T" + i));
+      }
+      bus.setDeliveryPriority(normal, Order.class, DeliveryPriority.HIGH); // Its queued orders move ahead of the trades
+      publish("P", 5);
+
+      List<String> order = releaseAndFlush();
+      List<String> orders = new ArrayList<>();
+      for (String delivery : order) {
+         if (delivery.startsWith("normal:")) {
+            orders.add(delivery);
+         }
+      }
+      assertEquals(15, orders.size());
+      for (int i = 0; i < 10; i++) {
+         assertEquals("normal:O" + i, orders.get(i));
+      }
+      assertEquals("normal:P4", orders.get(14));
+      assertEquals("Moved ahead:", "normal:O0", order.get(0));
+      assertEquals(25, order.size());
+   }
+
+   static void record(String delivery) {
+      synchronized (delivered) {
+         delivered.add(delivery);
+      }
+   }
+
+   public static class Block {
+   }
+
+   public static class Order {
+      final String id;
+
+      Order(String id) {
+         this.id = id;
+      }
+   }
+
+   public static class Trade {
+      final String id;
+
+      Trade(String id) {
+         this.id = id;
+      }
+   }
+
+   public static class Report {
+      final String id;
+
+      Report(String id) {
+         this.id = id;
+      }
+   }
+
+   public static class Blocker {
+      final CountDownLatch started = new CountDownLatch(1);
+      final CountDownLatch release = new CountDownLatch(1);
+
+      @Subscribe
+      public void onBlock(Block block) throws InterruptedException {
+         started.countDown();
+         release.await();
+      }
+   }
+
+   public static class NormalSubscriber {
+      @Subscribe
+      public void onOrder(Order order) {
+         record("normal:" + order.id);
+      }
+   }
+
+   public static class RiskSubscriber {
+      @Subscribe(priority = DeliveryPriority.HIGH)
+      public void onTrade(Trade trade) {
+         record("risk:" + trade.id);
+      }
+   }
+
+   public static class AnalyticsSubscriber {
+      @Subscribe(priority = DeliveryPriority.LOW)
+      public void onReport(Report report) {
+         record("analytics:" + report.id);
+      }
+   }
+
+   public static class OtherSubscriber {
+      @Subscribe
+      public void onTrade(Trade trade) {
+         record("other:" + trade.id);
+      }
+   }
+}
@@ -0,0 +1,99 @@
+package com.EventBus;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test the delivery counters: delivered, filtered, cached and failed callbacks per Subscription, published and no-subscriber counts per event type, on both buses.
+ */
+public class AsyncBusDeliveryStatsTest {
+
+   AsyncEventBus bus;
+
+   @After
+   public void reset() {
+      if (bus != null) {
+         bus.shutdownTheBus();
+         bus = null;
+      }
+   }
+
+   @Test
+   public void testAsyncBusCounters() throws Exception {
+      bus = new AsyncEventBus("stats-bus", 2, false);
+      CountingSubscriber plain = new CountingSubscriber();
+      CountingSubscriber filtering = new CountingSubscriber();
+      CountingSubscriber caching = new CountingSubscriber();
+      bus.addSubscriber(plain);
+      bus.addSubscriber(filtering);
+      bus.addSubscriber(caching);
+      bus.setEventFilter(filtering, Integer.class, (Integer i) -> i > 2);
+      bus.setCacheLastEvent(caching, Integer.class, true);
+
+      for (int i = 1; i <= 4; i++) {
+         bus.publishEvent(i);
+      }
+      bus.publishEvent(-1); // Callback throws
+      bus.publishEvents(Arrays.asList(5, 6));
+      bus.publishEvent(1.5); // No subscriber
+      bus.publishEvent("text");
+      assertTrue(bus.flush(5, TimeUnit.SECONDS));
+
+      DeliveryStats stats = bus.getDeliveryStats();
+      DeliveryStats.SubscriptionStats plainStats = stats.getSubscriptionStats(plain, Integer.class);
+      assertEquals("Delivered:", 6, plainStats.getDeliveredCount());
+      assertEquals("Errors:", 1, plainStats.getErrorCount());
+      assertEquals("Filtered:", 3, stats.getSubscriptionStats(filtering, Integer.class).getFilteredCount());
+      assertEquals("Delivered after filter:", 4, stats.getSubscriptionStats(filtering, Integer.class).getDeliveredCount());
+      assertEquals("Cached:", 7, stats.getSubscriptionStats(caching, Integer.class).getCachedCount());
+      assertEquals("Not delivered while caching:", 0, stats.getSubscriptionStats(caching, Integer.class).getDeliveredCount());
+
+      DeliveryStats.EventTypeStats integerStats = stats.getEventTypeStats(Integer.class);
+      assertEquals("Published:", 7, integerStats.getPublishedCount());
+      assertEquals("Delivered to the type's subscriptions:", 10, integerStats.getDeliveredCount());
+      assertEquals(0, integerStats.getNoSubscriberCount());
+      assertEquals("No subscriber:", 1, stats.getEventTypeStats(Double.class).getNoSubscriberCount());
+      assertEquals("One String to each subscriber:", 3, stats.getEventTypeStats(String.class).getDeliveredCount());
+      assertEquals("One entry per subscription:", 6, stats.getSubscriptionStats().size());
+      assertEquals(bus.SubscriberHandler().getRoutingVersion(), stats.getRoutingVersion());
+   }
+
+   @Test
+   public void testSyncBusCounters() {
+      SyncEventBus syncBus = new SyncEventBus(false);
+      CountingSubscriber sub = new CountingSubscriber();
+      syncBus.addSubscriber(sub);
+      syncBus.publishEvent(1);
+      syncBus.publishEvent(-1);
+      syncBus.publishEvent(2L);
+
+      DeliveryStats stats = syncBus.getDeliveryStats();
+      assertEquals(1, stats.getSubscriptionStats(sub, Integer.class).getDeliveredCount());
+      assertEquals(1, stats.getSubscriptionStats(sub, Integer.class).getErrorCount());
+      assertEquals(2, stats.getEventTypeStats(Integer.class).getPublishedCount());
+      assertEquals(1, stats.getEventTypeStats(Long.class).getNoSubscriberCount());
+      assertEquals("Subscribed, never published:", 0, stats.getEventTypeStats(String.class).getPublishedCount());
+
+      syncBus.removeSubscriber(sub);
+      assertNull("Dropped with the subscription:", syncBus.getDeliveryStats().getSubscriptionStats(sub, Integer.class));
+      assertEquals("Type counters kept:", 2, syncBus.getDeliveryStats().getEventTypeStats(Integer.class).getPublishedCount());
+   }
+
+   public static class CountingSubscriber {
+      @Subscribe
+      public void onInteger(Integer i) {
+         if (i < 0) {
+            throw new IllegalArgumentException("Negative: " + i);
+         }
+      }
+
+      @Subscribe
+      public void onString(String s) {
+      }
+   }
+}
@@ -0,0 +1,241 @@
+package com.EventBus;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Predicate;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test the declarative EventFilters and the shared FilterIndex: equality, set membership and ranges, EventFilters mixed with Predicates, many subscribers of one type, the index built on the first publication after a change, switching filters, removal of a subscriber, range bounds that can't share an index, and type mismatch.
+ */
+public class AsyncBusFilterIndexTest {
+   static final FilterAttribute<Trade, String> EXCHANGE = FilterAttribute.of("exchange", (Trade t) -> t.exchange);
+   static final FilterAttribute<Trade, String> SYMBOL = FilterAttribute.of("symbol", (Trade t) -> t.symbol);
+   static final FilterAttribute<Trade, Integer> QUANTITY = FilterAttribute.of("quantity", (Trade t) -> t.quantity);
+
+   AsyncEventBus bus;
+
+   @After
+   public void reset() {
+      if (bus != null) {
+         bus.shutdownTheBus();
+         bus = null;
+      }
+   }
+
+   private TradeSubscriber subscribe(Predicate<Trade> filter) {
+      TradeSubscriber subscriber = new TradeSubscriber();
+      bus.addSubscriber(subscriber);
+      bus.setEventFilter(subscriber, Trade.class, filter);
+      return subscriber;
+   }
+
+   private void publishTrades() {
+      bus.publishEvent(new Trade("NYSE", "IBM", 100));
+      bus.publishEvent(new Trade("NYSE", "MSFT", 5_000));
+      bus.publishEvent(new Trade("LSE", "IBM", 20_000));
+      bus.publishEvent(new Trade("NYSE", "AAPL", 10_000));
+      bus.flush();
+   }
+
+   @Test
+   public void testEqualityMembershipAndRanges() {
+      bus = new AsyncEventBus("filter-index", 2);
+      TradeSubscriber nyse = subscribe(EventFilter.where(EXCHANGE).equalTo("NYSE"));
+      TradeSubscriber symbols = subscribe(EventFilter.where(SYMBOL).in("IBM", "AAPL"));
+      TradeSubscriber between = subscribe(EventFilter.where(QUANTITY).between(5_000, 10_000));
+      TradeSubscriber big = subscribe(EventFilter.where(QUANTITY).atLeast(10_000));
+      TradeSubscriber small = subscribe(EventFilter.where(QUANTITY).atMost(100));
+      TradeSubscriber nyseBig = subscribe(EventFilter.where(EXCHANGE).equalTo("NYSE").and(QUANTITY).atLeast(1_000).and(SYMBOL).in("MSFT", "AAPL"));
+      publishTrades();
+
+      assertEquals(Arrays.asList("IBM100", "MSFT5000", "AAPL10000"), nyse.snapshot());
+      assertEquals(Arrays.asList("IBM100", "IBM20000", "AAPL10000"), symbols.snapshot());
+      assertEquals("Bounds included:", Arrays.asList("MSFT5000", "AAPL10000"), between.snapshot());
+      assertEquals(Arrays.asList("IBM20000", "AAPL10000"), big.snapshot());
+      assertEquals(Arrays.asList("IBM100"), small.snapshot());
+      assertEquals(Arrays.asList("MSFT5000", "AAPL10000"), nyseBig.snapshot());
+   }
+
+   @Test
+   public void testMixedWithPredicates() {
+      bus = new AsyncEventBus("filter-mixed", 2);
+      TradeSubscriber indexed = subscribe(EventFilter.where(EXCHANGE).equalTo("LSE"));
+      TradeSubscriber opaque = subscribe(t -> t.quantity < 1_000);
+      TradeSubscriber unfiltered = new TradeSubscriber();
+      bus.addSubscriber(unfiltered);
+      publishTrades();
+
+      assertEquals(Arrays.asList("IBM20000"), indexed.snapshot());
+      assertEquals(Arrays.asList("IBM100"), opaque.snapshot());
+      assertEquals(4, unfiltered.snapshot().size());
+      DeliveryStats.SubscriptionStats stats = bus.getDeliveryStats().getSubscriptionStats(indexed, Trade.class);
+      assertEquals(3, stats.getFilteredCount());
+   }
+
+   @Test
+   public void testManySubscribersOfOneType() {
+      bus = new AsyncEventBus("filter-many", 2);
+      List<TradeSubscriber> subscribers = new ArrayList<>();
+      for (int i = 0; i < 200; i++) {
+         subscribers.add(subscribe(EventFilter.where(QUANTITY).equalTo(i % 20)));
+      }
+      for (int quantity = 0; quantity < 20; quantity++) {
+         bus.publishEvent(new Trade("NYSE", "IBM", quantity));
+      }
+      bus.flush();
+      for (int i = 0; i < subscribers.size(); i++) {
+         assertEquals("Subscriber " + i, Arrays.asList("IBM" + (i % 20)), subscribers.get(i).snapshot());
+      }
+   }
+
+   @Test
+   public void testIndexBuiltOnPublication() {
+      bus = new AsyncEventBus("filter-lazy", 2);
+      List<TradeSubscriber> subscribers = new ArrayList<>();
+      for (int i = 0; i < 100; i++) {
+         subscribers.add(subscribe(EventFilter.where(QUANTITY).equalTo(i)));
+      }
+      SubscriberHandler handler = bus.SubscriberHandler();
+      for (TradeSubscriber subscriber : subscribers) {
+         assertNull("Not indexed by setEventFilter:", handler.findSubscription(subscriber, Trade.class).filterSlot);
+      }
+      bus.publishEvent(new Trade("NYSE", "IBM", 7));
+      bus.flush();
+      FilterIndex index = handler.findSubscription(subscribers.get(0), Trade.class).filterSlot.index;
+      assertEquals(100, index.size());
+      for (TradeSubscriber subscriber : subscribers) {
+         assertSame("One index for the type:", index, handler.findSubscription(subscriber, Trade.class).filterSlot.index);
+      }
+      assertEquals(Arrays.asList("IBM7"), subscribers.get(7).snapshot());
+
+      bus.removeSubscriber(subscribers.remove(99));
+      bus.publishEvent(new Trade("NYSE", "IBM", 8));
+      bus.flush();
+      assertEquals("Rebuilt without the removed slot:", 99, handler.findSubscription(subscribers.get(0), Trade.class).filterSlot.index.size());
+      assertEquals(Arrays.asList("IBM8"), subscribers.get(8).snapshot());
+   }
+
+   @Test
+   public void testChangedEventMatchedAgain() {
+      bus = new AsyncEventBus("filter-republish", 1);
+      TradeSubscriber big = subscribe(EventFilter.where(QUANTITY).atLeast(1_000));
+      Trade trade = new Trade("NYSE", "IBM", 10);
+      bus.publishEvent(trade);
+      bus.flush();
+      trade.quantity = 5_000;
+      bus.publishEvent(trade);
+      bus.flush();
+      assertEquals(Arrays.asList("IBM5000"), big.snapshot());
+   }
+
+   @Test
+   public void testSwitchingFilters() {
+      bus = new AsyncEventBus("filter-switch", 2);
+      TradeSubscriber first = subscribe(EventFilter.where(EXCHANGE).equalTo("LSE"));
+      TradeSubscriber second = subscribe(EventFilter.where(SYMBOL).equalTo("MSFT"));
+      bus.setEventFilter(first, Trade.class, (Trade t) -> t.symbol.equals("AAPL"));
+      bus.setEventFilter(second, Trade.class, null);
+      publishTrades();
+      assertEquals("Predicate replaces the EventFilter:", Arrays.asList("AAPL10000"), first.snapshot());
+      assertEquals("Filter off:", 4, second.snapshot().size());
+
+      bus.setEventFilter(first, Trade.class, EventFilter.where(SYMBOL).equalTo("IBM"));
+      publishTrades();
+      assertEquals(Arrays.asList("AAPL10000", "IBM100", "IBM20000"), first.snapshot());
+   }
+
+   @Test
+   public void testRemovedSubscriber() {
+      bus = new AsyncEventBus("filter-remove", 2);
+      TradeSubscriber removed = subscribe(EventFilter.where(EXCHANGE).equalTo("NYSE"));
+      OtherTradeSubscriber kept = new OtherTradeSubscriber();
+      bus.addSubscriber(kept);
+      bus.setEventFilter(kept, Trade.class, EventFilter.where(EXCHANGE).equalTo("LSE"));
+      bus.removeSubscriber(removed);
+      publishTrades();
+      assertEquals(0, removed.snapshot().size());
+      assertEquals(Arrays.asList("IBM20000"), kept.snapshot());
+   }
+
+   @Test
+   public void testBoundsOfDifferentTypes() {
+      bus = new AsyncEventBus("filter-bounds", 1);
+      FilterAttribute<Trade, Number> size = FilterAttribute.of("size", (Trade t) -> t.quantity);
+      TradeSubscriber integers = subscribe(EventFilter.where(size).atLeast(1_000));
+      TradeSubscriber longs = subscribe(EventFilter.where(size).atLeast(1_000L));
+      Subscription subscription = bus.SubscriberHandler().findSubscription(integers, Trade.class);
+      assertTrue(bus.EventHandler().isEventAllowed(new Trade("NYSE", "IBM", 5_000), subscription));
+      assertFalse(bus.EventHandler().isEventAllowed(new Trade("NYSE", "IBM", 10), subscription));
+      assertNull("Not indexed, run on its own:", subscription.filterSlot.index);
+      assertNull(bus.SubscriberHandler().findSubscription(longs, Trade.class).filterSlot.index);
+   }
+
+   @Test
+   public void testEventFilterAsPredicate() {
+      EventFilter<Trade> filter = EventFilter.where(EXCHANGE).equalTo("NYSE").and(QUANTITY).between(10, 100);
+      assertTrue(filter.test(new Trade("NYSE", "IBM", 10)));
+      assertFalse(filter.test(new Trade("NYSE", "IBM", 101)));
+      assertFalse(filter.test(new Trade("LSE", "IBM", 50)));
+   }
+
+   @Test
+   public void testTypeMismatch() {
+      bus = new AsyncEventBus("filter-mismatch", 1);
+      FilterAttribute<String, Integer> length = FilterAttribute.of("length", String::length);
+      TradeSubscriber subscriber = new TradeSubscriber();
+      bus.addSubscriber(subscriber);
+      bus.setEventFilter(subscriber, Trade.class, EventFilter.where(length).atLeast(3));
+      try {
+         bus.EventHandler().isEventAllowed(new Trade("NYSE", "IBM", 1), bus.EventHandler().subscriptionHandler.getSubscriptions(Trade.class)[0]);
+         fail("Expected EventBusException");
+      } catch (EventBusException expected) {
+      }
+   }
+
+   public static class Trade {
+      final String exchange;
+      final String symbol;
+      int quantity;
+
+      Trade(String exchange, String symbol, int quantity) {
+         this.exchange = exchange;
+         this.symbol = symbol;
+         this.quantity = quantity;
+      }
+
+      @Override
+      public String toString() {
+         return symbol + quantity;
+      }
+   }
+
+   public static class TradeSubscriber {
+      private final List<String> received = new ArrayList<>();
+
+      @Subscribe
+      public void onTrade(Trade trade) {
+         synchronized (received) {
+            received.add(trade.toString());
+         }
+      }
+
+      List<String> snapshot() {
+         synchronized (received) {
+            return new ArrayList<>(received);
+         }
+      }
+   }
+
+   public static class OtherTradeSubscriber extends TradeSubscriber {
+      @Subscribe
+      public void onOtherTrade(Trade trade) {
+         onTrade(trade);
+      }
+   }
+}
@@ -0,0 +1,272 @@
+package com.EventBus;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test the flush barrier, quiescence and graceful shutdown of the three delivery engines: flush() waits for the events published before it while publishers carry on, or DROP_OLDEST drops events published after it, and a shutdown with a deadline drains or reports the deliveries dropped.
+ */
+public class AsyncBusFlushTest {
+
+   AsyncEventBus bus;
+
+   @After
+   public void reset() {
+      if (bus != null) {
+         bus.shutdownTheBus();
+         bus = null;
+      }
+   }
+
+   @Test
+   public void testFlush() {
+      for (AsyncEventBus.DeliveryMode mode : AsyncEventBus.DeliveryMode.values()) {
+         bus = new AsyncEventBus("flush-" + mode, 2, true, mode);
+         CountingSubscriber sub = new CountingSubscriber(1);
+         bus.addSubscriber(sub);
+         for (int i = 0; i < 30; i++) {
+            bus.publishEvent(i);
+         }
+         assertTrue(mode + " flushed:", bus.flush(5, TimeUnit.SECONDS));
+         assertEquals(mode + " delivered before flush() returned:", 30, sub.count());
+         bus.shutdownTheBus();
+      }
+      bus = null;
+   }
+
+   @Test
+   public void testFlushWhilePublishing() throws Exception {
+      bus = new AsyncEventBus("flush-busy", 2);
+      CountingSubscriber sub = new CountingSubscriber(0);
+      NoiseSubscriber noise = new NoiseSubscriber();
+      bus.addSubscriber(sub);
+      bus.addSubscriber(noise);
+      AtomicBoolean running = new AtomicBoolean(true);
+      Thread publisher = new Thread(() -> {
+         while (running.get()) {
+            bus.publishEvent("noise");
+            Thread.yield();
+         }
+      });
+      publisher.start();
+      try {
+         for (int i = 0; i < 1000; i++) {
+            bus.publishEvent(i);
+         }
+         assertTrue("Flushed with a publisher running:", bus.flush(10, TimeUnit.SECONDS));
+         assertEquals(1000, sub.count());
+      } finally {
+         running.set(false);
+         publisher.join();
+      }
+   }
+
+   @Test
+   public void testFlushTimeout() {
+      bus = new AsyncEventBus("flush-timeout", 2);
+      BlockingSubscriber sub = new BlockingSubscriber();
+      bus.addSubscriber(sub);
+      bus.publishEvent(1);
+      assertFalse("Callback still blocked:", bus.flush(50, TimeUnit.MILLISECONDS));
+      sub.release.countDown();
+      assertTrue(bus.flush(5, TimeUnit.SECONDS));
+      assertEquals(1, sub.count());
+   }
+
+   @Test
+   public void testFlushWithDropOldest() throws Exception {
+      bus = new AsyncEventBus("flush-drop-oldest", 1, true, 4, BackpressurePolicy.BLOCK); // One lane, 4 slots
+      BlockingSubscriber blocked = new BlockingSubscriber();
+      DroppingSubscriber dropping = new DroppingSubscriber();
+      bus.addSubscriber(blocked);
+      bus.addSubscriber(dropping);
+      bus.setBackpressurePolicy(dropping, String.class, BackpressurePolicy.DROP_OLDEST);
+      bus.publishEvent(0);
+      assertTrue(blocked.started.await(1, TimeUnit.SECONDS));
+      bus.publishEvent(1); // Queued before the flush
+      AtomicBoolean flushed = new AtomicBoolean();
+      AtomicReference<Integer> deliveredAtFlush = new AtomicReference<>();
+      Thread flusher = new Thread(() -> {
+         flushed.set(bus.flush(5, TimeUnit.SECONDS));
+         deliveredAtFlush.set(blocked.count());
+      });
+      flusher.start();
+      while (flusher.getState() != Thread.State.TIMED_WAITING && flusher.isAlive()) { // Marked, then parked
+         Thread.yield();
+      }
+      for (int i = 0; i < 10; i++) {
+         bus.publishEvent("after the flush " + i); // Fill the lane, then each drops the oldest queued after the mark
+      }
+      assertTrue(bus.getLaneStats().get(0).getDroppedOldestCount() > 0);
+      flusher.join(200);
+      assertTrue("Still waiting for the deliveries queued before it:", flusher.isAlive());
+      blocked.release.countDown();
+      flusher.join(5_000);
+      assertTrue(flushed.get());
+      assertEquals(Integer.valueOf(2), deliveredAtFlush.get());
+   }
+
+   @Test
+   public void testFlushOnCallbackThread() throws Exception {
+      for (AsyncEventBus.DeliveryMode mode : AsyncEventBus.DeliveryMode.values()) {
+         bus = new AsyncEventBus("flush-callback-" + mode, 2, true, mode);
+         FlushingSubscriber sub = new FlushingSubscriber(bus);
+         bus.addSubscriber(sub);
+         bus.publishEvent(1);
+         assertTrue(mode + " returned:", sub.done.await(1, TimeUnit.SECONDS));
+         assertNotNull(mode + " flush refused on the delivery thread:", sub.flushError.get());
+         assertNotNull(mode + " awaitQuiescence refused:", sub.quiescenceError.get());
+         assertNotNull(mode + " shutdown refused:", sub.shutdownError.get());
+         assertTrue(mode + " still running:", bus.flush(5, TimeUnit.SECONDS));
+         bus.shutdownTheBus();
+      }
+      bus = null;
+   }
+
+   @Test
+   public void testAwaitQuiescence() {
+      for (AsyncEventBus.DeliveryMode mode : AsyncEventBus.DeliveryMode.values()) {
+         bus = new AsyncEventBus("quiet-" + mode, 2, true, mode);
+         CountingSubscriber sub = new CountingSubscriber(1);
+         bus.addSubscriber(sub);
+         assertTrue(mode + " idle bus:", bus.awaitQuiescence(1, TimeUnit.SECONDS));
+         for (int i = 0; i < 20; i++) {
+            bus.publishEvent(i);
+         }
+         assertTrue(mode + " quiescent:", bus.awaitQuiescence(5, TimeUnit.SECONDS));
+         assertEquals(20, sub.count());
+         bus.shutdownTheBus();
+      }
+      bus = null;
+   }
+
+   @Test
+   public void testGracefulShutdownDrains() {
+      for (AsyncEventBus.DeliveryMode mode : AsyncEventBus.DeliveryMode.values()) {
+         bus = new AsyncEventBus("drain-" + mode, 2, true, mode);
+         CountingSubscriber sub = new CountingSubscriber(1);
+         bus.addSubscriber(sub);
+         for (int i = 0; i < 20; i++) {
+            bus.publishEvent(i);
+         }
+         assertEquals(mode + " nothing dropped:", 0, bus.shutdownTheBus(5, TimeUnit.SECONDS));
+         assertEquals(mode + " drained:", 20, sub.count());
+         try {
+            bus.publishEvent(20);
+            fail(mode + " published after shutdown");
+         } catch (EventBusException e) {
+            // Refused
+         }
+      }
+      bus = null;
+   }
+
+   @Test
+   public void testShutdownDeadline() throws Exception {
+      for (AsyncEventBus.DeliveryMode mode : AsyncEventBus.DeliveryMode.values()) {
+         bus = new AsyncEventBus("deadline-" + mode, 2, true, mode);
+         BlockingSubscriber sub = new BlockingSubscriber();
+         bus.addSubscriber(sub);
+         for (int i = 0; i < 10; i++) {
+            bus.publishEvent(i);
+         }
+         sub.started.await(1, TimeUnit.SECONDS);
+         assertEquals(mode + " all but the running callback dropped:", 9, bus.shutdownTheBus(50, TimeUnit.MILLISECONDS));
+         sub.release.countDown();
+         Thread.sleep(50);
+         assertEquals(mode + " only the running callback finished:", 1, sub.count());
+      }
+      bus = null;
+   }
+
+   public static class CountingSubscriber {
+      private final long sleepMillis;
+      private int count;
+
+      CountingSubscriber(long sleepMillis) {
+         this.sleepMillis = sleepMillis;
+      }
+
+      @Subscribe
+      public void onEvent(Integer event) throws InterruptedException {
+         if (sleepMillis > 0) {
+            Thread.sleep(sleepMillis);
+         }
+         synchronized (this) {
+            count++;
+         }
+      }
+
+      synchronized int count() {
+         return count;
+      }
+   }
+
+   public static class FlushingSubscriber {
+      private final AsyncEventBus bus;
+      final AtomicReference<Exception> flushError = new AtomicReference<>();
+      final AtomicReference<Exception> quiescenceError = new AtomicReference<>();
+      final AtomicReference<Exception> shutdownError = new AtomicReference<>();
+      final CountDownLatch done = new CountDownLatch(1);
+
+      FlushingSubscriber(AsyncEventBus bus) {
+         this.bus = bus;
+      }
+
+      @Subscribe
+      public void onEvent(Integer event) {
+         try {
+            bus.flush(5, TimeUnit.SECONDS);
+         } catch (EventBusException e) {
+            flushError.set(e);
+         }
+         try {
+            bus.awaitQuiescence(5, TimeUnit.SECONDS);
+         } catch (EventBusException e) {
+            quiescenceError.set(e);
+         }
+         try {
+            bus.shutdownTheBus(5, TimeUnit.SECONDS);
+         } catch (EventBusException e) {
+            shutdownError.set(e);
+         }
+         done.countDown();
+      }
+   }
+
+   public static class NoiseSubscriber {
+      @Subscribe
+      public void onEvent(String event) {
+      }
+   }
+
+   public static class DroppingSubscriber {
+      @Subscribe
+      public void onEvent(String event) {
+      }
+   }
+
+   public static class BlockingSubscriber extends CountingSubscriber {
+      final CountDownLatch started = new CountDownLatch(1);
+      final CountDownLatch release = new CountDownLatch(1);
+
+      BlockingSubscriber() {
+         super(0);
+      }
+
+      @Subscribe
+      @Override
+      public void onEvent(Integer event) throws InterruptedException {
+         started.countDown();
+         release.await(5, TimeUnit.SECONDS);
+         super.onEvent(event);
+      }
+   }
+}
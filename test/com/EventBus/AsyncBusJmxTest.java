@@ -0,0 +1,185 @@
+package com.EventBus;
+
+import org.junit.After;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test the bus MBean: registration under the bus id, subscriber counts, lane depth, rates, utilization and oldest wait of a busy lane sampled on a test clock, and unregistration at shutdown.
+ */
+public class AsyncBusJmxTest {
+   static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+   static final long HOUR = TimeUnit.HOURS.toMillis(1); // Sampling interval: samples taken by sampleNow() only
+
+   final List<AsyncEventBus> buses = new ArrayList<>();
+   final AtomicLong clock = new AtomicLong(System.nanoTime());
+   final HeldSubscriber held = new HeldSubscriber();
+   AsyncEventBus bus;
+
+   @After
+   public void reset() {
+      held.release.countDown();
+      for (AsyncEventBus created : buses) {
+         created.shutdownTheBus();
+         if (created.getMBeanName() != null) {
+            AsyncEventBusMonitor.unregister(created.getMBeanName());
+         }
+      }
+      buses.clear();
+      bus = null;
+   }
+
+   private AsyncEventBus newBus(AsyncEventBus created) {
+      buses.add(created);
+      return created;
+   }
+
+   //A monitor on the test clock, sampled by sampleNow()
+   private AsyncEventBusMonitor monitor(AsyncEventBus monitored) {
+      return new AsyncEventBusMonitor("test-clock", monitored.SubscriberHandler(),
+              monitored.EventHandler().getLanes(), monitored.getLaneRebalancer(), HOUR, clock::get);
+   }
+
+   @Test
+   public void testRegistration() throws Exception {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      bus = newBus(new AsyncEventBus("jmx-bus", 3));
+      AsyncEventBus sameId = newBus(new AsyncEventBus("jmx-bus", 1));
+      ObjectName name = bus.getMBeanName();
+      assertEquals(new ObjectName("com.EventBus:type=AsyncEventBus,name=\"jmx-bus\""), name);
+      assertNotEquals("Same bus id, another instance:", name, sameId.getMBeanName());
+
+      bus.addSubscriber(new TwoCallbacks());
+      bus.addSubscriber(new TwoCallbacks());
+      assertEquals(2, server.getAttribute(name, "SubscriberCount"));
+      assertEquals(4, server.getAttribute(name, "SubscriptionCount"));
+      assertEquals(3, server.getAttribute(name, "LaneCount"));
+      assertEquals(3, ((int[]) server.getAttribute(name, "LaneQueueDepths")).length);
+
+      sameId.shutdownTheBus();
+      assertFalse(server.isRegistered(sameId.getMBeanName()));
+      assertTrue(server.isRegistered(name));
+   }
+
+   @Test
+   public void testBusyLane() throws Exception {
+      bus = newBus(new AsyncEventBus("jmx-busy", 1));
+      AsyncEventBusMonitor monitor = monitor(bus);
+      bus.addSubscriber(held);
+      monitor.sampleNow();
+      assertEquals("Idle lane:", 0, monitor.getLaneQueueDepths()[0]);
+
+      bus.publishEvent(0);
+      held.awaitStarted();
+      for (int i = 1; i <= 20; i++) {
+         bus.publishEvent(i);
+      }
+      clock.addAndGet(SECOND);
+      monitor.sampleNow();
+      assertEquals("Queued behind the held one:", 20, monitor.getTotalQueueDepth());
+      assertEquals("Published over the second:", 21.0, monitor.getLaneEnqueueRates()[0], 0.0);
+      assertEquals("Taken over the second:", 1.0, monitor.getLaneDequeueRates()[0], 0.0);
+      assertEquals(0, monitor.getHottestLane());
+      clock.addAndGet(1);
+      monitor.sampleNow();
+      assertEquals("Busy over the whole interval:", 1.0, monitor.getLaneUtilizations()[0], 0.0);
+
+      held.release.countDown();
+      bus.flush();
+      clock.addAndGet(SECOND);
+      monitor.sampleNow();
+      assertEquals(0, monitor.getTotalQueueDepth());
+      assertEquals(0, monitor.getLaneOldestWaitMillis()[0]);
+      assertEquals("Nothing published meanwhile:", 0.0, monitor.getLaneEnqueueRates()[0], 0.0);
+      assertEquals("The queued ones taken:", 20.0, monitor.getLaneDequeueRates()[0], 0.0);
+      clock.addAndGet(SECOND);
+      monitor.sampleNow();
+      assertEquals("Idle over the whole interval:", 0.0, monitor.getLaneUtilizations()[0], 0.0);
+   }
+
+   @Test
+   public void testRatesAndStampedWait() throws Exception {
+      bus = newBus(new AsyncEventBus("jmx-rates", 1));
+      AsyncEventBusMonitor monitor = monitor(bus);
+      bus.addSubscriber(held);
+      bus.setLatencyTracking(true);
+      bus.publishEvent(0);
+      held.awaitStarted();
+      for (int i = 1; i <= 10; i++) {
+         bus.publishEvent(i);
+      }
+      clock.addAndGet(2 * SECOND);
+      monitor.sampleNow();
+      assertEquals("11 events over 2 seconds:", 5.5, monitor.getLaneEnqueueRates()[0], 0.0);
+      long stamp = bus.EventHandler().getLanes().get(0).getOldestStamp();
+      assertEquals("Oldest event queued since the publication:",
+              TimeUnit.NANOSECONDS.toMillis(clock.get() - stamp), monitor.getLaneOldestWaitMillis()[0]);
+   }
+
+   @Test
+   public void testSampledHeadWait() throws Exception {
+      bus = newBus(new AsyncEventBus("jmx-head", 1));
+      AsyncEventBusMonitor monitor = monitor(bus);
+      bus.addSubscriber(held);
+      bus.publishEvent(1); // Held by the callback
+      held.awaitStarted();
+      bus.publishEvent(2); // Waits at the head of the lane
+      clock.addAndGet(SECOND);
+      monitor.sampleNow();
+      assertEquals("First seen:", 0, monitor.getLaneOldestWaitMillis()[0]);
+      clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(50));
+      monitor.sampleNow();
+      assertEquals("Same head, seen waiting:", 50, monitor.getLaneOldestWaitMillis()[0]);
+      held.release.countDown();
+      bus.flush();
+      clock.addAndGet(SECOND);
+      monitor.sampleNow();
+      assertEquals(0, monitor.getLaneOldestWaitMillis()[0]);
+   }
+
+   @Test
+   public void testBroadcastRingHasNoLanes() throws Exception {
+      bus = newBus(new AsyncEventBus("jmx-ring", 2, true, AsyncEventBus.DeliveryMode.BROADCAST_RING));
+      bus.addSubscriber(new TwoCallbacks());
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      assertEquals(0, server.getAttribute(bus.getMBeanName(), "LaneCount"));
+      assertEquals(-1, server.getAttribute(bus.getMBeanName(), "HottestLane"));
+      assertEquals(1, server.getAttribute(bus.getMBeanName(), "SubscriberCount"));
+   }
+
+   public static class TwoCallbacks {
+      @Subscribe
+      public void onEvent(Integer event) {
+      }
+
+      @Subscribe
+      public void onText(String text) {
+      }
+   }
+
+   //Holds the lane in the first callback until released
+   public static class HeldSubscriber {
+      final CountDownLatch started = new CountDownLatch(1);
+      final CountDownLatch release = new CountDownLatch(1);
+
+      @Subscribe
+      public void onEvent(Integer event) throws InterruptedException {
+         started.countDown();
+         release.await(5, TimeUnit.SECONDS);
+      }
+
+      void awaitStarted() throws InterruptedException {
+         assertTrue("Callback running:", started.await(5, TimeUnit.SECONDS));
+      }
+   }
+}
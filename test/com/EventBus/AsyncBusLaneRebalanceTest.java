@@ -0,0 +1,170 @@
+package com.EventBus;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test the lane rebalancing: heavy Subscriptions sharing a lane are spread out, a balanced bus is left alone, and the events of a Subscription keep their order across a move (migration fence).
+ */
+public class AsyncBusLaneRebalanceTest {
+
+   AsyncEventBus bus;
+
+   @After
+   public void reset() {
+      if (bus != null) {
+         bus.shutdownTheBus();
+         bus = null;
+      }
+   }
+
+   //Puts the subscriber's Integer Subscription on the lane, as if hashed there
+   private Subscription placeOnLane(Object subscriber, int lane) {
+      Subscription subscription = bus.SubscriberHandler().findSubscription(subscriber, Integer.class);
+      subscription.laneId = lane;
+      return subscription;
+   }
+
+   @Test
+   public void testHeavySubscriptionsSpreadOut() throws Exception {
+      bus = new AsyncEventBus("rebalance-bus", 2);
+      OrderedSubscriber heavy1 = new OrderedSubscriber(1);
+      OrderedSubscriber heavy2 = new OrderedSubscriber(1);
+      bus.addSubscriber(heavy1);
+      bus.addSubscriber(heavy2);
+      Subscription s1 = placeOnLane(heavy1, 0);
+      Subscription s2 = placeOnLane(heavy2, 0);
+
+      for (int i = 0; i < 40; i++) {
+         bus.publishEvent(i);
+      }
+      heavy2.waitFor(16); // Costs sampled
+      assertEquals("One heavy Subscription moved:", 1, bus.rebalanceLanes());
+      assertEquals(1, bus.getLaneMigrationCount());
+      assertNotEquals("On different lanes:", bus.EventHandler().laneOf(s1), bus.EventHandler().laneOf(s2));
+
+      for (int i = 40; i < 80; i++) {
+         bus.publishEvent(i);
+      }
+      heavy1.waitFor(80);
+      heavy2.waitFor(80);
+      heavy1.assertInOrder(80);
+      heavy2.assertInOrder(80);
+      assertFalse(s1.migrating || s2.migrating);
+   }
+
+   @Test
+   public void testBalancedLanesLeftAlone() throws Exception {
+      bus = new AsyncEventBus("balanced-bus", 2);
+      OrderedSubscriber heavy1 = new OrderedSubscriber(1);
+      OrderedSubscriber heavy2 = new OrderedSubscriber(1);
+      bus.addSubscriber(heavy1);
+      bus.addSubscriber(heavy2);
+      placeOnLane(heavy1, 0);
+      placeOnLane(heavy2, 1);
+      for (int i = 0; i < 40; i++) {
+         bus.publishEvent(i);
+      }
+      heavy1.waitFor(40);
+      heavy2.waitFor(40);
+      assertEquals(0, bus.rebalanceLanes());
+      assertEquals(0, bus.getLaneMigrationCount());
+   }
+
+   @Test
+   public void testOrderKeptAcrossTheFence() throws Exception {
+      bus = new AsyncEventBus("fence-bus", 2);
+      OrderedSubscriber moving = new OrderedSubscriber(1);
+      OrderedSubscriber other = new OrderedSubscriber(0);
+      bus.addSubscriber(moving);
+      bus.addSubscriber(other);
+      Subscription subscription = placeOnLane(moving, 0);
+      placeOnLane(other, 0);
+
+      for (int i = 0; i < 50; i++) { // Backlog on lane 0
+         bus.publishEvent(i);
+      }
+      assertTrue(bus.EventHandler().getLanes().get(0).moveSubscription(subscription, 1));
+      assertFalse("Already migrating:", bus.EventHandler().getLanes().get(1).moveSubscription(subscription, 0));
+      for (int i = 50; i < 100; i++) { // Held on lane 1 until lane 0 passes the fence
+         bus.publishEvent(i);
+      }
+      bus.publishEvents(Arrays.asList(100, 101, 102));
+      moving.waitFor(103);
+      other.waitFor(103);
+      moving.assertInOrder(103);
+      other.assertInOrder(103);
+      Thread.sleep(20);
+      assertFalse("Migration over:", subscription.migrating);
+      assertNull(subscription.heldDeliveries);
+      assertEquals(1, bus.EventHandler().laneOf(subscription));
+   }
+
+   @Test
+   public void testPeriodicRebalancing() throws Exception {
+      bus = new AsyncEventBus("periodic-bus", 2);
+      OrderedSubscriber heavy1 = new OrderedSubscriber(1);
+      OrderedSubscriber heavy2 = new OrderedSubscriber(1);
+      bus.addSubscriber(heavy1);
+      bus.addSubscriber(heavy2);
+      placeOnLane(heavy1, 0);
+      placeOnLane(heavy2, 0);
+      bus.setLaneRebalancing(20);
+      for (int i = 0; i < 100; i++) {
+         bus.publishEvent(i);
+         Thread.sleep(1);
+      }
+      heavy1.waitFor(100);
+      heavy2.waitFor(100);
+      bus.setLaneRebalancing(0);
+      assertTrue("Moved in the background:", bus.getLaneMigrationCount() >= 1);
+      heavy1.assertInOrder(100);
+      heavy2.assertInOrder(100);
+   }
+
+   public static class OrderedSubscriber {
+      private final long sleepMillis;
+      private final List<Integer> received = new ArrayList<>();
+
+      OrderedSubscriber(long sleepMillis) {
+         this.sleepMillis = sleepMillis;
+      }
+
+      @Subscribe
+      public void onEvent(Integer event) throws InterruptedException {
+         if (sleepMillis > 0) {
+            Thread.sleep(sleepMillis);
+         }
+         synchronized (received) {
+            received.add(event);
+         }
+      }
+
+      int count() {
+         synchronized (received) {
+            return received.size();
+         }
+      }
+
+      void waitFor(int expected) throws InterruptedException {
+         for (int i = 0; i < 500 && count() < expected; i++) {
+            Thread.sleep(10);
+         }
+      }
+
+      void assertInOrder(int expected) {
+         synchronized (received) {
+            assertEquals("Events received:", expected, received.size());
+            for (int i = 0; i < received.size(); i++) {
+               assertEquals("Event order:", i, (int) received.get(i));
+            }
+         }
+      }
+   }
+}
@@ -0,0 +1,318 @@
+package com.EventBus;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test the keyed last value cache: latest event per key, removal of one key, LRU eviction at the capacity, replay of the cache to a late subscriber (never after its live events, nor held up by a full lane), concurrent readers and writers, and a FilteringService without a keyed cache.
+ */
+public class AsyncBusLastValueCacheTest {
+
+   AsyncEventBus bus;
+
+   @After
+   public void reset() {
+      if (bus != null) {
+         bus.shutdownTheBus();
+         bus = null;
+      }
+   }
+
+   private AsyncEventBus keyedBus(String id) {
+      AsyncEventBus keyed = new AsyncEventBus(id, 2);
+      keyed.setCacheKey(Quote.class, (Quote q) -> q.ticker);
+      return keyed;
+   }
+
+   private QuoteSubscriber addCachingSubscriber() {
+      QuoteSubscriber caching = new QuoteSubscriber();
+      bus.addSubscriber(caching);
+      bus.setCacheLastEvent(caching, Quote.class, true);
+      return caching;
+   }
+
+   @Test
+   public void testLatestPerKey() {
+      bus = keyedBus("cache-keyed");
+      addCachingSubscriber();
+      bus.publishEvent(new Quote("A", 1));
+      bus.publishEvent(new Quote("B", 1));
+      bus.publishEvent(new Quote("A", 2));
+
+      assertEquals("A2", bus.pollCachedEvent(Quote.class, "A").toString());
+      assertEquals("B1", bus.pollCachedEvent(Quote.class, "B").toString());
+      assertNull(bus.pollCachedEvent(Quote.class, "C"));
+      assertEquals("Latest of any key:", "A2", bus.pollCashedEvent(Quote.class).toString());
+      Map<Object, Object> snapshot = bus.getCachedEvents(Quote.class);
+      assertEquals("Oldest write first:", Arrays.asList("B", "A"), new ArrayList<>(snapshot.keySet()));
+   }
+
+   @Test
+   public void testRemoveOneKey() {
+      bus = keyedBus("cache-remove");
+      addCachingSubscriber();
+      bus.publishEvent(new Quote("A", 1));
+      bus.publishEvent(new Quote("B", 1));
+
+      assertEquals("A1", bus.removeCachedEvent(Quote.class, "A").toString());
+      assertNull(bus.pollCachedEvent(Quote.class, "A"));
+      assertEquals("Other keys stay cached:", "B1", bus.pollCachedEvent(Quote.class, "B").toString());
+      assertEquals("B1", bus.removeCachedEvent(Quote.class).toString());
+      assertTrue(bus.getCachedEvents(Quote.class).isEmpty());
+   }
+
+   @Test
+   public void testLeastRecentlyUsedEvicted() {
+      bus = keyedBus("cache-lru");
+      addCachingSubscriber();
+      bus.setCacheCapacity(10);
+      for (int i = 0; i < 10; i++) {
+         bus.publishEvent(new Quote("K" + i, i));
+      }
+      assertNotNull(bus.pollCachedEvent(Quote.class, "K0")); // Now recently used
+      for (int i = 10; i < 13; i++) {
+         bus.publishEvent(new Quote("K" + i, i));
+      }
+      LastValueCache cache = bus.EventHandler().getLastValueCache();
+      assertTrue("Bounded: " + cache.size(), cache.size() <= 10);
+      assertTrue(cache.getEvictedCount() >= 3);
+      assertNotNull("Read keeps it:", bus.pollCachedEvent(Quote.class, "K0"));
+      assertNull("Least recently used:", bus.pollCachedEvent(Quote.class, "K1"));
+      assertNotNull(bus.pollCachedEvent(Quote.class, "K12"));
+   }
+
+   @Test
+   public void testReplayOnSubscribe() throws Exception {
+      bus = keyedBus("cache-replay");
+      bus.setReplayCacheOnSubscribe(true);
+      addCachingSubscriber();
+      bus.publishEvent(new Quote("A", 1));
+      bus.publishEvent(new Quote("B", 1));
+      bus.publishEvent(new Quote("A", 2));
+
+      QuoteSubscriber late = new QuoteSubscriber();
+      bus.addSubscriber(late);
+      late.waitFor(2);
+      assertEquals(Arrays.asList("B1", "A2"), late.snapshot());
+      bus.publishEvent(new Quote("B", 2));
+      late.waitFor(3);
+      assertEquals(Arrays.asList("B1", "A2", "B2"), late.snapshot());
+   }
+
+   @Test
+   public void testReplayNotAfterLiveEvents() throws Exception {
+      bus = keyedBus("cache-replay-live");
+      bus.setReplayCacheOnSubscribe(true);
+      addCachingSubscriber();
+      AtomicBoolean running = new AtomicBoolean(true);
+      Thread publisher = new Thread(() -> {
+         for (int seq = 0; running.get(); seq++) {
+            bus.publishEvent(new Quote("A", seq));
+         }
+      });
+      publisher.start();
+      List<QuoteSubscriber> late = new ArrayList<>();
+      try {
+         for (int i = 0; i < 50; i++) {
+            QuoteSubscriber subscriber = new QuoteSubscriber();
+            bus.addSubscriber(subscriber); // Registers while the publisher runs
+            late.add(subscriber);
+         }
+      } finally {
+         running.set(false);
+         publisher.join();
+      }
+      assertTrue(bus.flush(5, TimeUnit.SECONDS));
+      for (QuoteSubscriber subscriber : late) {
+         List<String> received = subscriber.snapshot();
+         for (int i = 1; i < received.size(); i++) {
+            int previous = Integer.parseInt(received.get(i - 1).substring(1));
+            int next = Integer.parseInt(received.get(i).substring(1));
+            assertTrue("Cached A" + next + " after the live A" + previous, previous < next);
+         }
+      }
+   }
+
+   @Test
+   public void testReplayOnFullLane() throws Exception {
+      bus = new AsyncEventBus("cache-replay-full", 1, true, 2, BackpressurePolicy.BLOCK);
+      bus.setCacheKey(Quote.class, (Quote q) -> q.ticker);
+      bus.setReplayCacheOnSubscribe(true);
+      addCachingSubscriber();
+      bus.publishEvent(new Quote("A", 1));
+      bus.publishEvent(new Quote("B", 1));
+      RegisteringSubscriber registering = new RegisteringSubscriber(bus);
+      bus.addSubscriber(registering);
+      bus.publishEvent("first"); // Held by the callback
+      assertTrue(registering.started.await(5, TimeUnit.SECONDS));
+      bus.publishEvent("second");
+      bus.publishEvent("third"); // The lane is full
+
+      QuoteSubscriber late = new QuoteSubscriber();
+      Thread subscribing = new Thread(() -> bus.addSubscriber(late));
+      subscribing.start();
+      subscribing.join(5_000);
+      registering.release.countDown(); // Its callback then registers a subscriber too
+      assertFalse("Registered without waiting for room:", subscribing.isAlive());
+      assertTrue(bus.awaitQuiescence(5, TimeUnit.SECONDS));
+      assertEquals(Arrays.asList("A1", "B1"), late.snapshot());
+      assertEquals(Arrays.asList("A1", "B1"), registering.registered.snapshot());
+   }
+
+   @Test
+   public void testNoReplayByDefault() throws Exception {
+      bus = keyedBus("cache-no-replay");
+      addCachingSubscriber();
+      bus.publishEvent(new Quote("A", 1));
+      QuoteSubscriber late = new QuoteSubscriber();
+      bus.addSubscriber(late);
+      Thread.sleep(50);
+      assertEquals(0, late.snapshot().size());
+   }
+
+   @Test
+   public void testCachingResetSendsEveryKey() throws Exception {
+      bus = keyedBus("cache-reset");
+      QuoteSubscriber caching = addCachingSubscriber();
+      bus.publishEvent(new Quote("A", 1));
+      bus.publishEvent(new Quote("B", 1));
+      bus.setCacheLastEvent(caching, Quote.class, false);
+      caching.waitFor(2);
+      assertEquals(Arrays.asList("A1", "B1"), caching.snapshot());
+   }
+
+   @Test
+   public void testConcurrentReadersAndWriters() throws Exception {
+      LastValueCache cache = new LastValueCache();
+      cache.setKeyExtractor(Quote.class, (Quote q) -> q.ticker);
+      cache.setCapacity(100);
+      List<Thread> threads = new ArrayList<>();
+      List<Throwable> errors = new ArrayList<>();
+      for (int t = 0; t < 4; t++) {
+         boolean writer = t % 2 == 0;
+         threads.add(new Thread(() -> {
+            try {
+               for (int i = 0; i < 20_000; i++) {
+                  String ticker = "K" + (i % 500);
+                  if (writer) {
+                     cache.put(Quote.class, new Quote(ticker, i));
+                  } else {
+                     Object quote = cache.get(Quote.class, ticker);
+                     assertTrue(quote == null || ((Quote) quote).ticker.equals(ticker));
+                  }
+               }
+            } catch (Throwable e) {
+               synchronized (errors) {
+                  errors.add(e);
+               }
+            }
+         }));
+      }
+      threads.forEach(Thread::start);
+      for (Thread thread : threads) {
+         thread.join();
+      }
+      assertTrue(errors.toString(), errors.isEmpty());
+      assertTrue("Bounded: " + cache.size(), cache.size() <= 100 + threads.size());
+   }
+
+   @Test(expected = EventBusException.class)
+   public void testServiceWithoutKeyedCache() {
+      FilteringService unkeyed = new UnkeyedService(); // Only implements the methods from before the keyed cache
+      unkeyed.pollCachedEvent(Quote.class, "A");
+   }
+
+   public static class UnkeyedService implements FilteringService {
+      @Override
+      public void setEventFilter(Object subscriber, Class<?> eventType, Predicate<?> filter) {
+      }
+
+      @Override
+      public void setCacheLastEvent(Object subscriber, Class<?> eventType, boolean setCaching) {
+      }
+
+      @Override
+      public <T> T pollCashedEvent(Class<T> eventType) {
+         return null;
+      }
+
+      @Override
+      public <T> T removeCachedEvent(Class<T> eventType) {
+         return null;
+      }
+
+      @Override
+      public void removeAllCacheEvent() {
+      }
+   }
+
+   public static class Quote {
+      final String ticker;
+      final int seq;
+
+      Quote(String ticker, int seq) {
+         this.ticker = ticker;
+         this.seq = seq;
+      }
+
+      @Override
+      public String toString() {
+         return ticker + seq;
+      }
+   }
+
+   //Holds the lane in its first callback, then registers a subscriber from the lane thread
+   public static class RegisteringSubscriber {
+      final CountDownLatch started = new CountDownLatch(1);
+      final CountDownLatch release = new CountDownLatch(1);
+      final QuoteSubscriber registered = new QuoteSubscriber();
+      private final AsyncEventBus bus;
+
+      RegisteringSubscriber(AsyncEventBus bus) {
+         this.bus = bus;
+      }
+
+      @Subscribe
+      public void onText(String text) throws InterruptedException {
+         if (started.getCount() > 0) {
+            started.countDown();
+            release.await(10, TimeUnit.SECONDS);
+            bus.addSubscriber(registered);
+         }
+      }
+   }
+
+   public static class QuoteSubscriber {
+      private final List<String> received = new ArrayList<>();
+
+      @Subscribe
+      public void onQuote(Quote quote) {
+         synchronized (received) {
+            received.add(quote.toString());
+         }
+      }
+
+      List<String> snapshot() {
+         synchronized (received) {
+            return new ArrayList<>(received);
+         }
+      }
+
+      void waitFor(int expected) throws InterruptedException {
+         for (int i = 0; i < 500 && snapshot().size() < expected; i++) {
+            Thread.sleep(5);
+         }
+      }
+   }
+}
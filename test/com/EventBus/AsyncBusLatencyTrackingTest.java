@@ -0,0 +1,130 @@
+package com.EventBus;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test per Subscription latency tracking: histogram accuracy, queue wait vs callback time on a lane, the broadcast ring and the sync bus, and no recording while tracking is off.
+ */
+public class AsyncBusLatencyTrackingTest {
+
+   AsyncEventBus bus;
+
+   @After
+   public void reset() {
+      if (bus != null) {
+         bus.shutdownTheBus();
+         bus = null;
+      }
+   }
+
+   @Test
+   public void testHistogramBuckets() {
+      for (long value : new long[] {0, 1, 63, 64, 65, 127, 128, 1000, 123_456, 9_999_999, LatencyHistogram.MAX_VALUE}) {
+         int index = LatencyHistogram.indexOf(value);
+         assertTrue("Bucket of " + value, LatencyHistogram.lowestValueAt(index) <= value);
+         assertTrue("Bucket of " + value, LatencyHistogram.highestValueAt(index) >= value);
+         assertTrue("Bucket width of " + value, LatencyHistogram.highestValueAt(index) - LatencyHistogram.lowestValueAt(index) <= Math.max(1, value / 32));
+      }
+      assertEquals(LatencyHistogram.BUCKET_COUNT - 1, LatencyHistogram.indexOf(LatencyHistogram.MAX_VALUE));
+   }
+
+   @Test
+   public void testHistogramPercentiles() {
+      LatencyHistogram histogram = new LatencyHistogram();
+      for (long value = 1; value <= 10_000; value++) {
+         histogram.record(value);
+      }
+      histogram.record(Long.MAX_VALUE); // Capped
+      LatencySnapshot snapshot = histogram.snapshot();
+      assertEquals(10_001, snapshot.getCount());
+      assertEquals(LatencyHistogram.MAX_VALUE, snapshot.getMaxNanos());
+      assertEquals(5_000, snapshot.getValueAtPercentile(50), 5_000 * 0.04);
+      assertEquals(9_900, snapshot.getValueAtPercentile(99), 9_900 * 0.04);
+      assertEquals(1, snapshot.getValueAtPercentile(0));
+   }
+
+   @Test
+   public void testLaneQueueWaitAndCallbackTime() throws Exception {
+      bus = new AsyncEventBus("latency-lanes", 1, true);
+      SlowSubscriber sub = new SlowSubscriber();
+      bus.addSubscriber(sub);
+
+      sub.gate = new CountDownLatch(1);
+      bus.publishEvent(1); // Not tracked, holds the lane until all the tracked ones are queued
+      bus.setLatencyTracking(true);
+      for (int i = 0; i < 5; i++) {
+         bus.publishEvent(i);
+      }
+      sub.gate.countDown();
+      assertTrue(bus.flush(5, TimeUnit.SECONDS)); // Recorded as the callback returns
+      LatencySnapshot queueWait = bus.getQueueWaitLatency(sub, Integer.class);
+      LatencySnapshot callback = bus.getCallbackLatency(sub, Integer.class);
+      assertEquals("Tracked deliveries:", 5, queueWait.getCount());
+      assertEquals("Tracked callbacks:", 5, callback.getCount());
+      assertTrue("Callback takes 5ms: " + callback, callback.getValueAtPercentile(50) >= 4_500_000);
+      assertTrue("Last event waited behind 4 callbacks: " + queueWait, queueWait.getMaxNanos() >= 4 * 4_500_000);
+   }
+
+   @Test
+   public void testTrackingOff() throws Exception {
+      bus = new AsyncEventBus("latency-off", 1, true);
+      SlowSubscriber sub = new SlowSubscriber();
+      bus.addSubscriber(sub);
+      bus.publishEvent(1);
+      sub.waitFor(1);
+      assertEquals(0, bus.getQueueWaitLatency(sub, Integer.class).getCount());
+      assertEquals(0, bus.getCallbackLatency(sub, Integer.class).getValueAtPercentile(99));
+   }
+
+   @Test
+   public void testBroadcastRing() throws Exception {
+      bus = new AsyncEventBus("latency-ring", 2, true, AsyncEventBus.DeliveryMode.BROADCAST_RING);
+      SlowSubscriber sub = new SlowSubscriber();
+      bus.addSubscriber(sub);
+      bus.setLatencyTracking(true);
+      sub.gate = new CountDownLatch(1);
+      bus.publishEvent(1); // Holds the lane until the second one is published
+      bus.publishEvent(2);
+      sub.gate.countDown();
+      assertTrue(bus.flush(5, TimeUnit.SECONDS)); // Recorded as the callback returns
+      assertEquals(2, bus.getCallbackLatency(sub, Integer.class).getCount());
+      assertTrue(bus.getQueueWaitLatency(sub, Integer.class).getMaxNanos() >= 4_500_000);
+   }
+
+   @Test
+   public void testSyncBus() {
+      SyncEventBus syncBus = new SyncEventBus(false);
+      SlowSubscriber sub = new SlowSubscriber();
+      syncBus.addSubscriber(sub);
+      syncBus.setLatencyTracking(true);
+      syncBus.publishEvent(1);
+      syncBus.publishEvent(2);
+      assertEquals(2, syncBus.getCallbackLatency(sub, Integer.class).getCount());
+      assertTrue(syncBus.getCallbackLatency(sub, Integer.class).getMeanNanos() >= 4_500_000);
+      assertNull("Unknown subscription:", syncBus.getQueueWaitLatency(sub, String.class));
+   }
+
+   public static class SlowSubscriber {
+      volatile int count;
+      volatile CountDownLatch gate = new CountDownLatch(0); // Open unless a test holds the callbacks
+
+      @Subscribe
+      public void onEvent(Integer event) throws InterruptedException {
+         gate.await(5, TimeUnit.SECONDS);
+         Thread.sleep(5);
+         count++;
+      }
+
+      void waitFor(int expected) throws InterruptedException {
+         for (int i = 0; i < 200 && count < expected; i++) {
+            Thread.sleep(10);
+         }
+      }
+   }
+}
@@ -0,0 +1,224 @@
+package com.EventBus;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test the SUBSCRIPTION_MAILBOXES engine: a blocking callback holds up only its own Subscription, per Subscription order with single and batch publication, filtering and caching, mailboxes let go of as subscribers come and go, shutdown, and virtual thread detection.
+ */
+public class AsyncBusMailboxTest {
+
+   AsyncEventBus bus;
+
+   @After
+   public void reset() {
+      if (bus != null) {
+         bus.shutdownTheBus();
+         bus = null;
+      }
+   }
+
+   private AsyncEventBus mailboxBus(String id) {
+      return new AsyncEventBus(id, 1, true, AsyncEventBus.DeliveryMode.SUBSCRIPTION_MAILBOXES);
+   }
+
+   @Test
+   public void testBlockingCallbackIsolated() throws Exception {
+      bus = mailboxBus("mailbox-blocking");
+      BlockingSubscriber blocked = new BlockingSubscriber();
+      RecordingSubscriber other = new RecordingSubscriber();
+      bus.addSubscriber(blocked);
+      bus.addSubscriber(other);
+      for (int i = 0; i < 10; i++) {
+         bus.publishEvent(i);
+      }
+      other.waitFor(10);
+      other.assertInOrder(10);
+      assertEquals("Still blocked on the first event:", 0, blocked.done.size());
+      blocked.release.countDown();
+      blocked.waitFor(10);
+      assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), blocked.snapshot());
+   }
+
+   @Test
+   public void testBlockingCallbackHoldsUpItsLane() throws Exception {
+      bus = new AsyncEventBus("lane-blocking", 1); // Same case on one executor lane, for contrast
+      BlockingSubscriber blocked = new BlockingSubscriber();
+      RecordingSubscriber other = new RecordingSubscriber();
+      bus.addSubscriber(blocked);
+      bus.addSubscriber(other);
+      bus.publishEvent(1);
+      Thread.sleep(50);
+      assertTrue("Behind the blocked callback:", other.count() < 1);
+      blocked.release.countDown();
+      other.waitFor(1);
+      assertEquals(1, other.count());
+   }
+
+   @Test
+   public void testOrderPerSubscription() throws Exception {
+      bus = mailboxBus("mailbox-order");
+      List<RecordingSubscriber> subs = new ArrayList<>();
+      for (int i = 0; i < 20; i++) {
+         RecordingSubscriber sub = new RecordingSubscriber();
+         subs.add(sub);
+         bus.addSubscriber(sub);
+      }
+      for (int i = 0; i < 500; i++) {
+         bus.publishEvent(i);
+      }
+      List<Integer> batch = new ArrayList<>();
+      for (int i = 500; i < 1000; i++) {
+         batch.add(i);
+      }
+      bus.publishEvents(batch);
+      for (RecordingSubscriber sub : subs) {
+         sub.waitFor(1000);
+         sub.assertInOrder(1000);
+      }
+   }
+
+   @Test
+   public void testFilterAndCache() throws Exception {
+      bus = mailboxBus("mailbox-services");
+      RecordingSubscriber filtered = new RecordingSubscriber();
+      RecordingSubscriber caching = new RecordingSubscriber();
+      bus.addSubscriber(filtered);
+      bus.addSubscriber(caching);
+      bus.setEventFilter(filtered, Integer.class, (Integer i) -> i % 2 == 0);
+      bus.setCacheLastEvent(caching, Integer.class, true);
+      for (int i = 0; i < 10; i++) {
+         bus.publishEvent(i);
+      }
+      filtered.waitFor(5);
+      assertEquals(Arrays.asList(0, 2, 4, 6, 8), filtered.snapshot());
+      assertEquals(0, caching.count());
+      assertEquals(9, (int) bus.pollCashedEvent(Integer.class));
+      bus.setCacheLastEvent(caching, Integer.class, false); // Sends the cached event
+      caching.waitFor(1);
+      assertEquals(Arrays.asList(9), caching.snapshot());
+   }
+
+   @Test
+   public void testSubscriberChurn() throws Exception {
+      bus = mailboxBus("mailbox-churn");
+      MailboxEventHandler handler = (MailboxEventHandler) bus.EventHandler();
+      RecordingSubscriber kept = new RecordingSubscriber();
+      bus.addSubscriber(kept);
+      for (int i = 0; i < 200; i++) {
+         RecordingSubscriber passing = new RecordingSubscriber();
+         bus.addSubscriber(passing);
+         bus.publishEvent(i);
+         bus.removeSubscriber(passing);
+      }
+      assertTrue(bus.flush(5, TimeUnit.SECONDS));
+      assertEquals(200, kept.count());
+      assertEquals("Only the kept subscriber's:", 1, handler.getMailboxCount());
+   }
+
+   @Test
+   public void testRemovedMailboxDrained() throws Exception {
+      bus = mailboxBus("mailbox-removed");
+      MailboxEventHandler handler = (MailboxEventHandler) bus.EventHandler();
+      BlockingSubscriber blocked = new BlockingSubscriber();
+      bus.addSubscriber(blocked);
+      for (int i = 0; i < 5; i++) {
+         bus.publishEvent(i);
+      }
+      bus.removeSubscriber(blocked);
+      assertEquals("Kept while it has mail:", 1, handler.getMailboxCount());
+      blocked.release.countDown();
+      assertTrue(bus.flush(5, TimeUnit.SECONDS));
+      assertEquals("Mail posted before the removal delivered:", Arrays.asList(0, 1, 2, 3, 4), blocked.snapshot());
+      assertEquals(0, handler.getMailboxCount());
+   }
+
+   @Test
+   public void testPublishAfterShutdown() throws Exception {
+      bus = mailboxBus("mailbox-shutdown");
+      RecordingSubscriber sub = new RecordingSubscriber();
+      bus.addSubscriber(sub);
+      bus.publishEvent(1);
+      sub.waitFor(1);
+      bus.shutdownTheBus();
+      try {
+         bus.publishEvent(2);
+         fail("Published after shutdown");
+      } catch (EventBusException e) {
+         assertEquals(1, sub.count());
+      }
+   }
+
+   @Test
+   public void testVirtualThreadDetection() {
+      String version = System.getProperty("java.specification.version");
+      int major = Integer.parseInt(version.startsWith("1.") ? version.substring(2) : version);
+      assertEquals(major >= 21, AsyncEventBus.DeliveryMode.isVirtualThreadSupported());
+      bus = mailboxBus("mailbox-threads");
+      assertEquals(major >= 21, ((MailboxEventHandler) bus.EventHandler()).isUsingVirtualThreads());
+   }
+
+   public static class RecordingSubscriber {
+      private final List<Integer> received = new ArrayList<>();
+
+      @Subscribe
+      public void onEvent(Integer event) {
+         synchronized (received) {
+            received.add(event);
+         }
+      }
+
+      int count() {
+         synchronized (received) {
+            return received.size();
+         }
+      }
+
+      List<Integer> snapshot() {
+         synchronized (received) {
+            return new ArrayList<>(received);
+         }
+      }
+
+      void waitFor(int expected) throws InterruptedException {
+         for (int i = 0; i < 500 && count() < expected; i++) {
+            Thread.sleep(5);
+         }
+      }
+
+      void assertInOrder(int expected) {
+         List<Integer> events = snapshot();
+         assertEquals("Events received:", expected, events.size());
+         for (int i = 0; i < expected; i++) {
+            assertEquals("Event order:", i, (int) events.get(i));
+         }
+      }
+   }
+
+   public static class BlockingSubscriber extends RecordingSubscriber {
+      final CountDownLatch release = new CountDownLatch(1);
+      final List<Integer> done = new ArrayList<>();
+
+      @Subscribe
+      @Override
+      public void onEvent(Integer event) {
+         try {
+            release.await(5, TimeUnit.SECONDS);
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+         }
+         synchronized (done) {
+            done.add(event);
+         }
+         super.onEvent(event);
+      }
+   }
+}
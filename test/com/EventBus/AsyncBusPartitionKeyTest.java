@@ -0,0 +1,187 @@
+package com.EventBus;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test partition key ordered delivery: one subscriber's events spread across the lanes by key, in order per key, on the lane executors and the broadcast ring, with single and batch publication.
+ */
+public class AsyncBusPartitionKeyTest {
+   static final String[] TICKERS = {"A", "B", "C", "D"};
+
+   AsyncEventBus bus;
+
+   @After
+   public void reset() {
+      if (bus != null) {
+         bus.shutdownTheBus();
+         bus = null;
+      }
+   }
+
+   @Test
+   public void testKeysInParallelOrderedPerKey() throws Exception {
+      bus = new AsyncEventBus("partition-bus", 4);
+      BarrierSubscriber sub = new BarrierSubscriber();
+      bus.addSubscriber(sub);
+      bus.setPartitionKey(sub, Quote.class, (Quote q) -> q.ticker);
+
+      publishQuotes(25, false);
+      sub.waitFor(100);
+      sub.assertOrderedPerTicker(25);
+      assertEquals("One lane per ticker:", 4, sub.lanes.size());
+      assertTrue("The first quotes of the tickers in their callbacks at once:", sub.inParallel);
+      assertEquals("Different keys, different lanes:", 4, new HashSet<>(Arrays.asList(
+              lane(sub, "A"), lane(sub, "B"), lane(sub, "C"), lane(sub, "D"))).size());
+   }
+
+   @Test
+   public void testWithoutKeyOneLane() throws Exception {
+      bus = new AsyncEventBus("unkeyed-bus", 4);
+      QuoteSubscriber sub = new QuoteSubscriber();
+      bus.addSubscriber(sub);
+      publishQuotes(5, false);
+      sub.waitFor(20);
+      sub.assertOrderedPerTicker(5);
+      assertEquals(1, sub.lanes.size());
+   }
+
+   @Test
+   public void testBatchPublication() throws Exception {
+      bus = new AsyncEventBus("partition-batch", 4);
+      QuoteSubscriber sub = new QuoteSubscriber();
+      bus.addSubscriber(sub);
+      bus.setPartitionKey(sub, Quote.class, (Quote q) -> q.ticker);
+      publishQuotes(25, true);
+      sub.waitFor(100);
+      sub.assertOrderedPerTicker(25);
+      assertEquals(4, sub.lanes.size());
+   }
+
+   @Test
+   public void testBroadcastRing() throws Exception {
+      bus = new AsyncEventBus("partition-ring", 4, true, AsyncEventBus.DeliveryMode.BROADCAST_RING);
+      QuoteSubscriber sub = new QuoteSubscriber();
+      bus.addSubscriber(sub);
+      bus.setPartitionKey(sub, Quote.class, (Quote q) -> q.ticker);
+      publishQuotes(25, false);
+      sub.waitFor(100);
+      sub.assertOrderedPerTicker(25);
+      assertEquals(4, sub.lanes.size());
+   }
+
+   @Test(expected = EventBusException.class)
+   public void testUnknownSubscription() {
+      bus = new AsyncEventBus("partition-unknown", 4);
+      bus.setPartitionKey(new QuoteSubscriber(), Quote.class, (Quote q) -> q.ticker);
+   }
+
+   @Test(expected = EventBusException.class)
+   public void testKeyExtractorTypeMismatch() {
+      bus = new AsyncEventBus("partition-mismatch", 4);
+      QuoteSubscriber sub = new QuoteSubscriber();
+      bus.addSubscriber(sub);
+      Function<String, String> wrongType = s -> s;
+      bus.setPartitionKey(sub, Quote.class, wrongType);
+      bus.publishEvent(new Quote("A", 0));
+   }
+
+   private int lane(Object subscriber, String ticker) {
+      Subscription subscription = bus.SubscriberHandler().findSubscription(subscriber, Quote.class);
+      return bus.EventHandler().laneOf(subscription, new Quote(ticker, 0));
+   }
+
+   private void publishQuotes(int perTicker, boolean batch) {
+      List<Quote> quotes = new ArrayList<>();
+      for (int seq = 0; seq < perTicker; seq++) {
+         for (String ticker : TICKERS) {
+            quotes.add(new Quote(ticker, seq));
+         }
+      }
+      if (batch) {
+         bus.publishEvents(quotes);
+      } else {
+         quotes.forEach(bus::publishEvent);
+      }
+   }
+
+   public static class Quote {
+      final String ticker;
+      final int seq;
+
+      Quote(String ticker, int seq) {
+         this.ticker = ticker;
+         this.seq = seq;
+      }
+   }
+
+   //Holds the first quote of each ticker until those of all the tickers are in their callbacks
+   public static class BarrierSubscriber extends QuoteSubscriber {
+      final CyclicBarrier allTickers = new CyclicBarrier(TICKERS.length);
+      volatile boolean inParallel = true;
+
+      @Subscribe
+      @Override
+      public void onQuote(Quote quote) throws InterruptedException {
+         if (quote.seq == 0) {
+            try {
+               allTickers.await(5, TimeUnit.SECONDS);
+            } catch (BrokenBarrierException | TimeoutException e) {
+               inParallel = false;
+            }
+         }
+         super.onQuote(quote);
+      }
+   }
+
+   public static class QuoteSubscriber {
+      final Map<String, List<Integer>> received = new HashMap<>();
+      final Set<String> lanes = new HashSet<>();
+      int count;
+
+      @Subscribe
+      public void onQuote(Quote quote) throws InterruptedException {
+         Thread.sleep(2);
+         synchronized (this) {
+            received.computeIfAbsent(quote.ticker, t -> new ArrayList<>()).add(quote.seq);
+            lanes.add(Thread.currentThread().getName());
+            count++;
+         }
+      }
+
+      synchronized int count() {
+         return count;
+      }
+
+      void waitFor(int expected) throws InterruptedException {
+         for (int i = 0; i < 500 && count() < expected; i++) {
+            Thread.sleep(5);
+         }
+      }
+
+      synchronized void assertOrderedPerTicker(int perTicker) {
+         for (String ticker : TICKERS) {
+            List<Integer> seqs = received.get(ticker);
+            assertEquals("Quotes of " + ticker, perTicker, seqs.size());
+            for (int i = 0; i < perTicker; i++) {
+               assertEquals("Order of " + ticker, i, (int) seqs.get(i));
+            }
+         }
+      }
+   }
+}
@@ -0,0 +1,191 @@
+package com.EventBus;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test the reentrant cascades of the single thread bus (Order -> Trade -> Position chains): breadth first order, the maximum cascade depth, the cascade counters, a clean publisher state after a failed cascade, cascades deeper than the stack would allow if they were recursive, and cascades out of a parallel fan-out.
+ */
+public class SyncEventBusCascadeTest {
+   SyncEventBus bus;
+   final List<String> published = new ArrayList<>();
+   int positionsToOrders = 1; // Rounds of Order -> Trade -> Position
+   boolean failOnTrade;
+
+   @After
+   public void reset() {
+      bus = null;
+   }
+
+   @Test
+   public void testCascadeBreadthFirst() {
+      bus = new SyncEventBus();
+      bus.addSubscriber(this);
+      bus.addSubscriber(new Auditor());
+      bus.publishEvent(new Order(1, 0));
+      assertEquals("Queued behind the Trade:", Arrays.asList("order1", "trade1", "audit1", "position1"), published);
+   }
+
+   @Test
+   public void testMaxCascadeDepth() {
+      bus = new SyncEventBus();
+      bus.addSubscriber(this);
+      positionsToOrders = 3; // 9 levels, the Order being level 0
+      bus.setMaxCascadeDepth(7);
+      try {
+         bus.publishEvent(new Order(1, 0));
+         fail("Expected EventBusException");
+      } catch (EventBusException expected) {
+      }
+      assertEquals("Cut off at the Position of level 8:", 8, published.size());
+      CascadeStats stats = bus.getCascadeStats();
+      assertEquals(1, stats.getRejectedCount());
+      assertEquals(7, stats.getMaxCascadeDepth());
+
+      published.clear();
+      bus.setMaxCascadeDepth(8);
+      bus.publishEvent(new Order(2, 0));
+      assertEquals(9, published.size());
+   }
+
+   @Test
+   public void testCascadeCounters() {
+      bus = new SyncEventBus();
+      bus.addSubscriber(this);
+      positionsToOrders = 2;
+      bus.publishEvent(new Order(1, 0)); // 5 reentrant events, 5 deep
+      positionsToOrders = 1;
+      bus.publishEvent(new Order(2, 0)); // 2 reentrant events
+      bus.publishEvent("No cascade");
+      CascadeStats stats = bus.getCascadeStats();
+      assertEquals(2, stats.getCascadeCount());
+      assertEquals(7, stats.getReentrantCount());
+      assertEquals(5, stats.getLongestCascade());
+      assertEquals(5, stats.getDeepestCascade());
+      assertEquals(3.5, stats.getMeanCascadeLength(), 0.0);
+      assertEquals(0, stats.getRejectedCount());
+   }
+
+   @Test
+   public void testStateResetAfterFailedCascade() {
+      bus = new SyncEventBus();
+      bus.addSubscriber(this);
+      bus.addSubscriber(new Auditor());
+      failOnTrade = true;
+      try {
+         bus.publishEvent(new Order(1, 0));
+         fail("Expected EventBusException");
+      } catch (EventBusException expected) {
+      }
+      assertEquals(Arrays.asList("order1", "trade1"), published);
+      assertEquals("The audit queued behind the Trade:", 1, bus.getCascadeStats().getAbandonedCount());
+
+      published.clear();
+      failOnTrade = false;
+      bus.publishEvent(new Order(2, 0));
+      assertEquals("A new cascade, without the dropped audit:", Arrays.asList("order2", "trade2", "audit2", "position2"), published);
+   }
+
+   @Test
+   public void testDeepCascadeNotRecursive() {
+      bus = new SyncEventBus();
+      bus.addSubscriber(this);
+      positionsToOrders = 20_000; // 60 000 levels
+      bus.publishEvent(new Order(1, 0));
+      assertEquals(60_000, published.size());
+      assertEquals(59_999, bus.getCascadeStats().getDeepestCascade());
+   }
+
+   @Test
+   public void testCascadeFromParallelFanOut() {
+      ForkJoinPool pool = new ForkJoinPool(2);
+      try {
+         bus = new SyncEventBus();
+         bus.addSubscriber(this);
+         for (int i = 0; i < 8; i++) {
+            bus.addSubscriber(new Auditor()); // Publish from the pool threads
+         }
+         bus.setParallelFanOut(4, pool);
+         bus.setMaxCascadeDepth(2);
+         bus.publishEvent(new Order(1, 0));
+         CascadeStats stats = bus.getCascadeStats();
+         assertEquals("Trade and Position, and 8 audits:", 10, stats.getReentrantCount());
+         assertEquals(2, stats.getDeepestCascade());
+         assertEquals(0, stats.getRejectedCount());
+      } finally {
+         pool.shutdown();
+      }
+   }
+
+   @Subscribe
+   public void onOrder(Order order) {
+      published.add("order" + order.id);
+      bus.publishEvent(new Trade(order.id, order.level + 1));
+   }
+
+   @Subscribe
+   public void onTrade(Trade trade) {
+      published.add("trade" + trade.id);
+      if (failOnTrade) {
+         throw new IllegalStateException("Trade rejected");
+      }
+      bus.publishEvent(new Position(trade.id, trade.level + 1));
+   }
+
+   @Subscribe
+   public void onPosition(Position position) {
+      published.add("position" + position.id);
+      if (position.level + 1 < 3 * positionsToOrders) {
+         bus.publishEvent(new Order(position.id, position.level + 1));
+      }
+   }
+
+   @Subscribe
+   public void onAudit(String audit) {
+      published.add(audit);
+   }
+
+   public class Auditor {
+      @Subscribe
+      public void onOrder(Order order) {
+         bus.publishEvent("audit" + order.id);
+      }
+   }
+
+   public static class Order {
+      final int id;
+      final int level;
+
+      Order(int id, int level) {
+         this.id = id;
+         this.level = level;
+      }
+   }
+
+   public static class Trade {
+      final int id;
+      final int level;
+
+      Trade(int id, int level) {
+         this.id = id;
+         this.level = level;
+      }
+   }
+
+   public static class Position {
+      final int id;
+      final int level;
+
+      Position(int id, int level) {
+         this.id = id;
+         this.level = level;
+      }
+   }
+}
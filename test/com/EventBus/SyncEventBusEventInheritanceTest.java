@@ -0,0 +1,109 @@
+package com.EventBus;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test event-inheritance publication: with inheritance on, an event is delivered to the subscribers of its own class, its super classes and its interfaces. With inheritance off (default) only the exact event class is matched.
+ */
+public class SyncEventBusEventInheritanceTest {
+
+   SyncEventBus bus;
+   HierarchySubscriber subscriber;
+
+   @Before
+   public void setup() {
+      bus = new SyncEventBus();
+      subscriber = new HierarchySubscriber();
+   }
+
+   @After
+   public void reset() {
+      bus = null;
+   }
+
+   @Test
+   public void testExactTypeOnlyByDefault() throws Exception {
+      bus.addSubscriber(subscriber);
+      bus.publishEvent(new ExchangeQuote("IBM UN", 90.40, "NYSE"));
+      assertEquals("ExchangeQuote:", 1, subscriber.eqCount);
+      assertEquals("No Quote for derived event:", 0, subscriber.qCount);
+      assertEquals("No Object for derived event:", 0, subscriber.oCount);
+   }
+
+   @Test
+   public void testSuperClassAndInterfaceSubscribers() throws Exception {
+      bus.setEventInheritance(true);
+      bus.addSubscriber(subscriber);
+
+      bus.publishEvent(new ExchangeQuote("IBM UN", 90.40, "NYSE"));
+      assertEquals("ExchangeQuote:", 1, subscriber.eqCount);
+      assertEquals("Quote subscriber gets the derived event:", 1, subscriber.qCount);
+      assertEquals("Object subscriber gets every event:", 1, subscriber.oCount);
+
+      bus.publishEvent("Hello");
+      assertEquals("Interface subscriber:", 1, subscriber.csCount);
+      assertEquals("Object subscriber gets every event:", 2, subscriber.oCount);
+      assertEquals("Class chain (String, Object) first, then interfaces:", "CharSequence", subscriber.lastCallback);
+   }
+
+   @Test
+   public void testDispatchTableRebuiltOnSubscriptionChange() throws Exception {
+      bus.setEventInheritance(true);
+      bus.addSubscriber(subscriber);
+      bus.publishEvent(new Quote("MSFT", 42.40));
+      assertEquals("Quote:", 1, subscriber.qCount);
+
+      QuoteSubscriber late = new QuoteSubscriber();
+      bus.addSubscriber(late);
+      bus.publishEvent(new ExchangeQuote("IBM UN", 90.40, "NYSE"));
+      assertEquals("Late subscriber is in the rebuilt table:", 1, late.qCount);
+
+      bus.removeSubscriber(late);
+      bus.publishEvent(new ExchangeQuote("IBM UN", 90.50, "NYSE"));
+      assertEquals("Removed subscriber is gone from the table:", 1, late.qCount);
+      assertEquals("Quote:", 3, subscriber.qCount);
+   }
+
+   class HierarchySubscriber {
+      int eqCount;
+      int qCount;
+      int oCount;
+      int csCount;
+      String lastCallback;
+
+      @Subscribe
+      public void onEvent(ExchangeQuote event) {
+         eqCount++;
+      }
+
+      @Subscribe
+      public void onEvent(Quote event) {
+         qCount++;
+      }
+
+      @Subscribe
+      public void onEvent(CharSequence event) {
+         csCount++;
+         lastCallback = "CharSequence";
+      }
+
+      @Subscribe
+      public void onEvent(Object event) {
+         oCount++;
+         lastCallback = "Object";
+      }
+   }
+
+   class QuoteSubscriber {
+      int qCount;
+
+      @Subscribe
+      public void onEvent(Quote event) {
+         qCount++;
+      }
+   }
+}
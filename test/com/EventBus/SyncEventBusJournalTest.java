@@ -0,0 +1,312 @@
+package com.EventBus;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test the EventJournal: every published event journaled (reentrant ones and those of an AsyncEventBus included), replay of a sequence or time range to chosen subscribers (callbacks taking an interface included), segment rolling and retention, a reopened journal continuing the sequence, a torn record ending its segment, and events the serializer can't write.
+ */
+public class SyncEventBusJournalTest {
+   @Rule
+   public TemporaryFolder folder = new TemporaryFolder();
+
+   EventJournal journal;
+   final List<Integer> received = new ArrayList<>();
+
+   @After
+   public void reset() {
+      if (journal != null) {
+         journal.close();
+         journal = null;
+      }
+   }
+
+   private Path directory() throws IOException {
+      return folder.getRoot().toPath().resolve("journal");
+   }
+
+   private SyncEventBus journaledBus(EventJournal journal) {
+      this.journal = journal;
+      SyncEventBus bus = new SyncEventBus();
+      bus.setJournal(journal);
+      bus.addSubscriber(this);
+      return bus;
+   }
+
+   private List<Integer> readAll(EventJournal journal) {
+      List<Integer> ids = new ArrayList<>();
+      journal.read(1, Long.MAX_VALUE, event -> ids.add(((Trade) event).id));
+      return ids;
+   }
+
+   @Test
+   public void testJournalAndReplayBySequence() throws Exception {
+      SyncEventBus bus = journaledBus(new EventJournal(directory(), EventSerializer.JAVA_SERIALIZATION, 1 << 16, FsyncPolicy.EVERY_BATCH, 0));
+      for (int i = 1; i <= 10; i++) {
+         bus.publishEvent(new Trade(i));
+      }
+      assertTrue(journal.flush(5, TimeUnit.SECONDS));
+      JournalStats stats = journal.getStats();
+      assertEquals(10, stats.getWrittenCount());
+      assertEquals(10, stats.getLastSequence());
+      assertEquals("Forced:", 10, stats.getSyncedSequence());
+      assertEquals(0, stats.getPendingCount());
+
+      Recorder recorder = new Recorder(); // Not registered on the bus
+      assertEquals(3, bus.replayJournal(3, 5, recorder));
+      assertEquals(3, recorder.ids.size());
+      assertEquals(Integer.valueOf(3), recorder.ids.get(0));
+      assertEquals(Integer.valueOf(5), recorder.ids.get(2));
+      assertEquals("Not published again:", 10, received.size());
+      assertEquals("Not journaled again:", 10, journal.getStats().getAppendedCount());
+   }
+
+   @Test
+   public void testReentrantEventsJournaled() throws Exception {
+      SyncEventBus bus = journaledBus(new EventJournal(directory(), EventSerializer.JAVA_SERIALIZATION));
+      bus.addSubscriber(new Confirmer(bus));
+      bus.publishEvent(new Trade(1));
+      assertTrue(journal.flush(5, TimeUnit.SECONDS));
+      List<Object> events = new ArrayList<>();
+      journal.read(1, 10, events::add);
+      assertEquals(2, events.size());
+      assertEquals("confirmed 1", events.get(1));
+   }
+
+   @Test
+   public void testReplayByTime() throws Exception {
+      SyncEventBus bus = journaledBus(new EventJournal(directory(), EventSerializer.JAVA_SERIALIZATION));
+      for (int i = 1; i <= 3; i++) {
+         bus.publishEvent(new Trade(i));
+      }
+      Thread.sleep(20);
+      long from = System.currentTimeMillis();
+      for (int i = 4; i <= 6; i++) {
+         bus.publishEvent(new Trade(i));
+      }
+      assertTrue(journal.flush(5, TimeUnit.SECONDS));
+      Recorder recorder = new Recorder();
+      assertEquals(3, bus.replayJournalByTime(from, Long.MAX_VALUE, recorder));
+      assertEquals(Integer.valueOf(4), recorder.ids.get(0));
+   }
+
+   @Test
+   public void testSegmentRollingAndRetention() throws Exception {
+      SyncEventBus bus = journaledBus(new EventJournal(directory(), new IdSerializer(), 1024, FsyncPolicy.ON_ROLL, 0));
+      journal.setRetention(3, 0);
+      for (int i = 1; i <= 500; i++) {
+         bus.publishEvent(new Trade(i));
+      }
+      assertTrue(journal.flush(5, TimeUnit.SECONDS));
+      JournalStats stats = journal.getStats();
+      assertEquals(500, stats.getWrittenCount());
+      assertEquals(3, stats.getSegmentCount());
+      assertEquals(3, EventJournal.listSegments(directory()).size());
+
+      List<Integer> ids = readAll(journal);
+      assertEquals("Up to the last event:", Integer.valueOf(500), ids.get(ids.size() - 1));
+      for (int i = 1; i < ids.size(); i++) {
+         assertEquals("In order, without gaps:", ids.get(i - 1) + 1, (int) ids.get(i));
+      }
+      assertTrue("Older segments deleted:", ids.get(0) > 1);
+   }
+
+   @Test
+   public void testReopenedJournalContinuesSequence() throws Exception {
+      SyncEventBus bus = journaledBus(new EventJournal(directory(), new IdSerializer()));
+      for (int i = 1; i <= 5; i++) {
+         bus.publishEvent(new Trade(i));
+      }
+      journal.close();
+
+      journal = new EventJournal(directory(), new IdSerializer());
+      assertEquals(5, journal.getStats().getLastSequence());
+      bus.setJournal(journal);
+      for (int i = 6; i <= 8; i++) {
+         bus.publishEvent(new Trade(i));
+      }
+      assertTrue(journal.flush(5, TimeUnit.SECONDS));
+      assertEquals(8, journal.getStats().getLastSequence());
+      List<Integer> expected = new ArrayList<>();
+      for (int i = 1; i <= 8; i++) {
+         expected.add(i);
+      }
+      assertEquals(expected, readAll(journal));
+   }
+
+   @Test
+   public void testTornRecordEndsSegment() throws Exception {
+      SyncEventBus bus = journaledBus(new EventJournal(directory(), new IdSerializer()));
+      for (int i = 1; i <= 5; i++) {
+         bus.publishEvent(new Trade(i));
+      }
+      journal.close();
+      Path segment = EventJournal.listSegments(directory()).get(0);
+      try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+         MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+         int fourth = EventJournal.SEGMENT_HEADER + 3 * (EventJournal.RECORD_HEADER + 4);
+         buffer.putInt(fourth + EventJournal.RECORD_HEADER, 999); // Bytes of Trade 4 changed, CRC not
+         buffer.force();
+      }
+
+      journal = new EventJournal(directory(), new IdSerializer());
+      assertEquals("Recovered up to the torn record:", 3, journal.getStats().getLastSequence());
+      bus.setJournal(journal);
+      bus.publishEvent(new Trade(40));
+      assertTrue(journal.flush(5, TimeUnit.SECONDS));
+      List<Integer> expected = new ArrayList<>();
+      expected.add(1);
+      expected.add(2);
+      expected.add(3);
+      expected.add(40);
+      assertEquals(expected, readAll(journal));
+   }
+
+   @Test
+   public void testEventsTheSerializerCannotWrite() throws Exception {
+      SyncEventBus bus = journaledBus(new EventJournal(directory(), EventSerializer.JAVA_SERIALIZATION));
+      bus.publishEvent(new Trade(1));
+      bus.publishEvent(new Object()); // Not Serializable
+      bus.publishEvent(new Trade(2));
+      assertTrue(journal.flush(5, TimeUnit.SECONDS));
+      JournalStats stats = journal.getStats();
+      assertEquals(3, stats.getAppendedCount());
+      assertEquals(2, stats.getWrittenCount());
+      assertEquals(1, stats.getFailedCount());
+      List<Integer> expected = new ArrayList<>();
+      expected.add(1);
+      expected.add(2);
+      assertEquals(expected, readAll(journal));
+      assertEquals("Delivered anyway:", 2, received.size());
+   }
+
+   @Test
+   public void testAsyncBusJournal() throws Exception {
+      journal = new EventJournal(directory(), new IdSerializer(), 4096, FsyncPolicy.PERIODIC, 10);
+      AsyncEventBus bus = new AsyncEventBus("journal", 2);
+      try {
+         bus.setJournal(journal);
+         bus.addSubscriber(this);
+         List<Object> batch = new ArrayList<>();
+         for (int i = 1; i <= 1000; i++) {
+            batch.add(new Trade(i));
+         }
+         bus.publishEvents(batch);
+         bus.flush();
+         assertTrue(journal.flush(5, TimeUnit.SECONDS));
+         assertEquals(1000, journal.getStats().getWrittenCount());
+         assertEquals(batch.size(), readAll(journal).size());
+         Recorder recorder = new Recorder();
+         assertEquals(10, bus.replayJournal(991, 1000, recorder));
+         assertEquals(Integer.valueOf(991), recorder.ids.get(0));
+      } finally {
+         bus.shutdownTheBus();
+      }
+   }
+
+   @Test
+   public void testReplayToInterfaceCallback() throws Exception {
+      SyncEventBus bus = journaledBus(new EventJournal(directory(), new IdSerializer()));
+      for (int i = 1; i <= 3; i++) {
+         bus.publishEvent(new Trade(i));
+      }
+      assertTrue(journal.flush(5, TimeUnit.SECONDS));
+      BookedRecorder exact = new BookedRecorder();
+      bus.replayJournal(1, 3, exact);
+      assertEquals("Exact event types without event inheritance:", 0, exact.ids.size());
+
+      bus.setEventInheritance(true);
+      BookedRecorder booked = new BookedRecorder();
+      assertEquals(3, bus.replayJournal(1, 3, booked));
+      assertEquals(3, booked.ids.size());
+      assertEquals(Integer.valueOf(3), booked.ids.get(2));
+   }
+
+   @Test(expected = EventBusException.class)
+   public void testReplayWithoutJournal() {
+      new SyncEventBus().replayJournal(1, 10, new Recorder());
+   }
+
+   @Subscribe
+   public void onTrade(Trade trade) {
+      synchronized (received) {
+         received.add(trade.id);
+      }
+   }
+
+   public interface Booked {
+      int bookingId();
+   }
+
+   public static class Trade implements Serializable, Booked {
+      final int id;
+
+      Trade(int id) {
+         this.id = id;
+      }
+
+      @Override
+      public int bookingId() {
+         return id;
+      }
+   }
+
+   public static class Recorder {
+      final List<Integer> ids = new ArrayList<>();
+
+      @Subscribe
+      public void onTrade(Trade trade) {
+         ids.add(trade.id);
+      }
+   }
+
+   public static class BookedRecorder {
+      final List<Integer> ids = new ArrayList<>();
+
+      @Subscribe
+      public void onBooked(Booked booked) {
+         ids.add(booked.bookingId());
+      }
+   }
+
+   public static class Confirmer {
+      final EventBus bus;
+
+      Confirmer(EventBus bus) {
+         this.bus = bus;
+      }
+
+      @Subscribe
+      public void onTrade(Trade trade) {
+         bus.publishEvent("confirmed " + trade.id);
+      }
+   }
+
+   //Four bytes per Trade
+   static class IdSerializer implements EventSerializer {
+      @Override
+      public void write(Object event, ByteBuffer buffer) {
+         buffer.putInt(((Trade) event).id);
+      }
+
+      @Override
+      public Object read(ByteBuffer buffer) {
+         return new Trade(buffer.getInt());
+      }
+   }
+}
@@ -0,0 +1,172 @@
+package com.EventBus;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test the parallel fan-out of the single thread bus: callbacks above the threshold run on the ForkJoinPool, publishEvent() returns when all of them are done, reentrant publications are queued behind the event in the Subscriptions order, a failing callback doesn't stop the others, and the fan-out switched off while publishing.
+ */
+public class SyncEventBusParallelFanOutTest {
+   static final int SUBSCRIBERS = 64;
+
+   SyncEventBus bus;
+   ForkJoinPool pool = new ForkJoinPool(4);
+   final Set<String> callbackThreads = Collections.synchronizedSet(new HashSet<>());
+   final AtomicInteger callbacks = new AtomicInteger();
+   final List<String> republished = Collections.synchronizedList(new ArrayList<>());
+
+   @After
+   public void reset() {
+      pool.shutdown();
+      bus = null;
+   }
+
+   private List<Worker> addWorkers(int count) {
+      List<Worker> workers = new ArrayList<>();
+      for (int i = 0; i < count; i++) {
+         Worker worker = new Worker(i);
+         bus.addSubscriber(worker);
+         workers.add(worker);
+      }
+      return workers;
+   }
+
+   @Test
+   public void testPublisherWaitsForAllCallbacks() {
+      bus = new SyncEventBus();
+      addWorkers(SUBSCRIBERS);
+      bus.setParallelFanOut(16, pool);
+      for (int i = 0; i < 10; i++) {
+         bus.publishEvent(new Job(i, 200_000));
+         assertEquals("All callbacks done on return:", (i + 1) * SUBSCRIBERS, callbacks.get());
+      }
+      assertTrue("Ran on the pool: " + callbackThreads, callbackThreads.stream().anyMatch(name -> name.startsWith("ForkJoinPool")));
+      assertEquals(10L * SUBSCRIBERS, bus.getDeliveryStats().getEventTypeStats(Job.class).getDeliveredCount());
+   }
+
+   @Test
+   public void testBelowThresholdOnPublisherThread() {
+      bus = new SyncEventBus();
+      addWorkers(8);
+      bus.setParallelFanOut(16, pool);
+      bus.publishEvent(new Job(0, 0));
+      assertEquals(8, callbacks.get());
+      assertEquals(Collections.singleton(Thread.currentThread().getName()), callbackThreads);
+   }
+
+   @Test
+   public void testReentrantQueuedInSubscriptionOrder() {
+      bus = new SyncEventBus();
+      addWorkers(SUBSCRIBERS);
+      bus.addSubscriber(new Recorder());
+      bus.setParallelFanOut(16, pool);
+      bus.publishEvent(new Job(-1, 0)); // Each worker publishes its id as a String
+      List<String> expected = new ArrayList<>();
+      for (int i = 0; i < SUBSCRIBERS; i++) {
+         expected.add("done-" + i);
+      }
+      assertEquals("Published after the fan-out, in order:", expected, republished);
+   }
+
+   @Test
+   public void testFailingCallbackDoesNotStopTheOthers() {
+      bus = new SyncEventBus();
+      addWorkers(SUBSCRIBERS);
+      bus.setParallelFanOut(16, pool);
+      try {
+         bus.publishEvent(new Job(-2, 0)); // Worker 5 throws
+         fail("Expected EventBusException");
+      } catch (EventBusException expected) {
+      }
+      assertEquals(SUBSCRIBERS, callbacks.get());
+      bus.setParallelFanOut(0);
+      bus.publishEvent(new Job(0, 0));
+      assertEquals("Off again:", 2 * SUBSCRIBERS, callbacks.get());
+   }
+
+   @Test
+   public void testSwitchedOffWhilePublishing() throws Exception {
+      bus = new SyncEventBus();
+      addWorkers(8);
+      AtomicBoolean running = new AtomicBoolean(true);
+      List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+      Thread publisher = new Thread(() -> {
+         try {
+            for (int i = 0; running.get(); i++) {
+               bus.publishEvent(new Job(i, 10));
+            }
+         } catch (Throwable e) {
+            errors.add(e);
+         }
+      });
+      publisher.start();
+      try {
+         for (int i = 0; i < 20_000 && errors.isEmpty(); i++) {
+            bus.setParallelFanOut(2, pool);
+            bus.setParallelFanOut(0, null);
+         }
+      } finally {
+         running.set(false);
+         publisher.join();
+      }
+      assertTrue(errors.toString(), errors.isEmpty());
+   }
+
+   @Test(expected = EventBusException.class)
+   public void testNegativeThreshold() {
+      bus = new SyncEventBus();
+      bus.setParallelFanOut(-1);
+   }
+
+   public static class Job {
+      final int id;
+      final int work;
+
+      Job(int id, int work) {
+         this.id = id;
+         this.work = work;
+      }
+   }
+
+   public class Worker {
+      final int id;
+      long sink;
+
+      Worker(int id) {
+         this.id = id;
+      }
+
+      @Subscribe
+      public void onJob(Job job) {
+         callbackThreads.add(Thread.currentThread().getName());
+         for (int i = 0; i < job.work; i++) { // CPU bound
+            sink += i ^ id;
+         }
+         callbacks.incrementAndGet();
+         if (job.id == -1) {
+            bus.publishEvent("done-" + id);
+         } else if (job.id == -2 && id == 5) {
+            throw new IllegalStateException("Worker 5 failed");
+         }
+      }
+   }
+
+   public class Recorder {
+      @Subscribe
+      public void onDone(String done) {
+         assertFalse("Not nested in the fan-out:", Thread.currentThread().getName().startsWith("ForkJoinPool"));
+         republished.add(done);
+      }
+   }
+}
@@ -0,0 +1,81 @@
+package com.EventBus;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test the versioned routing snapshot of SubscriberHandler: every subscription change publishes a new routing generation, while a snapshot already taken by a publisher stays unchanged.
+ */
+public class SyncEventBusRoutingSnapshotTest {
+
+   SyncEventBus bus;
+   SubscriberHandler sH;
+   int eCount;
+
+   @Before
+   public void setup() {
+      bus = new SyncEventBus();
+      sH = bus.SubscriberHandler();
+   }
+
+   @After
+   public void reset() {
+      bus = null;
+      sH = null;
+   }
+
+   @Test
+   public void testVersionPerSubscriptionChange() throws Exception {
+      long version = sH.getRoutingVersion();
+      bus.addSubscriber(this); // String & Integer subscriptions, one generation
+      assertEquals("One version per addSubscriber:", version + 1, sH.getRoutingVersion());
+      assertEquals("Subscriptions:", 2, sH.getSubscriptionCount());
+
+      bus.removeSubscriber(this);
+      assertEquals("One version per removeSubscriber:", version + 2, sH.getRoutingVersion());
+      assertEquals("Subscriptions:", 0, sH.getSubscriptionCount());
+   }
+
+   @Test
+   public void testSnapshotIsImmutable() throws Exception {
+      bus.addSubscriber(this);
+      RoutingSnapshot before = sH.getRoutingSnapshot();
+      Subscription[] stringRoute = before.getSubscriptions(String.class);
+
+      bus.addSubscriber(new Object() {
+         @Subscribe
+         public void onEvent(String event) {}
+      });
+      assertEquals("Old generation unchanged:", 1, before.getSubscriptions(String.class).length);
+      assertSame("Old generation serves the same route:", stringRoute, before.getSubscriptions(String.class));
+      assertEquals("New generation routes both:", 2, sH.getRoutingSnapshot().getSubscriptions(String.class).length);
+      assertTrue("Newer version:", sH.getRoutingSnapshot().version > before.version);
+   }
+
+   @Test
+   public void testFailedRegistrationLeavesRoutingUnchanged() throws Exception {
+      bus.addSubscriber(this);
+      long version = sH.getRoutingVersion();
+      try {
+         bus.addSubscriber(this);
+         fail("Adding twice should fail");
+      } catch (EventBusException e) {
+         assertEquals("No new generation:", version, sH.getRoutingVersion());
+      }
+      bus.publishEvent("Hello");
+      assertEquals("Delivered once:", 1, eCount);
+   }
+
+   @Subscribe
+   public void onEvent(String event) {
+      eCount++;
+   }
+
+   @Subscribe
+   public void onEvent(Integer event) {
+      eCount++;
+   }
+}
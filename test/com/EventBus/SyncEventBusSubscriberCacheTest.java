@@ -0,0 +1,68 @@
+package com.EventBus;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test the per class callback metadata cache of SubscriberHandler. Many instances of the same subscriber class should be scanned only once.
+ * (Cache counters are shared by all the buses, so the test checks the counter deltas)
+ */
+public class SyncEventBusSubscriberCacheTest {
+
+   SyncEventBus bus;
+
+   @Before
+   public void setup() {
+      bus = new SyncEventBus();
+   }
+
+   @After
+   public void reset() {
+      bus = null;
+   }
+
+   @Test
+   public void testSameClassScannedOnce() throws Exception {
+      long misses = SubscriberHandler.getMetadataCacheMisses();
+      long hits = SubscriberHandler.getMetadataCacheHits();
+
+      BookSubscriber[] books = new BookSubscriber[10];
+      for (int i = 0; i < books.length; i++) {
+         books[i] = new BookSubscriber();
+         bus.addSubscriber(books[i]);
+      }
+      assertEquals("Only the first registration is a miss:", misses + 1, SubscriberHandler.getMetadataCacheMisses());
+      assertEquals("All other registrations are hits:", hits + 9, SubscriberHandler.getMetadataCacheHits());
+      assertEquals("TotalSubscribers:", 10, bus.SubscriberHandler().getSubscriberCount());
+
+      bus.publishEvent("Quote");
+      for (BookSubscriber book : books) {
+         assertEquals("Every instance got the event:", 1, book.count);
+      }
+   }
+
+   @Test
+   public void testCachedMethodsAreShared() throws Exception {
+      SubscriberHandler sH = bus.SubscriberHandler();
+      assertSame("Cached per class:", sH.findSubscriberMethods(TradeSubscriber.class),
+              new SubscriberHandler().findSubscriberMethods(TradeSubscriber.class));
+   }
+
+   static class BookSubscriber {
+      int count;
+
+      @Subscribe
+      public void onEvent(String event) {
+         count++;
+      }
+   }
+
+   static class TradeSubscriber {
+      @Subscribe
+      public void onEvent(Integer event) {
+      }
+   }
+}
@@ -0,0 +1,69 @@
+package com.EventBus;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test the compile time Subscriber Index. The test sources are compiled with the SubscriberIndexProcessor, so the callbacks of this class are taken from the GeneratedSubscriberIndex, where as a private nested subscriber (can't be indexed) falls back to the reflective scan.
+ */
+public class SyncEventBusSubscriberIndexTest {
+
+   SyncEventBus bus;
+   String subEvent;
+   int eCount;
+
+   @Before
+   public void setup() {
+      bus = new SyncEventBus();
+   }
+
+   @After
+   public void reset() {
+      bus = null;
+   }
+
+   @Test
+   public void testIndexedSubscriberMethods() throws Exception {
+      List<SubscriberMethod> methods = bus.SubscriberHandler().findSubscriberMethods(getClass());
+      assertEquals("One Callback:", 1, methods.size());
+      assertEquals("Event Type:", String.class, methods.get(0).getEventType());
+      assertNull("Taken from the Index, not from reflection:", methods.get(0).method);
+
+      bus.addSubscriber(this);
+      bus.publishEvent("Hello");
+      assertEquals("Event:", "Hello", subEvent);
+      assertEquals("Count:", 1, eCount);
+   }
+
+   @Test
+   public void testNonIndexedSubscriberFallsBackToScan() throws Exception {
+      PrivateSubscriber subscriber = new PrivateSubscriber();
+      List<SubscriberMethod> methods = bus.SubscriberHandler().findSubscriberMethods(PrivateSubscriber.class);
+      assertEquals("One Callback:", 1, methods.size());
+      assertNotNull("Found by reflective scan:", methods.get(0).method);
+
+      bus.addSubscriber(subscriber);
+      bus.publishEvent(new Integer(10));
+      assertEquals("Event:", new Integer(10), subscriber.intEvent);
+   }
+
+   @Subscribe
+   public void onEvent(String event) {
+      subEvent = event;
+      eCount++;
+   }
+
+   private static class PrivateSubscriber {
+      Integer intEvent;
+
+      @Subscribe
+      public void onEvent(Integer event) {
+         intEvent = event;
+      }
+   }
+}